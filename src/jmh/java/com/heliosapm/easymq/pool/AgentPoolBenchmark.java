@@ -0,0 +1,141 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.pool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.ibm.mq.pcf.PCFMessageAgent;
+
+/**
+ * <p>Title: AgentPoolBenchmark</p>
+ * <p>Description: Measures borrow/return throughput of the commons-pool2 and striped agent pools with 64 contending threads.
+ * The pools hand out wrappers around unconnected agents, so no queue manager is needed and only the pool itself is measured.
+ * Both pools validate on borrow as the shipped configuration does: the commons pool on every borrow, the striped pool only
+ * for agents idle longer than <b><code>validateAfterIdleMillis</code></b>. Validation runs the factory's own check, plus
+ * <b><code>validateMicros</code></b> of parked time to model a check that makes a queue manager round trip.</p>
+ * <p>Build and run with the <b><code>jmh</code></b> profile:</p>
+ * <pre>
+ * mvn -Pjmh clean package
+ * java -cp target/easymq-1.0-SNAPSHOT.jar org.openjdk.jmh.Main AgentPoolBenchmark
+ * </pre>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.pool.AgentPoolBenchmark</code></p>
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(64)
+public class AgentPoolBenchmark {
+	/** The pool implementation */
+	@Param({SubPool.POOL_TYPE_COMMONS, SubPool.POOL_TYPE_STRIPED})
+	public String poolType;
+	/** The pool's max size, below and at the thread count */
+	@Param({"16", "64"})
+	public int maxTotal;
+
+	/** The extra time in microseconds each validation waits, 0 for the factory's own check only */
+	@Param({"0", "250"})
+	public int validateMicros;
+
+	/** The pool under test */
+	private AgentPool pool;
+
+	/**
+	 * Builds the pool and fills it to its max size
+	 * @throws Exception thrown if the pool cannot be prepared
+	 */
+	@Setup
+	public void setup() throws Exception {
+		final PoolKey key = PoolKey.poolKey("localhost", "SYSTEM.DEF.SVRCONN", 1414);
+		final PCFAgentPooledObjectFactory factory = new PCFAgentPooledObjectFactory(key) {
+			@Override
+			public PCFMessageAgentWrapper create() {
+				return new PCFMessageAgentWrapper(key, new BenchAgent(), BenchAgent.QM_NAME, true);
+			}
+			@Override
+			public boolean validateObject(final PooledObject<PCFMessageAgentWrapper> p) {
+				if(validateMicros > 0) LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(validateMicros));
+				return super.validateObject(p);
+			}
+		};
+		final GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+		config.setMaxTotal(maxTotal);
+		config.setMaxIdle(maxTotal);
+		config.setMinIdle(maxTotal);
+		config.setBlockWhenExhausted(true);
+		config.setTestOnBorrow(true);
+		config.setMaxWaitMillis(10000L);
+		config.setJmxEnabled(false);
+		pool = SubPool.POOL_TYPE_STRIPED.equals(poolType) 
+			? new StripedAgentPool(factory, config, JsonNodeFactory.instance.objectNode().put("validateAfterIdleMillis", 5000))
+			: new CommonsAgentPool(factory, config);
+		pool.preparePool();
+	}
+
+	/**
+	 * Closes the pool
+	 */
+	@TearDown
+	public void tearDown() {
+		pool.close();
+	}
+
+	/**
+	 * Borrows an agent and returns it straight away
+	 * @return the borrowed agent, so the borrow is not eliminated
+	 * @throws Exception thrown if the borrow times out
+	 */
+	@Benchmark
+	public PCFMessageAgentWrapper borrowReturn() throws Exception {
+		final PCFMessageAgentWrapper agent = pool.borrowObject();
+		pool.returnObject(agent);
+		return agent;
+	}
+
+	/**
+	 * An unconnected agent which reports a queue manager name, so the factory's validation passes
+	 */
+	static class BenchAgent extends PCFMessageAgent {
+		/** The reported queue manager name */
+		static final String QM_NAME = "BENCH";
+
+		@Override
+		public synchronized String getQManagerName() {
+			return QM_NAME;
+		}
+	}
+
+}
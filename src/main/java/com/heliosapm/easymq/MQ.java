@@ -16,23 +16,37 @@ import java.lang.management.ManagementFactory;
 import java.lang.ref.WeakReference;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
-import java.util.stream.IntStream;
 
 import javax.jms.Message;
 import javax.jms.MessageListener;
@@ -46,19 +60,30 @@ import org.slf4j.LoggerFactory;
 import com.codahale.metrics.CachedGauge;
 import com.codahale.metrics.Gauge;
 import com.heliosapm.easymq.cache.CacheService;
+import com.heliosapm.easymq.cache.CacheSnapshot;
+import com.heliosapm.easymq.cache.ChangeListener;
+import com.heliosapm.easymq.commands.PCFFilter;
+import com.heliosapm.easymq.commands.PCFFilter.ObjectType;
 import com.heliosapm.easymq.commands.QueueAttribute;
+import com.heliosapm.easymq.commands.QueueStatusTable;
 import com.heliosapm.easymq.commands.SubscriptionAttribute;
 import com.heliosapm.easymq.commands.TopicAttribute;
 import com.heliosapm.easymq.http.HttpServer;
+import com.heliosapm.easymq.pool.AdminEventConsumer.Action;
+import com.heliosapm.easymq.pool.AdminEventConsumer.ObjectChange;
+import com.heliosapm.easymq.pool.AdminEventConsumer.QueueEvent;
+import com.heliosapm.easymq.pool.MultiplexedPCFAgent;
 import com.heliosapm.easymq.pool.PCFMessageAgentWrapper;
 import com.heliosapm.easymq.pool.PoolKey;
 import com.heliosapm.easymq.pool.PoolManager;
+import com.ibm.mq.MQException;
 import com.ibm.mq.constants.CMQC;
 import com.ibm.mq.constants.CMQCFC;
 import com.ibm.mq.pcf.MQCFBS;
 import com.ibm.mq.pcf.MQCFIL;
 import com.ibm.mq.pcf.MQCFIN;
 import com.ibm.mq.pcf.MQCFST;
+import com.ibm.mq.pcf.PCFException;
 import com.ibm.mq.pcf.PCFMessage;
 import com.ibm.mq.pcf.PCFParameter;
 
@@ -92,6 +117,14 @@ public class MQ implements MessageListener, HttpSessionBindingListener {
 	protected final Logger log = LoggerFactory.getLogger(getClass());
 	/** The cache service */
 	protected final CacheService cache;
+	/** Indicates if an admin event consumer was registered to keep the caches in sync between bulk loads */
+	protected final boolean eventsMaintained;
+	/** The consumer sync time for which the queue manager's config and command event switches were last checked */
+	private volatile long eventsCheckedFor = 0L;
+	/** Indicates if the queue manager had config and command events enabled when last checked */
+	private volatile boolean changeEventsEnabled = false;
+	/** Listeners for queue depth and service interval events */
+	private final List<Consumer<QueueEvent>> queueEventListeners = new CopyOnWriteArrayList<Consumer<QueueEvent>>();
 	
 	/** A serial number for auto generated pool names */
 	private static final AtomicLong autoPoolNameSerial = new AtomicLong(0L);
@@ -102,6 +135,9 @@ public class MQ implements MessageListener, HttpSessionBindingListener {
 	/** All MQ instances keyed by key */
 	private static final ConcurrentHashMap<String, MQ> instances = new ConcurrentHashMap<String, MQ>(32, 0.75f, Runtime.getRuntime().availableProcessors()); 
 	
+	/** In-progress and completed MQ instance bootstraps keyed by key */
+	private static final ConcurrentHashMap<String, CompletableFuture<MQ>> bootstraps = new ConcurrentHashMap<String, CompletableFuture<MQ>>(32, 0.75f, Runtime.getRuntime().availableProcessors());
+	
 	/** Thread pool for dispatching async and parallel tasks across all MQ instances */
 	private static final ExecutorService threadPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
 		final AtomicInteger serial = new AtomicInteger();
@@ -113,6 +149,11 @@ public class MQ implements MessageListener, HttpSessionBindingListener {
 		}
 	});
 
+	/** The maximum number of prefix grouped inquiries issued for one bulk request before falling back to a single <b><code>*</code></b> inquiry */
+	public static final int MAX_PREFIX_GROUPS = 16;
+	/** The topic status attributes cached with each topic's definition */
+	private static final Set<TopicAttribute> TOPIC_COUNTS = Collections.unmodifiableSet(EnumSet.of(TopicAttribute.PUBLISHER_COUNT, TopicAttribute.SUBSCRIBER_COUNT));
+
 	/** The pattern for admin queue names */
 	public static final Pattern NON_ADMIN_QUEUES = Pattern.compile("SYSTEM\\..*||AMQ\\..*", Pattern.CASE_INSENSITIVE);
 	/** The pattern for admin topic names */
@@ -170,17 +211,65 @@ public class MQ implements MessageListener, HttpSessionBindingListener {
 	 * @return the MQ instance
 	 */
 	public static MQ getInstanceByKey(final String key) {
-		MQ mq = instances.get(key);
-		if(mq==null) {
-			synchronized(instances) {
-				if(mq==null) {
-					final PoolKey p = PoolKey.poolKey(key);
-					mq = new MQ(p.host, p.port, p.channel);
-					instances.put(key, mq);
-				}
+		final MQ mq = instances.get(key);
+		if(mq!=null) return mq;
+		try {
+			return bootstrap(key, Runnable::run).join();
+		} catch (CompletionException cex) {
+			final Throwable cause = cex.getCause();
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new RuntimeException("Failed to create MQ instance for key [" + key + "]", cause);
+		}
+	}
+	
+	/**
+	 * Acquires the MQ instance for the named MQ pcf pool without blocking the caller.
+	 * The queue manager identity is resolved on the pool manager's async executor and the 
+	 * returned future completes once it is known. Cache priming continues in the background.
+	 * @param poolName The MQ pcf pool look up value (a key or name)
+	 * @return a future for the MQ instance
+	 */
+	public static CompletableFuture<MQ> getInstanceAsync(final String poolName) {
+		if(poolName==null || poolName.trim().isEmpty()) throw new IllegalArgumentException("The poolName was null or empty");
+		final String key;
+		if(PoolKey.matches(poolName.trim())) {
+			key = poolName.trim();
+		} else {
+			key = PoolManager.getInstance().getKeyForName(poolName);
+			if(key==null) {
+				final CompletableFuture<MQ> f = new CompletableFuture<MQ>();
+				f.completeExceptionally(new RuntimeException("No pool named [" + poolName + "] found"));
+				return f;
 			}
 		}
-		return mq;		
+		final MQ mq = instances.get(key);
+		if(mq!=null) return CompletableFuture.completedFuture(mq);
+		return bootstrap(key, PoolManager.getInstance().getAsyncExecutor());
+	}
+	
+	/**
+	 * Creates the MQ instance for the passed key at most once, running the construction on the passed executor.
+	 * Concurrent callers for the same key share the same future, and callers for other keys are not blocked.
+	 * @param key The MQ pcf pool key
+	 * @param executor The executor to construct the instance on
+	 * @return a future for the MQ instance
+	 */
+	private static CompletableFuture<MQ> bootstrap(final String key, final Executor executor) {
+		final CompletableFuture<MQ> f = new CompletableFuture<MQ>();
+		final CompletableFuture<MQ> existing = bootstraps.putIfAbsent(key, f);
+		if(existing!=null) return existing;
+		executor.execute(() -> {
+			try {
+				final PoolKey p = PoolKey.poolKey(key);
+				final MQ mq = new MQ(p.host, p.port, p.channel);
+				instances.put(key, mq);
+				f.complete(mq);
+			} catch (Throwable t) {
+				bootstraps.remove(key, f);
+				f.completeExceptionally(t);
+			}
+		});
+		return f;
 	}
 	
 	
@@ -240,20 +329,42 @@ public class MQ implements MessageListener, HttpSessionBindingListener {
 		final String pk = poolKey.toString();
 		final String tmpPool = poolManager.getNameForKey(pk);
 		poolName = tmpPool!=null ? tmpPool : "MQPCFPool#" + autoPoolNameSerial.incrementAndGet(); 
-		PCFMessageAgentWrapper conn = null;
-		try {
-			conn = poolManager.getConnection(pk);
-			queueManager = conn.getQManagerName();
-		} finally {
-			if(conn!=null) try { conn.close(); } catch (Exception x) {/* No Op */}
-		}	
+		final MultiplexedPCFAgent mux = poolManager.getMultiplexedAgent(pk);
+		if(mux!=null) {
+			queueManager = mux.getQManagerName();
+		} else {
+			PCFMessageAgentWrapper conn = null;
+			try {
+				conn = poolManager.getConnection(pk);
+				queueManager = conn.getQManagerName();
+			} finally {
+				if(conn!=null) try { conn.close(); } catch (Exception x) {/* No Op */}
+			}	
+		}
 		cache = CacheService.getInstance();
 		initializeCaches();
+		eventsMaintained = poolManager.addObjectChangeListener(pk, this::onObjectChange);
+		if(eventsMaintained) {
+			log.info("Maintaining caches for [{}] from admin events", poolKey);
+		}
+		poolManager.addQueueEventListener(pk, this::onQueueEvent);
 		//cache.put(poolKey.toString(), "queuenames", key, value);
 	}
 	
 	protected void initializeCaches() {
-		// Load queue attributes
+		// Load queue definitions
+		threadPool.submit(new Runnable(){			
+			public void run() {
+				cache.get(poolKey.toString(), "queueDefinitions", fetchQueueDefinitions);
+			}
+		});
+		// Load topic names
+		threadPool.submit(new Runnable(){			
+			public void run() {
+				cache.get(poolKey.toString(), "topicNames", fetchTopicNames);
+			}
+		});
+		// Load queue status
 		threadPool.submit(new Runnable(){			
 			public void run() {
 				cache.get(poolKey.toString(), "queues", fetchQueues);
@@ -269,6 +380,187 @@ public class MQ implements MessageListener, HttpSessionBindingListener {
 		
 	}
 	
+	/**
+	 * Applies a queue or topic change reported by the queue manager's admin events to the instance caches.
+	 * Deletes are applied directly, creates and changes re-inquire the one object in the background.
+	 * Queue changes are applied to both the queue definition and queue status tiers.
+	 * Nothing is applied to a cache which has not been loaded yet, since its first load will see the change.
+	 * @param change The object change
+	 */
+	protected void onObjectChange(final ObjectChange change) {
+		final String pk = poolKey.toString();
+		if(change.type==ObjectType.QUEUE) {
+			if(change.action==Action.CREATE) cache.remove(pk, "notFound", notFoundKey(ObjectType.QUEUE, change.name));
+			final boolean definitions = cache.isLoaded(pk, "queueDefinitions");
+			final boolean status = cache.isLoaded(pk, "queues");
+			if(!definitions && !status) return;
+			if(change.action==Action.DELETE) {
+				if(definitions) cache.remove(pk, "queueDefinitions", change.name);
+				if(status) cache.remove(pk, "queues", change.name);
+			} else if(change.queueType==-1 || change.queueType==CMQC.MQQT_LOCAL) {
+				threadPool.execute(() -> {
+					try {
+						final Map<QueueAttribute, Object> attrs = queueAttrs(change.name);
+						if(definitions) cache.put(pk, "queueDefinitions", change.name, tier(attrs, QueueAttribute.DEFINITION_SET));
+						if(status) cache.put(pk, "queues", change.name, QueueStatusTable.single(change.name, attrs));
+					} catch (Exception ex) {
+						// not a local queue, or already deleted again
+						if(isUnknownObject(ex)) {
+							if(definitions) cache.remove(pk, "queueDefinitions", change.name);
+							if(status) cache.remove(pk, "queues", change.name);
+						} else {
+							log.debug("Failed to apply [{}] on [{}]: {}", change, poolKey, ex.toString());
+						}
+					}
+				});
+			}
+		} else if(change.type==ObjectType.TOPIC) {
+			// the topic cache is keyed by topic string, which command events do not always carry, so fall back to the name index
+			final String topicString = change.topicString!=null && !change.topicString.isEmpty() ? change.topicString : (String)cache.get(pk, "topicNames", change.name);
+			onTopicNameChange(change);
+			if(!cache.isLoaded(pk, "topics")) return;
+			if(change.action==Action.DELETE) {
+				if(topicString!=null && !topicString.isEmpty()) cache.remove(pk, "topics", topicString);
+			} else {
+				threadPool.execute(() -> {
+					try {
+						final Map<TopicAttribute, Object> entry = topicEntry(change.name);
+						// an alter may have changed the topic string
+						if(topicString!=null && !topicString.isEmpty() && (entry==null || !topicString.equals(entry.get(TopicAttribute.TSTRING)))) {
+							cache.remove(pk, "topics", topicString);
+						}
+						if(entry!=null) cache.put(pk, "topics", entry.get(TopicAttribute.TSTRING), entry);
+					} catch (Exception ex) {
+						if(isUnknownObject(ex)) {
+							if(topicString!=null && !topicString.isEmpty()) cache.remove(pk, "topics", topicString);
+						} else {
+							log.debug("Failed to apply [{}] on [{}]: {}", change, poolKey, ex.toString());
+						}
+					}
+				});
+			}
+		}
+	}
+	
+	/**
+	 * Applies a topic change reported by the queue manager's admin events to the topic name index
+	 * @param change The topic change
+	 */
+	protected void onTopicNameChange(final ObjectChange change) {
+		final String pk = poolKey.toString();
+		if(change.action==Action.CREATE) cache.remove(pk, "notFound", notFoundKey(ObjectType.TOPIC, change.name));
+		if(!cache.isLoaded(pk, "topicNames")) return;
+		if(change.action==Action.DELETE) {
+			cache.remove(pk, "topicNames", change.name);
+		} else if(change.topicString!=null) {
+			cache.put(pk, "topicNames", change.name, change.topicString);
+		} else {
+			threadPool.execute(() -> {
+				try {
+					final PCFMessage[] p = inquireTopicNames(change.name);
+					if(p.length==0) cache.remove(pk, "topicNames", change.name);
+					else cache.put(pk, "topicNames", change.name, p[0].getStringParameterValue(CMQC.MQCA_TOPIC_STRING).trim());
+				} catch (Exception ex) {
+					if(isUnknownObject(ex)) cache.remove(pk, "topicNames", change.name);
+					else log.debug("Failed to apply [{}] on [{}]: {}", change, poolKey, ex.toString());
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Handles a queue depth or service interval event reported by the queue manager's performance events.
+	 * The events do not carry the current depth, so the one queue's depth is inquired in the background,
+	 * pushed into the queues cache and passed with the event to the registered queue event listeners.
+	 * @param event The queue event
+	 */
+	protected void onQueueEvent(final QueueEvent event) {
+		final String pk = poolKey.toString();
+		threadPool.execute(() -> {
+			QueueEvent measured = event;
+			try {
+				measured = event.withDepth(queueDepth(event.queueName));
+				if(cache.isLoaded(pk, "queues")) {
+					@SuppressWarnings("unchecked")
+					final Map<QueueAttribute, Object> cached = (Map<QueueAttribute, Object>)cache.get(pk, "queues", event.queueName);
+					if(cached!=null) cache.put(pk, "queues", event.queueName, QueueStatusTable.withDepth(cached, measured.depth));
+				}
+			} catch (Exception ex) {
+				log.debug("Failed to inquire depth for [{}] on [{}]: {}", event, poolKey, ex.toString());
+			}
+			for(Consumer<QueueEvent> listener: queueEventListeners) {
+				try {
+					listener.accept(measured);
+				} catch (Exception ex) {
+					log.warn("Queue event listener failed on [{}] for {}", poolKey, measured, ex);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Registers a listener for queue depth high, low and full and service interval events on this queue manager.
+	 * Events are only reported when the pool's admin event consumer is enabled and the queue manager has
+	 * performance events enabled. The event's depth is the depth inquired when the event was handled.
+	 * @param listener The listener
+	 */
+	public void addQueueEventListener(final Consumer<QueueEvent> listener) {
+		if(listener!=null) queueEventListeners.add(listener);
+	}
+	
+	/**
+	 * Watches the queues and topics of this queue manager for changes. Each refresh or event driven update
+	 * of the queue status and topic caches is compared once with the prior contents, and the listener receives
+	 * only the entries which changed, with only the attributes which changed, e.g. a queue depth going from 10 to 5000.
+	 * New and removed queues and topics are reported with all their attributes. Entries only dropped from the caches
+	 * by expiry, eviction or the heap budget are not reported as removed.
+	 * @param queueFilter The filter on queue names and topic strings, null to watch all
+	 * @param listener The listener
+	 */
+	public void watch(final Pattern queueFilter, final ChangeListener listener) {
+		final String pk = poolKey.toString();
+		final Predicate<Object> filter = queueFilter==null ? null : key -> queueFilter.matcher(key.toString()).matches();
+		cache.addChangeListener(pk, "queues", filter, listener);
+		cache.addChangeListener(pk, "topics", filter, listener);
+	}
+	
+	/**
+	 * Stops a listener registered with {@link #watch(Pattern, ChangeListener)}
+	 * @param listener The listener
+	 */
+	public void unwatch(final ChangeListener listener) {
+		final String pk = poolKey.toString();
+		cache.removeChangeListener(pk, "queues", listener);
+		cache.removeChangeListener(pk, "topics", listener);
+	}
+	
+	/**
+	 * Returns the cached definitions of all local queues, loading the cache if it is empty.
+	 * Definitions are refreshed on the definition tier's schedule, independently of queue status.
+	 * @return the queue definition attributes keyed by queue name
+	 */
+	public CacheSnapshot<String, Map<QueueAttribute, Object>> queueDefinitionSnapshot() {
+		return cache.get(poolKey.toString(), "queueDefinitions", fetchQueueDefinitions);
+	}
+	
+	/**
+	 * Returns the cached attributes of all local queues, loading the cache if it is empty.
+	 * The returned snapshot is immutable and shared with other readers until the cache changes.
+	 * @return the queue attributes keyed by queue name
+	 */
+	public CacheSnapshot<String, Map<QueueAttribute, Object>> queueSnapshot() {
+		return cache.get(poolKey.toString(), "queues", fetchQueues);
+	}
+	
+	/**
+	 * Returns the cached definitions and publisher and subscriber counts of all topics, loading the cache if it is empty.
+	 * The returned snapshot is immutable and shared with other readers until the cache changes.
+	 * @return the topic attributes keyed by topic string
+	 */
+	public CacheSnapshot<String, Map<TopicAttribute, Object>> topicSnapshot() {
+		return cache.get(poolKey.toString(), "topics", fetchTopics);
+	}
+	
 	/**
 	 * Returns the pool key
 	 * @return the pool key
@@ -304,7 +596,55 @@ public class MQ implements MessageListener, HttpSessionBindingListener {
 	}
 	
 	
-	/** Callable to return all queue info */
+	/** Callable to return the definitions of all local queues */
+	private final Callable<Map<?, ?>> fetchQueueDefinitions = new Callable<Map<?, ?>>() {
+		@Override
+		public Map<String, Map<QueueAttribute, Object>> call() throws Exception {
+			final long startTime = System.currentTimeMillis();
+			try {
+				final PCFMessage[] qDefPcfs = pcfList(CMQCFC.MQCMD_INQUIRE_Q, 
+						new MQCFST(CMQC.MQCA_Q_NAME, "*"),
+						new MQCFIN(CMQC.MQIA_Q_TYPE, CMQC.MQQT_LOCAL),
+						new MQCFIL(CMQCFC.MQIACF_Q_ATTRS, QueueAttribute.pcfAttributes(QueueAttribute.DEFINITION_SET))
+					);
+				final Map<String, Map<QueueAttribute, Object>> qDefs = new HashMap<String, Map<QueueAttribute, Object>>(qDefPcfs.length);
+				for(PCFMessage p: qDefPcfs) {
+					final Map<QueueAttribute, Object> def = QueueAttribute.extractQueueAttributes(MQ.this, QueueAttribute.DEFINITION_SET, p);
+					qDefs.put((String)def.get(QueueAttribute.NAME), def);
+				}
+				final long elapsed = System.currentTimeMillis() - startTime;
+				log.info("Loaded Queue Definition Cache, Size: {}, Elapsed: {}", qDefs.size(), elapsed);
+				return qDefs;
+			} catch (Exception ex) {
+				log.error("Failed to initialize queue definition cache on [{}]", poolKey, ex);
+				throw ex;
+			}
+		}
+	};
+	
+	/** Callable to return the topic strings of all topics keyed by topic name, the topic existence index */
+	private final Callable<Map<?, ?>> fetchTopicNames = new Callable<Map<?, ?>>() {
+		@Override
+		public Map<String, String> call() throws Exception {
+			final long startTime = System.currentTimeMillis();
+			try {
+				final PCFMessage[] p = inquireTopicNames("*");
+				final Map<String, String> topicNames = new HashMap<String, String>(p.length);
+				for(PCFMessage t: p) {
+					final String topicString = t.getStringParameterValue(CMQC.MQCA_TOPIC_STRING);
+					topicNames.put(t.getStringParameterValue(CMQC.MQCA_TOPIC_NAME).trim(), topicString==null ? "" : topicString.trim());
+				}
+				final long elapsed = System.currentTimeMillis() - startTime;
+				log.info("Loaded Topic Name Cache, Size: {}, Elapsed: {}", topicNames.size(), elapsed);
+				return topicNames;
+			} catch (Exception ex) {
+				log.error("Failed to initialize topic name cache on [{}]", poolKey, ex);
+				throw ex;
+			}
+		}
+	};
+	
+	/** Callable to return the status of all local queues. Only the status attributes are requested. */
 	private final Callable<Map<?, ?>> fetchQueues = new Callable<Map<?, ?>>() {
 		@Override
 		public Map<String, Map<QueueAttribute, Object>> call() throws Exception {
@@ -312,16 +652,10 @@ public class MQ implements MessageListener, HttpSessionBindingListener {
 			try {
 				final PCFMessage[] qAttrPcfs = pcfList(CMQCFC.MQCMD_INQUIRE_Q_STATUS, 
 						new MQCFST(CMQC.MQCA_Q_NAME, "*"),
-						new MQCFIN(CMQC.MQIA_Q_TYPE, CMQC.MQQT_LOCAL)
+						new MQCFIN(CMQC.MQIA_Q_TYPE, CMQC.MQQT_LOCAL),
+						new MQCFIL(CMQCFC.MQIACF_Q_STATUS_ATTRS, QueueAttribute.pcfAttributes(QueueAttribute.STATUS_SET))
 					);
-				final Map<String, Map<QueueAttribute, Object>> qAttrs = new ConcurrentHashMap<String, Map<QueueAttribute, Object>>(qAttrPcfs.length, 0.75f, CORES); 
-				Arrays.stream(qAttrPcfs).parallel().forEach(q -> {
-					final Map<QueueAttribute, Object> attrMap = QueueAttribute.extractQueueAttributes(MQ.this,  q);
-					final String queueName = (String)attrMap.get(QueueAttribute.NAME); 
-					qAttrs.put(queueName, attrMap);
-					cache.put(poolKey.toString(), "queues", queueName, attrMap);
-				});
-				
+				final QueueStatusTable qAttrs = QueueStatusTable.from(MQ.this, qAttrPcfs);
 				final int size = qAttrs.size();
 				final long elapsed = System.currentTimeMillis() - startTime;
 				log.info("Loaded Queue Cache, Size: {}, Elapsed: {}", size, elapsed);
@@ -333,108 +667,27 @@ public class MQ implements MessageListener, HttpSessionBindingListener {
 		}
 	};
 	
-	/** Callable to return all topic info */
+	/** Callable to return the definitions and publisher and subscriber counts of all topics keyed by topic string */
 	private final Callable<Map<?, ?>> fetchTopics = new Callable<Map<?, ?>>() {
 		@Override
 		public Map<String, Map<TopicAttribute, Object>> call() throws Exception {
 			final long startTime = System.currentTimeMillis();
-			final PCFMessage topicInfo = new PCFMessage(CMQCFC.MQCMD_INQUIRE_TOPIC);
-			final PCFMessage topicStatus = new PCFMessage(CMQCFC.MQCMD_INQUIRE_TOPIC_STATUS);
-			final PCFMessage topicSub = new PCFMessage(CMQCFC.MQCMD_INQUIRE_TOPIC_STATUS);
-			final PCFMessage topicPub = new PCFMessage(CMQCFC.MQCMD_INQUIRE_TOPIC_STATUS);
 			try {
-				topicStatus.addParameter(new MQCFST(CMQC.MQCA_TOPIC_STRING, "#"));
-				topicStatus.addParameter(new MQCFIN(CMQCFC.MQIACF_TOPIC_STATUS_TYPE, CMQCFC.MQIACF_TOPIC_STATUS));
-				final PCFMessage[] topicInfos = pcfList(topicStatus);
-				
-				final Map<String, Map<TopicAttribute, Object>> topicAttrs = new ConcurrentHashMap<String, Map<TopicAttribute, Object>>(topicInfos.length, 0.75f, CORES);
-				Arrays.stream(topicInfos).parallel().forEach(tinfo -> {
-					final StringBuffer b = new StringBuffer();
-					final Map<TopicAttribute, Object> attrMap = 
-							TopicAttribute.extractTopicAttributes(MQ.this, CMQCFC.MQIACF_TOPIC_STATUS, tinfo);
-					for(Map.Entry<TopicAttribute, Object> entry: attrMap.entrySet()) {
-						b.append("\n\t").append(entry.getKey()).append(":[").append(entry.getValue()).append("]");
-					}
-					b.append("\n\tMsg:[").append(tinfo).append("]");
-					b.append("\n\t=========");
-					log.info(b.toString());
-
-				});
-				
-//				topicInfo.addParameter(new MQCFST(CMQC.MQCA_TOPIC_NAME, "*"));
-//				final PCFMessage[] topicInfos = pcfList(topicInfo);
-//				final Map<String, Map<TopicAttribute, Object>> topicAttrs = new ConcurrentHashMap<String, Map<TopicAttribute, Object>>(topicInfos.length, 0.75f, CORES);
-//				Arrays.stream(topicInfos).forEach(tinfo -> {
-//					final StringBuffer b = new StringBuffer();
-//					final Map<TopicAttribute, Object> attrMap = TopicAttribute.extractTopicAttributes(MQ.this, CMQCFC.MQCMD_INQUIRE_TOPIC, tinfo);
-//					final String topicName = (String)attrMap.get(TopicAttribute.NAME);
-//					final String topicString = (String)attrMap.get(TopicAttribute.TSTRING);
-//					b.append("TOPIC:  name:[").append(topicName).append("], string:[").append(topicString).append("]");
-//					for(Map.Entry<TopicAttribute, Object> entry: attrMap.entrySet()) {
-//						b.append("\n\t").append(entry.getKey()).append(":[").append(entry.getValue()).append("]");
-//					}
-//					
-//					try {
-//						final PCFMessage topicStatus = new PCFMessage(CMQCFC.MQCMD_INQUIRE_TOPIC_STATUS);
-//						topicStatus.addParameter(new MQCFST(CMQC.MQCA_TOPIC_STRING, topicString.isEmpty() ? padName(topicName) : topicString));
-//						topicStatus.addParameter(new MQCFIN(CMQCFC.MQIACF_TOPIC_STATUS_TYPE, CMQCFC.MQIACF_TOPIC_STATUS));
-//						final PCFMessage[] topicStatusResponse = pcfList(topicStatus);
-//						final Map<TopicAttribute, Object> statusMap = TopicAttribute.extractTopicAttributes(
-//								MQ.this, CMQCFC.MQCMD_INQUIRE_TOPIC_STATUS, topicStatusResponse);
-//						for(Map.Entry<TopicAttribute, Object> entry: statusMap.entrySet()) {
-//							b.append("\n\t").append(entry.getKey()).append(":[").append(entry.getValue()).append("]");
-//						}
-//					} catch (Exception x) {}
-//					log.info(b.toString());
-//
-//				});
-				
-				
-				
-//				//--
-//				topicStatus.addParameter(new MQCFST(CMQC.MQCA_TOPIC_STRING, "#"));
-//				topicStatus.addParameter(new MQCFIN(CMQCFC.MQIACF_TOPIC_STATUS_TYPE, CMQCFC.MQIACF_TOPIC_STATUS));
-//				//--
-//				topicSub.addParameter(new MQCFST(CMQC.MQCA_TOPIC_STRING, "#"));
-//				topicSub.addParameter(new MQCFIN(CMQCFC.MQIACF_TOPIC_STATUS_TYPE, CMQCFC.MQIACF_TOPIC_SUB));
-//				//--
-//				topicPub.addParameter(new MQCFST(CMQC.MQCA_TOPIC_STRING, "#"));
-//				topicPub.addParameter(new MQCFIN(CMQCFC.MQIACF_TOPIC_STATUS_TYPE, CMQCFC.MQIACF_TOPIC_PUB));
-//				
-//				
-//				
-//				final Map<Integer, PCFMessage[]> responses = new ConcurrentHashMap<Integer, PCFMessage[]>(4);
-//				final PCFMessage[] requests = new PCFMessage[] {topicInfo, topicStatus, topicSub, topicPub};
-//				
-//				final Map<String, String> topicStrings = new HashMap<String, String>(128);
-//				final CountDownLatch latch = new CountDownLatch(1);
-//				IntStream.range(0, requests.length).parallel().forEach(idx -> {
-//					final PCFMessage request = requests[idx];					
-//					final PCFMessage[] response = pcfList(requests[idx]);
-//					if(request.getCommand()==CMQCFC.MQCMD_INQUIRE_TOPIC) {
-//						final Map<TopicAttribute, Object> attrMap = TopicAttribute.extractTopicAttributes(MQ.this, CMQCFC.MQCMD_INQUIRE_TOPIC, response);
-//						final String topicName = (String)attrMap.get(TopicAttribute.TSTRING); 
-//						topicAttrs.put(topicName, attrMap);
-//						cache.put(poolKey.toString(), "topics", topicName, attrMap);
-//						latch.countDown();
-//					} else {
-//						int statusType = idx==1 ? CMQCFC.MQIACF_TOPIC_STATUS : idx==2 ? CMQCFC.MQIACF_TOPIC_SUB : CMQCFC.MQIACF_TOPIC_PUB;
-//						final Map<TopicAttribute, Object> attrMap = TopicAttribute.extractTopicAttributes(MQ.this, statusType, response);
-//						try {
-//							if(!latch.await(10, TimeUnit.SECONDS)) throw new RuntimeException("Timed out waiting for topic name lookup on [" + poolKey + "]");
-//						} catch (InterruptedException e) {
-//							throw new RuntimeException("Interrupted while waiting for topic name lookup on [" + poolKey + "]");
-//						}
-//						
-//						final String topicName = (String)attrMap.get(TopicAttribute.TSTRING); 
-//						topicAttrs.get(topicName).putAll(attrMap);
-//						
-//					}
-//				});
-//				logger.info("[{}] commands completed in [{}] ms.", responses.size(), System.currentTimeMillis() - startTime);
-//				final int size = topicAttrs.size();
-//				final long elapsed = System.currentTimeMillis() - startTime;
-//				logger.info("Loaded Topic Cache, Size: {}, Elapsed: {}", size, elapsed);
+				final PCFMessage[] definitions = inquireTopicDefinitions("*");
+				final PCFMessage[] statuses = pcfList(topicStatusRequest("#", CMQCFC.MQIACF_TOPIC_STATUS, TOPIC_COUNTS, TOPIC_COUNTS));
+				final Map<String, PCFMessage> statusByString = new HashMap<String, PCFMessage>(statuses.length);
+				for(PCFMessage status: statuses) {
+					statusByString.put(topicString(status), status);
+				}
+				final Map<String, Map<TopicAttribute, Object>> topicAttrs = new HashMap<String, Map<TopicAttribute, Object>>(definitions.length);
+				for(PCFMessage definition: definitions) {
+					final String topicString = topicString(definition);
+					// topics without a topic string, such as the base topic, cannot be looked up by one
+					if(topicString.isEmpty()) continue;
+					topicAttrs.put(topicString, topicEntry(definition, statusByString.get(topicString)));
+				}
+				final long elapsed = System.currentTimeMillis() - startTime;
+				log.info("Loaded Topic Cache, Size: {}, Elapsed: {}", topicAttrs.size(), elapsed);
 				return topicAttrs;
 			} catch (Exception ex) {
 				log.error("Failed to initialize topic cache on [{}]", poolKey, ex);
@@ -443,24 +696,81 @@ public class MQ implements MessageListener, HttpSessionBindingListener {
 		}
 	};
 	
+	/**
+	 * Builds a topics cache entry from a topic's definition and topic status
+	 * @param definition The topic inquiry response
+	 * @param status The topic status inquiry response for the topic's string, or null if there was none
+	 * @return the topic definition attributes and publisher and subscriber counts
+	 * @throws PCFException thrown if the definition has no topic string
+	 */
+	private Map<TopicAttribute, Object> topicEntry(final PCFMessage definition, final PCFMessage status) throws PCFException {
+		final Map<TopicAttribute, Object> entry = TopicAttribute.extractTopicAttributes(this, TopicAttribute.DEFINITION_SET, CMQCFC.MQCMD_INQUIRE_TOPIC, definition);
+		entry.put(TopicAttribute.TSTRING, topicString(definition));
+		if(status!=null) {
+			entry.putAll(TopicAttribute.extractTopicAttributes(this, TOPIC_COUNTS, CMQCFC.MQIACF_TOPIC_STATUS, status));
+		}
+		return entry;
+	}
+	
+	/**
+	 * Inquires the topics cache entry of one topic
+	 * @param topicName The topic name
+	 * @return the topic definition attributes and publisher and subscriber counts, or null if the topic does not exist or has no topic string
+	 * @throws PCFException thrown if a response cannot be read
+	 */
+	private Map<TopicAttribute, Object> topicEntry(final String topicName) throws PCFException {
+		final PCFMessage[] definitions = inquireTopicDefinitions(topicName);
+		if(definitions.length==0) return null;
+		final String topicString = topicString(definitions[0]);
+		if(topicString.isEmpty()) return null;
+		final PCFMessage[] statuses = pcfList(topicStatusRequest(topicString, CMQCFC.MQIACF_TOPIC_STATUS, TOPIC_COUNTS, TOPIC_COUNTS));
+		return topicEntry(definitions[0], statuses.length==0 ? null : statuses[0]);
+	}
+	
+	private static String topicString(final PCFMessage p) throws PCFException {
+		final String topicString = p.getStringParameterValue(CMQC.MQCA_TOPIC_STRING);
+		return topicString==null ? "" : topicString.trim();
+	}
+	
 	
 	protected PCFMessage[] pcfList(final int commandType, final PCFParameter...params) {
-		PCFMessageAgentWrapper conn = null;
-		try {
-			conn = poolManager.getConnection(poolKey.toString());
-			final PCFMessage request = new PCFMessage(commandType);
-			for(PCFParameter p: params) {
-				request.addParameter(p);
-			}
-			return conn.send(request);
-		} catch (Exception ex) {
-			throw new RuntimeException("PCF Exception", ex);
-		} finally {
-			if(conn!=null) try { conn.close(); } catch (Exception x) {/* No Op */}
+		final PCFMessage request = new PCFMessage(commandType);
+		for(PCFParameter p: params) {
+			request.addParameter(p);
 		}
+		return pcfList(request);
 	}
 	
+	/**
+	 * Sends a pcf request. Identical requests issued concurrently against this queue manager share one round trip.
+	 * @param request The pcf request
+	 * @return the array of PCF response messages
+	 */
 	protected PCFMessage[] pcfList(final PCFMessage request) {
+		return poolManager.getCoalescer().execute(poolKey, request, () -> send(request));
+	}
+	
+	/**
+	 * Sends a pcf request without coalescing
+	 * @param request The pcf request
+	 * @return the array of PCF response messages
+	 */
+	private PCFMessage[] send(final PCFMessage request) {
+		if(poolManager.isHedged(poolKey.toString(), request.getCommand())) {
+			try {
+				return poolManager.sendAsync(poolKey.toString(), request).join();
+			} catch (CompletionException cex) {
+				throw new RuntimeException("PCF Exception", cex.getCause());
+			}
+		}
+		final MultiplexedPCFAgent mux = poolManager.getMultiplexedAgent(poolKey.toString());
+		if(mux!=null) {
+			try {
+				return mux.send(request);
+			} catch (Exception ex) {
+				throw new RuntimeException("PCF Exception", ex);
+			}
+		}
 		PCFMessageAgentWrapper conn = null;
 		try {
 			conn = poolManager.getConnection(poolKey.toString());
@@ -473,15 +783,163 @@ public class MQ implements MessageListener, HttpSessionBindingListener {
 		
 	}
 	
+	/**
+	 * Sends a pcf request asynchronously
+	 * @param commandType The pcf command type
+	 * @param params The request parameters
+	 * @return a future for the array of PCF response messages
+	 */
+	protected CompletableFuture<PCFMessage[]> pcfListAsync(final int commandType, final PCFParameter...params) {
+		final PCFMessage request = new PCFMessage(commandType);
+		for(PCFParameter p: params) {
+			request.addParameter(p);
+		}
+		return pcfListAsync(request);
+	}
+	
+	/**
+	 * Sends a pcf request asynchronously. Dependent stages should not block since 
+	 * the future may be completed on a multiplexed agent's reader thread.
+	 * @param request The pcf request
+	 * @return a future for the array of PCF response messages
+	 */
+	protected CompletableFuture<PCFMessage[]> pcfListAsync(final PCFMessage request) {
+		return poolManager.sendAsync(poolKey.toString(), request);
+	}
+	
+	/**
+	 * Asynchronously returns the queue depth for the named queue
+	 * @param queueName The queue name
+	 * @return a future for the queue depth
+	 */
+	public CompletableFuture<Integer> queueDepthAsync(final String queueName) {
+		return pcfListAsync(CMQCFC.MQCMD_INQUIRE_Q_STATUS, 
+				new MQCFST(CMQC.MQCA_Q_NAME, queueName)
+			).thenApplyAsync(p -> {
+				try {
+					return p[0].getIntParameterValue(CMQC.MQIA_CURRENT_Q_DEPTH);
+				} catch (Exception ex) {
+					throw new RuntimeException("Failed to get queue depth for [" + queueName + "]", ex);
+				}
+			}, threadPool);
+	}
+	
+	/**
+	 * Asynchronously returns the queue attributes for the named queue
+	 * @param queueName The queue name
+	 * @return a future for the queue attributes in a name/value map
+	 */
+	public CompletableFuture<Map<QueueAttribute, Object>> queueAttrsAsync(final String queueName) {
+		return queueAttrsAsync(queueName, QueueAttribute.VALUE_SET);
+	}
+	
+	/**
+	 * Asynchronously returns the requested queue attributes for the named queue
+	 * @param queueName The queue name
+	 * @param fields The attributes to return. Only these are requested from the queue manager, status attributes with a
+	 * queue status inquiry and definition attributes with a queue inquiry.
+	 * @return a future for the queue attributes in a name/value map
+	 */
+	public CompletableFuture<Map<QueueAttribute, Object>> queueAttrsAsync(final String queueName, final Set<QueueAttribute> fields) {
+		final Set<QueueAttribute> f = fields(fields, QueueAttribute.VALUE_SET);
+		final Set<QueueAttribute> status = QueueAttribute.within(f, QueueAttribute.STATUS_SET);
+		final Set<QueueAttribute> definition = QueueAttribute.within(f, QueueAttribute.DEFINITION_SET);
+		final CompletableFuture<Map<QueueAttribute, Object>> statusAttrs = !QueueAttribute.needsStatus(f) ? 
+			CompletableFuture.completedFuture(Collections.emptyMap()) :
+			pcfListAsync(queueStatusRequest(padName(queueName), status))
+				.thenApplyAsync(p -> QueueAttribute.extractQueueAttributes(this, status, p), threadPool);
+		final CompletableFuture<Map<QueueAttribute, Object>> definitionAttrs = !QueueAttribute.needsDefinition(f) ? 
+			CompletableFuture.completedFuture(Collections.emptyMap()) :
+			pcfListAsync(queueDefinitionRequest(padName(queueName), definition))
+				.thenApplyAsync(p -> QueueAttribute.extractQueueAttributes(this, definition, p), threadPool);
+		return statusAttrs.thenCombine(definitionAttrs, (s, d) -> {
+			final Map<QueueAttribute, Object> attrs = new EnumMap<QueueAttribute, Object>(QueueAttribute.class);
+			attrs.putAll(s);
+			attrs.putAll(d);
+			return attrs;
+		});
+	}
+	
+	/**
+	 * Asynchronously returns the topic attributes for the named topic.
+	 * The publisher and subscriber inquiries are issued concurrently once the topic status is known.
+	 * @param topicName The topic name
+	 * @return a future for the topic attributes in a name/value map
+	 */
+	public CompletableFuture<Map<TopicAttribute, Object>> topicAttrsAsync(final String topicName) {
+		return pcfListAsync(CMQCFC.MQCMD_INQUIRE_TOPIC_STATUS, 
+				new MQCFST(CMQC.MQCA_TOPIC_STRING, topicName), 
+				new MQCFIN(CMQCFC.MQIACF_TOPIC_STATUS_TYPE, CMQCFC.MQIACF_TOPIC_STATUS)
+			).thenComposeAsync(p -> {
+				final Map<TopicAttribute, Object> attrMap = TopicAttribute.extractTopicAttributes(this, CMQCFC.MQIACF_TOPIC_STATUS, p);
+				final int subs = count(attrMap.get(TopicAttribute.SUBSCRIBER_COUNT));
+				final int pubs = count(attrMap.get(TopicAttribute.PUBLISHER_COUNT));
+				final CompletableFuture<Map<TopicAttribute, Object>> pubAttrs = pubs > 0 ? 
+					topicStatusAsync(topicName, CMQCFC.MQIACF_TOPIC_PUB) : CompletableFuture.completedFuture(Collections.emptyMap());
+				final CompletableFuture<Map<TopicAttribute, Object>> subAttrs = subs > 0 ? 
+					topicStatusAsync(topicName, CMQCFC.MQIACF_TOPIC_SUB) : CompletableFuture.completedFuture(Collections.emptyMap());
+				return pubAttrs.thenCombine(subAttrs, (pa, sa) -> {
+					attrMap.putAll(pa);
+					attrMap.putAll(sa);
+					return attrMap;
+				});
+			}, threadPool);
+	}
+	
+	private CompletableFuture<Map<TopicAttribute, Object>> topicStatusAsync(final String topicName, final int statusType) {
+		return pcfListAsync(CMQCFC.MQCMD_INQUIRE_TOPIC_STATUS, 
+				new MQCFST(CMQC.MQCA_TOPIC_STRING, topicName), 
+				new MQCFIN(CMQCFC.MQIACF_TOPIC_STATUS_TYPE, statusType)
+			).thenApplyAsync(p -> TopicAttribute.extractTopicAttributes(this, statusType, p), threadPool);
+	}
+	
+	/**
+	 * Asynchronously returns the subscription attributes for the named subscription.
+	 * The subscription and subscription status inquiries are issued concurrently.
+	 * @param subName The subscription name
+	 * @return a future for the subscription attributes in a name/value map
+	 */
+	public CompletableFuture<Map<SubscriptionAttribute, Object>> subscriptionAttrsAsync(final String subName) {
+		final CompletableFuture<Map<SubscriptionAttribute, Object>> sub = pcfListAsync(CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION, 
+				new MQCFST(CMQCFC.MQCACF_SUB_NAME, subName) 
+			).thenApplyAsync(p -> SubscriptionAttribute.extractSubscriptionAttributes(this, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION, p), threadPool);
+		final CompletableFuture<Map<SubscriptionAttribute, Object>> status = subStatusAsync(subName);
+		return sub.thenCombine(status, (attrMap, statusMap) -> {
+			attrMap.putAll(statusMap);
+			return attrMap;
+		});
+	}
+	
+	/**
+	 * Asynchronously returns the subscription attributes for the subscription with the passed id
+	 * @param subId The subscription id
+	 * @return a future for the subscription attributes in a name/value map
+	 */
+	public CompletableFuture<Map<SubscriptionAttribute, Object>> subscriptionAttrsAsync(final byte[] subId) {
+		return pcfListAsync(CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION, 
+				new MQCFBS(CMQCFC.MQBACF_SUB_ID, subId) 
+			).thenApplyAsync(p -> SubscriptionAttribute.extractSubscriptionAttributes(this, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION, p), threadPool)
+			.thenCompose(attrMap -> subStatusAsync((String)attrMap.get(SubscriptionAttribute.NAME))
+				.thenApply(statusMap -> {
+					attrMap.putAll(statusMap);
+					return attrMap;
+				})
+			);
+	}
+	
+	private CompletableFuture<Map<SubscriptionAttribute, Object>> subStatusAsync(final String subName) {
+		return pcfListAsync(CMQCFC.MQCMD_INQUIRE_SUB_STATUS, 
+				new MQCFST(CMQCFC.MQCACF_SUB_NAME, subName)
+			).thenApplyAsync(p -> SubscriptionAttribute.extractSubscriptionAttributes(this, CMQCFC.MQCMD_INQUIRE_SUB_STATUS, p), threadPool);
+	}
+	
 	/**
 	 * Returns the queue depth for the named queue
 	 * @param queueName The queue name
 	 * @return The queue depth
 	 */
 	public int queueDepth(final String queueName) {
-		final PCFMessage p = pcfList(CMQCFC.MQCMD_INQUIRE_Q_STATUS, 
-				new MQCFST(CMQC.MQCA_Q_NAME, queueName)
-			)[0];
+		final PCFMessage p = pcfList(queueStatusRequest(queueName, EnumSet.of(QueueAttribute.QUEUE_DEPTH)))[0];
 		try {
 			return p.getIntParameterValue(CMQC.MQIA_CURRENT_Q_DEPTH);
 		} catch (Exception ex) {
@@ -529,11 +987,12 @@ public class MQ implements MessageListener, HttpSessionBindingListener {
 			} catch (Exception ex) {
 				return Collections.emptyMap();
 			}
-			if(((Integer)topicAttrs.get(TopicAttribute.SUBSCRIBER_COUNT)).intValue()==0) {
+			if(count(topicAttrs.get(TopicAttribute.SUBSCRIBER_COUNT))==0) {
 				return Collections.emptyMap();
 			}
 			@SuppressWarnings("unchecked")
 			final Map<String, byte[]> subIds = (Map<String, byte[]>)topicAttrs.get(TopicAttribute.SUB_SUBSCRIPTION_ID_BYTES); 
+			if(subIds==null) return Collections.emptyMap();
 			
 			final Map<String, byte[]> map = new HashMap<String, byte[]>(subIds.size());			
 			for(byte[] id: subIds.values()) {
@@ -560,50 +1019,340 @@ public class MQ implements MessageListener, HttpSessionBindingListener {
 	 * @return The queue attributes in a name/value map
 	 */
 	public Map<QueueAttribute, Object> queueAttrs(final String queueName) {
-		final PCFMessage[] p = pcfList(CMQCFC.MQCMD_INQUIRE_Q_STATUS, 
-				new MQCFST(CMQC.MQCA_Q_NAME, padName(queueName))
-			);
+		return queueAttrs(queueName, QueueAttribute.VALUE_SET);
+	}
+	
+	/**
+	 * Returns the requested queue attributes for the named queue
+	 * @param queueName The queue name
+	 * @param fields The attributes to return. Only these are requested from the queue manager.
+	 * @return The queue attributes in a name/value map
+	 */
+	public Map<QueueAttribute, Object> queueAttrs(final String queueName, final Set<QueueAttribute> fields) {
+		final Set<QueueAttribute> f = fields(fields, QueueAttribute.VALUE_SET);
 		try {
-			return QueueAttribute.extractQueueAttributes(this, p);
+			final Map<QueueAttribute, Object> attrs = new EnumMap<QueueAttribute, Object>(QueueAttribute.class);
+			if(QueueAttribute.needsStatus(f)) {
+				final Set<QueueAttribute> status = QueueAttribute.within(f, QueueAttribute.STATUS_SET);
+				attrs.putAll(QueueAttribute.extractQueueAttributes(this, status, pcfList(queueStatusRequest(padName(queueName), status))));
+			}
+			if(QueueAttribute.needsDefinition(f)) {
+				final Set<QueueAttribute> definition = QueueAttribute.within(f, QueueAttribute.DEFINITION_SET);
+				attrs.putAll(QueueAttribute.extractQueueAttributes(this, definition, pcfList(queueDefinitionRequest(padName(queueName), definition))));
+			}
+			return attrs;
 		} catch (Exception ex) {
 			throw new RuntimeException("Failed to get queue attributes for [" + queueName.trim() + "]", ex);
 		}		
 	}
 	
+	/**
+	 * Returns the queue attributes for the named queues using one queue status inquiry per queue name prefix group
+	 * @param queueNames The queue names
+	 * @return The queue attributes in a name/value map keyed by queue name. Queues which do not exist are omitted.
+	 */
+	public Map<String, Map<QueueAttribute, Object>> queueAttrs(final Collection<String> queueNames) {
+		return queueAttrs(queueNames, QueueAttribute.VALUE_SET);
+	}
+	
+	/**
+	 * Returns the requested queue attributes for the named queues using one queue status inquiry per queue name prefix group,
+	 * and one queue inquiry per group if definition attributes are requested
+	 * @param queueNames The queue names
+	 * @param fields The attributes to return. Only these are requested from the queue manager.
+	 * @return The queue attributes in a name/value map keyed by queue name. Queues which do not exist are omitted.
+	 */
+	public Map<String, Map<QueueAttribute, Object>> queueAttrs(final Collection<String> queueNames, final Set<QueueAttribute> fields) {
+		final Set<QueueAttribute> f = fields(fields, QueueAttribute.VALUE_SET);
+		final Map<String, Map<QueueAttribute, Object>> attrs = new HashMap<String, Map<QueueAttribute, Object>>();
+		final NavigableSet<String> names = new TreeSet<String>();
+		if(QueueAttribute.needsStatus(f)) {
+			final Set<QueueAttribute> status = QueueAttribute.within(f, QueueAttribute.STATUS_SET);
+			collect(attrs, names, status, queueStatus(queueNames, names, status));
+		}
+		if(QueueAttribute.needsDefinition(f)) {
+			final Set<QueueAttribute> definition = QueueAttribute.within(f, QueueAttribute.DEFINITION_SET);
+			collect(attrs, names, definition, queueInquiry(queueNames, names, name -> queueDefinitionRequest(name, definition)));
+		}
+		return attrs;
+	}
+	
+	/**
+	 * Extracts the requested attributes of the requested queues from queue or queue status responses
+	 * and merges them into the passed attribute maps
+	 * @param attrs The queue attributes keyed by queue name
+	 * @param names The requested queue names
+	 * @param fields The attributes to extract
+	 * @param responses The responses, which may include queues which were not requested
+	 */
+	private void collect(final Map<String, Map<QueueAttribute, Object>> attrs, final Set<String> names, final Set<QueueAttribute> fields, final List<PCFMessage> responses) {
+		for(PCFMessage p: responses) {
+			try {
+				final String queueName = p.getStringParameterValue(CMQC.MQCA_Q_NAME).trim();
+				if(names.contains(queueName)) {
+					attrs.computeIfAbsent(queueName, k -> new EnumMap<QueueAttribute, Object>(QueueAttribute.class))
+						.putAll(QueueAttribute.extractQueueAttributes(this, fields, p));
+				}
+			} catch (Exception ex) {
+				throw new RuntimeException("Failed to read queue attributes", ex);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the queue depths for the named queues using one queue status inquiry per queue name prefix group
+	 * @param queueNames The queue names
+	 * @return The queue depths keyed by queue name. Queues which do not exist are omitted.
+	 */
+	public Map<String, Integer> queueDepths(final Collection<String> queueNames) {
+		final Map<String, Integer> depths = new HashMap<String, Integer>();
+		final NavigableSet<String> names = new TreeSet<String>();
+		for(PCFMessage p: queueStatus(queueNames, names, EnumSet.of(QueueAttribute.QUEUE_DEPTH))) {
+			try {
+				final String queueName = p.getStringParameterValue(CMQC.MQCA_Q_NAME).trim();
+				if(names.contains(queueName)) {
+					depths.put(queueName, p.getIntParameterValue(CMQC.MQIA_CURRENT_Q_DEPTH));
+				}
+			} catch (Exception ex) {
+				throw new RuntimeException("Failed to read queue depth", ex);
+			}
+		}
+		return depths;
+	}
+	
+	/**
+	 * Issues the prefix grouped queue status inquiries for the passed queue names concurrently and collects the responses.
+	 * The responses may include queues which were not requested.
+	 * @param queueNames The queue names
+	 * @param names The set the trimmed, de-duplicated queue names are added to
+	 * @param fields The attributes to request
+	 * @return the queue status responses
+	 */
+	private List<PCFMessage> queueStatus(final Collection<String> queueNames, final NavigableSet<String> names, final Set<QueueAttribute> fields) {
+		return queueInquiry(queueNames, names, name -> queueStatusRequest(name, fields));
+	}
+	
+	/**
+	 * Issues one inquiry per queue name prefix group for the passed queue names concurrently and collects the responses.
+	 * The responses may include queues which were not requested.
+	 * @param queueNames The queue names
+	 * @param names The set the trimmed, de-duplicated queue names are added to
+	 * @param request Builds the inquiry for a padded or generic queue name
+	 * @return the responses
+	 */
+	private List<PCFMessage> queueInquiry(final Collection<String> queueNames, final NavigableSet<String> names, final Function<String, PCFMessage> request) {
+		if(queueNames==null) throw new IllegalArgumentException("The passed queue names were null");
+		for(String name: queueNames) {
+			if(name!=null && !name.trim().isEmpty()) names.add(name.trim());
+		}
+		final List<PCFMessage> responses = new ArrayList<PCFMessage>();
+		if(names.isEmpty()) return responses;
+		final List<String> inquiries = prefixGroups(names, MAX_PREFIX_GROUPS);
+		final List<CompletableFuture<PCFMessage[]>> futures = new ArrayList<CompletableFuture<PCFMessage[]>>(inquiries.size());
+		for(String inquiry: inquiries) {
+			futures.add(pcfListAsync(request.apply(padName(inquiry))));
+		}
+		for(int i = 0; i < futures.size(); i++) {
+			try {
+				responses.addAll(Arrays.asList(futures.get(i).join()));
+			} catch (CompletionException cex) {
+				if(isUnknownObject(cex)) continue;
+				throw new RuntimeException("Failed to inquire queues [" + inquiries.get(i) + "]", cex.getCause());
+			}
+		}
+		return responses;
+	}
+	
+	/**
+	 * Builds a queue status inquiry which only requests the passed attributes
+	 * @param queueName The queue name, padded or generic
+	 * @param fields The attributes to request
+	 * @return the pcf request
+	 */
+	private static PCFMessage queueStatusRequest(final String queueName, final Set<QueueAttribute> fields) {
+		final PCFMessage request = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q_STATUS);
+		request.addParameter(new MQCFST(CMQC.MQCA_Q_NAME, queueName));
+		if(!fields.containsAll(QueueAttribute.STATUS_SET)) {
+			request.addParameter(new MQCFIL(CMQCFC.MQIACF_Q_STATUS_ATTRS, QueueAttribute.pcfAttributes(fields)));
+		}
+		return request;
+	}
+	
+	/**
+	 * Builds a local queue inquiry which only requests the passed definition attributes
+	 * @param queueName The queue name, padded or generic
+	 * @param fields The attributes to request
+	 * @return the pcf request
+	 */
+	private static PCFMessage queueDefinitionRequest(final String queueName, final Set<QueueAttribute> fields) {
+		final PCFMessage request = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q);
+		request.addParameter(new MQCFST(CMQC.MQCA_Q_NAME, queueName));
+		request.addParameter(new MQCFIN(CMQC.MQIA_Q_TYPE, CMQC.MQQT_LOCAL));
+		request.addParameter(new MQCFIL(CMQCFC.MQIACF_Q_ATTRS, QueueAttribute.pcfAttributes(fields)));
+		return request;
+	}
+	
+	/**
+	 * Builds a topic status inquiry which only requests the passed attributes
+	 * @param topicString The topic string
+	 * @param statusType The topic status type
+	 * @param fields The attributes to request
+	 * @param requested The attributes the caller requested, if these are all the attributes nothing is excluded
+	 * @return the pcf request
+	 */
+	private static PCFMessage topicStatusRequest(final String topicString, final int statusType, final Set<TopicAttribute> fields, final Set<TopicAttribute> requested) {
+		final PCFMessage request = new PCFMessage(CMQCFC.MQCMD_INQUIRE_TOPIC_STATUS);
+		request.addParameter(new MQCFST(CMQC.MQCA_TOPIC_STRING, topicString));
+		request.addParameter(new MQCFIN(CMQCFC.MQIACF_TOPIC_STATUS_TYPE, statusType));
+		if(!requested.containsAll(TopicAttribute.VALUE_SET)) {
+			request.addParameter(new MQCFIL(CMQCFC.MQIACF_TOPIC_STATUS_ATTRS, TopicAttribute.pcfAttributes(fields, statusType)));
+		}
+		return request;
+	}
+	
+	/**
+	 * Builds a subscription or subscription status inquiry which only requests the passed attributes
+	 * @param command The inquiry command
+	 * @param selector The parameter selecting the subscription
+	 * @param fields The attributes to request
+	 * @return the pcf request
+	 */
+	private static PCFMessage subscriptionRequest(final int command, final PCFParameter selector, final Set<SubscriptionAttribute> fields) {
+		final PCFMessage request = new PCFMessage(command);
+		request.addParameter(selector);
+		if(!fields.containsAll(SubscriptionAttribute.VALUE_SET)) {
+			request.addParameter(new MQCFIL(command==CMQCFC.MQCMD_INQUIRE_SUB_STATUS ? CMQCFC.MQIACF_SUB_STATUS_ATTRS : CMQCFC.MQIACF_SUB_ATTRS, 
+				SubscriptionAttribute.pcfAttributes(fields, command)));
+		}
+		return request;
+	}
+	
+	/**
+	 * Returns the passed attribute set, or all attributes if it is null or empty
+	 * @param fields The requested attributes
+	 * @param all All the attributes
+	 * @return the attributes to return
+	 */
+	private static <T> Set<T> fields(final Set<T> fields, final Set<T> all) {
+		return fields==null || fields.isEmpty() ? all : fields;
+	}
+	
+	/**
+	 * Groups the passed names by the segment up to and including their first <b><code>.</code></b>
+	 * and returns one inquiry name per group: the group's longest common prefix followed by <b><code>*</code></b>,
+	 * or the name itself for a group of one. If there are more than <b><code>maxGroups</code></b> groups
+	 * a single <b><code>*</code></b> inquiry is returned.
+	 * @param names The sorted names
+	 * @param maxGroups The maximum number of inquiries
+	 * @return the inquiry names
+	 */
+	static List<String> prefixGroups(final NavigableSet<String> names, final int maxGroups) {
+		final Map<String, List<String>> groups = new TreeMap<String, List<String>>();
+		for(String name: names) {
+			final int dot = name.indexOf('.');
+			final String segment = dot==-1 ? name : name.substring(0, dot + 1);
+			List<String> group = groups.get(segment);
+			if(group==null) {
+				group = new ArrayList<String>();
+				groups.put(segment, group);
+			}
+			group.add(name);
+		}
+		if(groups.size() > maxGroups) return Collections.singletonList("*");
+		final List<String> inquiries = new ArrayList<String>(groups.size());
+		for(List<String> group: groups.values()) {
+			if(group.size()==1) {
+				inquiries.add(group.get(0));
+			} else {
+				// the names are sorted so the first and last bound the common prefix
+				final String first = group.get(0);
+				final String last = group.get(group.size()-1);
+				int len = 0;
+				while(len < first.length() && len < last.length() && first.charAt(len)==last.charAt(len)) len++;
+				inquiries.add(first.substring(0, len) + "*");
+			}
+		}
+		return inquiries;
+	}
+	
+	/**
+	 * Determines if the passed failure means the inquired object does not exist
+	 * @param t The failure
+	 * @return true if the failure's reason is an unknown object name
+	 */
+	static boolean isUnknownObject(final Throwable t) {
+		Throwable cause = t;
+		while(cause!=null) {
+			if(cause instanceof MQException) {
+				return ((MQException)cause).reasonCode==CMQC.MQRC_UNKNOWN_OBJECT_NAME;
+			}
+			if(cause.getCause()==cause) break;
+			cause = cause.getCause();
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the attributes of the passed map which belong to the passed tier, and the name derived attributes
+	 * @param attrs The queue attributes
+	 * @param tier The attributes of the tier
+	 * @return a new map of the tier's attributes
+	 */
+	static Map<QueueAttribute, Object> tier(final Map<QueueAttribute, Object> attrs, final Set<QueueAttribute> tier) {
+		final Map<QueueAttribute, Object> map = new EnumMap<QueueAttribute, Object>(QueueAttribute.class);
+		final Set<QueueAttribute> fields = QueueAttribute.within(attrs.keySet(), tier);
+		for(Map.Entry<QueueAttribute, Object> entry: attrs.entrySet()) {
+			if(fields.contains(entry.getKey())) map.put(entry.getKey(), entry.getValue());
+		}
+		return map;
+	}
+	
 	/**
 	 * Returns the topic attributes for the named topic
 	 * @param topicName The topic name
 	 * @return The topic attributes in a name/value map
 	 */
 	public Map<TopicAttribute, Object> topicAttrs(final String topicName) {
-		final PCFMessage[] p = pcfList(CMQCFC.MQCMD_INQUIRE_TOPIC_STATUS, 
-				new MQCFST(CMQC.MQCA_TOPIC_STRING, topicName), 
-				new MQCFIN(CMQCFC.MQIACF_TOPIC_STATUS_TYPE, CMQCFC.MQIACF_TOPIC_STATUS)
-			);
+		return topicAttrs(topicName, TopicAttribute.VALUE_SET);
+	}
+	
+	/**
+	 * Returns the requested topic attributes for the named topic.
+	 * The publisher and subscriber inquiries are only issued if attributes of those status types are requested.
+	 * @param topicName The topic name
+	 * @param fields The attributes to return. Only these are requested from the queue manager.
+	 * @return The topic attributes in a name/value map
+	 */
+	public Map<TopicAttribute, Object> topicAttrs(final String topicName, final Set<TopicAttribute> fields) {
+		final Set<TopicAttribute> f = fields(fields, TopicAttribute.VALUE_SET);
+		final boolean wantPubs = TopicAttribute.anyOf(f, CMQCFC.MQIACF_TOPIC_PUB);
+		final boolean wantSubs = TopicAttribute.anyOf(f, CMQCFC.MQIACF_TOPIC_SUB);
+		// the counts decide whether the publisher and subscriber inquiries are needed
+		final Set<TopicAttribute> statusFields = EnumSet.noneOf(TopicAttribute.class);
+		statusFields.addAll(f);
+		if(wantPubs) statusFields.add(TopicAttribute.PUBLISHER_COUNT);
+		if(wantSubs) statusFields.add(TopicAttribute.SUBSCRIBER_COUNT);
+		final PCFMessage[] p = pcfList(topicStatusRequest(topicName, CMQCFC.MQIACF_TOPIC_STATUS, statusFields, f));
 		try {
-			final Map<TopicAttribute, Object> attrMap = TopicAttribute.extractTopicAttributes(this, CMQCFC.MQIACF_TOPIC_STATUS, p);
-			final Integer subs = (Integer)attrMap.get(TopicAttribute.SUBSCRIBER_COUNT);
-			final Integer pubs = (Integer)attrMap.get(TopicAttribute.PUBLISHER_COUNT);
-			if(pubs > 0) {
+			final Map<TopicAttribute, Object> attrMap = TopicAttribute.extractTopicAttributes(this, statusFields, CMQCFC.MQIACF_TOPIC_STATUS, p);
+			final int subs = count(f.contains(TopicAttribute.SUBSCRIBER_COUNT) ? attrMap.get(TopicAttribute.SUBSCRIBER_COUNT) : attrMap.remove(TopicAttribute.SUBSCRIBER_COUNT));
+			final int pubs = count(f.contains(TopicAttribute.PUBLISHER_COUNT) ? attrMap.get(TopicAttribute.PUBLISHER_COUNT) : attrMap.remove(TopicAttribute.PUBLISHER_COUNT));
+			if(wantPubs && pubs > 0) {
 				attrMap.putAll(
 						TopicAttribute.extractTopicAttributes(
 							this,
+							f,
 							CMQCFC.MQIACF_TOPIC_PUB,
-							pcfList(CMQCFC.MQCMD_INQUIRE_TOPIC_STATUS, 
-								new MQCFST(CMQC.MQCA_TOPIC_STRING, topicName), 
-								new MQCFIN(CMQCFC.MQIACF_TOPIC_STATUS_TYPE, CMQCFC.MQIACF_TOPIC_PUB)								
-						)
+							pcfList(topicStatusRequest(topicName, CMQCFC.MQIACF_TOPIC_PUB, f, f))
 				));
 			}
-			if(subs > 0) {
+			if(wantSubs && subs > 0) {
 				attrMap.putAll(
 						TopicAttribute.extractTopicAttributes(
 							this, 
+							f,
 							CMQCFC.MQIACF_TOPIC_SUB,
-							pcfList(CMQCFC.MQCMD_INQUIRE_TOPIC_STATUS, 
-								new MQCFST(CMQC.MQCA_TOPIC_STRING, topicName), 
-								new MQCFIN(CMQCFC.MQIACF_TOPIC_STATUS_TYPE, CMQCFC.MQIACF_TOPIC_SUB)								
-						)
+							pcfList(topicStatusRequest(topicName, CMQCFC.MQIACF_TOPIC_SUB, f, f))
 				));
 			}
 			return attrMap;
@@ -618,18 +1367,32 @@ public class MQ implements MessageListener, HttpSessionBindingListener {
 	 * @return The subscription attributes in a name/value map
 	 */
 	public Map<SubscriptionAttribute, Object> subscriptionAttrs(final String subName) {
+		return subscriptionAttrs(subName, SubscriptionAttribute.VALUE_SET);
+	}
+	
+	/**
+	 * Returns the requested subscription attributes for the named subscription.
+	 * The subscription status inquiry is only issued if status attributes are requested.
+	 * @param subName The subscription name
+	 * @param fields The attributes to return. Only these are requested from the queue manager.
+	 * @return The subscription attributes in a name/value map
+	 */
+	public Map<SubscriptionAttribute, Object> subscriptionAttrs(final String subName, final Set<SubscriptionAttribute> fields) {
+		final Set<SubscriptionAttribute> f = fields(fields, SubscriptionAttribute.VALUE_SET);
 		try {
-			PCFMessage[] p = pcfList(CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION, 
-					new MQCFST(CMQCFC.MQCACF_SUB_NAME, subName) 
-			);
-			final Map<SubscriptionAttribute, Object> attrMap = SubscriptionAttribute.extractSubscriptionAttributes(this, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION, p);
-			attrMap.putAll(
-					SubscriptionAttribute.extractSubscriptionAttributes(
-						this, 
-						CMQCFC.MQCMD_INQUIRE_SUB_STATUS, 
-						pcfList(CMQCFC.MQCMD_INQUIRE_SUB_STATUS, new MQCFST(CMQCFC.MQCACF_SUB_NAME, subName)
-					)
-			));
+			final Map<SubscriptionAttribute, Object> attrMap = SubscriptionAttribute.anyOf(f, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION) ?
+				SubscriptionAttribute.extractSubscriptionAttributes(this, f, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION, 
+					pcfList(subscriptionRequest(CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION, new MQCFST(CMQCFC.MQCACF_SUB_NAME, subName), f))
+				) : new EnumMap<SubscriptionAttribute, Object>(SubscriptionAttribute.class);
+			if(SubscriptionAttribute.anyOf(f, CMQCFC.MQCMD_INQUIRE_SUB_STATUS)) {
+				attrMap.putAll(
+						SubscriptionAttribute.extractSubscriptionAttributes(
+							this, 
+							f,
+							CMQCFC.MQCMD_INQUIRE_SUB_STATUS, 
+							pcfList(subscriptionRequest(CMQCFC.MQCMD_INQUIRE_SUB_STATUS, new MQCFST(CMQCFC.MQCACF_SUB_NAME, subName), f))
+				));
+			}
 			return attrMap;
 		} catch (Exception ex) {
 			throw new RuntimeException("Failed to get subscription attributes for [" + subName.trim() + "]", ex);
@@ -642,19 +1405,31 @@ public class MQ implements MessageListener, HttpSessionBindingListener {
 	 * @return The subscription attributes in a name/value map
 	 */
 	public Map<SubscriptionAttribute, Object> subscriptionAttrs(final byte[] subId) {
+		return subscriptionAttrs(subId, SubscriptionAttribute.VALUE_SET);
+	}
+	
+	/**
+	 * Returns the requested subscription attributes for the subscription with the passed id
+	 * @param subId The subscription id
+	 * @param fields The attributes to return. Only these are requested from the queue manager.
+	 * @return The subscription attributes in a name/value map
+	 */
+	public Map<SubscriptionAttribute, Object> subscriptionAttrs(final byte[] subId, final Set<SubscriptionAttribute> fields) {
+		final Set<SubscriptionAttribute> f = fields(fields, SubscriptionAttribute.VALUE_SET);
 		try {
-			PCFMessage[] p = pcfList(CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION, 
-					new MQCFBS(CMQCFC.MQBACF_SUB_ID, subId) 
-			);
-			final Map<SubscriptionAttribute, Object> attrMap = SubscriptionAttribute.extractSubscriptionAttributes(this, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION, p);
-			final String subName = (String)attrMap.get(SubscriptionAttribute.NAME);
-			attrMap.putAll(
-					SubscriptionAttribute.extractSubscriptionAttributes(
-						this, 
-						CMQCFC.MQCMD_INQUIRE_SUB_STATUS, 
-						pcfList(CMQCFC.MQCMD_INQUIRE_SUB_STATUS, new MQCFST(CMQCFC.MQCACF_SUB_NAME, subName)
-					)
-			));
+			PCFMessage[] p = pcfList(subscriptionRequest(CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION, new MQCFBS(CMQCFC.MQBACF_SUB_ID, subId), f));
+			final Map<SubscriptionAttribute, Object> attrMap = SubscriptionAttribute.extractSubscriptionAttributes(this, f, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION, p);
+			if(SubscriptionAttribute.anyOf(f, CMQCFC.MQCMD_INQUIRE_SUB_STATUS)) {
+				// the status inquiry is by name, which is always selected
+				final String subName = p[0].getStringParameterValue(CMQCFC.MQCACF_SUB_NAME);
+				attrMap.putAll(
+						SubscriptionAttribute.extractSubscriptionAttributes(
+							this, 
+							f,
+							CMQCFC.MQCMD_INQUIRE_SUB_STATUS, 
+							pcfList(subscriptionRequest(CMQCFC.MQCMD_INQUIRE_SUB_STATUS, new MQCFST(CMQCFC.MQCACF_SUB_NAME, subName), f))
+				));
+			}
 			return attrMap;
 		} catch (Exception ex) {
 			throw new RuntimeException("Failed to get subscription attributes for [" + DatatypeConverter.printHexBinary(subId) + "]", ex);
@@ -806,63 +1581,232 @@ public class MQ implements MessageListener, HttpSessionBindingListener {
 	
 	
 	public Map<String, String> getQueueNames(final Pattern excludeFilter, final Pattern includeFilter) {		
-		PCFMessage p = pcfList(CMQCFC.MQCMD_INQUIRE_Q_NAMES, 
-				new MQCFST(CMQC.MQCA_Q_NAME, "*"),
-				new MQCFIN(CMQC.MQIA_Q_TYPE, CMQC.MQQT_LOCAL)
-			)[0];		
+		return getQueueNames(PCFFilter.regex(ObjectType.QUEUE, excludeFilter, includeFilter));
+	}
+	
+	/**
+	 * Returns the names of the local queues matching the passed filter.
+	 * A filter with attribute conditions is sent as a queue inquiry carrying the pushed down filter parameter,
+	 * otherwise as a queue names inquiry for the filter's generic name.
+	 * @param filter The filter
+	 * @return a map of padded queue names keyed by the trimmed queue name
+	 */
+	public Map<String, String> getQueueNames(final PCFFilter filter) {
+		if(filter==null) throw new IllegalArgumentException("The passed filter was null");
+		if(filter.type!=ObjectType.QUEUE) throw new IllegalArgumentException("The passed filter is not a queue filter");
 		try {
-			final String[] queueNames = p.getStringListParameterValue(CMQCFC.MQCACF_Q_NAMES);
-			final Map<String, String> map = new HashMap<String, String>(queueNames.length);
-			for(String q: queueNames) {
-				final String tq = q.trim();
-				if(excludeFilter!=null) {
-					if(excludeFilter.matcher(tq).matches()) continue;
+			if(!filter.requiresAttributes()) {
+				final PCFMessage p = pcfList(CMQCFC.MQCMD_INQUIRE_Q_NAMES, 
+						new MQCFST(CMQC.MQCA_Q_NAME, filter.genericName),
+						new MQCFIN(CMQC.MQIA_Q_TYPE, CMQC.MQQT_LOCAL)
+					)[0];
+				final String[] queueNames = p.getStringListParameterValue(CMQCFC.MQCACF_Q_NAMES);
+				final Map<String, String> map = new HashMap<String, String>(queueNames.length);
+				for(String q: queueNames) {
+					final String tq = q.trim();
+					if(filter.matchesName(tq)) map.put(tq, q);
 				}
-				if(includeFilter!=null) {
-					if(!includeFilter.matcher(tq).matches()) continue;
-				}				
-				map.put(tq, q);
+				return map;
+			}
+			final PCFMessage request = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q);
+			request.addParameter(new MQCFST(CMQC.MQCA_Q_NAME, filter.genericName));
+			request.addParameter(new MQCFIN(CMQC.MQIA_Q_TYPE, CMQC.MQQT_LOCAL));
+			request.addParameter(new MQCFIL(CMQCFC.MQIACF_Q_ATTRS, filter.responseAttributes()));
+			if(filter.pushdown!=null) request.addParameter(filter.pushdown.toParameter());
+			final PCFMessage[] p = pcfList(request);
+			final Map<String, String> map = new HashMap<String, String>(p.length);
+			for(PCFMessage q: p) {
+				final String qn = q.getStringParameterValue(CMQC.MQCA_Q_NAME);
+				final String tq = qn.trim();
+				if(filter.matches(tq, q)) map.put(tq, qn);
 			}
 			return map;
+		} catch (RuntimeException rex) {
+			if(isUnknownObject(rex)) return new HashMap<String, String>(0);
+			throw rex;
 		} catch (Exception ex) {
 			throw new RuntimeException("Failed to extract queue names", ex);
 		}
 	}
 	
 	/**
-	 * Determines if this MQ instance has the named topic
+	 * Determines if this MQ instance has the named topic.
+	 * Names in the topic name index are answered locally. A name missing from the index is answered locally
+	 * when admin events keep the index in sync, otherwise it is inquired once and, if not found, remembered in the
+	 * short lived negative cache, so repeated lookups of missing topics do not reach the command server.
+	 * Generic names are always inquired.
 	 * @param topicName The topic name to test for
 	 * @return true if there are one or more topics matching the passed name, false otherwise
 	 */
 	public boolean topicExists(final String topicName) {
-		PCFMessage[] p = pcfList(CMQCFC.MQCMD_INQUIRE_TOPIC, 
+		if(topicName==null || topicName.trim().isEmpty()) throw new IllegalArgumentException("The passed topic name was null or empty");
+		final String name = topicName.trim();
+		if(name.indexOf('*')!=-1) return inquireTopicNames(name).length != 0;
+		return exists(ObjectType.TOPIC, name, "topicNames", () -> inquireTopicNames(name).length != 0);
+	}
+	
+	/**
+	 * Determines if this MQ instance has the named local queue, using the queue definition index and
+	 * the negative cache in the same way as {@link #topicExists(String)}
+	 * @param queueName The queue name to test for
+	 * @return true if the local queue exists, false otherwise
+	 */
+	public boolean queueExists(final String queueName) {
+		if(queueName==null || queueName.trim().isEmpty()) throw new IllegalArgumentException("The passed queue name was null or empty");
+		final String name = queueName.trim();
+		return exists(ObjectType.QUEUE, name, "queueDefinitions", () -> {
+			final PCFMessage[] p = pcfList(CMQCFC.MQCMD_INQUIRE_Q_NAMES, 
+					new MQCFST(CMQC.MQCA_Q_NAME, name),
+					new MQCFIN(CMQC.MQIA_Q_TYPE, CMQC.MQQT_LOCAL)
+				);
+			return p.length != 0 && p[0].getStringListParameterValue(CMQCFC.MQCACF_Q_NAMES).length != 0;
+		});
+	}
+	
+	/**
+	 * Answers an existence check from an object's name index and the negative cache, inquiring only on a miss
+	 * which the index cannot answer
+	 * @param type The object type
+	 * @param name The trimmed object name
+	 * @param indexName The name of the cache keyed by object name which serves as the index
+	 * @param inquiry Inquires the command server
+	 * @return true if the object exists
+	 */
+	protected boolean exists(final ObjectType type, final String name, final String indexName, final Callable<Boolean> inquiry) {
+		final String pk = poolKey.toString();
+		final boolean indexed = cache.isLoaded(pk, indexName);
+		if(indexed && cache.get(pk, indexName, name)!=null) return true;
+		final String notFound = notFoundKey(type, name);
+		if(cache.get(pk, "notFound", notFound)!=null) return false;
+		if(indexed) {
+			// a miss in the index is authoritative only if the index was fully loaded while events were being consumed
+			final long maintainedSince = indexMaintainedSince();
+			if(maintainedSince > 0L && cache.getCompleteSince(pk, indexName) >= maintainedSince) return false;
+		}
+		final boolean exists;
+		try {
+			exists = inquiry.call();
+		} catch (Exception ex) {
+			if(!isUnknownObject(ex)) throw new RuntimeException("Failed to check for " + type + " [" + name + "]", ex);
+			cache.put(pk, "notFound", notFound, Boolean.TRUE);
+			return false;
+		}
+		if(!exists) cache.put(pk, "notFound", notFound, Boolean.TRUE);
+		return exists;
+	}
+	
+	/**
+	 * Returns the time since which admin events have kept the existence indexes current. This requires the event consumer 
+	 * to be open and caught up with both the config and command event queues, and the queue manager to have config and 
+	 * command events enabled, which is checked once each time the consumer (re)connects.
+	 * @return the time in ms since the epoch, or zero if the indexes are not being maintained
+	 */
+	protected long indexMaintainedSince() {
+		if(!eventsMaintained) return 0L;
+		final long synced = poolManager.getEventsSyncedSince(poolKey.toString());
+		if(synced==0L) return 0L;
+		if(synced!=eventsCheckedFor) {
+			try {
+				changeEventsEnabled = inquireChangeEventsEnabled();
+			} catch (Exception ex) {
+				// check again on the next call
+				log.warn("Failed to inquire event switches on [{}]: {}", poolKey, ex.toString());
+				return 0L;
+			}
+			eventsCheckedFor = synced;
+		}
+		return changeEventsEnabled ? synced : 0L;
+	}
+	
+	/**
+	 * Inquires whether the queue manager emits config and command events
+	 * @return true if both are enabled, false if either is disabled
+	 * @throws Exception thrown if the inquiry fails
+	 */
+	protected boolean inquireChangeEventsEnabled() throws Exception {
+		final PCFMessage[] p = pcfList(CMQCFC.MQCMD_INQUIRE_Q_MGR, 
+				new MQCFIL(CMQCFC.MQIACF_Q_MGR_ATTRS, new int[]{CMQC.MQIA_CONFIGURATION_EVENT, CMQC.MQIA_COMMAND_EVENT})
+			);
+		if(p.length==0) return false;
+		final boolean enabled = p[0].getIntParameterValue(CMQC.MQIA_CONFIGURATION_EVENT)==CMQCFC.MQEVR_ENABLED
+				&& p[0].getIntParameterValue(CMQC.MQIA_COMMAND_EVENT)!=CMQCFC.MQEVR_DISABLED;
+		if(!enabled) log.info("Config or command events are disabled on [{}], existence checks will inquire on index misses", poolKey);
+		return enabled;
+	}
+	
+	/**
+	 * Reads a publisher or subscriber count, which is missing if the queue manager did not return it
+	 * @param value The extracted count attribute
+	 * @return the count, or zero if it was not returned
+	 */
+	static int count(final Object value) {
+		return value instanceof Number ? ((Number)value).intValue() : 0;
+	}
+	
+	/**
+	 * Returns the negative cache key for the passed object
+	 * @param type The object type
+	 * @param name The object name
+	 * @return the negative cache key
+	 */
+	static String notFoundKey(final ObjectType type, final String name) {
+		return type.name() + "/" + name;
+	}
+	
+	/**
+	 * Inquires the names and topic strings of the topics matching the passed name
+	 * @param topicName The topic name, may be generic
+	 * @return the inquiry responses
+	 */
+	protected PCFMessage[] inquireTopicNames(final String topicName) {
+		return pcfList(CMQCFC.MQCMD_INQUIRE_TOPIC, 
 				new MQCFST(CMQC.MQCA_TOPIC_NAME, topicName),
-				new MQCFIL(CMQCFC.MQIACF_TOPIC_ATTRS, new int[]{CMQC.MQCA_TOPIC_STRING})
+				new MQCFIL(CMQCFC.MQIACF_TOPIC_ATTRS, new int[]{CMQC.MQCA_TOPIC_NAME, CMQC.MQCA_TOPIC_STRING})
 			);
-		return p.length != 0;		
 	}
 	
-	public Map<String, String> getTopicNames(final Pattern excludeFilter, final Pattern includeFilter) {
-		PCFMessage[] p = pcfList(CMQCFC.MQCMD_INQUIRE_TOPIC, 
-				new MQCFST(CMQC.MQCA_TOPIC_NAME, "*"),
-				new MQCFIL(CMQCFC.MQIACF_TOPIC_ATTRS, new int[]{CMQC.MQCA_TOPIC_STRING})
-//				new MQCFIL(CMQC.MQIA_TOPIC_TYPE, new int[]{CMQC.MQTOPT_LOCAL})
+	/**
+	 * Inquires the definitions of the topics matching the passed name
+	 * @param topicName The topic name, may be generic
+	 * @return the inquiry responses
+	 */
+	protected PCFMessage[] inquireTopicDefinitions(final String topicName) {
+		return pcfList(CMQCFC.MQCMD_INQUIRE_TOPIC, 
+				new MQCFST(CMQC.MQCA_TOPIC_NAME, topicName),
+				new MQCFIL(CMQCFC.MQIACF_TOPIC_ATTRS, TopicAttribute.pcfAttributes(TopicAttribute.DEFINITION_SET, CMQCFC.MQCMD_INQUIRE_TOPIC))
 			);
+	}
+	
+	public Map<String, String> getTopicNames(final Pattern excludeFilter, final Pattern includeFilter) {
+		return getTopicNames(PCFFilter.regex(ObjectType.TOPIC, excludeFilter, includeFilter));
+	}
+	
+	/**
+	 * Returns the names of the topics matching the passed filter
+	 * @param filter The filter
+	 * @return a map of topic strings keyed by topic name
+	 */
+	public Map<String, String> getTopicNames(final PCFFilter filter) {
+		if(filter==null) throw new IllegalArgumentException("The passed filter was null");
+		if(filter.type!=ObjectType.TOPIC) throw new IllegalArgumentException("The passed filter is not a topic filter");
+		final PCFMessage request = new PCFMessage(CMQCFC.MQCMD_INQUIRE_TOPIC);
+		request.addParameter(new MQCFST(CMQC.MQCA_TOPIC_NAME, filter.genericName));
+		request.addParameter(new MQCFIL(CMQCFC.MQIACF_TOPIC_ATTRS, filter.responseAttributes()));
+		if(filter.pushdown!=null) request.addParameter(filter.pushdown.toParameter());
 		try {
+			final PCFMessage[] p = pcfList(request);
 			final Map<String, String> map = new HashMap<String, String>(p.length);
 			for(PCFMessage t: p) {
 				final String topicName = t.getStringParameterValue(CMQC.MQCA_TOPIC_NAME).trim();
 				final String topicString = t.getStringParameterValue(CMQC.MQCA_TOPIC_STRING);
 				if(topicString==null || topicString.trim().isEmpty()) continue;
-				if(excludeFilter!=null) {
-					if(excludeFilter.matcher(topicName).matches()) continue;
-				}				
-				if(includeFilter!=null) {
-					if(!includeFilter.matcher(topicName).matches()) continue;
-				}								
-				map.put(topicName, t.getStringParameterValue(CMQC.MQCA_TOPIC_STRING));
+				if(!filter.matches(topicName, t)) continue;
+				map.put(topicName, topicString);
 			}
 			return map;
+		} catch (RuntimeException rex) {
+			if(isUnknownObject(rex)) return new HashMap<String, String>(0);
+			throw rex;
 		} catch (Exception ex) {
 			throw new RuntimeException("Failed to extract topic names", ex);
 		}
@@ -0,0 +1,145 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * <p>Title: CacheChange</p>
+ * <p>Description: One entry of an instance cache which a load or an update added, changed or removed.
+ * Entries dropped from the cache by expiry, eviction or the heap budget are not reported as removed. For map values, e.g. queue and topic attributes, only the attributes which changed are reported; other values
+ * are reported under the {@link #VALUE} attribute.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.cache.CacheChange</code></p>
+ */
+
+public class CacheChange {
+	/** The MQ instance pool key */
+	public final String poolKey;
+	/** The cache name */
+	public final String cacheName;
+	/** The version of the snapshot the change was published in */
+	public final long version;
+	/** The change type */
+	public final Type type;
+	/** The cache key, e.g. the queue name */
+	public final Object key;
+	/** The prior values of the changed attributes, empty for an added entry */
+	public final Map<Object, Object> before;
+	/** The new values of the changed attributes, empty for a removed entry */
+	public final Map<Object, Object> after;
+
+	/** The attribute non map values are reported under */
+	public static final String VALUE = "value";
+
+	/**
+	 * <p>Title: Type</p>
+	 * <p>Description: The cache change types</p>
+	 */
+	public static enum Type {
+		/** The entry is new */
+		ADDED,
+		/** One or more of the entry's attributes changed */
+		CHANGED,
+		/** The entry was deleted, or a complete load no longer returned it */
+		REMOVED;
+	}
+
+	private CacheChange(final String poolKey, final String cacheName, final long version, final Type type, final Object key, final Map<Object, Object> before, final Map<Object, Object> after) {
+		this.poolKey = poolKey;
+		this.cacheName = cacheName;
+		this.version = version;
+		this.type = type;
+		this.key = key;
+		this.before = Collections.unmodifiableMap(before);
+		this.after = Collections.unmodifiableMap(after);
+	}
+
+	/**
+	 * Computes the changes between the entries last reported for a cache and the entries of a complete load
+	 * @param poolKey The MQ instance pool key
+	 * @param cacheName The cache name
+	 * @param version The version of the snapshot the changes are published in
+	 * @param previous The entries last reported
+	 * @param current The loaded entries
+	 * @return the changed entries, empty if nothing changed
+	 */
+	static List<CacheChange> diff(final String poolKey, final String cacheName, final long version, final Map<?, ?> previous, final Map<?, ?> current) {
+		final List<CacheChange> changes = new ArrayList<CacheChange>();
+		for(Map.Entry<?, ?> entry: current.entrySet()) {
+			final CacheChange change = change(poolKey, cacheName, version, entry.getKey(), previous.get(entry.getKey()), entry.getValue());
+			if(change!=null) changes.add(change);
+		}
+		for(Map.Entry<?, ?> entry: previous.entrySet()) {
+			if(!current.containsKey(entry.getKey())) {
+				changes.add(change(poolKey, cacheName, version, entry.getKey(), entry.getValue(), null));
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Computes the change of one entry
+	 * @param poolKey The MQ instance pool key
+	 * @param cacheName The cache name
+	 * @param version The version of the snapshot the change is published in
+	 * @param key The cache key
+	 * @param prior The value last reported, null if the entry is new
+	 * @param value The new value, null if the entry was removed
+	 * @return the change, or null if the entry did not change
+	 */
+	static CacheChange change(final String poolKey, final String cacheName, final long version, final Object key, final Object prior, final Object value) {
+		if(prior==null && value==null) return null;
+		if(prior==null) return new CacheChange(poolKey, cacheName, version, Type.ADDED, key, Collections.emptyMap(), attributes(value));
+		if(value==null) return new CacheChange(poolKey, cacheName, version, Type.REMOVED, key, attributes(prior), Collections.emptyMap());
+		final Map<Object, Object> before = attributes(prior);
+		final Map<Object, Object> after = attributes(value);
+		final Set<Object> names = new HashSet<Object>(before.keySet());
+		names.addAll(after.keySet());
+		final Map<Object, Object> changedFrom = new HashMap<Object, Object>();
+		final Map<Object, Object> changedTo = new HashMap<Object, Object>();
+		for(Object name: names) {
+			final Object b = before.get(name);
+			final Object a = after.get(name);
+			// deep equals since some attributes, e.g. on queue times, are arrays
+			if(!Objects.deepEquals(b, a)) {
+				changedFrom.put(name, b);
+				changedTo.put(name, a);
+			}
+		}
+		return changedTo.isEmpty() ? null : new CacheChange(poolKey, cacheName, version, Type.CHANGED, key, changedFrom, changedTo);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<Object, Object> attributes(final Object value) {
+		if(value instanceof Map) return (Map<Object, Object>)value;
+		return Collections.singletonMap(VALUE, value);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return type + " " + cacheName + "/" + key + " v" + version + " " + before + " -> " + after;
+	}
+}
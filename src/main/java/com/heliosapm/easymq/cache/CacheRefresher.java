@@ -0,0 +1,259 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.cache;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * <p>Title: CacheRefresher</p>
+ * <p>Description: Reloads bulk loaded instance caches in the background before their entries expire.</p>
+ * <p>A cache configured for refresh-ahead is reloaded through the loader that first populated it once its contents are
+ * older than the cache's refresh interval. Readers keep getting the current contents while the reload runs and the
+ * reloaded entries replace them in place, so a warm cache is never emptied by expiry while reloads succeed.
+ * The number of reloads running at once across all caches is capped.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.cache.CacheRefresher</code></p>
+ */
+
+public class CacheRefresher {
+	/** Instance logger */
+	protected final Logger log = LoggerFactory.getLogger(getClass());
+	/** The registered caches keyed by <b><code>&lt;pool key&gt;/&lt;cache name&gt;</code></b> */
+	private final Map<String, RefreshEntry> entries = new ConcurrentHashMap<String, RefreshEntry>(32, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** The permits capping concurrent reloads */
+	private final Semaphore reloadPermits;
+	/** The executor reloads run on */
+	private final ExecutorService reloadExecutor;
+	/** The scheduler which checks for due reloads */
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+		final Thread t = new Thread(r, "CacheRefresher");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/** The default maximum number of concurrent reloads */
+	public static final int DEFAULT_MAX_CONCURRENT_RELOADS = 2;
+	/** How often in ms. the registered caches are checked for due reloads */
+	public static final long CHECK_PERIOD_MILLIS = 1000L;
+	/** The default refresh interval as a fraction of the cache's <b><code>expireAfterWrite</code></b> */
+	public static final double DEFAULT_REFRESH_FRACTION = 0.75d;
+	/** The refresh interval used when it is not configured and the cache spec has no <b><code>expireAfterWrite</code></b> */
+	public static final long DEFAULT_REFRESH_MILLIS = 90000L;
+	/** Extracts <b><code>expireAfterWrite</code></b> from a cache spec */
+	private static final Pattern EXPIRE_AFTER_WRITE = Pattern.compile("expireAfterWrite=(\\d+)([dhms])");
+
+	/**
+	 * Creates a new CacheRefresher
+	 * @param maxConcurrentReloads The maximum number of reloads which can run at once
+	 */
+	CacheRefresher(final int maxConcurrentReloads) {
+		final int max = Math.max(1, maxConcurrentReloads);
+		reloadPermits = new Semaphore(max);
+		reloadExecutor = Executors.newFixedThreadPool(max, new ThreadFactory() {
+			final AtomicInteger serial = new AtomicInteger();
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "CacheReload#" + serial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(this::checkAll, CHECK_PERIOD_MILLIS, CHECK_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Registers a bulk loaded cache for refresh-ahead, or records a fresh load of an already registered cache
+	 * @param poolKey The MQ instance pool key
+	 * @param cacheName The cache name
+	 * @param reloader Reloads and publishes the full cache contents
+	 * @param settings The cache's refresh settings
+	 */
+	void loaded(final String poolKey, final String cacheName, final Callable<?> reloader, final Settings settings) {
+		final String key = poolKey + "/" + cacheName;
+		final RefreshEntry entry = entries.computeIfAbsent(key, k -> new RefreshEntry(key, reloader, settings));
+		entry.loadedAt = System.currentTimeMillis();
+		entry.nextAttempt = 0L;
+	}
+
+	/**
+	 * Starts a reload of the passed cache if one is due. Called on reads so a busy cache is refreshed promptly.
+	 * @param poolKey The MQ instance pool key
+	 * @param cacheName The cache name
+	 */
+	void onRead(final String poolKey, final String cacheName) {
+		final RefreshEntry entry = entries.get(poolKey + "/" + cacheName);
+		if(entry!=null) check(entry, System.currentTimeMillis());
+	}
+
+	/**
+	 * Reloads the passed cache in the background now, e.g. to reconcile contents restored from a persisted snapshot
+	 * @param poolKey The MQ instance pool key
+	 * @param cacheName The cache name
+	 * @param reloader Reloads and publishes the full cache contents
+	 */
+	void reloadNow(final String poolKey, final String cacheName, final Callable<?> reloader) {
+		final String key = poolKey + "/" + cacheName;
+		reloadExecutor.execute(() -> {
+			try {
+				reloader.call();
+				log.info("Reconciled cache [{}]", key);
+			} catch (Throwable t) {
+				log.warn("Failed to reconcile cache [{}]: {}", key, t.toString());
+			}
+		});
+	}
+
+	private void checkAll() {
+		final long now = System.currentTimeMillis();
+		for(RefreshEntry entry: entries.values()) {
+			try {
+				check(entry, now);
+			} catch (Exception ex) {
+				log.warn("Refresh check failed for [{}]", entry.key, ex);
+			}
+		}
+	}
+
+	private void check(final RefreshEntry entry, final long now) {
+		if(now - entry.loadedAt < entry.settings.refreshAfterMillis || now < entry.nextAttempt) return;
+		if(!entry.reloading.compareAndSet(false, true)) return;
+		if(!reloadPermits.tryAcquire()) {
+			// the next check will try again
+			entry.reloading.set(false);
+			return;
+		}
+		try {
+			reloadExecutor.execute(() -> reload(entry));
+		} catch (RuntimeException rex) {
+			entry.reloading.set(false);
+			reloadPermits.release();
+			throw rex;
+		}
+	}
+
+	private void reload(final RefreshEntry entry) {
+		final long start = System.currentTimeMillis();
+		try {
+			entry.reloader.call();
+			entry.loadedAt = System.currentTimeMillis();
+			log.debug("Refreshed cache [{}] in {} ms.", entry.key, entry.loadedAt - start);
+		} catch (Throwable t) {
+			entry.nextAttempt = System.currentTimeMillis() + entry.settings.retryMillis;
+			log.warn("Failed to refresh cache [{}], retrying in {} ms: {}", entry.key, entry.settings.retryMillis, t.toString());
+		} finally {
+			entry.reloading.set(false);
+			reloadPermits.release();
+		}
+	}
+
+	/**
+	 * Stops the refresher
+	 */
+	void shutdown() {
+		scheduler.shutdownNow();
+		reloadExecutor.shutdownNow();
+	}
+
+	/**
+	 * <p>Title: RefreshEntry</p>
+	 * <p>Description: The refresh state of one registered cache</p>
+	 */
+	private static class RefreshEntry {
+		final String key;
+		final Callable<?> reloader;
+		final Settings settings;
+		/** Set while a reload is queued or running */
+		final AtomicBoolean reloading = new AtomicBoolean(false);
+		/** The time of the last successful load */
+		volatile long loadedAt;
+		/** The earliest time of the next attempt after a failed reload */
+		volatile long nextAttempt = 0L;
+
+		RefreshEntry(final String key, final Callable<?> reloader, final Settings settings) {
+			this.key = key;
+			this.reloader = reloader;
+			this.settings = settings;
+		}
+	}
+
+	/**
+	 * <p>Title: Settings</p>
+	 * <p>Description: The refresh-ahead settings for one cache</p>
+	 */
+	static class Settings {
+		/** The age in ms. after which the cache contents are reloaded */
+		final long refreshAfterMillis;
+		/** The delay in ms. before a failed reload is retried */
+		final long retryMillis;
+
+		/**
+		 * Reads the refresh-ahead settings from a cache's <b><code>refreshAhead</code></b> config node
+		 * @param node The refresh-ahead node
+		 * @param spec The cache spec, used to default the refresh interval from <b><code>expireAfterWrite</code></b>
+		 * @return the settings or null if refresh-ahead is not enabled
+		 */
+		static Settings from(final JsonNode node, final String spec) {
+			if(node==null || node.isMissingNode() || node.isNull()) return null;
+			if(node.isBoolean() && !node.asBoolean()) return null;
+			if(!node.path("enabled").asBoolean(true)) return null;
+			final long expireMillis = expireAfterWriteMillis(spec);
+			final long defaultRefresh = expireMillis > 0 ? (long)(expireMillis * DEFAULT_REFRESH_FRACTION) : DEFAULT_REFRESH_MILLIS;
+			return new Settings(
+				Math.max(1000L, node.path("refreshAfterMillis").asLong(defaultRefresh)),
+				Math.max(1000L, node.path("retryMillis").asLong(10000L))
+			);
+		}
+
+		Settings(final long refreshAfterMillis, final long retryMillis) {
+			this.refreshAfterMillis = refreshAfterMillis;
+			this.retryMillis = retryMillis;
+		}
+
+		/**
+		 * Returns the <b><code>expireAfterWrite</code></b> of the passed cache spec in ms.
+		 * @param spec The cache spec
+		 * @return the expiry in ms. or -1 if the spec has none
+		 */
+		static long expireAfterWriteMillis(final String spec) {
+			if(spec==null) return -1L;
+			final Matcher m = EXPIRE_AFTER_WRITE.matcher(spec);
+			if(!m.find()) return -1L;
+			final long v = Long.parseLong(m.group(1));
+			switch(m.group(2).charAt(0)) {
+				case 'd': return TimeUnit.DAYS.toMillis(v);
+				case 'h': return TimeUnit.HOURS.toMillis(v);
+				case 'm': return TimeUnit.MINUTES.toMillis(v);
+				default: return TimeUnit.SECONDS.toMillis(v);
+			}
+		}
+	}
+
+}
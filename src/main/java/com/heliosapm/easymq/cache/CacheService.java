@@ -13,12 +13,26 @@
 package com.heliosapm.easymq.cache;
 
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.management.ObjectName;
 
@@ -26,10 +40,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.cache.Cache;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.RemovalCause;
 import com.google.common.cache.CacheBuilder;
 import com.heliosapm.easymq.MQConfig;
+import com.heliosapm.easymq.commands.Volatility;
 import com.heliosapm.easymq.json.JSONOps;
+import com.heliosapm.easymq.metrics.MetricsService;
 import com.heliosapm.easymq.pool.PoolKey;
 
 /**
@@ -50,6 +70,27 @@ public class CacheService {
 	protected Logger log = LoggerFactory.getLogger(getClass());
 	/** The caches keyed by cache name within a map keyed by MQ instance key */
 	protected final ConcurrentHashMap<String, ConcurrentHashMap<String, Cache<?, ?>>> caches = new ConcurrentHashMap<String, ConcurrentHashMap<String, Cache<?, ?>>>(128, 0.75f, Runtime.getRuntime().availableProcessors()); 
+	/** The in-flight bulk loads keyed by <b><code>&lt;pool key&gt;/&lt;cache name&gt;</code></b> */
+	protected final ConcurrentHashMap<String, CompletableFuture<Map<?, ?>>> bulkLoads = new ConcurrentHashMap<String, CompletableFuture<Map<?, ?>>>(32, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** The published snapshot state of each cache keyed by <b><code>&lt;pool key&gt;/&lt;cache name&gt;</code></b> */
+	protected final ConcurrentHashMap<String, SnapshotHolder> snapshots = new ConcurrentHashMap<String, SnapshotHolder>(128, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** The weighers of caches bounded by heap, keyed by <b><code>&lt;pool key&gt;/&lt;cache name&gt;</code></b> */
+	protected final ConcurrentHashMap<String, EntryWeigher> weighers = new ConcurrentHashMap<String, EntryWeigher>(128, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** The estimated heap retained by all caches bounded by heap */
+	protected final AtomicLong totalWeight = new AtomicLong(0L);
+	/** The statistics of each cache keyed by <b><code>&lt;pool key&gt;/&lt;cache name&gt;</code></b> */
+	protected final ConcurrentHashMap<String, CacheStatistics> statistics = new ConcurrentHashMap<String, CacheStatistics>(128, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** The keys of caches restored from a persisted snapshot which have not been reloaded yet */
+	protected final Set<String> restored = ConcurrentHashMap.newKeySet();
+	/** The start time of the last bulk load of each cache which is still complete, keyed by <b><code>&lt;pool key&gt;/&lt;cache name&gt;</code></b> */
+	protected final ConcurrentHashMap<String, Long> completeSince = new ConcurrentHashMap<String, Long>(128, 0.75f, Runtime.getRuntime().availableProcessors());
+	
+	/** Computes and delivers cache changes to change listeners, in the order they were made */
+	private static final ExecutorService changeNotifier = Executors.newSingleThreadExecutor(r -> {
+		final Thread t = new Thread(r, "CacheChangeNotifier");
+		t.setDaemon(true);
+		return t;
+	});
 	
 	/**
 	 * Acquires the CacheService singleton instance
@@ -78,8 +119,47 @@ public class CacheService {
 		@SuppressWarnings("unchecked")
 		final Cache<Object,Object> cache = (Cache<Object, Object>) getNamedInstanceCache(poolKey, cacheName);
 		cache.put(key, value);
+		final SnapshotHolder holder = holder(poolKey, cacheName);
+		holder.changed();
+		holder.reportPut(key, value);
+		enforceBudget();
 	}
 
+	/**
+	 * Removes a value from a named instance cache
+	 * @param poolKey The MQ instance pool key
+	 * @param cacheName The name of the cache to remove from
+	 * @param key The cache key
+	 */
+	public void remove(final String poolKey, final String cacheName, final Object key) {
+		// the removal listener records the change
+		getNamedInstanceCache(poolKey, cacheName).invalidate(key);
+		holder(poolKey, cacheName).reportRemove(key);
+	}
+	
+	/**
+	 * Indicates if a named instance cache has been loaded, i.e. holds any entries
+	 * @param poolKey The MQ instance pool key
+	 * @param cacheName The cache name
+	 * @return true if the cache is not empty
+	 */
+	public boolean isLoaded(final String poolKey, final String cacheName) {
+		return getNamedInstanceCache(poolKey, cacheName).size() > 0;
+	}
+	
+	/**
+	 * Returns the start time of the last bulk load of a named instance cache, provided the cache still holds 
+	 * every entry that load returned apart from explicit removals. Contents restored from a persisted snapshot 
+	 * do not count as a load, and any eviction since the load makes the cache incomplete.
+	 * @param poolKey The MQ instance pool key
+	 * @param cacheName The cache name
+	 * @return the load start time in ms since the epoch, or zero if the cache is not known to be complete
+	 */
+	public long getCompleteSince(final String poolKey, final String cacheName) {
+		final Long since = completeSince.get(poolKey + "/" + cacheName);
+		return since==null ? 0L : since;
+	}
+	
 	/**
 	 * Retrieves a value from an instance cache
 	 * @param poolKey The pool key of the MQ instance
@@ -92,37 +172,163 @@ public class CacheService {
 		@SuppressWarnings("unchecked")
 		final Cache<Object, Object> cache = (Cache<Object, Object>)getNamedInstanceCache(poolKey, cacheName);
 		try {
-			// Map<String, Map<QueueAttribute, Object>>> fetchQueues = new Callable<Map<String, Map<QueueAttribute, Object>>>() {
-			return loader==null ? cache.asMap().get(key) : cache.get(key, loader);
+			if(loader==null) return cache.asMap().get(key);
+			final AtomicBoolean loaded = new AtomicBoolean(false);
+			final Object value = cache.get(key, () -> {
+				loaded.set(true);
+				final long start = System.nanoTime();
+				try {
+					final Object v = loader.call();
+					statistics(poolKey, cacheName).loaded(System.nanoTime() - start, false);
+					return v;
+				} catch (Exception ex) {
+					statistics(poolKey, cacheName).loadFailed();
+					throw ex;
+				}
+			});
+			if(loaded.get()) {
+				final SnapshotHolder holder = holder(poolKey, cacheName);
+				holder.changed();
+				holder.reportPut(key, value);
+				enforceBudget();
+			}
+			return value;
 		} catch (Exception ex) {
 			throw new RuntimeException(ex.getMessage(), ex);
 		}
 	}
 	
 	/**
-	 * Retrieves all values from an instance cache
+	 * Retrieves all values from an instance cache as the cache's current immutable snapshot.
+	 * The snapshot is shared by all readers until the cache changes, so this does not copy the cache.
 	 * @param poolKey The pool key of the MQ instance
 	 * @param cacheName The instance cache name
 	 * @param loader The loader to fetch the value if it is not in cache
-	 * @return the value or null if not found
+	 * @return the cache snapshot
 	 */
 	@SuppressWarnings("unchecked")
-	public <K,V> Map<K,V> get(final String poolKey, final String cacheName, final Callable<Map<?,?>> loader) {
-		@SuppressWarnings("unchecked")
-		final Cache<K, V> cache = (Cache<K, V>)getNamedInstanceCache(poolKey, cacheName);
-		if(cache.asMap().isEmpty()) {
-			final Map<K,V> loaded;
+	public <K,V> CacheSnapshot<K,V> get(final String poolKey, final String cacheName, final Callable<Map<?,?>> loader) {
+		final Cache<Object, Object> cache = (Cache<Object, Object>)getNamedInstanceCache(poolKey, cacheName);
+		final boolean empty = cache.asMap().isEmpty();
+		statistics(poolKey, cacheName).snapshotRead(!empty);
+		if(empty) {
+			load(poolKey, cacheName, cache, loader);
+		} else if(restored.remove(poolKey + "/" + cacheName)) {
+			// serve the restored contents while they are reloaded
+			refresher.reloadNow(poolKey, cacheName, () -> load(poolKey, cacheName, cache, loader));
+		} else {
+			refresher.onRead(poolKey, cacheName);
+		}
+		return (CacheSnapshot<K,V>)holder(poolKey, cacheName).current();
+	}
+	
+	/**
+	 * Returns the current immutable snapshot of an instance cache without loading it
+	 * @param poolKey The pool key of the MQ instance
+	 * @param cacheName The instance cache name
+	 * @return the cache snapshot, empty if the cache has not been loaded
+	 */
+	@SuppressWarnings("unchecked")
+	public <K,V> CacheSnapshot<K,V> getSnapshot(final String poolKey, final String cacheName) {
+		return (CacheSnapshot<K,V>)holder(poolKey, cacheName).current();
+	}
+	
+	/**
+	 * Returns the version of an instance cache's current snapshot.
+	 * The version only changes when the cache contents change.
+	 * @param poolKey The pool key of the MQ instance
+	 * @param cacheName The instance cache name
+	 * @return the snapshot version
+	 */
+	public long getVersion(final String poolKey, final String cacheName) {
+		return holder(poolKey, cacheName).current().getVersion();
+	}
+	
+	/**
+	 * Registers a listener for the changes made to an instance cache by loads and updates.
+	 * A completed bulk load is compared once with the entries last reported, and single entry puts and removes are
+	 * reported as they are made. The listener receives the changed entries whose keys pass the filter.
+	 * Entries dropped by expiry, eviction or the heap budget are not reported, since they still exist on the queue manager.
+	 * @param poolKey The pool key of the MQ instance
+	 * @param cacheName The instance cache name
+	 * @param keyFilter The filter on the cache keys, null to receive all changes
+	 * @param listener The listener
+	 */
+	public void addChangeListener(final String poolKey, final String cacheName, final Predicate<Object> keyFilter, final ChangeListener listener) {
+		if(listener==null) throw new IllegalArgumentException("The passed listener was null");
+		holder(poolKey, cacheName).watch(new Watch(keyFilter, listener));
+	}
+	
+	/**
+	 * Unregisters a change listener from an instance cache
+	 * @param poolKey The pool key of the MQ instance
+	 * @param cacheName The instance cache name
+	 * @param listener The listener to remove
+	 */
+	public void removeChangeListener(final String poolKey, final String cacheName, final ChangeListener listener) {
+		final SnapshotHolder holder = snapshots.get(poolKey + "/" + cacheName);
+		if(holder!=null) holder.unwatch(listener);
+	}
+	
+	/**
+	 * Bulk loads an instance cache. Only one load runs at a time for each pool key and cache name;
+	 * callers arriving while a load is running wait for it and share its result.
+	 * The loaded entries are published in one batch before any waiting caller is released.
+	 * @param poolKey The pool key of the MQ instance
+	 * @param cacheName The instance cache name
+	 * @param cache The cache to load
+	 * @param loader The loader which returns the full cache contents
+	 * @return the loaded contents
+	 */
+	protected Map<?,?> load(final String poolKey, final String cacheName, final Cache<Object, Object> cache, final Callable<Map<?,?>> loader) {
+		final String key = poolKey + "/" + cacheName;
+		final CompletableFuture<Map<?,?>> mine = new CompletableFuture<Map<?,?>>();
+		final CompletableFuture<Map<?,?>> existing = bulkLoads.putIfAbsent(key, mine);
+		if(existing!=null) {
 			try {
-				loaded = (Map<K, V>) loader.call();
-			} catch (Exception ex) {
-				log.error("Failed to load cache [{}/{}] with loader [{}]", poolKey, cacheName, loader, ex);
-				throw new RuntimeException(ex.getMessage(),ex);
+				return existing.join();
+			} catch (CompletionException cex) {
+				final Throwable cause = cex.getCause();
+				throw new RuntimeException(cause.getMessage(), cause);
 			}
-			loaded.entrySet().parallelStream().forEach(entry -> {
-				cache.put(entry.getKey(), entry.getValue());
-			});			
 		}
-		return new HashMap<K,V>(cache.asMap());
+		final CacheStatistics stats = statistics(poolKey, cacheName);
+		final long start = System.nanoTime();
+		final long startTime = System.currentTimeMillis();
+		try {
+			final Map<?,?> loaded = loader.call();
+			final SnapshotHolder holder = holder(poolKey, cacheName);
+			// readers keep the prior snapshot until the whole load is applied, then it is published once
+			holder.beginLoad();
+			// marked complete before the entries are applied, so a size or weight eviction while applying them clears the mark again
+			completeSince.put(key, startTime);
+			try {
+				cache.putAll(loaded);
+				// drop objects which no longer exist on the queue manager
+				cache.asMap().keySet().retainAll(loaded.keySet());
+			} catch (RuntimeException ex) {
+				completeSince.remove(key);
+				throw ex;
+			} finally {
+				holder.endLoad();
+			}
+			holder.reportLoad(loaded);
+			final CacheRefresher.Settings settings = refreshSettings.get(cacheName);
+			if(settings!=null) {
+				refresher.loaded(poolKey, cacheName, () -> load(poolKey, cacheName, cache, loader), settings);
+			}
+			stats.loaded(System.nanoTime() - start, true);
+			enforceBudget();
+			mine.complete(loaded);
+			return loaded;
+		} catch (Exception ex) {
+			stats.loadFailed();
+			log.error("Failed to load cache [{}/{}] with loader [{}]", poolKey, cacheName, loader, ex);
+			mine.completeExceptionally(ex);
+			throw new RuntimeException(ex.getMessage(),ex);
+		} finally {
+			bulkLoads.remove(key, mine);
+		}
 	}
 	
 	
@@ -148,10 +354,26 @@ public class CacheService {
 	protected final boolean enableJmx;
 	/** The default instance cache specs */
 	protected final Map<String, String> instanceSpecs = new HashMap<String, String>();
+	/** The volatility tier keyed by cache name, for caches assigned to a tier */
+	protected final Map<String, Volatility> cacheTiers = new HashMap<String, Volatility>();
+	/** The heap budgets in bytes keyed by cache name, for caches configured with <b><code>maxBytes</code></b> */
+	protected final Map<String, Long> cacheMaxBytes = new HashMap<String, Long>();
+	/** The heap budget in bytes of all caches, 0 if not bounded */
+	protected final long maxTotalBytes;
+	/** The refresh-ahead settings keyed by cache name, for caches which have refresh-ahead enabled */
+	protected final Map<String, CacheRefresher.Settings> refreshSettings = new HashMap<String, CacheRefresher.Settings>();
+	/** Reloads refresh-ahead caches in the background */
+	protected final CacheRefresher refresher;
+	/** Persists cache snapshots for warm restarts, null if not enabled */
+	protected final SnapshotStore snapshotStore;
 	/** An empty node const */
 	private static final JsonNode EMPTY_NODE = JSONOps.getNodeFactory().nullNode();
 	/** The default concurrency level for caches */
 	public static final String DEFAULT_CONCURRENCY = "concurrencyLevel=" + Runtime.getRuntime().availableProcessors();
+	/** The fraction of the total heap budget caches are trimmed to when it is exceeded */
+	public static final double BUDGET_LOW_WATER = 0.9d;
+	/** Parses a byte count with an optional k, m or g suffix */
+	private static final Pattern BYTES = Pattern.compile("(\\d+)\\s*([kmg]?)b?", Pattern.CASE_INSENSITIVE);
 	/** The default cache spec */
 	public static final String DEFAULT_SPEC = new StringBuilder(DEFAULT_CONCURRENCY).append(",")
 		.append("initialCapacity=").append(1024).append(",")
@@ -162,8 +384,18 @@ public class CacheService {
 	
 //	"defaultConfig" : "",
 //	"jmx" : true,
+//	"maxConcurrentReloads" : 2,
+//	"maxBytes" : "256m",
+//	"persist" : { "enabled" : true, "dir" : "/var/easymq/cache", "intervalMillis" : 60000, "maxAgeMillis" : 86400000 },
+//	"tiers" : {
+//		"definition" : { "spec" : "expireAfterWrite=6h", "refreshAhead" : { "refreshAfterMillis" : 14400000 } },
+//		"status" : { "spec" : "expireAfterWrite=2m", "refreshAhead" : { "refreshAfterMillis" : 90000 } }
+//	},
 //	"caches" : {
-//		"queuenames" : ""
+//		"queuenames" : "",
+//		"queueDefinitions" : { "tier" : "definition" },
+//		"topics" : { "spec" : "", "maxBytes" : "64m" },
+//		"queues" : { "spec" : "", "refreshAhead" : { "refreshAfterMillis" : 90000 } }
 //	}
 	
 	
@@ -174,12 +406,35 @@ public class CacheService {
 				nvl(cacheNode.get("defaultCacheSpec")).asText(""),
 				enableJmx
 		);
+		maxTotalBytes = bytes(cacheNode.path("maxBytes"));
+		refresher = new CacheRefresher(cacheNode.path("maxConcurrentReloads").asInt(CacheRefresher.DEFAULT_MAX_CONCURRENT_RELOADS));
+		snapshotStore = SnapshotStore.from(cacheNode.path("persist"), snapshots::values);
+		Runtime.getRuntime().addShutdownHook(new Thread("CacheServiceShutdown"){
+			@Override
+			public void run() {
+				refresher.shutdown();
+				if(snapshotStore!=null) snapshotStore.shutdown();
+			}
+		});
+		final JsonNode tiersNode = cacheNode.path("tiers");
 		final JsonNode cacheInstancesNode = nvl(cacheNode.get("caches"));		
 		if(cacheInstancesNode!=EMPTY_NODE) {
 			int specCount = 0;
 			for(final Iterator<Entry<String, JsonNode>> iter = cacheInstancesNode.fields(); iter.hasNext();) {
 				final Entry<String, JsonNode> entry = iter.next();
-				instanceSpecs.put(entry.getKey(), defaultCacheSpec(entry.getValue().textValue(), enableJmx));
+				final JsonNode cacheDef = tiered(entry.getKey(), entry.getValue(), tiersNode);
+				// a cache is either a plain spec string or an object with a spec and optional refresh-ahead settings
+				final String spec = cacheDef.isObject() ? cacheDef.path("spec").asText("") : cacheDef.textValue();
+				instanceSpecs.put(entry.getKey(), defaultCacheSpec(spec, enableJmx));
+				final long maxBytes = bytes(cacheDef.path("maxBytes"));
+				if(maxBytes > 0) cacheMaxBytes.put(entry.getKey(), maxBytes);
+				if(cacheDef.isObject()) {
+					final CacheRefresher.Settings settings = CacheRefresher.Settings.from(cacheDef.get("refreshAhead"), instanceSpecs.get(entry.getKey()));
+					if(settings!=null) {
+						refreshSettings.put(entry.getKey(), settings);
+						log.info("Cache [{}] refreshes ahead after [{}] ms.", entry.getKey(), settings.refreshAfterMillis);
+					}
+				}
 				specCount++;
 			}
 			log.info("Loaded [{}] cache specs", specCount);
@@ -188,6 +443,36 @@ public class CacheService {
 		
 	}
 	
+	/**
+	 * Applies a cache's volatility tier defaults. A cache definition with a <b><code>tier</code></b> takes the
+	 * <b><code>spec</code></b> and <b><code>refreshAhead</code></b> of the named entry in <b><code>tiers</code></b>,
+	 * unless it sets them itself.
+	 * @param cacheName The cache name
+	 * @param cacheDef The cache definition
+	 * @param tiersNode The tier definitions
+	 * @return the effective cache definition
+	 */
+	protected JsonNode tiered(final String cacheName, final JsonNode cacheDef, final JsonNode tiersNode) {
+		if(!cacheDef.isObject() || !cacheDef.has("tier")) return cacheDef;
+		final Volatility tier = Volatility.decode(cacheDef.get("tier").asText());
+		final JsonNode tierDef = tiersNode.path(tier.configName());
+		if(!tierDef.isObject()) throw new IllegalArgumentException("No tier [" + tier.configName() + "] defined for cache [" + cacheName + "]");
+		cacheTiers.put(cacheName, tier);
+		final ObjectNode merged = ((ObjectNode)tierDef).deepCopy();
+		merged.setAll((ObjectNode)cacheDef);
+		log.info("Cache [{}] is in the [{}] tier", cacheName, tier.configName());
+		return merged;
+	}
+	
+	/**
+	 * Returns the volatility tier of the named cache
+	 * @param cacheName The cache name
+	 * @return the tier or null if the cache is not assigned to a tier
+	 */
+	public Volatility getTier(final String cacheName) {
+		return cacheTiers.get(cacheName);
+	}
+	
 	/**
 	 * Returns (creating if necessary) instance caches for the passed MQ instance key
 	 * @param key The instance key
@@ -202,13 +487,7 @@ public class CacheService {
 					final StringBuilder b = new StringBuilder("===Created instance caches for [").append(key).append("]:");
 					allInstanceCaches = new ConcurrentHashMap<String, Cache<?,?>>(64, 0.75f, Runtime.getRuntime().availableProcessors());
 					for(final Map.Entry<String, String> entry: instanceSpecs.entrySet()) {
-						final DelegatingRemovalListener<?, ?> listener = new DelegatingRemovalListener<Object, Object> (); 
-						final Cache<?,?> cache = CacheBuilder
-								.from(entry.getValue())
-								.removalListener(listener)
-								.build();
-						registerCacheMBean(key,entry.getKey(), cache, listener);
-						allInstanceCaches.put(entry.getKey(), cache);
+						allInstanceCaches.put(entry.getKey(), buildCache(key, entry.getKey(), entry.getValue()));
 						b.append("\n\t").append(entry.getKey());					
 					}
 					b.append("\n===");
@@ -220,20 +499,126 @@ public class CacheService {
 		return allInstanceCaches;
 	}
 	
+	/**
+	 * Creates the statistics for a new cache, publishes them to the metric registry as
+	 * <b><code>cache.&lt;pool key&gt;.&lt;cache name&gt;.*</code></b> and, if JMX is enabled,
+	 * registers them as an MBean under the pool key's object name
+	 * @param poolKey The instance key
+	 * @param cacheName The cache name
+	 * @param cache The cache
+	 * @param listener The cache's removal listener
+	 */
 	protected void registerCacheMBean(final String poolKey, final String cacheName, final Cache<?,?> cache, final DelegatingRemovalListener<?, ?> listener) {
-		if(enableJmx) {
+		ObjectName on = null;
+		try {
+			on = new ObjectName(PoolKey.poolKey(poolKey).objectName() + ",cacheName=" + cacheName);
+		} catch (Exception ex) {
+			log.warn("Failed to create CacheMBean ObjectName for [{}/{}]", poolKey, cacheName, ex);
+		}
+		final CacheStatistics cs = new CacheStatistics(cache, on, listener, 
+			MetricsService.getInstance().getRegistry(), MetricRegistry.name("cache", poolKey, cacheName));
+		statistics.put(poolKey + "/" + cacheName, cs);
+		if(enableJmx && on!=null) {
 			try {
-				final PoolKey pk = PoolKey.poolKey(poolKey);
-				final ObjectName on = new ObjectName(pk.objectName() + ",cacheName=" + cacheName);
-				final CacheStatistics cs = new CacheStatistics(cache, on, listener);
 				ManagementFactory.getPlatformMBeanServer().registerMBean(cs, on);
-				
 			} catch (Exception ex) {
-				log.warn("Failed to create CacheMBean for [{}/{}]", ex);
+				log.warn("Failed to create CacheMBean for [{}/{}]", poolKey, cacheName, ex);
+			}
+		}
+	}
+	
+	/**
+	 * Trims the caches bounded by heap when their total estimated heap exceeds the total budget.
+	 * The heaviest cache is trimmed first, until it is no heavier than the next or the total is back
+	 * under {@link #BUDGET_LOW_WATER} of the budget. Each cache's own budget is enforced by the cache itself.
+	 */
+	protected void enforceBudget() {
+		if(maxTotalBytes <= 0 || totalWeight.get() <= maxTotalBytes) return;
+		synchronized(weighers) {
+			final long target = (long)(maxTotalBytes * BUDGET_LOW_WATER);
+			while(totalWeight.get() > target) {
+				String heaviest = null;
+				long heaviestWeight = 0L, nextWeight = 0L;
+				for(Map.Entry<String, EntryWeigher> entry: weighers.entrySet()) {
+					final long w = entry.getValue().getWeight();
+					if(w > heaviestWeight) {
+						nextWeight = heaviestWeight;
+						heaviestWeight = w;
+						heaviest = entry.getKey();
+					} else if(w > nextWeight) {
+						nextWeight = w;
+					}
+				}
+				if(heaviest==null) break;
+				final EntryWeigher weigher = weighers.get(heaviest);
+				final CacheStatistics stats = statistics.get(heaviest);
+				final Iterator<Object> keys = snapshots.get(heaviest).cache.asMap().keySet().iterator();
+				int evicted = 0;
+				// the removals are explicit to the cache, the statistics count them as budget evictions
+				stats.trimming(true);
+				try {
+					while(keys.hasNext() && totalWeight.get() > target && weigher.getWeight() >= nextWeight) {
+						keys.next();
+						keys.remove();
+						evicted++;
+					}
+				} finally {
+					stats.trimming(false);
+				}
+				if(evicted > 0) completeSince.remove(heaviest);
+				log.warn("Cache heap budget of [{}] bytes exceeded, evicted [{}] entries from [{}]", maxTotalBytes, evicted, heaviest);
+				if(evicted==0) break;
 			}
 		}
 	}
 	
+	/**
+	 * Removes the size bound from a cache spec, since it cannot be combined with a weight bound
+	 * @param spec The cache spec
+	 * @return the spec without <b><code>maximumSize</code></b>
+	 */
+	static String withoutMaximumSize(final String spec) {
+		final StringBuilder b = new StringBuilder();
+		for(String s: spec.split(",")) {
+			if(s.trim().isEmpty() || s.trim().startsWith("maximumSize")) continue;
+			if(b.length() > 0) b.append(",");
+			b.append(s.trim());
+		}
+		return b.toString();
+	}
+	
+	/**
+	 * Reads a byte count from a config node, either a number or a string with an optional k, m or g suffix
+	 * @param node The config node
+	 * @return the byte count or 0 if the node is missing
+	 */
+	static long bytes(final JsonNode node) {
+		if(node==null || node.isMissingNode() || node.isNull()) return 0L;
+		if(node.isNumber()) return node.asLong();
+		final Matcher m = BYTES.matcher(node.asText().trim());
+		if(!m.matches()) throw new IllegalArgumentException("Invalid byte count [" + node.asText() + "]");
+		final long v = Long.parseLong(m.group(1));
+		switch(m.group(2).toLowerCase()) {
+			case "k": return v << 10;
+			case "m": return v << 20;
+			case "g": return v << 30;
+			default: return v;
+		}
+	}
+	
+	/**
+	 * Returns the statistics of the passed cache, creating the cache if necessary
+	 * @param poolKey The instance key
+	 * @param cacheName The cache name
+	 * @return the cache statistics
+	 */
+	protected CacheStatistics statistics(final String poolKey, final String cacheName) {
+		final CacheStatistics stats = statistics.get(poolKey + "/" + cacheName);
+		if(stats!=null) return stats;
+		getNamedInstanceCache(poolKey, cacheName);
+		return statistics.get(poolKey + "/" + cacheName);
+	}
+	
 	/**
 	 * Returns (creating if necessary) the named instance cache for the passed MQ instance key and cache name
 	 * @param poolKey The instance key
@@ -247,13 +632,7 @@ public class CacheService {
 			synchronized(instanceCache) {
 				cache = instanceCache.get(cacheName);
 				if(cache==null) {
-					final DelegatingRemovalListener<?, ?> listener = new DelegatingRemovalListener<Object, Object> (); 
-					
-					cache = CacheBuilder
-						.from(defaultCacheSpec(null, enableJmx))
-						.removalListener(listener)
-						.build();
-					registerCacheMBean(poolKey, cacheName, cache, listener);
+					cache = buildCache(poolKey, cacheName, defaultCacheSpec(null, enableJmx));
 					instanceCache.put(cacheName, cache);					
 				}
 			}
@@ -261,6 +640,261 @@ public class CacheService {
 		return cache;		
 	}
 	
+	/**
+	 * Builds a new instance cache and its snapshot holder. Evictions and expiries mark the snapshot stale.
+	 * If persistence is enabled the cache starts with the contents of its last persisted snapshot.
+	 * @param poolKey The instance key
+	 * @param cacheName The cache name
+	 * @param spec The cache spec
+	 * @return the new cache
+	 */
+	protected Cache<?,?> buildCache(final String poolKey, final String cacheName, final String spec) {
+		final DelegatingRemovalListener<Object, Object> listener = new DelegatingRemovalListener<Object, Object> (); 
+		final Long cacheBytes = cacheMaxBytes.get(cacheName);
+		final long maxBytes = cacheBytes!=null ? (maxTotalBytes > 0 ? Math.min(cacheBytes, maxTotalBytes) : cacheBytes) : maxTotalBytes;
+		final Cache<Object,Object> cache;
+		if(maxBytes > 0) {
+			// bounded by estimated heap instead of entry count
+			final EntryWeigher weigher = new EntryWeigher(totalWeight);
+			listener.addDelegates(weigher);
+			cache = CacheBuilder
+				.from(withoutMaximumSize(spec))
+				.maximumWeight(maxBytes)
+				.weigher(weigher)
+				.removalListener(listener)
+				.build();
+			weighers.put(poolKey + "/" + cacheName, weigher);
+			MetricsService.getInstance().getRegistry().register(MetricRegistry.name("cache", poolKey, cacheName, "bytes"), (Gauge<Long>)weigher::getWeight);
+		} else {
+			cache = CacheBuilder
+				.from(spec)
+				.removalListener(listener)
+				.build();
+		}
+		final SnapshotHolder holder = new SnapshotHolder(poolKey, cacheName, cache);
+		listener.addDelegates(rn -> {
+			// entries replaced by a bulk load are covered by the single change the load stamps when it ends
+			if(rn.getCause()!=RemovalCause.REPLACED || holder.loading==0) holder.changed();
+		});
+		listener.addDelegates(rn -> {
+			if(rn.wasEvicted()) completeSince.remove(poolKey + "/" + cacheName);
+		});
+		if(snapshotStore!=null) {
+			final Map<Object, Object> persisted = snapshotStore.read(poolKey, cacheName);
+			if(persisted!=null && !persisted.isEmpty()) {
+				cache.putAll(persisted);
+				holder.changed();
+				restored.add(poolKey + "/" + cacheName);
+			}
+		}
+		snapshots.put(poolKey + "/" + cacheName, holder);
+		registerCacheMBean(poolKey, cacheName, cache, listener);
+		return cache;
+	}
+	
+	/**
+	 * Returns the snapshot holder for the passed cache, creating the cache if necessary
+	 * @param poolKey The instance key
+	 * @param cacheName The cache name
+	 * @return the snapshot holder
+	 */
+	protected SnapshotHolder holder(final String poolKey, final String cacheName) {
+		final SnapshotHolder holder = snapshots.get(poolKey + "/" + cacheName);
+		if(holder!=null) return holder;
+		getNamedInstanceCache(poolKey, cacheName);
+		return snapshots.get(poolKey + "/" + cacheName);
+	}
+	
+	/**
+	 * <p>Title: SnapshotHolder</p>
+	 * <p>Description: Tracks changes to one cache and publishes its snapshots.
+	 * Writers only bump the change count; the next reader after a change builds a new snapshot once and
+	 * every later reader shares it until the count moves again.</p>
+	 */
+	protected static class SnapshotHolder {
+		/** Static class logger */
+		private static final Logger LOG = LoggerFactory.getLogger(SnapshotHolder.class);
+		/** The MQ instance pool key */
+		final String poolKey;
+		/** The cache name */
+		final String cacheName;
+		/** The cache */
+		final Cache<Object,Object> cache;
+		/** The number of changes made to the cache */
+		final AtomicLong changes = new AtomicLong(0L);
+		/** The last published snapshot version */
+		long version = 0L;
+		/** The current snapshot */
+		volatile CacheSnapshot<Object,Object> snapshot;
+		/** The registered change listeners */
+		final List<Watch> watches = new CopyOnWriteArrayList<Watch>();
+		/** The entries last reported to the change listeners, only accessed on the notifier thread, null while there are no listeners */
+		Map<Object,Object> reported = null;
+		/** The number of bulk loads being applied to the cache, only modified while holding this holder's lock */
+		volatile int loading = 0;
+		
+		SnapshotHolder(final String poolKey, final String cacheName, final Cache<Object,Object> cache) {
+			this.poolKey = poolKey;
+			this.cacheName = cacheName;
+			this.cache = cache;
+			snapshot = new CacheSnapshot<Object,Object>(cache.asMap(), version, 0L);
+		}
+		
+		/**
+		 * Records a change to the cache
+		 */
+		void changed() {
+			changes.incrementAndGet();
+		}
+		
+		/**
+		 * Marks the start of a bulk load. Until the matching {@link #endLoad()}, the current snapshot is not rebuilt,
+		 * so readers and change listeners never see a partly applied load. Waits for a snapshot copy in progress.
+		 */
+		synchronized void beginLoad() {
+			loading++;
+		}
+		
+		/**
+		 * Marks the end of a bulk load and publishes the loaded contents as one new snapshot
+		 */
+		void endLoad() {
+			synchronized(this) {
+				loading--;
+			}
+			changes.incrementAndGet();
+			current();
+		}
+		
+		/**
+		 * Returns the current snapshot, rebuilding it if the cache changed since it was built.
+		 * While a bulk load is being applied, the prior snapshot is returned.
+		 * @return the current snapshot
+		 */
+		CacheSnapshot<Object,Object> current() {
+			CacheSnapshot<Object,Object> s = snapshot;
+			if(s.changes==changes.get()) return s;
+			synchronized(this) {
+				s = snapshot;
+				if(loading > 0) return s;
+				// read the count before copying so a change made during the copy stales the new snapshot
+				final long c = changes.get();
+				if(s.changes==c) return s;
+				final CacheSnapshot<Object,Object> next = new CacheSnapshot<Object,Object>(cache.asMap(), version + 1, c);
+				if(next.sameContents(s)) {
+					snapshot = s.restamp(c);
+				} else {
+					version++;
+					snapshot = next;
+				}
+				return snapshot;
+			}
+		}
+		
+		/**
+		 * Registers a change listener. The entries reported so far are taken from the current snapshot, so the
+		 * listener only receives later changes.
+		 * @param watch The listener and its key filter
+		 */
+		void watch(final Watch watch) {
+			watches.add(watch);
+			changeNotifier.execute(() -> {
+				if(reported==null) reported = new HashMap<Object,Object>(current());
+			});
+		}
+		
+		/**
+		 * Unregisters a change listener, dropping the reported entries when it was the last one
+		 * @param listener The listener
+		 */
+		void unwatch(final ChangeListener listener) {
+			watches.removeIf(w -> w.listener==listener);
+			changeNotifier.execute(() -> {
+				if(watches.isEmpty()) reported = null;
+			});
+		}
+		
+		/**
+		 * Reports a completed bulk load to the change listeners. Reported entries the load did not return are removed.
+		 * @param loaded The loaded entries
+		 */
+		void reportLoad(final Map<?,?> loaded) {
+			if(watches.isEmpty()) return;
+			changeNotifier.execute(() -> {
+				if(reported==null) return;
+				final List<CacheChange> changes = CacheChange.diff(poolKey, cacheName, current().getVersion(), reported, loaded);
+				reported = new HashMap<Object,Object>(loaded);
+				deliver(changes);
+			});
+		}
+		
+		/**
+		 * Reports a single entry put to the change listeners
+		 * @param key The cache key
+		 * @param value The new value
+		 */
+		void reportPut(final Object key, final Object value) {
+			if(watches.isEmpty()) return;
+			changeNotifier.execute(() -> {
+				if(reported==null) return;
+				final CacheChange change = CacheChange.change(poolKey, cacheName, current().getVersion(), key, reported.put(key, value), value);
+				if(change!=null) deliver(Collections.singletonList(change));
+			});
+		}
+		
+		/**
+		 * Reports a single entry removal to the change listeners
+		 * @param key The cache key
+		 */
+		void reportRemove(final Object key) {
+			if(watches.isEmpty()) return;
+			changeNotifier.execute(() -> {
+				if(reported==null) return;
+				final CacheChange change = CacheChange.change(poolKey, cacheName, current().getVersion(), key, reported.remove(key), null);
+				if(change!=null) deliver(Collections.singletonList(change));
+			});
+		}
+		
+		/**
+		 * Delivers changes to the change listeners whose key filter they pass
+		 * @param changes The changes
+		 */
+		private void deliver(final List<CacheChange> changes) {
+			if(changes.isEmpty()) return;
+			for(Watch watch: watches) {
+				final List<CacheChange> watched;
+				if(watch.keyFilter==null) {
+					watched = changes;
+				} else {
+					watched = new ArrayList<CacheChange>();
+					for(CacheChange change: changes) {
+						if(watch.keyFilter.test(change.key)) watched.add(change);
+					}
+					if(watched.isEmpty()) continue;
+				}
+				try {
+					watch.listener.onChange(watched);
+				} catch (Exception ex) {
+					LOG.warn("Change listener failed on [{}/{}]", poolKey, cacheName, ex);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: Watch</p>
+	 * <p>Description: A change listener and the filter on the keys it watches</p>
+	 */
+	private static class Watch {
+		final Predicate<Object> keyFilter;
+		final ChangeListener listener;
+		
+		Watch(final Predicate<Object> keyFilter, final ChangeListener listener) {
+			this.keyFilter = keyFilter;
+			this.listener = listener;
+		}
+	}
+	
 
 	
 	protected static String defaultCacheSpec(final String baseSpec, final boolean enableStats) {
@@ -0,0 +1,158 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.cache;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * <p>Title: CacheSnapshot</p>
+ * <p>Description: An immutable, versioned copy of an instance cache's contents.
+ * A snapshot is built once when the cache has changed and is then shared by every reader until the next change.
+ * The version increases each time a cache publishes a new snapshot.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.cache.CacheSnapshot</code></p>
+ */
+
+public class CacheSnapshot<K, V> extends AbstractMap<K, V> {
+	/** The snapshot contents */
+	private final Map<K, V> contents;
+	/** The snapshot version */
+	private final long version;
+	/** The time the snapshot was published in ms. */
+	private final long timestamp;
+	/** The cache change count the snapshot was built at */
+	final long changes;
+
+	/** Distinguishes versions issued by different runs of this JVM, since versions restart at 1 */
+	public static final long EPOCH = System.currentTimeMillis();
+
+	/**
+	 * Creates a new CacheSnapshot
+	 * @param contents The contents to copy
+	 * @param version The snapshot version
+	 * @param changes The cache change count the snapshot was built at
+	 */
+	CacheSnapshot(final Map<K, V> contents, final long version, final long changes) {
+		this(Collections.unmodifiableMap(new HashMap<K, V>(contents)), version, System.currentTimeMillis(), changes);
+	}
+
+	private CacheSnapshot(final Map<K, V> contents, final long version, final long timestamp, final long changes) {
+		this.contents = contents;
+		this.version = version;
+		this.timestamp = timestamp;
+		this.changes = changes;
+	}
+
+	/**
+	 * Returns a snapshot sharing this snapshot's contents and version, stamped with a later change count.
+	 * Used when the cache changed but its contents ended up equal, e.g. after a reload returned the same data.
+	 * @param changes The cache change count
+	 * @return the restamped snapshot
+	 */
+	CacheSnapshot<K, V> restamp(final long changes) {
+		return new CacheSnapshot<K, V>(contents, version, timestamp, changes);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.AbstractMap#entrySet()
+	 */
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return contents.entrySet();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.AbstractMap#get(java.lang.Object)
+	 */
+	@Override
+	public V get(final Object key) {
+		return contents.get(key);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.AbstractMap#containsKey(java.lang.Object)
+	 */
+	@Override
+	public boolean containsKey(final Object key) {
+		return contents.containsKey(key);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.AbstractMap#size()
+	 */
+	@Override
+	public int size() {
+		return contents.size();
+	}
+
+	/**
+	 * Compares the contents of two snapshots. Map values are compared attribute by attribute and arrays by value,
+	 * so the result does not depend on which map implementation, e.g. a queue status row or an <b><code>EnumMap</code></b>,
+	 * holds an entry on either side.
+	 * @param other The snapshot to compare with
+	 * @return true if both snapshots hold the same keys and equal values
+	 */
+	boolean sameContents(final CacheSnapshot<?, ?> other) {
+		if(other.size()!=size()) return false;
+		for(Map.Entry<K, V> entry: contents.entrySet()) {
+			final Object v = entry.getValue();
+			final Object o = other.get(entry.getKey());
+			if(o==null && !other.containsKey(entry.getKey())) return false;
+			if(v instanceof Map && o instanceof Map) {
+				final Map<?, ?> a = (Map<?, ?>)v, b = (Map<?, ?>)o;
+				if(a.size()!=b.size()) return false;
+				for(Map.Entry<?, ?> attr: a.entrySet()) {
+					if(!b.containsKey(attr.getKey()) || !Objects.deepEquals(attr.getValue(), b.get(attr.getKey()))) return false;
+				}
+			} else if(!Objects.deepEquals(v, o)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the snapshot version
+	 * @return the version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the time the snapshot was published
+	 * @return the publish time in ms.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns an HTTP entity tag for this snapshot, unique across JVM restarts
+	 * @return the quoted entity tag
+	 */
+	public String etag() {
+		return "\"" + Long.toHexString(EPOCH) + "-" + version + "\"";
+	}
+
+}
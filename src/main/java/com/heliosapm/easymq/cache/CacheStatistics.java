@@ -15,12 +15,18 @@ package com.heliosapm.easymq.cache;
 import java.util.EnumMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAdder;
 
 import javax.management.ObjectName;
 
 import com.codahale.metrics.CachedGauge;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheStats;
 import com.google.common.cache.RemovalCause;
@@ -29,7 +35,12 @@ import com.google.common.cache.RemovalNotification;
 
 /**
  * <p>Title: CacheStatistics</p>
- * <p>Description: Guava cache JMX managed stats</p> 
+ * <p>Description: Guava cache JMX managed stats. Load latencies, hit, miss and removal cause rates and the
+ * time since the last bulk load are also published to the metric registry as
+ * <b><code>cache.&lt;pool key&gt;.&lt;cache name&gt;.*</code></b>. Hit and miss rates are sampled from the
+ * cache's cumulative stats every {@link #SAMPLE_PERIOD_SECS} seconds. Snapshot reads do not go through the cache's
+ * lookup methods, so they are counted as they happen. Entries removed to keep all caches within the heap budget
+ * are counted as budget evictions rather than as explicit removals.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>com.heliosapm.easymq.cache.CacheStatistics</code></p>
@@ -43,8 +54,45 @@ public class CacheStatistics implements CacheStatisticsMBean, RemovalListener {
 	/** Removal cause counters */
 	protected final EnumMap<RemovalCause, LongAdder> removalCauseCounts = new EnumMap<RemovalCause, LongAdder>(RemovalCause.class);
 	
+	/** The load latency timer, covering bulk and single key loads */
+	protected final Timer loads;
+	/** The failed load meter */
+	protected final Meter loadFailures;
+	/** The cache hit meter */
+	protected final Meter hits;
+	/** The cache miss meter */
+	protected final Meter misses;
+	/** Removal cause meters */
+	protected final EnumMap<RemovalCause, Meter> removalCauseRates = new EnumMap<RemovalCause, Meter>(RemovalCause.class);
+	/** The budget eviction meter */
+	protected final Meter budgetEvictions;
+	/** The budget eviction counter */
+	protected final LongAdder budgetEvictionCount = new LongAdder();
+	/** The snapshot reads served from the loaded cache */
+	protected final LongAdder snapshotHits = new LongAdder();
+	/** The snapshot reads which loaded the cache */
+	protected final LongAdder snapshotMisses = new LongAdder();
+	/** Set while the current thread trims this cache to the heap budget */
+	private final ThreadLocal<Boolean> trimming = new ThreadLocal<Boolean>();
+	/** The time of the last successful bulk load in ms, 0 if none */
+	protected volatile long lastBulkLoad = 0L;
+	/** The hit count at the last sample */
+	private long sampledHits = 0L;
+	/** The miss count at the last sample */
+	private long sampledMisses = 0L;
+	
 	private static final RemovalCause[] REMOVAL_CAUSES = RemovalCause.values(); 
 	
+	/** The period in seconds of the hit and miss samples, which matches the meters' rate tick */
+	public static final int SAMPLE_PERIOD_SECS = 5;
+	
+	/** Samples the hit and miss counts of all caches */
+	private static final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+		final Thread t = new Thread(r, "CacheStatisticsSampler");
+		t.setDaemon(true);
+		return t;
+	});
+	
 	/** A cache stats gauge */
 	protected final CachedGauge<CacheStats> cacheStats = new CachedGauge<CacheStats>(2, TimeUnit.SECONDS) {
 		@Override
@@ -57,16 +105,80 @@ public class CacheStatistics implements CacheStatisticsMBean, RemovalListener {
 	 * Creates a new CacheStatistics
 	 * @param cache The guava cache instance to wrap
 	 * @param objectName The assigned JMX ObjectName for this cache
+	 * @param listener The cache's removal listener
+	 * @param registry The metric registry to publish to
+	 * @param prefix The metric name prefix
 	 */
 	@SuppressWarnings("unchecked")
-	public CacheStatistics(final Cache<?, ?> cache, final ObjectName objectName, final DelegatingRemovalListener<?,?> listener) {
+	public CacheStatistics(final Cache<?, ?> cache, final ObjectName objectName, final DelegatingRemovalListener<?,?> listener, final MetricRegistry registry, final String prefix) {
 		this.cache = cache;
 		this.objectName = objectName;		
-		listener.addDelegates(this);
+		loads = registry.timer(MetricRegistry.name(prefix, "loads"));
+		loadFailures = registry.meter(MetricRegistry.name(prefix, "loadFailures"));
+		hits = registry.meter(MetricRegistry.name(prefix, "hits"));
+		misses = registry.meter(MetricRegistry.name(prefix, "misses"));
+		budgetEvictions = registry.meter(MetricRegistry.name(prefix, "removals", "budget"));
 		for(RemovalCause rc: REMOVAL_CAUSES) {
 			removalCauseCounts.put(rc, new LongAdder());			
+			removalCauseRates.put(rc, registry.meter(MetricRegistry.name(prefix, "removals", rc.name().toLowerCase())));
+		}
+		registry.register(MetricRegistry.name(prefix, "size"), (Gauge<Long>)cache::size);
+		registry.register(MetricRegistry.name(prefix, "msSinceLastBulkLoad"), (Gauge<Long>)this::getMillisSinceLastBulkLoad);
+		listener.addDelegates(this);
+		sampler.scheduleAtFixedRate(this::sample, SAMPLE_PERIOD_SECS, SAMPLE_PERIOD_SECS, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Marks the hits and misses since the last sample
+	 */
+	private void sample() {
+		final CacheStats stats = cache.stats();
+		hits.mark(stats.hitCount() - sampledHits);
+		misses.mark(stats.missCount() - sampledMisses);
+		sampledHits = stats.hitCount();
+		sampledMisses = stats.missCount();
+	}
+	
+	/**
+	 * Records a load
+	 * @param nanos The elapsed time of the load in ns.
+	 * @param bulk true for a bulk load of the whole cache, false for a single key
+	 */
+	public void loaded(final long nanos, final boolean bulk) {
+		loads.update(nanos, TimeUnit.NANOSECONDS);
+		if(bulk) lastBulkLoad = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Records a failed load
+	 */
+	public void loadFailed() {
+		loadFailures.mark();
+	}
+	
+	/**
+	 * Records a read of the cache's snapshot
+	 * @param hit true if the read was served from the loaded cache, false if it loaded the cache
+	 */
+	public void snapshotRead(final boolean hit) {
+		if(hit) {
+			snapshotHits.increment();
+			hits.mark();
+		} else {
+			snapshotMisses.increment();
+			misses.mark();
 		}
 	}
+	
+	/**
+	 * Marks the start or end of a trim of this cache to the heap budget by the current thread.
+	 * Explicit removals notified while the trim runs are counted as budget evictions.
+	 * @param active true when the trim starts, false when it ends
+	 */
+	public void trimming(final boolean active) {
+		if(active) trimming.set(Boolean.TRUE);
+		else trimming.remove();
+	}
 
 	/**
 	 * {@inheritDoc}
@@ -74,7 +186,130 @@ public class CacheStatistics implements CacheStatisticsMBean, RemovalListener {
 	 */
 	@Override
 	public void onRemoval(final RemovalNotification rc) {
+		if(rc.getCause()==RemovalCause.EXPLICIT && trimming.get()!=null) {
+			budgetEvictionCount.increment();
+			budgetEvictions.mark();
+			return;
+		}
 		removalCauseCounts.get(rc.getCause()).increment();		
+		removalCauseRates.get(rc.getCause()).mark();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.easymq.cache.CacheStatisticsMBean#getRemovalCauseRates()
+	 */
+	@Override
+	public Map<String, Double> getRemovalCauseRates() {
+		final Map<String, Double> map = new LinkedHashMap<String, Double>(REMOVAL_CAUSES.length);
+		for(Map.Entry<RemovalCause, Meter> entry : removalCauseRates.entrySet()) {
+			map.put(entry.getKey().name(), entry.getValue().getOneMinuteRate());
+		}
+		return map;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.easymq.cache.CacheStatisticsMBean#getLoadLatencyP50()
+	 */
+	@Override
+	public double getLoadLatencyP50() {
+		return millis(loads.getSnapshot().getMedian());
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.easymq.cache.CacheStatisticsMBean#getLoadLatencyP99()
+	 */
+	@Override
+	public double getLoadLatencyP99() {
+		return millis(loads.getSnapshot().get99thPercentile());
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.easymq.cache.CacheStatisticsMBean#getLoadLatencyMax()
+	 */
+	@Override
+	public double getLoadLatencyMax() {
+		return millis(loads.getSnapshot().getMax());
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.easymq.cache.CacheStatisticsMBean#getLoadFailureRate()
+	 */
+	@Override
+	public double getLoadFailureRate() {
+		return loadFailures.getOneMinuteRate();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.easymq.cache.CacheStatisticsMBean#getHitsPerSecond1m()
+	 */
+	@Override
+	public double getHitsPerSecond1m() {
+		return hits.getOneMinuteRate();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.easymq.cache.CacheStatisticsMBean#getHitsPerSecond15m()
+	 */
+	@Override
+	public double getHitsPerSecond15m() {
+		return hits.getFifteenMinuteRate();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.easymq.cache.CacheStatisticsMBean#getMissesPerSecond1m()
+	 */
+	@Override
+	public double getMissesPerSecond1m() {
+		return misses.getOneMinuteRate();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.easymq.cache.CacheStatisticsMBean#getMissesPerSecond15m()
+	 */
+	@Override
+	public double getMissesPerSecond15m() {
+		return misses.getFifteenMinuteRate();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.easymq.cache.CacheStatisticsMBean#getBudgetEvictionCount()
+	 */
+	@Override
+	public long getBudgetEvictionCount() {
+		return budgetEvictionCount.longValue();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.easymq.cache.CacheStatisticsMBean#getBudgetEvictionsPerSecond1m()
+	 */
+	@Override
+	public double getBudgetEvictionsPerSecond1m() {
+		return budgetEvictions.getOneMinuteRate();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.easymq.cache.CacheStatisticsMBean#getMillisSinceLastBulkLoad()
+	 */
+	@Override
+	public long getMillisSinceLastBulkLoad() {
+		final long last = lastBulkLoad;
+		return last==0L ? -1L : System.currentTimeMillis() - last;
+	}
+	
+	private static double millis(final double nanos) {
+		return nanos / 1000000d;
 	}
 	
 	/**
@@ -123,7 +358,7 @@ public class CacheStatistics implements CacheStatisticsMBean, RemovalListener {
 	 */
 	@Override
 	public long getRequestCount() {
-		return cacheStats.getValue().requestCount();
+		return cacheStats.getValue().requestCount() + snapshotHits.longValue() + snapshotMisses.longValue();
 	}
 
 	/**
@@ -132,7 +367,7 @@ public class CacheStatistics implements CacheStatisticsMBean, RemovalListener {
 	 */
 	@Override
 	public long getHitCount() {
-		return cacheStats.getValue().hitCount();
+		return cacheStats.getValue().hitCount() + snapshotHits.longValue();
 	}
 
 	/**
@@ -141,7 +376,8 @@ public class CacheStatistics implements CacheStatisticsMBean, RemovalListener {
 	 */
 	@Override
 	public double getHitRate() {
-		return cacheStats.getValue().hitRate();
+		final long requests = getRequestCount();
+		return requests==0L ? 1.0d : (double)getHitCount() / requests;
 	}
 
 	/**
@@ -150,7 +386,7 @@ public class CacheStatistics implements CacheStatisticsMBean, RemovalListener {
 	 */
 	@Override
 	public long getMissCount() {
-		return cacheStats.getValue().missCount();
+		return cacheStats.getValue().missCount() + snapshotMisses.longValue();
 	}
 
 	/**
@@ -159,7 +395,8 @@ public class CacheStatistics implements CacheStatisticsMBean, RemovalListener {
 	 */
 	@Override
 	public double getMissRate() {
-		return cacheStats.getValue().missRate();
+		final long requests = getRequestCount();
+		return requests==0L ? 0.0d : (double)getMissCount() / requests;
 	}
 
 	/**
@@ -52,7 +52,7 @@ public interface CacheStatisticsMBean {
 	public long getRequestCount();
 
 	/**
-	 * Returns the number of times Cache lookup methods have returned a cached value. 
+	 * Returns the number of times Cache lookup methods have returned a cached value, or a snapshot read was served from the loaded cache. 
 	 * @return the cache hit count
 	 */
 	public long getHitCount();
@@ -64,7 +64,7 @@ public interface CacheStatisticsMBean {
 	public double getHitRate();
 
 	/**
-	 * Returns the number of times Cache lookup methods have returned an uncached (newly loaded) value, or null. Multiple concurrent calls to Cache lookup methods on an absent value can result in multiple misses, all returning the results of a single cache load operation. 
+	 * Returns the number of times Cache lookup methods have returned an uncached (newly loaded) value, or null, or a snapshot read loaded the cache. Multiple concurrent calls to Cache lookup methods on an absent value can result in multiple misses, all returning the results of a single cache load operation. 
 	 * @return the cache miss count
 	 */
 	public long getMissCount();
@@ -123,6 +123,78 @@ public interface CacheStatisticsMBean {
 	 * @return the cache eviction count
 	 */
 	public long getEvictionCount();
+	
+	/**
+	 * Returns the median load latency over about the last five minutes
+	 * @return the median load latency in ms.
+	 */
+	public double getLoadLatencyP50();
+	
+	/**
+	 * Returns the 99th percentile load latency over about the last five minutes
+	 * @return the 99th percentile load latency in ms.
+	 */
+	public double getLoadLatencyP99();
+	
+	/**
+	 * Returns the maximum load latency over about the last five minutes
+	 * @return the maximum load latency in ms.
+	 */
+	public double getLoadLatencyMax();
+	
+	/**
+	 * Returns the one minute rate of failed loads
+	 * @return the failed loads per second
+	 */
+	public double getLoadFailureRate();
+	
+	/**
+	 * Returns the one minute hit rate
+	 * @return the hits per second
+	 */
+	public double getHitsPerSecond1m();
+	
+	/**
+	 * Returns the fifteen minute hit rate
+	 * @return the hits per second
+	 */
+	public double getHitsPerSecond15m();
+	
+	/**
+	 * Returns the one minute miss rate
+	 * @return the misses per second
+	 */
+	public double getMissesPerSecond1m();
+	
+	/**
+	 * Returns the fifteen minute miss rate
+	 * @return the misses per second
+	 */
+	public double getMissesPerSecond15m();
+	
+	/**
+	 * Returns the one minute rate of removals for each removal cause
+	 * @return the removals per second keyed by removal cause
+	 */
+	public Map<String, Double> getRemovalCauseRates();
+	
+	/**
+	 * Returns the time since the last successful bulk load
+	 * @return the elapsed time in ms. or -1 if the cache has not been bulk loaded
+	 */
+	public long getMillisSinceLastBulkLoad();
+	
+	/**
+	 * Returns the number of entries removed to keep all caches within the heap budget
+	 * @return the budget eviction count
+	 */
+	public long getBudgetEvictionCount();
+	
+	/**
+	 * Returns the one minute rate of entries removed to keep all caches within the heap budget
+	 * @return the budget evictions per second
+	 */
+	public double getBudgetEvictionsPerSecond1m();
 
 
 }
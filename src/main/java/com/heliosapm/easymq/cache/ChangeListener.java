@@ -0,0 +1,32 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.cache;
+
+import java.util.List;
+
+/**
+ * <p>Title: ChangeListener</p>
+ * <p>Description: Receives the entries of an instance cache which loads and updates added, changed or removed</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.cache.ChangeListener</code></p>
+ */
+
+public interface ChangeListener {
+	/**
+	 * Called once for each load or update which changed at least one watched entry.
+	 * Calls are made in order on a single notifier thread, so implementations should not block.
+	 * @param changes The changed entries
+	 */
+	public void onChange(List<CacheChange> changes);
+}
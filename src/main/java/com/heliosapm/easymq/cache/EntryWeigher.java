@@ -0,0 +1,229 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.cache;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * <p>Title: EntryWeigher</p>
+ * <p>Description: Weighs cache entries by their estimated retained heap in bytes, so caches can be bounded by
+ * a heap budget instead of an entry count. Estimates assume a 64 bit JVM with compressed oops and walk maps,
+ * collections and arrays, so a topic entry holding per connection maps weighs what it costs, not the same as a queue.
+ * Shared instances such as enums and booleans are not counted. The weigher also tracks the total weight of its cache
+ * and of all weighed caches, using the removal notifications to subtract entries as they leave. Values which are views
+ * over shared storage, such as the rows of a table, are tracked with the storage counted once, from when the first view
+ * over it is cached until the last one leaves, so the tracked weight follows the heap the cache actually retains.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.cache.EntryWeigher</code></p>
+ */
+
+public class EntryWeigher implements Weigher<Object, Object>, RemovalListener<Object, Object> {
+	/** The estimated weight of this cache's entries */
+	private final AtomicLong weight = new AtomicLong(0L);
+	/** The estimated weight of all weighed caches' entries */
+	private final AtomicLong total;
+	/** The number of cached views over each shared storage, keyed by storage identity */
+	private final Map<Object, int[]> sharers = new IdentityHashMap<Object, int[]>();
+	
+	/** The estimated overhead in bytes of a cache entry and its table slot */
+	public static final int ENTRY_OVERHEAD = 64;
+	/** The maximum nesting depth walked when estimating */
+	private static final int MAX_DEPTH = 8;
+	
+	/**
+	 * <p>Title: Sized</p>
+	 * <p>Description: Implemented by cached values which know their own retained size, e.g. views over shared storage</p>
+	 */
+	public static interface Sized {
+		/**
+		 * Returns the retained heap of this value
+		 * @return the retained heap in bytes
+		 */
+		public long retainedBytes();
+	}
+	
+	/**
+	 * <p>Title: Shared</p>
+	 * <p>Description: Implemented by cached values which are views over storage shared with other cached values, e.g. the rows of a table.
+	 * {@link #retainedBytes()} returns the view's share of the storage, which bounds the cache, while the tracked weight
+	 * counts the view and, once, the whole storage.</p>
+	 */
+	public static interface Shared extends Sized {
+		/**
+		 * Returns the storage this view shares with other views
+		 * @return the storage
+		 */
+		public Object storage();
+		
+		/**
+		 * Returns the retained heap of the storage
+		 * @return the retained heap in bytes
+		 */
+		public long storageBytes();
+		
+		/**
+		 * Returns the retained heap of the view, not counting the storage
+		 * @return the retained heap in bytes
+		 */
+		public long viewBytes();
+	}
+	
+	/**
+	 * Creates a new EntryWeigher
+	 * @param total The weight of all weighed caches
+	 */
+	EntryWeigher(final AtomicLong total) {
+		this.total = total;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.google.common.cache.Weigher#weigh(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public int weigh(final Object key, final Object value) {
+		final long tracked = tracked(key, value, true);
+		weight.addAndGet(tracked);
+		total.addAndGet(tracked);
+		return entryBytes(key, value);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.google.common.cache.RemovalListener#onRemoval(com.google.common.cache.RemovalNotification)
+	 */
+	@Override
+	public void onRemoval(final RemovalNotification<Object, Object> notification) {
+		final long tracked = tracked(notification.getKey(), notification.getValue(), false);
+		weight.addAndGet(-tracked);
+		total.addAndGet(-tracked);
+	}
+	
+	/**
+	 * Returns the tracked weight of an entry entering or leaving the cache. A view over shared storage
+	 * carries the storage's weight if it is the first view over it to enter or the last to leave.
+	 * @param key The entry key
+	 * @param value The entry value
+	 * @param entering true if the entry is entering the cache, false if it is leaving
+	 * @return the tracked weight in bytes
+	 */
+	private long tracked(final Object key, final Object value, final boolean entering) {
+		if(!(value instanceof Shared)) return entryBytes(key, value);
+		final Shared view = (Shared)value;
+		long bytes = ENTRY_OVERHEAD + estimate(key, 0) + view.viewBytes();
+		synchronized(sharers) {
+			final int[] count = sharers.get(view.storage());
+			if(entering) {
+				if(count==null) {
+					sharers.put(view.storage(), new int[]{1});
+					bytes += view.storageBytes();
+				} else {
+					count[0]++;
+				}
+			} else if(count!=null && --count[0]==0) {
+				sharers.remove(view.storage());
+				bytes += view.storageBytes();
+			}
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Returns the estimated weight of this cache's entries
+	 * @return the weight in bytes
+	 */
+	public long getWeight() {
+		return weight.get();
+	}
+	
+	/**
+	 * Estimates the retained heap of a cache entry
+	 * @param key The entry key
+	 * @param value The entry value
+	 * @return the estimated bytes, capped at {@link Integer#MAX_VALUE}
+	 */
+	public static int entryBytes(final Object key, final Object value) {
+		return (int)Math.min(Integer.MAX_VALUE, ENTRY_OVERHEAD + estimate(key, 0) + estimate(value, 0));
+	}
+	
+	/**
+	 * Estimates the retained heap of the passed object
+	 * @param o The object
+	 * @param depth The current nesting depth
+	 * @return the estimated bytes
+	 */
+	static long estimate(final Object o, final int depth) {
+		if(o==null || o instanceof Enum || o instanceof Boolean) return 0L;
+		if(o instanceof Sized) return ((Sized)o).retainedBytes();
+		if(o instanceof String) return align(24) + align(16 + 2L * ((String)o).length());
+		if(o instanceof Integer || o instanceof Short || o instanceof Byte || o instanceof Character || o instanceof Float) return 16L;
+		if(o instanceof Long || o instanceof Double || o instanceof Date) return 24L;
+		if(depth >= MAX_DEPTH) return 16L;
+		if(o instanceof int[]) return align(16 + 4L * ((int[])o).length);
+		if(o instanceof long[]) return align(16 + 8L * ((long[])o).length);
+		if(o instanceof byte[]) return align(16 + ((byte[])o).length);
+		if(o instanceof Object[]) {
+			final Object[] arr = (Object[])o;
+			long bytes = align(16 + 4L * arr.length);
+			for(Object e: arr) bytes += estimate(e, depth + 1);
+			return bytes;
+		}
+		if(o.getClass().isArray()) {
+			return align(16 + 8L * Array.getLength(o));
+		}
+		if(o instanceof EnumMap) {
+			final EnumMap<?, ?> map = (EnumMap<?, ?>)o;
+			// the key universe is shared, the values array is sized to it
+			final int slots = map.isEmpty() ? 0 : map.keySet().iterator().next().getDeclaringClass().getEnumConstants().length;
+			long bytes = align(48) + align(16 + 4L * slots);
+			for(Object v: map.values()) bytes += estimate(v, depth + 1);
+			return bytes;
+		}
+		if(o instanceof Map) {
+			final Map<?, ?> map = (Map<?, ?>)o;
+			long bytes = align(48) + align(16 + 4L * tableSize(map.size()));
+			for(Map.Entry<?, ?> e: map.entrySet()) {
+				bytes += 32 + estimate(e.getKey(), depth + 1) + estimate(e.getValue(), depth + 1);
+			}
+			return bytes;
+		}
+		if(o instanceof Collection) {
+			final Collection<?> c = (Collection<?>)o;
+			long bytes = align(40) + align(16 + 4L * c.size());
+			for(Object e: c) bytes += estimate(e, depth + 1);
+			return bytes;
+		}
+		return 16L;
+	}
+	
+	private static long tableSize(final int size) {
+		int n = 16;
+		while(n * 0.75f < size) n <<= 1;
+		return n;
+	}
+	
+	private static long align(final long bytes) {
+		return (bytes + 7L) & ~7L;
+	}
+}
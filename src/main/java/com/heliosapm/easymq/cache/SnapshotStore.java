@@ -0,0 +1,345 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * <p>Title: SnapshotStore</p>
+ * <p>Description: Persists cache snapshots to files so a restarted service can serve its last known
+ * cache contents immediately, as stale data, while the caches are reloaded from the queue managers in the background.</p>
+ * <p>Each cache is written to <b><code>&lt;dir&gt;/&lt;pool key&gt;/&lt;cache name&gt;.snap</code></b> whenever its snapshot
+ * version has moved since the last write, checked every <b><code>intervalMillis</code></b> and on shutdown.
+ * The file is a header (magic, format, snapshot version, timestamp, pool key, cache name) followed by the cache contents
+ * as tagged values, with repeated strings such as attribute names written once and referenced by index after that.
+ * Caches holding values of a type the format does not support are not persisted.
+ * Persistence is off unless <b><code>enabled</code></b> is set and an explicit <b><code>dir</code></b> is configured.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.cache.SnapshotStore</code></p>
+ */
+
+public class SnapshotStore {
+	/** Instance logger */
+	protected final Logger log = LoggerFactory.getLogger(getClass());
+	/** The directory snapshots are written to */
+	private final Path dir;
+	/** Snapshots older than this in ms. are not restored */
+	private final long maxAgeMillis;
+	/** Supplies the snapshot holders of all caches */
+	private final Supplier<Collection<CacheService.SnapshotHolder>> holders;
+	/** The last written snapshot version keyed by file */
+	private final Map<Path, Long> written = new ConcurrentHashMap<Path, Long>(32, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** The scheduler which writes snapshots */
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+		final Thread t = new Thread(r, "CacheSnapshotWriter");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/** The file magic, <b><code>EMQS</code></b> */
+	public static final int MAGIC = 0x454D5153;
+	/** The file format version */
+	public static final int FORMAT = 1;
+	/** The snapshot file extension */
+	public static final String EXTENSION = ".snap";
+
+	private static final byte NULL = 0, STRING = 1, STRING_REF = 2, INT = 3, LONG = 4, TRUE = 5, FALSE = 6,
+		DATE = 7, INT_ARRAY = 8, STRING_ARRAY = 9, BYTES = 10, ENUM = 11, MAP = 12;
+
+	/**
+	 * Creates a SnapshotStore from the <b><code>cacheconfig.persist</code></b> config node
+	 * @param node The persist config node
+	 * @param holders Supplies the snapshot holders of all caches
+	 * @return the store or null if persistence is not enabled or no directory is configured
+	 */
+	static SnapshotStore from(final JsonNode node, final Supplier<Collection<CacheService.SnapshotHolder>> holders) {
+		if(node==null || node.isMissingNode() || node.isNull() || !node.path("enabled").asBoolean(false)) return null;
+		final String dir = node.path("dir").asText("").trim();
+		if(dir.isEmpty()) {
+			LoggerFactory.getLogger(SnapshotStore.class).warn("Cache snapshot persistence is enabled but no [dir] is configured, not persisting");
+			return null;
+		}
+		return new SnapshotStore(
+			Paths.get(dir),
+			Math.max(1000L, node.path("intervalMillis").asLong(60000L)),
+			node.path("maxAgeMillis").asLong(TimeUnit.DAYS.toMillis(1)),
+			holders
+		);
+	}
+
+	private SnapshotStore(final Path dir, final long intervalMillis, final long maxAgeMillis, final Supplier<Collection<CacheService.SnapshotHolder>> holders) {
+		this.dir = dir;
+		this.maxAgeMillis = maxAgeMillis;
+		this.holders = holders;
+		scheduler.scheduleWithFixedDelay(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		log.info("Persisting cache snapshots to [{}] every [{}] ms.", dir, intervalMillis);
+	}
+
+	/**
+	 * Writes every cache whose snapshot changed since it was last written
+	 */
+	void flush() {
+		for(CacheService.SnapshotHolder holder: holders.get()) {
+			try {
+				final CacheSnapshot<Object, Object> snapshot = holder.current();
+				if(snapshot.isEmpty()) continue;
+				final Path file = file(holder.poolKey, holder.cacheName);
+				final Long last = written.get(file);
+				if(last!=null && last==snapshot.getVersion()) continue;
+				write(file, holder.poolKey, holder.cacheName, snapshot);
+				written.put(file, snapshot.getVersion());
+			} catch (UnsupportedOperationException uex) {
+				log.debug("Not persisting cache [{}/{}]: {}", holder.poolKey, holder.cacheName, uex.getMessage());
+			} catch (Exception ex) {
+				log.warn("Failed to persist cache [{}/{}]", holder.poolKey, holder.cacheName, ex);
+			}
+		}
+	}
+
+	/**
+	 * Reads the persisted contents of a cache
+	 * @param poolKey The MQ instance pool key
+	 * @param cacheName The cache name
+	 * @return the persisted contents or null if there are none, they are too old or cannot be read
+	 */
+	Map<Object, Object> read(final String poolKey, final String cacheName) {
+		final Path file = file(poolKey, cacheName);
+		if(!Files.isRegularFile(file)) return null;
+		try {
+			final ByteBuffer buf = readFully(file);
+			if(buf.getInt()!=MAGIC || buf.getInt()!=FORMAT) {
+				log.warn("Ignoring cache snapshot [{}] with unknown format", file);
+				return null;
+			}
+			final long version = buf.getLong();
+			final long timestamp = buf.getLong();
+			final List<String> strings = new ArrayList<String>();
+			if(!poolKey.equals(decode(buf, strings)) || !cacheName.equals(decode(buf, strings))) return null;
+			if(System.currentTimeMillis() - timestamp > maxAgeMillis) {
+				log.info("Ignoring cache snapshot [{}] taken at [{}]", file, new Date(timestamp));
+				return null;
+			}
+			@SuppressWarnings("unchecked")
+			final Map<Object, Object> contents = (Map<Object, Object>)decode(buf, strings);
+			log.info("Restored [{}] entries of cache [{}/{}] version [{}] taken at [{}]", contents.size(), poolKey, cacheName, version, new Date(timestamp));
+			return contents;
+		} catch (Exception ex) {
+			log.warn("Failed to read cache snapshot [{}]", file, ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Reads a file into a heap buffer. The file is not memory mapped, since a mapping stays open until it is 
+	 * garbage collected and would block the snapshot from being replaced on some platforms.
+	 * @param file The file to read
+	 * @return the file contents, positioned at the start
+	 * @throws IOException thrown on any io error
+	 */
+	private static ByteBuffer readFully(final Path file) throws IOException {
+		try(final FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			final long size = ch.size();
+			if(size > Integer.MAX_VALUE) throw new IOException("Snapshot [" + file + "] is too large: " + size);
+			final ByteBuffer buf = ByteBuffer.allocate((int)size);
+			while(buf.hasRemaining()) {
+				if(ch.read(buf) < 0) throw new EOFException("Snapshot [" + file + "] truncated at [" + buf.position() + "]");
+			}
+			buf.flip();
+			return buf;
+		}
+	}
+
+	/**
+	 * Streams a snapshot to a temp file, forces it to disk, then moves it over the previous snapshot
+	 * @param file The snapshot file
+	 * @param poolKey The MQ instance pool key
+	 * @param cacheName The cache name
+	 * @param snapshot The snapshot
+	 * @throws IOException thrown on any io error
+	 */
+	private void write(final Path file, final String poolKey, final String cacheName, final CacheSnapshot<?, ?> snapshot) throws IOException {
+		Files.createDirectories(file.getParent());
+		final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		final long bytes;
+		try(final FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			// not closed here, closing the channel closes the stream
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch), 64 * 1024));
+			final Map<String, Integer> strings = new HashMap<String, Integer>();
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT);
+			out.writeLong(snapshot.getVersion());
+			out.writeLong(snapshot.getTimestamp());
+			encode(out, poolKey, strings);
+			encode(out, cacheName, strings);
+			encode(out, snapshot, strings);
+			out.flush();
+			ch.force(false);
+			bytes = ch.size();
+		} catch (IOException | RuntimeException ex) {
+			// e.g. an unsupported value type part way through, leave the previous snapshot in place
+			try { Files.deleteIfExists(tmp); } catch (Exception x) {/* No Op */}
+			throw ex;
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		log.debug("Persisted [{}] entries of cache [{}/{}] version [{}], [{}] bytes", snapshot.size(), poolKey, cacheName, snapshot.getVersion(), bytes);
+	}
+
+	private static void encode(final DataOutputStream out, final Object value, final Map<String, Integer> strings) throws IOException {
+		if(value==null) {
+			out.writeByte(NULL);
+		} else if(value instanceof String) {
+			final Integer index = strings.get(value);
+			if(index!=null) {
+				out.writeByte(STRING_REF);
+				out.writeInt(index);
+			} else {
+				strings.put((String)value, strings.size());
+				final byte[] b = ((String)value).getBytes(StandardCharsets.UTF_8);
+				out.writeByte(STRING);
+				out.writeInt(b.length);
+				out.write(b);
+			}
+		} else if(value instanceof Integer) {
+			out.writeByte(INT);
+			out.writeInt((Integer)value);
+		} else if(value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long)value);
+		} else if(value instanceof Boolean) {
+			out.writeByte((Boolean)value ? TRUE : FALSE);
+		} else if(value instanceof Date) {
+			out.writeByte(DATE);
+			out.writeLong(((Date)value).getTime());
+		} else if(value instanceof int[]) {
+			final int[] arr = (int[])value;
+			out.writeByte(INT_ARRAY);
+			out.writeInt(arr.length);
+			for(int i: arr) out.writeInt(i);
+		} else if(value instanceof String[]) {
+			final String[] arr = (String[])value;
+			out.writeByte(STRING_ARRAY);
+			out.writeInt(arr.length);
+			for(String s: arr) encode(out, s, strings);
+		} else if(value instanceof byte[]) {
+			final byte[] arr = (byte[])value;
+			out.writeByte(BYTES);
+			out.writeInt(arr.length);
+			out.write(arr);
+		} else if(value instanceof Enum) {
+			out.writeByte(ENUM);
+			encode(out, ((Enum<?>)value).getDeclaringClass().getName(), strings);
+			encode(out, ((Enum<?>)value).name(), strings);
+		} else if(value instanceof Map) {
+			final Map<?, ?> map = (Map<?, ?>)value;
+			out.writeByte(MAP);
+			out.writeInt(map.size());
+			for(Map.Entry<?, ?> entry: map.entrySet()) {
+				encode(out, entry.getKey(), strings);
+				encode(out, entry.getValue(), strings);
+			}
+		} else {
+			throw new UnsupportedOperationException("Unsupported value type [" + value.getClass().getName() + "]");
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object decode(final ByteBuffer buf, final List<String> strings) throws ClassNotFoundException {
+		final byte tag = buf.get();
+		switch(tag) {
+			case NULL: return null;
+			case STRING:
+				final byte[] b = new byte[buf.getInt()];
+				buf.get(b);
+				final String s = new String(b, StandardCharsets.UTF_8);
+				strings.add(s);
+				return s;
+			case STRING_REF: return strings.get(buf.getInt());
+			case INT: return buf.getInt();
+			case LONG: return buf.getLong();
+			case TRUE: return Boolean.TRUE;
+			case FALSE: return Boolean.FALSE;
+			case DATE: return new Date(buf.getLong());
+			case INT_ARRAY:
+				final int[] ints = new int[buf.getInt()];
+				for(int i = 0; i < ints.length; i++) ints[i] = buf.getInt();
+				return ints;
+			case STRING_ARRAY:
+				final String[] strs = new String[buf.getInt()];
+				for(int i = 0; i < strs.length; i++) strs[i] = (String)decode(buf, strings);
+				return strs;
+			case BYTES:
+				final byte[] bytes = new byte[buf.getInt()];
+				buf.get(bytes);
+				return bytes;
+			case ENUM:
+				final Class enumType = Class.forName((String)decode(buf, strings));
+				return Enum.valueOf(enumType, (String)decode(buf, strings));
+			case MAP:
+				final int size = buf.getInt();
+				final Map<Object, Object> map = new LinkedHashMap<Object, Object>(Math.max(16, size * 4 / 3 + 1));
+				for(int i = 0; i < size; i++) {
+					map.put(decode(buf, strings), decode(buf, strings));
+				}
+				if(!map.isEmpty() && map.keySet().iterator().next() instanceof Enum) {
+					return new EnumMap(map);
+				}
+				return map;
+			default:
+				throw new IllegalStateException("Unknown value tag [" + tag + "] at [" + (buf.position() - 1) + "]");
+		}
+	}
+
+	private Path file(final String poolKey, final String cacheName) {
+		return dir.resolve(poolKey.replaceAll("[^A-Za-z0-9._-]", "_")).resolve(cacheName.replaceAll("[^A-Za-z0-9._-]", "_") + EXTENSION);
+	}
+
+	/**
+	 * Writes any changed snapshots and stops the store
+	 */
+	void shutdown() {
+		scheduler.shutdownNow();
+		flush();
+	}
+
+}
@@ -12,6 +12,10 @@
 // see <http://www.gnu.org/licenses/>.
 package com.heliosapm.easymq.commands;
 
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
 import com.heliosapm.easymq.MQ;
 import com.ibm.mq.pcf.PCFException;
 import com.ibm.mq.pcf.PCFMessage;
@@ -33,4 +37,23 @@ public interface AttributeExtractor {
 	 * @throws PCFException thrown on errors processing the pcf messages
 	 */
 	public Object extract(final MQ mq, final PCFMessage...messages) throws PCFException;
+	
+	/**
+	 * Collects the distinct pcf attribute selectors of the passed attributes
+	 * @param always The selectors which are always included
+	 * @param fields The attributes
+	 * @param selectors Returns the selectors of one attribute
+	 * @return the sorted, distinct selectors
+	 */
+	public static <T> int[] selectors(final int[] always, final Set<T> fields, final Function<T, int[]> selectors) {
+		final Set<Integer> sel = new TreeSet<Integer>();
+		for(int s: always) sel.add(s);
+		for(T field: fields) {
+			for(int s: selectors.apply(field)) sel.add(s);
+		}
+		final int[] arr = new int[sel.size()];
+		int i = 0;
+		for(Integer s: sel) arr[i++] = s;
+		return arr;
+	}
 }
@@ -0,0 +1,457 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.commands;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.ibm.mq.constants.CMQC;
+import com.ibm.mq.constants.CMQCFC;
+import com.ibm.mq.pcf.MQCFIF;
+import com.ibm.mq.pcf.MQCFSF;
+import com.ibm.mq.pcf.PCFException;
+import com.ibm.mq.pcf.PCFMessage;
+import com.ibm.mq.pcf.PCFParameter;
+
+/**
+ * <p>Title: PCFFilter</p>
+ * <p>Description: A filter on queue or topic listings which is evaluated by the command server wherever possible.</p>
+ * <p>Name conditions such as <b><code>name like PRICE.*</code></b> become the generic object name of the inquiry.
+ * The first attribute condition, e.g. <b><code>depth &gt; 1000</code></b>, is sent as an <b><code>MQCFIF</code></b>
+ * or <b><code>MQCFSF</code></b> filter parameter, since an inquiry accepts only one. Any further conditions and the
+ * include/exclude regular expressions are applied to the responses on the client.</p>
+ * <p>Expressions are conditions of the form <b><code>&lt;attribute&gt; &lt;operator&gt; &lt;value&gt;</code></b>
+ * joined with <b><code>&amp;&amp;</code></b> or <b><code>and</code></b>, e.g. <b><code>depth &gt; 1000 and openinputs == 0</code></b>.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.commands.PCFFilter</code></p>
+ */
+
+public class PCFFilter {
+	/** The type of object filtered */
+	public final ObjectType type;
+	/** The generic object name sent with the inquiry */
+	public final String genericName;
+	/** The condition sent to the command server, or null */
+	public final Condition pushdown;
+	/** The conditions applied on the client */
+	public final List<Condition> residual;
+	/** Names matching this pattern are excluded, applied on the client. May be null. */
+	public final Pattern exclude;
+	/** Only names matching this pattern are included, applied on the client. May be null. */
+	public final Pattern include;
+
+	/** Splits an expression into conditions */
+	public static final Pattern AND_SPLITTER = Pattern.compile("\\s*&&\\s*|\\s+(?i:and)\\s+");
+	/** Parses one condition */
+	public static final Pattern CONDITION_PATTERN = Pattern.compile("^\\s*([A-Za-z_]+)\\s*(==|!=|>=|<=|>|<|=|(?i:not\\s+like)|(?i:like))\\s*(.+?)\\s*$");
+	/** The regex meta characters which end a literal prefix */
+	private static final String REGEX_META = ".[]()*+?{}^$|\\";
+
+	/**
+	 * <p>Title: ObjectType</p>
+	 * <p>Description: The filtered object types</p>
+	 */
+	public static enum ObjectType {
+		/** Local queues */
+		QUEUE,
+		/** Topics */
+		TOPIC;
+	}
+
+	/**
+	 * <p>Title: Attribute</p>
+	 * <p>Description: The attributes which can be filtered on</p>
+	 */
+	public static enum Attribute {
+		/** The queue name */
+		QUEUE_NAME(ObjectType.QUEUE, CMQC.MQCA_Q_NAME, true, true, "name", "qname"),
+		/** The queue description */
+		QUEUE_DESC(ObjectType.QUEUE, CMQC.MQCA_Q_DESC, true, false, "description", "descr"),
+		/** The current queue depth */
+		DEPTH(ObjectType.QUEUE, CMQC.MQIA_CURRENT_Q_DEPTH, false, false, "depth", "curdepth"),
+		/** The maximum queue depth */
+		MAX_DEPTH(ObjectType.QUEUE, CMQC.MQIA_MAX_Q_DEPTH, false, false, "maxdepth"),
+		/** The number of handles open for input */
+		OPEN_INPUTS(ObjectType.QUEUE, CMQC.MQIA_OPEN_INPUT_COUNT, false, false, "openinputs", "ipprocs"),
+		/** The number of handles open for output */
+		OPEN_OUTPUTS(ObjectType.QUEUE, CMQC.MQIA_OPEN_OUTPUT_COUNT, false, false, "openoutputs", "opprocs"),
+		/** The topic object name */
+		TOPIC_NAME(ObjectType.TOPIC, CMQC.MQCA_TOPIC_NAME, true, true, "name", "tname"),
+		/** The topic string */
+		TOPIC_STRING(ObjectType.TOPIC, CMQC.MQCA_TOPIC_STRING, true, false, "topicstring", "topicstr"),
+		/** The topic description */
+		TOPIC_DESC(ObjectType.TOPIC, CMQC.MQCA_TOPIC_DESC, true, false, "description", "descr");
+
+		private Attribute(final ObjectType type, final int parameter, final boolean string, final boolean name, final String...aliases) {
+			this.type = type;
+			this.parameter = parameter;
+			this.string = string;
+			this.name = name;
+			this.aliases = aliases;
+		}
+
+		/** The object type this attribute belongs to */
+		public final ObjectType type;
+		/** The pcf parameter id */
+		public final int parameter;
+		/** True for string attributes, false for integer attributes */
+		public final boolean string;
+		/** True if this is the object name */
+		public final boolean name;
+		private final String[] aliases;
+
+		/**
+		 * Decodes the passed attribute name for the passed object type
+		 * @param type The object type
+		 * @param name The attribute name or alias, case insensitive
+		 * @return the attribute
+		 */
+		public static Attribute decode(final ObjectType type, final String name) {
+			final String n = name.trim();
+			for(Attribute a: values()) {
+				if(a.type!=type) continue;
+				if(a.name().equalsIgnoreCase(n)) return a;
+				for(String alias: a.aliases) {
+					if(alias.equalsIgnoreCase(n)) return a;
+				}
+			}
+			throw new IllegalArgumentException("Unknown " + type.name().toLowerCase() + " attribute [" + name + "]");
+		}
+	}
+
+	/**
+	 * <p>Title: Operator</p>
+	 * <p>Description: The filter operators and their pcf codes</p>
+	 */
+	public static enum Operator {
+		EQUAL(CMQCFC.MQCFOP_EQUAL, "==", "="),
+		NOT_EQUAL(CMQCFC.MQCFOP_NOT_EQUAL, "!="),
+		GREATER(CMQCFC.MQCFOP_GREATER, ">"),
+		NOT_LESS(CMQCFC.MQCFOP_NOT_LESS, ">="),
+		LESS(CMQCFC.MQCFOP_LESS, "<"),
+		NOT_GREATER(CMQCFC.MQCFOP_NOT_GREATER, "<="),
+		LIKE(CMQCFC.MQCFOP_LIKE, "like"),
+		NOT_LIKE(CMQCFC.MQCFOP_NOT_LIKE, "not like");
+
+		private Operator(final int code, final String...symbols) {
+			this.code = code;
+			this.symbols = symbols;
+		}
+
+		/** The pcf filter operator code */
+		public final int code;
+		private final String[] symbols;
+
+		/**
+		 * Decodes the passed operator symbol
+		 * @param symbol The symbol, e.g. <b><code>&gt;=</code></b> or <b><code>like</code></b>
+		 * @return the operator
+		 */
+		public static Operator decode(final String symbol) {
+			final String s = symbol.trim().replaceAll("\\s+", " ").toLowerCase();
+			for(Operator op: values()) {
+				for(String sym: op.symbols) {
+					if(sym.equals(s)) return op;
+				}
+			}
+			throw new IllegalArgumentException("Unknown operator [" + symbol + "]");
+		}
+
+		/**
+		 * Tests the result of a comparison against this operator
+		 * @param cmp The comparison result
+		 * @return true if the comparison satisfies this operator
+		 */
+		boolean test(final int cmp) {
+			switch(this) {
+				case EQUAL: case LIKE: return cmp==0;
+				case NOT_EQUAL: case NOT_LIKE: return cmp!=0;
+				case GREATER: return cmp > 0;
+				case NOT_LESS: return cmp >= 0;
+				case LESS: return cmp < 0;
+				case NOT_GREATER: return cmp <= 0;
+				default: return false;
+			}
+		}
+	}
+
+	/**
+	 * <p>Title: Condition</p>
+	 * <p>Description: One attribute condition</p>
+	 */
+	public static class Condition {
+		/** The attribute */
+		public final Attribute attribute;
+		/** The operator */
+		public final Operator operator;
+		/** The value, an Integer for integer attributes, otherwise a String */
+		public final Object value;
+
+		/**
+		 * Creates a new Condition
+		 * @param attribute The attribute
+		 * @param operator The operator
+		 * @param value The value, parsed as an integer for integer attributes
+		 */
+		public Condition(final Attribute attribute, final Operator operator, final String value) {
+			if(attribute==null) throw new IllegalArgumentException("The passed attribute was null");
+			if(operator==null) throw new IllegalArgumentException("The passed operator was null");
+			if(value==null) throw new IllegalArgumentException("The passed value was null");
+			this.attribute = attribute;
+			this.operator = operator;
+			String v = value.trim();
+			if(v.length() > 1 && (v.charAt(0)=='"' || v.charAt(0)=='\'') && v.charAt(v.length()-1)==v.charAt(0)) {
+				v = v.substring(1, v.length()-1);
+			}
+			if(attribute.string) {
+				this.value = v;
+			} else {
+				if(operator==Operator.LIKE || operator==Operator.NOT_LIKE) throw new IllegalArgumentException("Operator [" + operator + "] is not valid for integer attribute [" + attribute + "]");
+				try {
+					this.value = Integer.parseInt(v);
+				} catch (NumberFormatException nex) {
+					throw new IllegalArgumentException("Invalid integer value [" + value + "] for attribute [" + attribute + "]");
+				}
+			}
+		}
+
+		/**
+		 * Returns the pcf filter parameter for this condition
+		 * @return the filter parameter
+		 */
+		public PCFParameter toParameter() {
+			if(attribute.string) return new MQCFSF(attribute.parameter, operator.code, (String)value);
+			return new MQCFIF(attribute.parameter, operator.code, (Integer)value);
+		}
+
+		/**
+		 * Returns the generic name implied by this condition if it is a name condition the command server can apply
+		 * as the inquiry's object name, i.e. an exact name or a name with a single trailing <b><code>*</code></b>
+		 * @return the generic name or null
+		 */
+		public String genericName() {
+			if(!attribute.name || !(operator==Operator.EQUAL || operator==Operator.LIKE)) return null;
+			final String v = (String)value;
+			final int star = v.indexOf('*');
+			return star==-1 || star==v.length()-1 ? v : null;
+		}
+
+		/**
+		 * Tests this condition against the passed name
+		 * @param name The trimmed object name
+		 * @return true if the name satisfies this condition
+		 */
+		public boolean matches(final String name) {
+			return test(name);
+		}
+
+		/**
+		 * Tests this condition against the passed inquiry response
+		 * @param response The pcf inquiry response for one object
+		 * @return true if the response satisfies this condition
+		 * @throws PCFException thrown if the attribute is missing from the response
+		 */
+		public boolean matches(final PCFMessage response) throws PCFException {
+			if(attribute.string) return test(response.getStringParameterValue(attribute.parameter).trim());
+			return operator.test(Integer.compare(response.getIntParameterValue(attribute.parameter), (Integer)value));
+		}
+
+		private boolean test(final String actual) {
+			final String v = (String)value;
+			if(operator==Operator.LIKE || operator==Operator.NOT_LIKE) {
+				final boolean like = v.endsWith("*") ? actual.startsWith(v.substring(0, v.length()-1)) : actual.equals(v);
+				return operator==Operator.LIKE ? like : !like;
+			}
+			return operator.test(actual.compareTo(v));
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return attribute + " " + operator.symbols[0] + " " + value;
+		}
+	}
+
+	/**
+	 * Creates a new PCFFilter
+	 * @param type The type of object filtered
+	 * @param conditions The conditions, may be null or empty
+	 * @param exclude Names matching this pattern are excluded. May be null.
+	 * @param include Only names matching this pattern are included. May be null.
+	 */
+	public PCFFilter(final ObjectType type, final List<Condition> conditions, final Pattern exclude, final Pattern include) {
+		if(type==null) throw new IllegalArgumentException("The passed object type was null");
+		this.type = type;
+		this.exclude = exclude;
+		this.include = include;
+		String generic = null;
+		Condition push = null;
+		final List<Condition> client = new ArrayList<Condition>();
+		if(conditions!=null) {
+			for(Condition c: conditions) {
+				if(c.attribute.type!=type) throw new IllegalArgumentException("Attribute [" + c.attribute + "] is not a " + type.name().toLowerCase() + " attribute");
+				if(c.attribute.name) {
+					// name conditions are re-applied on the client since only the first can become the generic name
+					if(generic==null) generic = c.genericName();
+					client.add(c);
+				} else if(push==null) {
+					push = c;
+				} else {
+					client.add(c);
+				}
+			}
+		}
+		if(generic==null) {
+			final String prefix = literalPrefix(include);
+			if(!prefix.isEmpty()) generic = prefix + "*";
+		}
+		genericName = generic==null ? "*" : generic;
+		pushdown = push;
+		residual = Collections.unmodifiableList(client);
+	}
+
+	/**
+	 * Parses a filter expression
+	 * @param type The type of object filtered
+	 * @param expression The expression, e.g. <b><code>depth &gt; 1000 &amp;&amp; name like PRICE.*</code></b>. May be null or empty.
+	 * @return the filter
+	 */
+	public static PCFFilter parse(final ObjectType type, final String expression) {
+		final List<Condition> conditions = new ArrayList<Condition>();
+		if(expression!=null && !expression.trim().isEmpty()) {
+			for(String expr: AND_SPLITTER.split(expression.trim())) {
+				final Matcher m = CONDITION_PATTERN.matcher(expr);
+				if(!m.matches()) throw new IllegalArgumentException("Invalid filter condition [" + expr + "]");
+				conditions.add(new Condition(Attribute.decode(type, m.group(1)), Operator.decode(m.group(2)), m.group(3)));
+			}
+		}
+		return new PCFFilter(type, conditions, null, null);
+	}
+
+	/**
+	 * Creates a filter from name regular expressions only. A literal prefix of the include pattern is still sent as the generic name.
+	 * @param type The type of object filtered
+	 * @param exclude Names matching this pattern are excluded. May be null.
+	 * @param include Only names matching this pattern are included. May be null.
+	 * @return the filter
+	 */
+	public static PCFFilter regex(final ObjectType type, final Pattern exclude, final Pattern include) {
+		return new PCFFilter(type, null, exclude, include);
+	}
+
+	/**
+	 * Returns the literal prefix every match of the passed pattern starts with
+	 * @param pattern The pattern, may be null
+	 * @return the literal prefix, empty if there is none
+	 */
+	static String literalPrefix(final Pattern pattern) {
+		if(pattern==null || (pattern.flags() & (Pattern.CASE_INSENSITIVE | Pattern.LITERAL | Pattern.COMMENTS))!=0) return "";
+		final String p = pattern.pattern();
+		if(p.indexOf('|')!=-1) return "";
+		final StringBuilder b = new StringBuilder();
+		int i = p.startsWith("^") ? 1 : 0;
+		while(i < p.length()) {
+			final char c = p.charAt(i);
+			if(c=='\\') {
+				if(i + 1 < p.length() && REGEX_META.indexOf(p.charAt(i+1))!=-1) {
+					b.append(p.charAt(i+1));
+					i += 2;
+					continue;
+				}
+				break;
+			}
+			if(REGEX_META.indexOf(c)!=-1) break;
+			b.append(c);
+			i++;
+		}
+		// a quantifier applies to the preceding character, so that character is not part of the prefix
+		if(i < p.length() && "*?{".indexOf(p.charAt(i))!=-1 && b.length() > 0) b.setLength(b.length()-1);
+		return b.toString();
+	}
+
+	/**
+	 * Returns the attributes which must be returned in the inquiry response for the client side conditions
+	 * @return the pcf attribute ids, always including the object name
+	 */
+	public int[] responseAttributes() {
+		final Set<Integer> attrs = new LinkedHashSet<Integer>();
+		attrs.add(type==ObjectType.QUEUE ? CMQC.MQCA_Q_NAME : CMQC.MQCA_TOPIC_NAME);
+		if(type==ObjectType.TOPIC) attrs.add(CMQC.MQCA_TOPIC_STRING);
+		for(Condition c: residual) attrs.add(c.attribute.parameter);
+		final int[] arr = new int[attrs.size()];
+		int i = 0;
+		for(Integer a: attrs) arr[i++] = a;
+		return arr;
+	}
+
+	/**
+	 * Indicates if the inquiry must return object attributes, i.e. there are non-name conditions
+	 * @return true if attributes are required, false if a names-only inquiry is sufficient
+	 */
+	public boolean requiresAttributes() {
+		if(pushdown!=null) return true;
+		for(Condition c: residual) {
+			if(!c.attribute.name) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Applies the client side name filters
+	 * @param name The trimmed object name
+	 * @return true if the name passes
+	 */
+	public boolean matchesName(final String name) {
+		if(exclude!=null && exclude.matcher(name).matches()) return false;
+		if(include!=null && !include.matcher(name).matches()) return false;
+		for(Condition c: residual) {
+			if(c.attribute.name && !c.matches(name)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Applies all the client side filters to one inquiry response
+	 * @param name The trimmed object name
+	 * @param response The inquiry response for the object
+	 * @return true if the object passes
+	 * @throws PCFException thrown if a filtered attribute is missing from the response
+	 */
+	public boolean matches(final String name, final PCFMessage response) throws PCFException {
+		if(!matchesName(name)) return false;
+		for(Condition c: residual) {
+			if(!c.attribute.name && !c.matches(response)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PCFFilter [type=" + type + ", genericName=" + genericName + ", pushdown=" + pushdown + ", residual=" + residual
+			+ ", exclude=" + exclude + ", include=" + include + "]";
+	}
+
+}
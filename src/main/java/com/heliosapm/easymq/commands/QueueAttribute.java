@@ -12,6 +12,7 @@
 // see <http://www.gnu.org/licenses/>.
 package com.heliosapm.easymq.commands;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.EnumMap;
@@ -36,26 +37,80 @@ import com.ibm.mq.pcf.PCFMessage;
  */
 
 public enum QueueAttribute implements AttributeExtractor {
-	NAME(String.class) {
+	NAME(String.class, Volatility.DEFINITION, CMQC.MQCA_Q_NAME) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			return messages[0].getStringParameterValue(CMQC.MQCA_Q_NAME).trim();
 		}
 	},
-	ADMIN(boolean.class) {
+	ADMIN(boolean.class, Volatility.DEFINITION, CMQC.MQCA_Q_NAME) {
 		final Pattern NON_ADMIN_QUEUES = Pattern.compile("SYSTEM\\..*||AMQ\\..*", Pattern.CASE_INSENSITIVE);
 		@Override
 		public Object extract(MQ mq, PCFMessage... messages) throws PCFException {
 			return !NON_ADMIN_QUEUES.matcher(messages[0].getStringParameterValue(CMQC.MQCA_Q_NAME)).matches();
 		}
 	},
-	QUEUE_DEPTH(Integer.class){
+	DESCRIPTION(String.class, Volatility.DEFINITION, CMQC.MQCA_Q_DESC) {
+		@Override
+		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
+			return messages[0].getStringParameterValue(CMQC.MQCA_Q_DESC).trim();
+		}
+	},
+	QUEUE_TYPE(Integer.class, Volatility.DEFINITION, CMQC.MQIA_Q_TYPE) {
+		@Override
+		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
+			return messages[0].getIntParameterValue(CMQC.MQIA_Q_TYPE);
+		}
+	},
+	USAGE(Integer.class, Volatility.DEFINITION, CMQC.MQIA_USAGE) {
+		@Override
+		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
+			return messages[0].getIntParameterValue(CMQC.MQIA_USAGE);
+		}
+	},
+	MAX_DEPTH(Integer.class, Volatility.DEFINITION, CMQC.MQIA_MAX_Q_DEPTH) {
+		@Override
+		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
+			return messages[0].getIntParameterValue(CMQC.MQIA_MAX_Q_DEPTH);
+		}
+	},
+	MAX_MSG_LENGTH(Integer.class, Volatility.DEFINITION, CMQC.MQIA_MAX_MSG_LENGTH) {
+		@Override
+		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
+			return messages[0].getIntParameterValue(CMQC.MQIA_MAX_MSG_LENGTH);
+		}
+	},
+	DEPTH_HIGH_LIMIT(Integer.class, Volatility.DEFINITION, CMQC.MQIA_Q_DEPTH_HIGH_LIMIT) {
+		@Override
+		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
+			return messages[0].getIntParameterValue(CMQC.MQIA_Q_DEPTH_HIGH_LIMIT);
+		}
+	},
+	GET_INHIBITED(boolean.class, Volatility.DEFINITION, CMQC.MQIA_INHIBIT_GET) {
+		@Override
+		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
+			return messages[0].getIntParameterValue(CMQC.MQIA_INHIBIT_GET)==CMQC.MQQA_GET_INHIBITED;
+		}
+	},
+	PUT_INHIBITED(boolean.class, Volatility.DEFINITION, CMQC.MQIA_INHIBIT_PUT) {
+		@Override
+		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
+			return messages[0].getIntParameterValue(CMQC.MQIA_INHIBIT_PUT)==CMQC.MQQA_PUT_INHIBITED;
+		}
+	},
+	DEFAULT_PERSISTENT(boolean.class, Volatility.DEFINITION, CMQC.MQIA_DEF_PERSISTENCE) {
+		@Override
+		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
+			return messages[0].getIntParameterValue(CMQC.MQIA_DEF_PERSISTENCE)==CMQC.MQPER_PERSISTENT;
+		}
+	},
+	QUEUE_DEPTH(Integer.class, Volatility.STATUS, CMQC.MQIA_CURRENT_Q_DEPTH){
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			return messages[0].getIntParameterValue(CMQC.MQIA_CURRENT_Q_DEPTH);
 		}
 	},
-	LAST_GET(Date.class) {
+	LAST_GET(Date.class, Volatility.STATUS, CMQCFC.MQCACF_LAST_GET_DATE, CMQCFC.MQCACF_LAST_GET_TIME) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			final StringBuilder b = new StringBuilder(MQ.DATE_LENGTH);
@@ -65,7 +120,7 @@ public enum QueueAttribute implements AttributeExtractor {
 			return b.length() >= MQ.DATE_LENGTH ? MQ.fromStringy(b) : null;
 		}			
 	},
-	LAST_PUT(Date.class) {
+	LAST_PUT(Date.class, Volatility.STATUS, CMQCFC.MQCACF_LAST_PUT_DATE, CMQCFC.MQCACF_LAST_PUT_TIME) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			final StringBuilder b = new StringBuilder(MQ.DATE_LENGTH);
@@ -75,25 +130,25 @@ public enum QueueAttribute implements AttributeExtractor {
 			return b.length() >= MQ.DATE_LENGTH ? MQ.fromStringy(b) : null;
 		}			
 	},
-	OLDEST_MSG_AGE(Integer.class) {
+	OLDEST_MSG_AGE(Integer.class, Volatility.STATUS, CMQCFC.MQIACF_OLDEST_MSG_AGE) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			return messages[0].getIntParameterValue(CMQCFC.MQIACF_OLDEST_MSG_AGE);
 		}			
 	},
-	ON_Q_TIME(int[].class) {
+	ON_Q_TIME(int[].class, Volatility.STATUS, CMQCFC.MQIACF_Q_TIME_INDICATOR) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			return messages[0].getIntListParameterValue(CMQCFC.MQIACF_Q_TIME_INDICATOR);
 		}			
 	},
-	OPEN_INPUTS(Integer.class) {
+	OPEN_INPUTS(Integer.class, Volatility.STATUS, CMQC.MQIA_OPEN_INPUT_COUNT) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			return messages[0].getIntParameterValue(CMQC.MQIA_OPEN_INPUT_COUNT);
 		}			
 	},
-	OPEN_OUTPUTS(Integer.class) {
+	OPEN_OUTPUTS(Integer.class, Volatility.STATUS, CMQC.MQIA_OPEN_OUTPUT_COUNT) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			return messages[0].getIntParameterValue(CMQC.MQIA_OPEN_OUTPUT_COUNT);
@@ -102,11 +157,68 @@ public enum QueueAttribute implements AttributeExtractor {
 	
 	private static final QueueAttribute[] values = values();
 	public static final Set<QueueAttribute> VALUE_SET = Collections.unmodifiableSet(EnumSet.allOf(QueueAttribute.class));
+	/** The queue definition attributes */
+	public static final Set<QueueAttribute> DEFINITION_SET = Volatility.tier(QueueAttribute.class, Volatility.DEFINITION, qa -> qa.volatility);
+	/** The live queue status attributes */
+	public static final Set<QueueAttribute> STATUS_SET = Volatility.tier(QueueAttribute.class, Volatility.STATUS, qa -> qa.volatility);
+	/** The attributes derived from the queue name, which both queue and queue status responses carry */
+	public static final Set<QueueAttribute> NAME_SET = Collections.unmodifiableSet(EnumSet.of(NAME, ADMIN));
+	
+	/**
+	 * Indicates if any of the passed attributes are only returned by a queue (<b><code>MQCMD_INQUIRE_Q</code></b>) inquiry
+	 * @param fields The attributes
+	 * @return true if a queue inquiry is needed
+	 */
+	public static boolean needsDefinition(final Set<QueueAttribute> fields) {
+		for(QueueAttribute qa: fields) {
+			if(qa.volatility==Volatility.DEFINITION && !NAME_SET.contains(qa)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Indicates if the passed attributes need a queue status (<b><code>MQCMD_INQUIRE_Q_STATUS</code></b>) inquiry, 
+	 * which is the case if any are status attributes, or none need a queue inquiry
+	 * @param fields The attributes
+	 * @return true if a queue status inquiry is needed
+	 */
+	public static boolean needsStatus(final Set<QueueAttribute> fields) {
+		for(QueueAttribute qa: fields) {
+			if(qa.volatility==Volatility.STATUS) return true;
+		}
+		return !needsDefinition(fields);
+	}
+	
+	/**
+	 * Returns the passed attributes which one inquiry returns, i.e. the tier's attributes and the name derived attributes
+	 * @param fields The attributes
+	 * @param tier The attributes of the tier
+	 * @return the attributes to request and extract in the tier's inquiry
+	 */
+	public static Set<QueueAttribute> within(final Set<QueueAttribute> fields, final Set<QueueAttribute> tier) {
+		final EnumSet<QueueAttribute> set = EnumSet.noneOf(QueueAttribute.class);
+		for(QueueAttribute qa: fields) {
+			if(tier.contains(qa) || NAME_SET.contains(qa)) set.add(qa);
+		}
+		return set;
+	}
 	
 	
 	public static Map<QueueAttribute, Object> extractQueueAttributes(final MQ mq, final PCFMessage...messages) {
+		return extractQueueAttributes(mq, VALUE_SET, messages);
+	}
+	
+	/**
+	 * Extracts the requested queue attributes from the passed queue or queue status response
+	 * @param mq The MQ instance
+	 * @param fields The attributes to extract
+	 * @param messages The PCFMessages to extract from
+	 * @return a map of queue attributes
+	 */
+	public static Map<QueueAttribute, Object> extractQueueAttributes(final MQ mq, final Set<QueueAttribute> fields, final PCFMessage...messages) {
 		final EnumMap<QueueAttribute, Object> map = new EnumMap<QueueAttribute, Object>(QueueAttribute.class);
 		for(final QueueAttribute qa : values) {
+			if(!fields.contains(qa)) continue;
 			try {
 				map.put(qa, qa.extract(mq, messages));
 			} catch (PCFException pex) {
@@ -116,10 +228,27 @@ public enum QueueAttribute implements AttributeExtractor {
 		return map;
 	}
 	
-	private QueueAttribute(final Class<?> type) {
+	/**
+	 * Returns the queue status or queue attribute selectors for the passed attributes, for the
+	 * <b><code>MQIACF_Q_STATUS_ATTRS</code></b> or <b><code>MQIACF_Q_ATTRS</code></b> parameter. The queue name is always included.
+	 * @param fields The attributes to select
+	 * @return the pcf attribute selectors
+	 */
+	public static int[] pcfAttributes(final Set<QueueAttribute> fields) {
+		return AttributeExtractor.selectors(new int[]{CMQC.MQCA_Q_NAME}, fields, qa -> qa.pcfAttrs);
+	}
+	
+	private QueueAttribute(final Class<?> type, final Volatility volatility, final int...pcfAttrs) {
 		this.type = type;
+		this.volatility = volatility;
+		this.pcfAttrs = pcfAttrs;
+		Arrays.sort(this.pcfAttrs);
 	}
 	
 	public final Class<?> type;
+	/** How often this attribute changes */
+	public final Volatility volatility;
+	/** The pcf attributes this attribute is extracted from */
+	public final int[] pcfAttrs;
 
 }
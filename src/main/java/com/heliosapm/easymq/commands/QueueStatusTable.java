@@ -0,0 +1,520 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.commands;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.heliosapm.easymq.MQ;
+import com.heliosapm.easymq.cache.EntryWeigher;
+import com.ibm.mq.pcf.PCFException;
+import com.ibm.mq.pcf.PCFMessage;
+
+/**
+ * <p>Title: QueueStatusTable</p>
+ * <p>Description: Columnar store of the queue status of one queue manager.</p>
+ * <p>Each attribute is held in a primitive column indexed by row: depths, open counts, oldest message age and the
+ * on queue times in <b><code>int</code></b> arrays, the last get/put times as epoch millis in <b><code>long</code></b> arrays,
+ * and the queue names, sorted, in an array of strings interned in a dictionary shared by all tables, so a queue name
+ * defined on many queue managers is held once. Rows are located by binary search on the name column.</p>
+ * <p>The table is read as a map of queue name to a {@link QueueAttribute} keyed view over the queue's row, so it drops in
+ * where a map of per queue <b><code>EnumMap</code></b>s was used. Values are boxed only when read.
+ * Measured on a 64 bit JVM with compressed oops, a queue costs about 42 bytes of columns plus a 24 byte row view once
+ * cached, against about 215 bytes for an <b><code>EnumMap</code></b> of boxed values, not counting the name strings.
+ * Since every row view retains the whole table, cached rows are weighed as views over the table's columns, which are
+ * weighed once while any of the table's rows is cached.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.commands.QueueStatusTable</code></p>
+ */
+
+public class QueueStatusTable extends AbstractMap<String, Map<QueueAttribute, Object>> {
+	/** The queue names in ascending order */
+	private final String[] names;
+	/** The admin queue flags */
+	private final BitSet admin;
+	/** The current queue depths */
+	private final int[] depth;
+	/** The open input counts */
+	private final int[] openInputs;
+	/** The open output counts */
+	private final int[] openOutputs;
+	/** The oldest message ages in seconds */
+	private final int[] oldestMsgAge;
+	/** The short term on queue times */
+	private final int[] onQTimeShort;
+	/** The long term on queue times */
+	private final int[] onQTimeLong;
+	/** The last get times in epoch millis */
+	private final long[] lastGet;
+	/** The last put times in epoch millis */
+	private final long[] lastPut;
+	/** The set of attributes each row holds a value for, one bit per attribute ordinal per row */
+	private final BitSet present;
+
+	/** Static class logger */
+	private static final Logger LOG = LoggerFactory.getLogger(QueueStatusTable.class);
+	/** The dictionary queue names are interned in */
+	private static final Interner<String> NAMES = Interners.newWeakInterner();
+	/** The attributes */
+	private static final QueueAttribute[] ATTRS = QueueAttribute.values();
+	/** The attributes held in columns: the status attributes and the name derived attributes */
+	private static final Set<QueueAttribute> COLUMNS = QueueAttribute.within(QueueAttribute.VALUE_SET, QueueAttribute.STATUS_SET);
+	/** The number of attributes */
+	private static final int ATTR_COUNT = ATTRS.length;
+	/** The retained bytes of a row view */
+	public static final int VIEW_BYTES = 24;
+	/** The retained bytes of a row view with an updated depth */
+	public static final int DEPTH_VIEW_BYTES = 32;
+
+	private QueueStatusTable(final int rows) {
+		names = new String[rows];
+		admin = new BitSet(rows);
+		depth = new int[rows];
+		openInputs = new int[rows];
+		openOutputs = new int[rows];
+		oldestMsgAge = new int[rows];
+		onQTimeShort = new int[rows];
+		onQTimeLong = new int[rows];
+		lastGet = new long[rows];
+		lastPut = new long[rows];
+		present = new BitSet(rows * ATTR_COUNT);
+	}
+
+	/**
+	 * Builds a table from queue status responses. Where the responses hold more than one status for a queue, the last one is used.
+	 * @param mq The MQ instance the responses came from
+	 * @param messages The <b><code>MQCMD_INQUIRE_Q_STATUS</code></b> responses
+	 * @return the table
+	 */
+	public static QueueStatusTable from(final MQ mq, final PCFMessage...messages) {
+		final TreeMap<String, PCFMessage> byName = new TreeMap<String, PCFMessage>();
+		for(PCFMessage p: messages) {
+			try {
+				byName.put((String)QueueAttribute.NAME.extract(mq, p), p);
+			} catch (PCFException pex) {
+				LOG.debug("Skipping queue status response without a queue name: {}", pex.toString());
+			}
+		}
+		final QueueStatusTable table = new QueueStatusTable(byName.size());
+		int row = 0;
+		for(Map.Entry<String, PCFMessage> entry: byName.entrySet()) {
+			table.names[row] = NAMES.intern(entry.getKey());
+			for(QueueAttribute qa: COLUMNS) {
+				if(qa==QueueAttribute.NAME) continue;
+				try {
+					table.set(row, qa, qa.extract(mq, entry.getValue()));
+				} catch (PCFException pex) {
+					// the attribute was not requested or not returned, the row holds no value for it
+					LOG.trace("No [{}] for queue [{}]: {}", qa, entry.getKey(), pex.toString());
+				}
+			}
+			table.present.set(row * ATTR_COUNT + QueueAttribute.NAME.ordinal());
+			row++;
+		}
+		return table;
+	}
+
+	/**
+	 * Builds a one row table from the attributes of one queue, e.g. when the queue is re-inquired after a change,
+	 * and returns the queue's row. Attributes outside the status and name derived attributes are not held.
+	 * @param queueName The queue name
+	 * @param attrs The queue's attributes
+	 * @return the row
+	 */
+	public static Map<QueueAttribute, Object> single(final String queueName, final Map<QueueAttribute, Object> attrs) {
+		final QueueStatusTable table = new QueueStatusTable(1);
+		table.names[0] = NAMES.intern(queueName);
+		for(Map.Entry<QueueAttribute, Object> entry: attrs.entrySet()) {
+			if(COLUMNS.contains(entry.getKey())) table.set(0, entry.getKey(), entry.getValue());
+		}
+		table.present.set(QueueAttribute.NAME.ordinal());
+		return table.new Row(0);
+	}
+
+	/**
+	 * Returns the status of a queue with its depth replaced. A row of a table is overridden in place, sharing
+	 * the table's columns and holding only the new depth, other maps are copied into a one row table.
+	 * @param status The queue status
+	 * @param depth The new depth
+	 * @return the updated status
+	 */
+	public static Map<QueueAttribute, Object> withDepth(final Map<QueueAttribute, Object> status, final int depth) {
+		if(status instanceof Row) {
+			final Row r = (Row)status;
+			return r.table().new DepthRow(r.row, depth);
+		}
+		final Map<QueueAttribute, Object> attrs = new EnumMap<QueueAttribute, Object>(QueueAttribute.class);
+		attrs.putAll(status);
+		attrs.put(QueueAttribute.QUEUE_DEPTH, depth);
+		return single((String)attrs.get(QueueAttribute.NAME), attrs);
+	}
+
+	private void set(final int row, final QueueAttribute qa, final Object value) {
+		if(value==null) return;
+		switch(qa) {
+			case ADMIN: admin.set(row, (Boolean)value); break;
+			case QUEUE_DEPTH: depth[row] = (Integer)value; break;
+			case LAST_GET: lastGet[row] = ((Date)value).getTime(); break;
+			case LAST_PUT: lastPut[row] = ((Date)value).getTime(); break;
+			case OLDEST_MSG_AGE: oldestMsgAge[row] = (Integer)value; break;
+			case ON_Q_TIME:
+				final int[] times = (int[])value;
+				if(times.length < 2) return;
+				onQTimeShort[row] = times[0];
+				onQTimeLong[row] = times[1];
+				break;
+			case OPEN_INPUTS: openInputs[row] = (Integer)value; break;
+			case OPEN_OUTPUTS: openOutputs[row] = (Integer)value; break;
+			default: return;
+		}
+		present.set(row * ATTR_COUNT + qa.ordinal());
+	}
+
+	/**
+	 * Returns the value of an attribute at a row
+	 * @param row The row
+	 * @param qa The attribute
+	 * @return the value or null if the row has no value for the attribute
+	 */
+	Object value(final int row, final QueueAttribute qa) {
+		if(!present.get(row * ATTR_COUNT + qa.ordinal())) return null;
+		switch(qa) {
+			case NAME: return names[row];
+			case ADMIN: return admin.get(row);
+			case QUEUE_DEPTH: return depth[row];
+			case LAST_GET: return new Date(lastGet[row]);
+			case LAST_PUT: return new Date(lastPut[row]);
+			case OLDEST_MSG_AGE: return oldestMsgAge[row];
+			case ON_Q_TIME: return new int[]{onQTimeShort[row], onQTimeLong[row]};
+			case OPEN_INPUTS: return openInputs[row];
+			case OPEN_OUTPUTS: return openOutputs[row];
+			default: return null;
+		}
+	}
+
+	/**
+	 * Returns the retained heap of the table's columns, not counting the interned names
+	 * @return the retained heap in bytes
+	 */
+	public long columnBytes() {
+		final int rows = names.length;
+		return align(16 + 11 * 4)
+			+ align(16 + 4L * rows)
+			+ 6 * align(16 + 4L * rows)
+			+ 2 * align(16 + 8L * rows)
+			+ bitSetBytes(rows)
+			+ bitSetBytes((long)rows * ATTR_COUNT);
+	}
+
+	private static long bitSetBytes(final long bits) {
+		return align(24) + align(16 + 8L * ((bits + 63) / 64));
+	}
+
+	private static long align(final long bytes) {
+		return (bytes + 7L) & ~7L;
+	}
+
+	/**
+	 * Returns the row of the named queue
+	 * @param queueName The queue name
+	 * @return the row or a negative number if the queue is not in the table
+	 */
+	public int row(final String queueName) {
+		return Arrays.binarySearch(names, queueName);
+	}
+
+	/**
+	 * Returns the current depth of the queue at a row without boxing
+	 * @param row The row
+	 * @return the depth
+	 */
+	public int depth(final int row) {
+		return depth[row];
+	}
+
+	/**
+	 * Returns the oldest message age of the queue at a row without boxing
+	 * @param row The row
+	 * @return the oldest message age in seconds
+	 */
+	public int oldestMsgAge(final int row) {
+		return oldestMsgAge[row];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.AbstractMap#get(java.lang.Object)
+	 */
+	@Override
+	public Map<QueueAttribute, Object> get(final Object key) {
+		if(!(key instanceof String)) return null;
+		final int row = row((String)key);
+		return row < 0 ? null : new Row(row);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.AbstractMap#containsKey(java.lang.Object)
+	 */
+	@Override
+	public boolean containsKey(final Object key) {
+		return key instanceof String && row((String)key) >= 0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.AbstractMap#size()
+	 */
+	@Override
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.AbstractMap#entrySet()
+	 */
+	@Override
+	public Set<Map.Entry<String, Map<QueueAttribute, Object>>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Map<QueueAttribute, Object>>>() {
+			@Override
+			public Iterator<Map.Entry<String, Map<QueueAttribute, Object>>> iterator() {
+				return new Iterator<Map.Entry<String, Map<QueueAttribute, Object>>>() {
+					int row = 0;
+					@Override
+					public boolean hasNext() {
+						return row < names.length;
+					}
+					@Override
+					public Map.Entry<String, Map<QueueAttribute, Object>> next() {
+						if(row >= names.length) throw new NoSuchElementException();
+						final Row r = new Row(row++);
+						return new AbstractMap.SimpleImmutableEntry<String, Map<QueueAttribute, Object>>(names[r.row], r);
+					}
+				};
+			}
+			@Override
+			public int size() {
+				return names.length;
+			}
+		};
+	}
+
+	/**
+	 * <p>Title: Row</p>
+	 * <p>Description: A read only {@link QueueAttribute} keyed view over one row of the table</p>
+	 */
+	private class Row extends AbstractMap<QueueAttribute, Object> implements EntryWeigher.Shared {
+		/** The row */
+		final int row;
+
+		Row(final int row) {
+			this.row = row;
+		}
+
+		/**
+		 * Returns the depth of the queue
+		 * @return the depth
+		 */
+		int depth() {
+			return depth[row];
+		}
+
+		/**
+		 * Indicates if the row holds a value for an attribute
+		 * @param qa The attribute
+		 * @return true if the row holds a value
+		 */
+		boolean has(final QueueAttribute qa) {
+			return present.get(row * ATTR_COUNT + qa.ordinal());
+		}
+
+		Object value(final QueueAttribute qa) {
+			if(qa==QueueAttribute.QUEUE_DEPTH) return has(qa) ? depth() : null;
+			return QueueStatusTable.this.value(row, qa);
+		}
+
+		@Override
+		public long retainedBytes() {
+			return viewBytes() + columnBytes() / names.length;
+		}
+
+		@Override
+		public Object storage() {
+			return QueueStatusTable.this;
+		}
+
+		@Override
+		public long storageBytes() {
+			return columnBytes();
+		}
+
+		@Override
+		public long viewBytes() {
+			return VIEW_BYTES;
+		}
+
+		@Override
+		public Object get(final Object key) {
+			return key instanceof QueueAttribute ? value((QueueAttribute)key) : null;
+		}
+
+		@Override
+		public boolean containsKey(final Object key) {
+			return key instanceof QueueAttribute && has((QueueAttribute)key);
+		}
+
+		@Override
+		public int size() {
+			int size = 0;
+			for(QueueAttribute qa: ATTRS) {
+				if(has(qa)) size++;
+			}
+			return size;
+		}
+
+		@Override
+		public Set<Map.Entry<QueueAttribute, Object>> entrySet() {
+			return new AbstractSet<Map.Entry<QueueAttribute, Object>>() {
+				@Override
+				public Iterator<Map.Entry<QueueAttribute, Object>> iterator() {
+					return new Iterator<Map.Entry<QueueAttribute, Object>>() {
+						int next = advance(0);
+						int advance(final int from) {
+							int i = from;
+							while(i < ATTR_COUNT && !has(ATTRS[i])) i++;
+							return i;
+						}
+						@Override
+						public boolean hasNext() {
+							return next < ATTR_COUNT;
+						}
+						@Override
+						public Map.Entry<QueueAttribute, Object> next() {
+							if(!hasNext()) throw new NoSuchElementException();
+							final QueueAttribute qa = ATTRS[next];
+							next = advance(next + 1);
+							return new AbstractMap.SimpleImmutableEntry<QueueAttribute, Object>(qa, value(qa));
+						}
+					};
+				}
+				@Override
+				public int size() {
+					return Row.this.size();
+				}
+			};
+		}
+
+		/**
+		 * Compares rows column by column, and other maps attribute by attribute, so the on queue times 
+		 * compare by value rather than by array identity
+		 * @see java.util.AbstractMap#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(final Object obj) {
+			if(this==obj) return true;
+			if(!(obj instanceof Row)) {
+				if(!(obj instanceof Map)) return false;
+				final Map<?, ?> other = (Map<?, ?>)obj;
+				if(other.size()!=size()) return false;
+				for(QueueAttribute qa: ATTRS) {
+					if(has(qa) && (!other.containsKey(qa) || !Objects.deepEquals(value(qa), other.get(qa)))) return false;
+				}
+				return true;
+			}
+			final Row other = (Row)obj;
+			for(QueueAttribute qa: ATTRS) {
+				if(has(qa)!=other.has(qa)) return false;
+			}
+			final QueueStatusTable t = other.table();
+			final int r = other.row;
+			return names[row].equals(t.names[r])
+				&& admin.get(row)==t.admin.get(r)
+				&& depth()==other.depth()
+				&& openInputs[row]==t.openInputs[r]
+				&& openOutputs[row]==t.openOutputs[r]
+				&& oldestMsgAge[row]==t.oldestMsgAge[r]
+				&& onQTimeShort[row]==t.onQTimeShort[r]
+				&& onQTimeLong[row]==t.onQTimeLong[r]
+				&& lastGet[row]==t.lastGet[r]
+				&& lastPut[row]==t.lastPut[r];
+		}
+
+		/**
+		 * Hashes the entries as {@link Map#hashCode()} specifies, with the on queue times hashed by value
+		 * to stay consistent with {@link #equals(Object)}
+		 * @see java.util.AbstractMap#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			int h = 0;
+			for(QueueAttribute qa: ATTRS) {
+				if(!has(qa)) continue;
+				final Object v = value(qa);
+				h += qa.hashCode() ^ (v instanceof int[] ? Arrays.hashCode((int[])v) : Objects.hashCode(v));
+			}
+			return h;
+		}
+
+		QueueStatusTable table() {
+			return QueueStatusTable.this;
+		}
+	}
+
+	/**
+	 * <p>Title: DepthRow</p>
+	 * <p>Description: A row whose depth was updated since the table was built, e.g. by a queue depth event.
+	 * It shares the table's columns and holds only the new depth.</p>
+	 */
+	private final class DepthRow extends Row {
+		/** The updated depth */
+		final int updatedDepth;
+
+		DepthRow(final int row, final int updatedDepth) {
+			super(row);
+			this.updatedDepth = updatedDepth;
+		}
+
+		@Override
+		int depth() {
+			return updatedDepth;
+		}
+
+		@Override
+		boolean has(final QueueAttribute qa) {
+			return qa==QueueAttribute.QUEUE_DEPTH || super.has(qa);
+		}
+
+		@Override
+		public long viewBytes() {
+			return DEPTH_VIEW_BYTES;
+		}
+	}
+
+}
@@ -34,7 +34,7 @@ import com.ibm.mq.pcf.PCFMessage;
  */
 
 public enum SubscriptionAttribute implements AttributeExtractor {
-	NAME(String.class, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION) {
+	NAME(String.class, Volatility.DEFINITION, new int[]{CMQCFC.MQCACF_SUB_NAME}, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			try {
@@ -44,7 +44,7 @@ public enum SubscriptionAttribute implements AttributeExtractor {
 			}
 		}		
 	},
-	ID(byte[].class, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION) {
+	ID(byte[].class, Volatility.DEFINITION, new int[]{CMQCFC.MQBACF_SUB_ID}, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			try {
@@ -54,7 +54,7 @@ public enum SubscriptionAttribute implements AttributeExtractor {
 			}
 		}		
 	},	
-	DESTINATION(String.class, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION){
+	DESTINATION(String.class, Volatility.DEFINITION, new int[]{CMQCFC.MQCACF_DESTINATION}, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION){
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			try {
@@ -64,27 +64,27 @@ public enum SubscriptionAttribute implements AttributeExtractor {
 			}
 		}
 	},
-	TOPIC(String.class, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION){
+	TOPIC(String.class, Volatility.DEFINITION, new int[]{CMQC.MQCA_TOPIC_STRING}, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION){
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			return messages[0].getStringParameterValue(CMQC.MQCA_TOPIC_STRING);
 		}
 	},
-	USER_DATA(String.class, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION){
+	USER_DATA(String.class, Volatility.DEFINITION, new int[]{CMQCFC.MQCACF_SUB_USER_DATA}, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION){
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			return messages[0].getStringParameterValue(CMQCFC.MQCACF_SUB_USER_DATA);
 		}
 	},		
 	
-	MANAGED(Boolean.class, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION){ // true means a managed destination, false means a provided destination
+	MANAGED(Boolean.class, Volatility.DEFINITION, new int[]{CMQCFC.MQIACF_DESTINATION_CLASS}, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION){ // true means a managed destination, false means a provided destination
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			final int man = messages[0].getIntParameterValue(CMQCFC.MQIACF_DESTINATION_CLASS);
 			return man==CMQC.MQDC_MANAGED;
 		}
 	},
-	SCOPE_ALL(Boolean.class, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION){ // true means the subscription is forwarded to all queue managers directly connected through a publish/subscribe collective or hierarchy. 
+	SCOPE_ALL(Boolean.class, Volatility.DEFINITION, new int[]{CMQCFC.MQIACF_SUBSCRIPTION_SCOPE}, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION){ // true means the subscription is forwarded to all queue managers directly connected through a publish/subscribe collective or hierarchy. 
 		// false means the subscription only forwards messages published on the topic within this queue manager.
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
@@ -93,14 +93,14 @@ public enum SubscriptionAttribute implements AttributeExtractor {
 		}
 	},  		
 	
-	DURABLE(Boolean.class, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION){
+	DURABLE(Boolean.class, Volatility.DEFINITION, new int[]{CMQCFC.MQIACF_DURABLE_SUBSCRIPTION}, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION){
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			final int dur = messages[0].getIntParameterValue(CMQCFC.MQIACF_DURABLE_SUBSCRIPTION);
 			return dur==CMQC.MQSUB_DURABLE_YES;
 		}
 	},  
-	LAST_MESSAGE_SENT(Date.class, CMQCFC.MQCMD_INQUIRE_SUB_STATUS) { // The date that a message was last sent to the destination specified by the subscription
+	LAST_MESSAGE_SENT(Date.class, Volatility.STATUS, new int[]{CMQCFC.MQCACF_LAST_MSG_DATE, CMQCFC.MQCACF_LAST_MSG_TIME}, CMQCFC.MQCMD_INQUIRE_SUB_STATUS) { // The date that a message was last sent to the destination specified by the subscription
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			final StringBuilder b = new StringBuilder(MQ.DATE_LENGTH);
@@ -110,7 +110,7 @@ public enum SubscriptionAttribute implements AttributeExtractor {
 			return b.length() >= MQ.DATE_LENGTH ? MQ.fromStringy(b) : null;
 		}			
 	},
-	LAST_RESUME(Date.class, CMQCFC.MQCMD_INQUIRE_SUB_STATUS) { // The date of the most recent MQSUB API call that connected to the subscription 
+	LAST_RESUME(Date.class, Volatility.STATUS, new int[]{CMQC.MQCA_RESUME_DATE, CMQC.MQCA_RESUME_TIME}, CMQCFC.MQCMD_INQUIRE_SUB_STATUS) { // The date of the most recent MQSUB API call that connected to the subscription 
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			final StringBuilder b = new StringBuilder(MQ.DATE_LENGTH);
@@ -120,20 +120,20 @@ public enum SubscriptionAttribute implements AttributeExtractor {
 			return b.length() >= MQ.DATE_LENGTH ? MQ.fromStringy(b) : null;
 		}			
 	},		
-	MESSAGES_SENT(Integer.class, CMQCFC.MQCMD_INQUIRE_SUB_STATUS) { // The number of messages put to the destination specified by this subscription
+	MESSAGES_SENT(Integer.class, Volatility.STATUS, new int[]{CMQCFC.MQIACF_MESSAGE_COUNT}, CMQCFC.MQCMD_INQUIRE_SUB_STATUS) { // The number of messages put to the destination specified by this subscription
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			return messages[0].getIntParameterValue(CMQCFC.MQIACF_MESSAGE_COUNT);
 		}			
 	},
-	QUEUE_MGR(String.class, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION) { // The queue manager hosting the subscription's queue
+	QUEUE_MGR(String.class, Volatility.DEFINITION, new int[]{CMQCFC.MQCACF_DESTINATION_Q_MGR}, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION) { // The queue manager hosting the subscription's queue
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			final String qmgr = messages[0].getStringParameterValue(CMQCFC.MQCACF_DESTINATION_Q_MGR);
 			return qmgr;
 		}			
 	},		
-	UNDELIVERED_MESSAGES(Integer.class, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION) { // The number of messages still in the subscription's queue
+	UNDELIVERED_MESSAGES(Integer.class, Volatility.STATUS, new int[]{CMQCFC.MQCACF_DESTINATION}, CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION) { // The number of messages still in the subscription's queue
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			try {
@@ -150,12 +150,28 @@ public enum SubscriptionAttribute implements AttributeExtractor {
 	
 	private static final SubscriptionAttribute[] values = values();
 	public static final Set<SubscriptionAttribute> VALUE_SET = Collections.unmodifiableSet(EnumSet.allOf(SubscriptionAttribute.class));
+	/** The subscription definition attributes */
+	public static final Set<SubscriptionAttribute> DEFINITION_SET = Volatility.tier(SubscriptionAttribute.class, Volatility.DEFINITION, sa -> sa.volatility);
+	/** The live subscription status attributes */
+	public static final Set<SubscriptionAttribute> STATUS_SET = Volatility.tier(SubscriptionAttribute.class, Volatility.STATUS, sa -> sa.volatility);
 	
 	
 	public static Map<SubscriptionAttribute, Object> extractSubscriptionAttributes(final MQ mq, final int attrType, final PCFMessage...messages) {
+		return extractSubscriptionAttributes(mq, VALUE_SET, attrType, messages);
+	}
+	
+	/**
+	 * Extracts the requested subscription attributes from the passed array of PCFMessages
+	 * @param mq The MQ instance
+	 * @param fields The attributes to extract
+	 * @param attrType The inquiry command the messages are a response to
+	 * @param messages The PCFMessages to extract from
+	 * @return a map of subscription attributes
+	 */
+	public static Map<SubscriptionAttribute, Object> extractSubscriptionAttributes(final MQ mq, final Set<SubscriptionAttribute> fields, final int attrType, final PCFMessage...messages) {
 		final EnumMap<SubscriptionAttribute, Object> map = new EnumMap<SubscriptionAttribute, Object>(SubscriptionAttribute.class);
 		for(final SubscriptionAttribute qa : values) {
-			if(qa.attrType != attrType) continue;
+			if(qa.attrType != attrType || !fields.contains(qa)) continue;
 			try {
 				map.put(qa, qa.extract(mq, messages));
 			} catch (PCFException pex) {
@@ -165,12 +181,47 @@ public enum SubscriptionAttribute implements AttributeExtractor {
 		return map;
 	}
 	
-	private SubscriptionAttribute(final Class<?> type, final int attrType) {
+	/**
+	 * Returns the attribute selectors for the passed attributes answered by the passed inquiry command, for the
+	 * <b><code>MQIACF_SUB_ATTRS</code></b> or <b><code>MQIACF_SUB_STATUS_ATTRS</code></b> parameter.
+	 * The subscription name is always included.
+	 * @param fields The attributes to select
+	 * @param attrType The inquiry command
+	 * @return the pcf attribute selectors
+	 */
+	public static int[] pcfAttributes(final Set<SubscriptionAttribute> fields, final int attrType) {
+		final Set<SubscriptionAttribute> selected = EnumSet.noneOf(SubscriptionAttribute.class);
+		for(SubscriptionAttribute sa: fields) {
+			if(sa.attrType==attrType) selected.add(sa);
+		}
+		return AttributeExtractor.selectors(new int[]{CMQCFC.MQCACF_SUB_NAME}, selected, sa -> sa.pcfAttrs);
+	}
+	
+	/**
+	 * Indicates if any of the passed attributes are answered by the passed inquiry command
+	 * @param fields The attributes
+	 * @param attrType The inquiry command
+	 * @return true if at least one attribute is answered by the command
+	 */
+	public static boolean anyOf(final Set<SubscriptionAttribute> fields, final int attrType) {
+		for(SubscriptionAttribute sa: fields) {
+			if(sa.attrType==attrType) return true;
+		}
+		return false;
+	}
+	
+	private SubscriptionAttribute(final Class<?> type, final Volatility volatility, final int[] pcfAttrs, final int attrType) {
 		this.type = type;
+		this.volatility = volatility;
+		this.pcfAttrs = pcfAttrs;
 		this.attrType = attrType; 
 	}
 	
 	public final Class<?> type;
+	/** How often this attribute changes */
+	public final Volatility volatility;
+	/** The pcf attributes this attribute is extracted from */
+	public final int[] pcfAttrs;
 	public final int attrType;
 
 }
@@ -38,43 +38,43 @@ import com.ibm.mq.pcf.PCFMessage;
  */
 
 public enum TopicAttribute implements AttributeExtractor {
-	NAME(String.class, CMQCFC.MQCMD_INQUIRE_TOPIC) {
+	NAME(String.class, Volatility.DEFINITION, new int[]{CMQC.MQCA_TOPIC_NAME}, CMQCFC.MQCMD_INQUIRE_TOPIC) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			return messages[0].getStringParameterValue(CMQC.MQCA_TOPIC_NAME).trim();
 		}		
 	},
-	TSTRING(String.class, CMQCFC.MQCMD_INQUIRE_TOPIC, CMQCFC.MQIACF_TOPIC_STATUS) {
+	TSTRING(String.class, Volatility.DEFINITION, new int[]{CMQC.MQCA_TOPIC_STRING}, CMQCFC.MQCMD_INQUIRE_TOPIC, CMQCFC.MQIACF_TOPIC_STATUS) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			return messages[0].getStringParameterValue(CMQC.MQCA_TOPIC_STRING);
 		}		
 	},
-	DESC(String.class, CMQCFC.MQCMD_INQUIRE_TOPIC) {
+	DESC(String.class, Volatility.DEFINITION, new int[]{CMQC.MQCA_TOPIC_DESC}, CMQCFC.MQCMD_INQUIRE_TOPIC) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			return messages[0].getStringParameterValue(CMQC.MQCA_TOPIC_DESC);
 		}		
 	},
-	TYPE(String.class, CMQCFC.MQCMD_INQUIRE_TOPIC) {
+	TYPE(String.class, Volatility.DEFINITION, new int[]{CMQC.MQIA_TOPIC_TYPE}, CMQCFC.MQCMD_INQUIRE_TOPIC) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			return messages[0].getIntParameterValue(CMQC.MQIA_TOPIC_TYPE)==CMQC.MQTOPT_LOCAL ? "LOCAL" : "CLUSTER";
 		}		
 	},
-	PUBLISHER_COUNT(Integer.class, CMQCFC.MQIACF_TOPIC_STATUS){
+	PUBLISHER_COUNT(Integer.class, Volatility.STATUS, new int[]{CMQC.MQIA_PUB_COUNT}, CMQCFC.MQIACF_TOPIC_STATUS){
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			return messages[0].getIntParameterValue(CMQC.MQIA_PUB_COUNT);
 		}
 	},
-	SUBSCRIBER_COUNT(Integer.class, CMQCFC.MQIACF_TOPIC_STATUS){
+	SUBSCRIBER_COUNT(Integer.class, Volatility.STATUS, new int[]{CMQC.MQIA_SUB_COUNT}, CMQCFC.MQIACF_TOPIC_STATUS){
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			return messages[0].getIntParameterValue(CMQC.MQIA_SUB_COUNT);
 		}
 	},
-	LAST_PUB_DATES(Map.class, CMQCFC.MQIACF_TOPIC_PUB) {
+	LAST_PUB_DATES(Map.class, Volatility.STATUS, new int[]{CMQCFC.MQBACF_CONNECTION_ID, CMQCFC.MQCACF_LAST_PUB_DATE, CMQCFC.MQCACF_LAST_PUB_TIME}, CMQCFC.MQIACF_TOPIC_PUB) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			final Map<String, Date> map = new HashMap<String, Date>(messages.length);
@@ -89,7 +89,7 @@ public enum TopicAttribute implements AttributeExtractor {
 			return map;
 		}			
 	},
-	PUB_MSG_COUNTS(Map.class, CMQCFC.MQIACF_TOPIC_PUB) {
+	PUB_MSG_COUNTS(Map.class, Volatility.STATUS, new int[]{CMQCFC.MQBACF_CONNECTION_ID, CMQCFC.MQIACF_PUBLISH_COUNT}, CMQCFC.MQIACF_TOPIC_PUB) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			final Map<String, Integer> map = new HashMap<String, Integer>(messages.length);
@@ -100,7 +100,7 @@ public enum TopicAttribute implements AttributeExtractor {
 			return map;				
 		}
 	},
-	PUB_CONNECTION_ID(String[].class, CMQCFC.MQIACF_TOPIC_PUB) {
+	PUB_CONNECTION_ID(String[].class, Volatility.STATUS, new int[]{CMQCFC.MQBACF_CONNECTION_ID}, CMQCFC.MQIACF_TOPIC_PUB) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			final int len = messages.length;
@@ -111,7 +111,7 @@ public enum TopicAttribute implements AttributeExtractor {
 			return conns;
 		}
 	},
-	SUB_COMM_INFO(String.class, CMQCFC.MQIACF_TOPIC_STATUS, CMQCFC.MQCMD_INQUIRE_TOPIC) {
+	SUB_COMM_INFO(String.class, Volatility.DEFINITION, new int[]{CMQC.MQCA_COMM_INFO_NAME}, CMQCFC.MQIACF_TOPIC_STATUS, CMQCFC.MQCMD_INQUIRE_TOPIC) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			final int len = messages.length;
@@ -122,7 +122,7 @@ public enum TopicAttribute implements AttributeExtractor {
 			return String.join(",", conns);				
 		}
 	},
-	SUB_RESUME_DATE(Map.class, CMQCFC.MQIACF_TOPIC_SUB) {
+	SUB_RESUME_DATE(Map.class, Volatility.STATUS, new int[]{CMQCFC.MQBACF_SUB_ID, CMQC.MQCA_RESUME_DATE, CMQC.MQCA_RESUME_TIME}, CMQCFC.MQIACF_TOPIC_SUB) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			final Map<String, Date> map = new HashMap<String, Date>(messages.length);
@@ -137,7 +137,7 @@ public enum TopicAttribute implements AttributeExtractor {
 			return map;
 		}			
 	},
-	SUB_LAST_MESSAGE_DATE(Map.class, CMQCFC.MQIACF_TOPIC_SUB) {
+	SUB_LAST_MESSAGE_DATE(Map.class, Volatility.STATUS, new int[]{CMQCFC.MQBACF_SUB_ID, CMQCFC.MQCACF_LAST_MSG_DATE, CMQCFC.MQCACF_LAST_MSG_TIME}, CMQCFC.MQIACF_TOPIC_SUB) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			final Map<String, Date> map = new HashMap<String, Date>(messages.length);
@@ -155,7 +155,7 @@ public enum TopicAttribute implements AttributeExtractor {
 			return map;
 		}			
 	},
-	SUB_MSG_COUNTS(Map.class, CMQCFC.MQIACF_TOPIC_SUB) {
+	SUB_MSG_COUNTS(Map.class, Volatility.STATUS, new int[]{CMQCFC.MQBACF_SUB_ID, CMQCFC.MQIACF_MESSAGE_COUNT}, CMQCFC.MQIACF_TOPIC_SUB) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			final Map<String, Integer> map = new HashMap<String, Integer>(messages.length);
@@ -166,7 +166,7 @@ public enum TopicAttribute implements AttributeExtractor {
 			return map;				
 		}
 	},
-	SUB_SUBSCRIPTION_ID(String[].class, CMQCFC.MQIACF_TOPIC_SUB) {
+	SUB_SUBSCRIPTION_ID(String[].class, Volatility.STATUS, new int[]{CMQCFC.MQBACF_SUB_ID}, CMQCFC.MQIACF_TOPIC_SUB) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			final int len = messages.length;
@@ -177,7 +177,7 @@ public enum TopicAttribute implements AttributeExtractor {
 			return conns;
 		}
 	},
-	SUB_SUBSCRIPTION_ID_BYTES(Map.class, CMQCFC.MQIACF_TOPIC_SUB) {
+	SUB_SUBSCRIPTION_ID_BYTES(Map.class, Volatility.STATUS, new int[]{CMQCFC.MQBACF_SUB_ID}, CMQCFC.MQIACF_TOPIC_SUB) {
 		@Override
 		public Object extract(final MQ mq, final PCFMessage... messages) throws PCFException {
 			final Map<String, byte[]> map = new HashMap<String, byte[]>(messages.length);
@@ -192,6 +192,10 @@ public enum TopicAttribute implements AttributeExtractor {
 	
 	private static final TopicAttribute[] values = values();
 	public static final Set<TopicAttribute> VALUE_SET = Collections.unmodifiableSet(EnumSet.allOf(TopicAttribute.class));
+	/** The topic definition attributes */
+	public static final Set<TopicAttribute> DEFINITION_SET = Volatility.tier(TopicAttribute.class, Volatility.DEFINITION, ta -> ta.volatility);
+	/** The live topic status attributes */
+	public static final Set<TopicAttribute> STATUS_SET = Volatility.tier(TopicAttribute.class, Volatility.STATUS, ta -> ta.volatility);
 	
 	
 	/**
@@ -202,9 +206,21 @@ public enum TopicAttribute implements AttributeExtractor {
 	 * @return a map of topic attributes
 	 */
 	public static Map<TopicAttribute, Object> extractTopicAttributes(final MQ mq, final int statusType, final PCFMessage...messages) {
+		return extractTopicAttributes(mq, VALUE_SET, statusType, messages);
+	}
+	
+	/**
+	 * Extracts the requested topic attributes from the passed array of PCFMessages
+	 * @param mq The MQ instance
+	 * @param fields The attributes to extract
+	 * @param statusType The status type or -1 for all
+	 * @param messages The PCFMessages to extract from
+	 * @return a map of topic attributes
+	 */
+	public static Map<TopicAttribute, Object> extractTopicAttributes(final MQ mq, final Set<TopicAttribute> fields, final int statusType, final PCFMessage...messages) {
 		final EnumMap<TopicAttribute, Object> map = new EnumMap<TopicAttribute, Object>(TopicAttribute.class);
 		for(final TopicAttribute ta : values) {
-			if(!ta.statusTypeMatch(statusType)) continue;
+			if(!fields.contains(ta) || !ta.statusTypeMatch(statusType)) continue;
 			try {
 				map.put(ta, ta.extract(mq, messages));
 			} catch (PCFException pex) {
@@ -214,18 +230,52 @@ public enum TopicAttribute implements AttributeExtractor {
 		return map;
 	}
 	
+	/**
+	 * Returns the topic status attribute selectors for the passed attributes of the passed status type, for the
+	 * <b><code>MQIACF_TOPIC_STATUS_ATTRS</code></b> parameter
+	 * @param fields The attributes to select
+	 * @param statusType The topic status type
+	 * @return the pcf attribute selectors
+	 */
+	public static int[] pcfAttributes(final Set<TopicAttribute> fields, final int statusType) {
+		final Set<TopicAttribute> selected = EnumSet.noneOf(TopicAttribute.class);
+		for(TopicAttribute ta: fields) {
+			if(ta.statusTypeMatch(statusType)) selected.add(ta);
+		}
+		return AttributeExtractor.selectors(new int[]{CMQC.MQCA_TOPIC_STRING}, selected, ta -> ta.pcfAttrs);
+	}
+	
+	/**
+	 * Indicates if any of the passed attributes are of the passed status type
+	 * @param fields The attributes
+	 * @param statusType The topic status type
+	 * @return true if at least one attribute is of the status type
+	 */
+	public static boolean anyOf(final Set<TopicAttribute> fields, final int statusType) {
+		for(TopicAttribute ta: fields) {
+			if(ta.statusTypeMatch(statusType)) return true;
+		}
+		return false;
+	}
+	
 	public boolean statusTypeMatch(final int type) {
 		if(type==-1) return true;
 		return Arrays.binarySearch(statusTypes, type) >= 0;
 	}
 	
-	private TopicAttribute(final Class<?> type, final int...statusTypes) {
+	private TopicAttribute(final Class<?> type, final Volatility volatility, final int[] pcfAttrs, final int...statusTypes) {
 		this.type = type;
+		this.volatility = volatility;
+		this.pcfAttrs = pcfAttrs;
 		this.statusTypes = statusTypes;
 		Arrays.sort(this.statusTypes);
 	}
 	
 	public final Class<?> type;
+	/** How often this attribute changes */
+	public final Volatility volatility;
+	/** The pcf attributes this attribute is extracted from */
+	public final int[] pcfAttrs;
 	public final int[] statusTypes;
 
 }
@@ -0,0 +1,71 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.commands;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * <p>Title: Volatility</p>
+ * <p>Description: Classifies MQ object attributes by how often they change, so each class can be cached
+ * and refreshed on its own schedule</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.commands.Volatility</code></p>
+ */
+
+public enum Volatility {
+	/** Object definition attributes which only change when the object is altered, e.g. names and descriptions */
+	DEFINITION,
+	/** Live status attributes which change as messages flow, e.g. depths, counts and last activity times */
+	STATUS;
+	
+	/**
+	 * Returns the config name of this tier
+	 * @return the lower case tier name
+	 */
+	public String configName() {
+		return name().toLowerCase();
+	}
+	
+	/**
+	 * Decodes a tier from its config name
+	 * @param name The tier name, case insensitive
+	 * @return the tier
+	 */
+	public static Volatility decode(final String name) {
+		if(name==null || name.trim().isEmpty()) throw new IllegalArgumentException("The passed tier name was null or empty");
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (Exception ex) {
+			throw new IllegalArgumentException("Invalid tier name [" + name + "]");
+		}
+	}
+	
+	/**
+	 * Returns the attributes of the passed tier
+	 * @param type The attribute enum type
+	 * @param volatility The tier
+	 * @param classifier Returns the tier of one attribute
+	 * @return an unmodifiable set of the tier's attributes
+	 */
+	static <T extends Enum<T>> Set<T> tier(final Class<T> type, final Volatility volatility, final Function<T, Volatility> classifier) {
+		final EnumSet<T> set = EnumSet.noneOf(type);
+		for(T t: type.getEnumConstants()) {
+			if(classifier.apply(t)==volatility) set.add(t);
+		}
+		return Collections.unmodifiableSet(set);
+	}
+}
@@ -14,6 +14,7 @@ package com.heliosapm.easymq.http;
 
 import static spark.Spark.awaitInitialization;
 import static spark.Spark.before;
+import static spark.Spark.exception;
 import static spark.Spark.get;
 import static spark.Spark.port;
 import static spark.Spark.staticFiles;
@@ -22,6 +23,8 @@ import static spark.Spark.threadPool;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletResponse;
@@ -32,7 +35,15 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.heliosapm.easymq.MQ;
 import com.heliosapm.easymq.MQConfig;
+import com.heliosapm.easymq.cache.CacheSnapshot;
+import com.heliosapm.easymq.commands.PCFFilter;
+import com.heliosapm.easymq.commands.PCFFilter.ObjectType;
+import com.heliosapm.easymq.commands.QueueAttribute;
+import com.heliosapm.easymq.commands.SubscriptionAttribute;
+import com.heliosapm.easymq.commands.TopicAttribute;
 import com.heliosapm.easymq.json.JSONOps;
+import com.heliosapm.easymq.metrics.MetricsService;
+import com.heliosapm.easymq.pool.CircuitOpenException;
 
 import spark.Request;
 import spark.Response;
@@ -63,6 +74,8 @@ public class HttpServer {
 	
 	private static final JsonNode EMPTY_NODE = JSONOps.getNodeFactory().nullNode();
 	private static final Pattern URI_SPLITTER = Pattern.compile("/");
+	/** The comma splitter for list parameters */
+	private static final Pattern COMMA_SPLITTER = Pattern.compile("\\s*,\\s*");
 	
 	/** The JSON content type */
 	public static final String JSON_TYPE = "application/json";
@@ -75,6 +88,12 @@ public class HttpServer {
 	
 	/** The handler return for successful routes */
 	public static final String OK_200 = "200 OK";
+	/** The entity tag response header */
+	public static final String ETAG_HEADER = "ETag";
+	/** The conditional request header */
+	public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+	/** The cache snapshot version response header */
+	public static final String CACHE_VERSION_HEADER = "easymq.cache.version";
 	/** The handler return for resource not found routes */
 	public static final String NOTFOUND_404 = "404 NOTFOUND";
 	/** The handler return for resource not found routes */
@@ -128,19 +147,56 @@ public class HttpServer {
 			final String[] frags = splitUri(request);
 			log.info("URI frags: {}", Arrays.toString(frags));
 		});
+		exception(RuntimeException.class, (ex, req, res) -> {
+			final CircuitOpenException cex = CircuitOpenException.find(ex);
+			if(cex!=null) {
+				res.body(err(res, 503, cex.getMessage()));
+			} else {
+				log.error("Request failed [{}]", req.uri(), ex);
+				res.body(err(res, 500, String.valueOf(ex.getMessage())));
+			}
+		});
 		get("/ping", (req, res) -> {
 			res.type(JSON_TYPE);
 			return "{\"msg\":\"pong\"}";
 		});
+		get("/metrics", (req, res) -> {
+			final String prefix = req.queryParams("prefix");
+			try {
+				final HttpServletResponse raw = res.raw();
+				raw.setContentType(JSON_TYPE);
+				raw.setStatus(200);
+				if(prefix==null || prefix.trim().isEmpty()) {
+					MetricsService.getInstance().writeJson(raw.getOutputStream());
+				} else {
+					MetricsService.getInstance().writeJson((name, metric) -> name.startsWith(prefix.trim()), raw.getOutputStream());
+				}
+				return OK_200;
+			} catch (Exception ex) {
+				return err(res, 500, ex.getMessage());
+			}
+		});
 		get("/qnames/:mq", (req, res) -> {					
 			final MQ mq = MQ.getInstance(req.params(":mq"), true);
 			if(mq==null) return err(res, 404, "Failed to find MQ instance [" + req.params(":mq") + "]");
-			return sendMQResponse(res, mq.getQueueNames(), mq);
+			final PCFFilter filter;
+			try {
+				filter = PCFFilter.parse(ObjectType.QUEUE, req.queryParams("filter"));
+			} catch (IllegalArgumentException iex) {
+				return err(res, 400, iex.getMessage());
+			}
+			return sendMQResponse(res, mq.getQueueNames(filter), mq);
 		});
 		get("/tnames/:mq", (req, res) -> {					
 			final MQ mq = MQ.getInstance(req.params(":mq"), true);
 			if(mq==null) return err(res, 404, "Failed to find MQ instance [" + req.params(":mq") + "]");
-			return sendMQResponse(res, mq.getTopicNames(), mq);
+			final PCFFilter filter;
+			try {
+				filter = PCFFilter.parse(ObjectType.TOPIC, req.queryParams("filter"));
+			} catch (IllegalArgumentException iex) {
+				return err(res, 400, iex.getMessage());
+			}
+			return sendMQResponse(res, mq.getTopicNames(filter), mq);
 		});
 		
 		get("/subnames/:topic/:mq", (req, res) -> {					
@@ -151,11 +207,76 @@ public class HttpServer {
 			return sendMQResponse(res, mq.getTopicSubscriptions(topicName), mq);			
 		});
 		
+		get("/queues/:mq", (req, res) -> {
+			final MQ mq = MQ.getInstance(req.params(":mq"), true);
+			if(mq==null) return err(res, 404, "Failed to find MQ instance [" + req.params(":mq") + "]");
+			return sendSnapshot(req, res, mq.queueSnapshot(), mq);
+		});
+		get("/topics/:mq", (req, res) -> {
+			final MQ mq = MQ.getInstance(req.params(":mq"), true);
+			if(mq==null) return err(res, 404, "Failed to find MQ instance [" + req.params(":mq") + "]");
+			return sendSnapshot(req, res, mq.topicSnapshot(), mq);
+		});
+		
+		get("/qattrs/:queue/:mq", (req, res) -> {
+			final MQ mq = MQ.getInstance(req.params(":mq"), true);
+			if(mq==null) return err(res, 404, "Failed to find MQ instance [" + req.params(":mq") + "]");
+			final Set<QueueAttribute> fields;
+			try {
+				fields = fields(QueueAttribute.class, req.queryParams("fields"));
+			} catch (IllegalArgumentException iex) {
+				return err(res, 400, iex.getMessage());
+			}
+			return sendMQResponse(res, mq.queueAttrs(req.params(":queue"), fields), mq);
+		});
+		get("/tattrs/:topic/:mq", (req, res) -> {
+			final MQ mq = MQ.getInstance(req.params(":mq"), true);
+			if(mq==null) return err(res, 404, "Failed to find MQ instance [" + req.params(":mq") + "]");
+			final Set<TopicAttribute> fields;
+			try {
+				fields = fields(TopicAttribute.class, req.queryParams("fields"));
+			} catch (IllegalArgumentException iex) {
+				return err(res, 400, iex.getMessage());
+			}
+			return sendMQResponse(res, mq.topicAttrs(req.params(":topic"), fields), mq);
+		});
+		get("/subattrs/:sub/:mq", (req, res) -> {
+			final MQ mq = MQ.getInstance(req.params(":mq"), true);
+			if(mq==null) return err(res, 404, "Failed to find MQ instance [" + req.params(":mq") + "]");
+			final Set<SubscriptionAttribute> fields;
+			try {
+				fields = fields(SubscriptionAttribute.class, req.queryParams("fields"));
+			} catch (IllegalArgumentException iex) {
+				return err(res, 400, iex.getMessage());
+			}
+			return sendMQResponse(res, mq.subscriptionAttrs(req.params(":sub"), fields), mq);
+		});
+		
 		awaitInitialization(); 
 		log.info("HTTP Server Started on [{}]", port);
 	}
 	
 	
+	/**
+	 * Parses a comma separated <b><code>fields</code></b> parameter into a set of attributes
+	 * @param type The attribute enum type
+	 * @param fields The comma separated attribute names, case insensitive. All attributes are returned if null or empty.
+	 * @return the attribute set
+	 */
+	protected static <E extends Enum<E>> Set<E> fields(final Class<E> type, final String fields) {
+		if(fields==null || fields.trim().isEmpty()) return EnumSet.allOf(type);
+		final Set<E> set = EnumSet.noneOf(type);
+		for(String f: COMMA_SPLITTER.split(fields.trim())) {
+			if(f.isEmpty()) continue;
+			try {
+				set.add(Enum.valueOf(type, f.toUpperCase()));
+			} catch (IllegalArgumentException iex) {
+				throw new IllegalArgumentException("Unknown field [" + f + "], valid fields are " + EnumSet.allOf(type));
+			}
+		}
+		return set.isEmpty() ? EnumSet.allOf(type) : set;
+	}
+	
 	protected String err(final Response res, final int code, final String errorMessage) {
 		res.type(JSON_TYPE);
 		res.status(code);
@@ -184,6 +305,27 @@ public class HttpServer {
 	}
 	
 	
+	/**
+	 * Sends a cache snapshot tagged with its version, or a <b><code>304</code></b> if the caller
+	 * already has this version per its <b><code>If-None-Match</code></b> header
+	 * @param req The spark http request
+	 * @param res The spark http response
+	 * @param snapshot The cache snapshot
+	 * @param mq The MQ instance the snapshot belongs to
+	 * @throws IOException thrown on any io error
+	 */
+	protected String sendSnapshot(final Request req, final Response res, final CacheSnapshot<?, ?> snapshot, final MQ mq) throws IOException {
+		final String etag = snapshot.etag();
+		res.header(ETAG_HEADER, etag);
+		res.header(CACHE_VERSION_HEADER, Long.toString(snapshot.getVersion()));
+		if(etag.equals(req.headers(IF_NONE_MATCH_HEADER))) {
+			res.header(MQ_KEY_HEADER, mq.key().toString());
+			res.status(304);
+			return "";
+		}
+		return sendMQResponse(res, snapshot, mq);
+	}
+	
 	protected String[] splitUri(final Request request) {
 		final String[] frags = URI_SPLITTER.split(request.uri());		
 		final String[] trimmed = new String[frags.length-1];
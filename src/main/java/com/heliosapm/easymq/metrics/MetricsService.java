@@ -0,0 +1,241 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.json.MetricsModule;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.heliosapm.easymq.MQConfig;
+import com.heliosapm.easymq.json.JSONOps;
+import com.ibm.mq.constants.MQConstants;
+
+/**
+ * <p>Title: MetricsService</p>
+ * <p>Description: Owns the shared metric registry and publishes it to JMX.
+ * PCF metrics are named <b><code>pcf.&lt;pool name&gt;.&lt;command&gt;</code></b> and pool metrics
+ * <b><code>pool.&lt;pool name&gt;</code></b>.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.metrics.MetricsService</code></p>
+ */
+
+public class MetricsService {
+	/** The singleton instance */
+	private static volatile MetricsService instance = null;
+	/** The singleton instance ctor lock */
+	private static Object lock = new Object();
+
+	/** The shared metric registry */
+	private final MetricRegistry registry = new MetricRegistry();
+	/** The JMX reporter, null if disabled */
+	private final JmxReporter jmxReporter;
+	/** The mapper used to render the registry as JSON */
+	private final ObjectMapper metricsMapper;
+	/** The pcf metrics keyed by command within a map keyed by pool name */
+	private final Map<String, Map<Integer, PCFMetrics>> pcfMetrics = new ConcurrentHashMap<String, Map<Integer, PCFMetrics>>(32, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** Resolved pcf command names keyed by command code */
+	private final Map<Integer, String> commandNames = new ConcurrentHashMap<Integer, String>(64, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** Instance logger */
+	protected final Logger log = LoggerFactory.getLogger(getClass());
+
+	/** The default JMX domain metrics are published under */
+	public static final String DEFAULT_JMX_DOMAIN = "com.heliosapm.easymq.metrics";
+
+	/**
+	 * Acquires the MetricsService singleton instance
+	 * @return the MetricsService singleton
+	 */
+	public static MetricsService getInstance() {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					instance = new MetricsService();
+				}
+			}
+		}
+		return instance;
+	}
+
+	private MetricsService() {
+		JsonNode metricsNode = MQConfig.getInstance().getConfigNode("metrics");
+		if(metricsNode==null) metricsNode = JSONOps.getNodeFactory().objectNode();
+		final TimeUnit rateUnit = TimeUnit.valueOf(metricsNode.path("rateUnit").asText("SECONDS").trim().toUpperCase());
+		final TimeUnit durationUnit = TimeUnit.valueOf(metricsNode.path("durationUnit").asText("MILLISECONDS").trim().toUpperCase());
+		metricsMapper = new ObjectMapper().registerModule(new MetricsModule(rateUnit, durationUnit, false));
+		if(metricsNode.path("jmx").asBoolean(true)) {
+			jmxReporter = JmxReporter.forRegistry(registry)
+				.inDomain(metricsNode.path("jmxDomain").asText(DEFAULT_JMX_DOMAIN))
+				.convertRatesTo(rateUnit)
+				.convertDurationsTo(durationUnit)
+				.build();
+			jmxReporter.start();
+		} else {
+			jmxReporter = null;
+		}
+		log.info("MetricsService started, jmx:{}", jmxReporter!=null);
+	}
+
+	/**
+	 * Returns the shared metric registry
+	 * @return the metric registry
+	 */
+	public MetricRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Records a completed pcf request
+	 * @param poolName The name of the pool the request was sent on
+	 * @param command The pcf command code
+	 * @param nanos The round trip time in ns.
+	 * @param responseCount The number of response messages, or -1 if the request failed
+	 */
+	public void recordPCF(final String poolName, final int command, final long nanos, final int responseCount) {
+		final PCFMetrics m = pcfMetrics(poolName, command);
+		m.timer.update(nanos, TimeUnit.NANOSECONDS);
+		if(responseCount < 0) {
+			m.errors.mark();
+		} else {
+			m.responses.update(responseCount);
+		}
+	}
+
+	/**
+	 * Returns the round trip timer for the passed pool and command if any requests have been recorded
+	 * @param poolName The pool name
+	 * @param command The pcf command code
+	 * @return the timer or null if no requests have been recorded
+	 */
+	public Timer getPCFTimer(final String poolName, final int command) {
+		final Map<Integer, PCFMetrics> byCommand = pcfMetrics.get(poolName);
+		if(byCommand==null) return null;
+		final PCFMetrics m = byCommand.get(command);
+		return m==null ? null : m.timer;
+	}
+
+	/**
+	 * Returns the pcf metrics for the passed pool and command, creating them if necessary
+	 * @param poolName The pool name
+	 * @param command The pcf command code
+	 * @return the pcf metrics
+	 */
+	private PCFMetrics pcfMetrics(final String poolName, final int command) {
+		Map<Integer, PCFMetrics> byCommand = pcfMetrics.get(poolName);
+		if(byCommand==null) {
+			byCommand = pcfMetrics.computeIfAbsent(poolName, k -> new ConcurrentHashMap<Integer, PCFMetrics>(16, 0.75f, Runtime.getRuntime().availableProcessors()));
+		}
+		PCFMetrics m = byCommand.get(command);
+		if(m==null) {
+			m = byCommand.computeIfAbsent(command, k -> new PCFMetrics(MetricRegistry.name("pcf", poolName, commandName(command))));
+		}
+		return m;
+	}
+
+	/**
+	 * Returns the MQCMD constant name for the passed pcf command code
+	 * @param command The pcf command code
+	 * @return the command name
+	 */
+	public String commandName(final int command) {
+		return commandNames.computeIfAbsent(command, k -> {
+			try {
+				final String name = MQConstants.lookup(command, "MQCMD_.*");
+				if(name!=null && !name.trim().isEmpty()) return name.trim();
+			} catch (Exception x) {/* No Op */}
+			return "MQCMD_" + command;
+		});
+	}
+
+	/**
+	 * Removes all metrics whose names start with the passed prefix
+	 * @param prefix The metric name prefix
+	 */
+	public void removeMetrics(final String prefix) {
+		registry.removeMatching((name, metric) -> name.startsWith(prefix));
+	}
+
+	/**
+	 * Removes the pcf and pool metrics for the passed pool
+	 * @param poolName The pool name
+	 */
+	public void removePoolMetrics(final String poolName) {
+		pcfMetrics.remove(poolName);
+		removeMetrics(MetricRegistry.name("pcf", poolName) + ".");
+		removeMetrics(MetricRegistry.name("pool", poolName) + ".");
+	}
+
+	/**
+	 * Writes all metrics as JSON to the passed output stream
+	 * @param os The output stream to write to
+	 * @throws IOException thrown on any io error
+	 */
+	public void writeJson(final OutputStream os) throws IOException {
+		metricsMapper.writeValue(os, registry);
+	}
+
+	/**
+	 * Writes the metrics matching the passed filter as JSON to the passed output stream
+	 * @param filter The metric filter
+	 * @param os The output stream to write to
+	 * @throws IOException thrown on any io error
+	 */
+	public void writeJson(final MetricFilter filter, final OutputStream os) throws IOException {
+		final MetricRegistry filtered = new MetricRegistry();
+		registry.getMetrics().forEach((name, metric) -> {
+			if(filter.matches(name, metric)) filtered.register(name, metric);
+		});
+		metricsMapper.writeValue(os, filtered);
+	}
+
+	/**
+	 * Stops the JMX reporter
+	 */
+	public void shutdown() {
+		if(jmxReporter!=null) jmxReporter.stop();
+	}
+
+	/**
+	 * <p>Title: PCFMetrics</p>
+	 * <p>Description: The metrics for one pcf command against one pool</p>
+	 */
+	private class PCFMetrics {
+		/** The round trip timer */
+		final Timer timer;
+		/** The number of response messages per request */
+		final Histogram responses;
+		/** The failed request rate */
+		final Meter errors;
+
+		PCFMetrics(final String prefix) {
+			timer = registry.timer(MetricRegistry.name(prefix, "rtt"));
+			responses = registry.histogram(MetricRegistry.name(prefix, "responses"));
+			errors = registry.meter(MetricRegistry.name(prefix, "errors"));
+		}
+	}
+
+}
@@ -0,0 +1,225 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.pool;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.SlidingTimeWindowReservoir;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * <p>Title: AdaptivePoolSizer</p>
+ * <p>Description: Feedback controller which grows or shrinks the max size of adaptive sub pools
+ * between configured bounds, aiming to keep a borrow wait percentile under a target.</p>
+ * <p>Each interval, a pool whose borrow wait percentile over that interval is above the target grows by a quarter (at least one).
+ * A pool whose wait percentile is under half the target shrinks by one, but never below the concurrency
+ * implied by Little's law from the observed borrow rate and mean pcf round trip time.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.pool.AdaptivePoolSizer</code></p>
+ */
+
+public class AdaptivePoolSizer {
+	/** The pools being sized, keyed by the pool key */
+	private final Map<String, AgentPool> pools;
+	/** The per key stats and settings for adaptive sub pools, keyed by the pool key */
+	private final Map<String, KeyStats> keyStats = new ConcurrentHashMap<String, KeyStats>(32, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** The sizing scheduler */
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+		final Thread t = new Thread(r, "AdaptivePoolSizer");
+		t.setDaemon(true);
+		return t;
+	});
+	/** Instance logger */
+	protected final Logger log = LoggerFactory.getLogger(getClass());
+
+	/** Head room applied to the Little's law concurrency estimate */
+	public static final double HEADROOM = 1.25d;
+
+	/**
+	 * Creates a new AdaptivePoolSizer
+	 * @param pools The pools being sized, keyed by the pool key
+	 */
+	AdaptivePoolSizer(final Map<String, AgentPool> pools) {
+		this.pools = pools;
+	}
+
+	/**
+	 * Starts adaptive sizing for the passed key if the passed settings enable it
+	 * @param poolKey The pool key
+	 * @param s The adaptive settings for the key's sub pool
+	 */
+	void register(final String poolKey, final Settings s) {
+		if(!s.enabled) return;
+		final KeyStats ks = new KeyStats(s);
+		if(keyStats.putIfAbsent(poolKey, ks)==null) {
+			ks.task = scheduler.scheduleWithFixedDelay(() -> resize(poolKey, ks), s.intervalSeconds, s.intervalSeconds, TimeUnit.SECONDS);
+			log.info("Adaptive sizing enabled for [{}]: {}", poolKey, s);
+		}
+	}
+
+	/**
+	 * Stops adaptive sizing for the passed key and drops its stats
+	 * @param poolKey The pool key
+	 */
+	void unregister(final String poolKey) {
+		final KeyStats ks = keyStats.remove(poolKey);
+		if(ks!=null) {
+			if(ks.task!=null) ks.task.cancel(false);
+			log.info("Adaptive sizing stopped for [{}]", poolKey);
+		}
+	}
+
+	/**
+	 * Records the time a caller waited to borrow a connection
+	 * @param poolKey The pool key
+	 * @param nanos The wait time in ns.
+	 */
+	void recordBorrowWait(final String poolKey, final long nanos) {
+		final KeyStats ks = keyStats.get(poolKey);
+		if(ks!=null) {
+			ks.borrowWaits.update(TimeUnit.NANOSECONDS.toMicros(nanos));
+			ks.borrows.increment();
+		}
+	}
+
+	/**
+	 * Records the round trip time of a pcf request sent on a pooled connection
+	 * @param poolKey The pool key
+	 * @param nanos The round trip time in ns.
+	 */
+	void recordRoundTrip(final String poolKey, final long nanos) {
+		final KeyStats ks = keyStats.get(poolKey);
+		if(ks!=null) {
+			ks.roundTrips.update(TimeUnit.NANOSECONDS.toMicros(nanos));
+		}
+	}
+
+	/**
+	 * Indicates if the passed key is adaptively sized
+	 * @param poolKey The pool key
+	 * @return true if adaptive, false otherwise
+	 */
+	public boolean isAdaptive(final String poolKey) {
+		return keyStats.containsKey(poolKey);
+	}
+
+	/**
+	 * Runs one sizing step for the passed key
+	 * @param poolKey The pool key
+	 * @param ks The key's stats and settings
+	 */
+	private void resize(final String poolKey, final KeyStats ks) {
+		try {
+			final AgentPool pool = pools.get(poolKey);
+			if(pool==null || pool.isClosed()) return;
+			final Settings s = ks.settings;
+			final double waitMs = ks.borrowWaits.getSnapshot().getValue(s.targetPercentile) / 1000d;
+			final double rttMs = ks.roundTrips.getSnapshot().getMean() / 1000d;
+			final long borrowCount = ks.borrows.sumThenReset();
+			final double borrowRate = borrowCount / (double)s.intervalSeconds;
+			final int littles = (int)Math.ceil(borrowRate * rttMs / 1000d * HEADROOM);
+			final int current = pool.getMaxTotal();
+			int next = current;
+			// the wait samples only cover this interval, so a burst which has ended does not keep growing the pool
+			if(borrowCount > 0 && waitMs > s.targetWaitMillis) {
+				next = current + Math.max(1, current / 4);
+			} else if(waitMs < s.targetWaitMillis / 2d && littles < current) {
+				next = Math.max(littles, current - 1);
+			}
+			next = Math.min(s.maxTotal, Math.max(s.minTotal, next));
+			if(next!=current) {
+				pool.setMaxTotal(next);
+				pool.setMaxIdle(next);
+				log.info("Resized pool [{}] from {} to {}: p{} borrow wait {} ms, mean rtt {} ms, borrow rate {}/s",
+					poolKey, current, next, (int)(s.targetPercentile * 100), String.format("%.2f", waitMs),
+					String.format("%.2f", rttMs), String.format("%.2f", borrowRate));
+			}
+		} catch (Exception ex) {
+			log.warn("Adaptive resize failed for [{}]", poolKey, ex);
+		}
+	}
+
+	/**
+	 * Stops the sizing scheduler
+	 */
+	void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * <p>Title: Settings</p>
+	 * <p>Description: The adaptive sizing settings for one sub pool</p>
+	 */
+	static class Settings {
+		/** Indicates if adaptive sizing is enabled */
+		final boolean enabled;
+		/** The lower bound for the pool's max size */
+		final int minTotal;
+		/** The upper bound for the pool's max size */
+		final int maxTotal;
+		/** The borrow wait percentile which is controlled, e.g. 0.95 */
+		final double targetPercentile;
+		/** The borrow wait target in ms. for the controlled percentile */
+		final double targetWaitMillis;
+		/** The sizing interval in seconds */
+		final int intervalSeconds;
+		/** The length of the round trip sample window in seconds. Borrow waits are sampled per sizing interval. */
+		final int windowSeconds;
+
+		Settings(final JsonNode node) {
+			enabled = node.path("enabled").asBoolean(false);
+			minTotal = Math.max(1, node.path("minTotalPerKey").asInt(1));
+			maxTotal = Math.max(minTotal, node.path("maxTotalPerKey").asInt(32));
+			targetPercentile = Math.min(0.999d, Math.max(0.5d, node.path("targetPercentile").asDouble(0.95d)));
+			targetWaitMillis = node.path("targetWaitMillis").asDouble(50d);
+			intervalSeconds = Math.max(1, node.path("intervalSeconds").asInt(10));
+			windowSeconds = Math.max(intervalSeconds, node.path("windowSeconds").asInt(60));
+		}
+
+		@Override
+		public String toString() {
+			return "bounds:[" + minTotal + "-" + maxTotal + "], target:p" + (int)(targetPercentile * 100) + "<=" + targetWaitMillis
+				+ "ms, interval:" + intervalSeconds + "s, window:" + windowSeconds + "s";
+		}
+	}
+
+	/**
+	 * <p>Title: KeyStats</p>
+	 * <p>Description: The sampled borrow waits of the current sizing interval and round trips of the sample window for one key, in microseconds</p>
+	 */
+	private static class KeyStats {
+		final Settings settings;
+		final Histogram borrowWaits;
+		final Histogram roundTrips;
+		final LongAdder borrows = new LongAdder();
+		volatile ScheduledFuture<?> task;
+
+		KeyStats(final Settings settings) {
+			this.settings = settings;
+			borrowWaits = new Histogram(new SlidingTimeWindowReservoir(settings.intervalSeconds, TimeUnit.SECONDS));
+			roundTrips = new Histogram(new SlidingTimeWindowReservoir(settings.windowSeconds, TimeUnit.SECONDS));
+		}
+	}
+
+}
@@ -0,0 +1,503 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.pool;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.heliosapm.easymq.commands.PCFFilter.ObjectType;
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQGetMessageOptions;
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.MQQueue;
+import com.ibm.mq.MQQueueManager;
+import com.ibm.mq.constants.CMQC;
+import com.ibm.mq.constants.CMQCFC;
+import com.ibm.mq.pcf.MQCFGR;
+import com.ibm.mq.pcf.PCFMessage;
+import com.ibm.mq.pcf.PCFParameter;
+
+/**
+ * <p>Title: AdminEventConsumer</p>
+ * <p>Description: Consumes the configuration, command and performance event queues of one queue manager. Queue and
+ * topic creates, alters and deletes are reported to change listeners, so caches can be maintained incrementally instead of by
+ * periodic full reloads, and queue depth and service interval events are reported to queue event listeners.</p>
+ * <p>Configuration events (<b><code>CONFIGEV(ENABLED)</code></b>) carry the changed object's attributes, command events
+ * (<b><code>CMDEV(ENABLED)</code></b>) carry the command that was run, which also covers commands such as
+ * <b><code>CLEAR QLOCAL</code></b> that raise no configuration event. Performance events (<b><code>PERFMEV(ENABLED)</code></b>
+ * plus the per queue <b><code>QDPHIEV</code></b>, <b><code>QDPLOEV</code></b>, <b><code>QDPMAXEV</code></b> and
+ * <b><code>QSVCIEV</code></b> settings) report depth thresholds and service intervals being crossed. Events are removed from the queues as they are read,
+ * so where other tools also read them the queue manager should be set up to publish the events to a topic with one
+ * subscription queue per consumer, and the queue names configured here.</p>
+ * <p>The reader reconnects to any live instance of the queue manager after a connection failure.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.pool.AdminEventConsumer</code></p>
+ */
+
+public class AdminEventConsumer implements Closeable {
+	/** The pool key of the queue manager */
+	public final PoolKey key;
+	/** The addresses of the queue manager's instances */
+	private final ConnectionNameList connections;
+	/** The consumer settings */
+	private final Settings settings;
+	/** The registered change listeners */
+	private final List<Consumer<ObjectChange>> listeners = new CopyOnWriteArrayList<Consumer<ObjectChange>>();
+	/** The registered queue event listeners */
+	private final List<Consumer<QueueEvent>> queueListeners = new CopyOnWriteArrayList<Consumer<QueueEvent>>();
+	/** Indicates if this consumer is open */
+	private final AtomicBoolean open = new AtomicBoolean(true);
+	/** The time the consumer caught up with the config and command event queues on its current connection, zero when not caught up */
+	private volatile long syncedSince = 0L;
+	/** The event reader thread */
+	private final Thread reader;
+	/** Instance logger */
+	protected final Logger log = LoggerFactory.getLogger(getClass());
+
+	/** The default configuration event queue */
+	public static final String CONFIG_EVENT_QUEUE = "SYSTEM.ADMIN.CONFIG.EVENT";
+	/** The default command event queue */
+	public static final String COMMAND_EVENT_QUEUE = "SYSTEM.ADMIN.COMMAND.EVENT";
+	/** The default performance event queue */
+	public static final String PERFM_EVENT_QUEUE = "SYSTEM.ADMIN.PERFM.EVENT";
+	/** The total get wait in ms. of one pass over the event queues */
+	public static final int READER_WAIT_MS = 1000;
+
+	/**
+	 * <p>Title: Action</p>
+	 * <p>Description: The kinds of object change</p>
+	 */
+	public static enum Action {
+		/** The object was defined or copied */
+		CREATE,
+		/** The object was altered, refreshed or cleared */
+		CHANGE,
+		/** The object was deleted */
+		DELETE;
+	}
+
+	/**
+	 * Creates and starts a new AdminEventConsumer
+	 * @param connections The addresses of the queue manager's instances
+	 * @param settings The consumer settings
+	 */
+	AdminEventConsumer(final ConnectionNameList connections, final Settings settings) {
+		this.key = connections.key;
+		this.connections = connections;
+		this.settings = settings;
+		reader = new Thread(this::readEvents, "AdminEventConsumer[" + key + "]");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Registers a listener for queue and topic changes
+	 * @param listener The listener
+	 */
+	public void addListener(final Consumer<ObjectChange> listener) {
+		if(listener!=null) listeners.add(listener);
+	}
+
+	/**
+	 * Registers a listener for queue depth and service interval events
+	 * @param listener The listener
+	 */
+	public void addQueueListener(final Consumer<QueueEvent> listener) {
+		if(listener!=null) queueListeners.add(listener);
+	}
+
+	/**
+	 * The reader thread body. Connects, drains the event queues in turn and reconnects after failures.
+	 */
+	private void readEvents() {
+		while(open.get()) {
+			MQQueueManager qm = null;
+			final List<MQQueue> queues = new ArrayList<MQQueue>(3);
+			try {
+				qm = connections.connect((host, port) -> MultiplexedPCFAgent.connect(host, port, key.channel));
+				final List<String> names = new ArrayList<String>(3);
+				final String[] queueNames = {settings.configQueue, settings.commandQueue, settings.perfmQueue};
+				// the config and command queues come first and report object changes
+				int changeQueues = 0;
+				for(int i = 0; i < queueNames.length; i++) {
+					final MQQueue queue = access(qm, queueNames[i]);
+					if(queue!=null) {
+						queues.add(queue);
+						names.add(queueNames[i]);
+						if(i < 2) changeQueues++;
+					}
+				}
+				if(queues.isEmpty()) {
+					log.warn("No event queues available on [{}], event consumer stopped", key);
+					return;
+				}
+				log.info("Consuming admin events on [{}] from {}", key, names);
+				final int wait = READER_WAIT_MS / queues.size();
+				while(open.get()) {
+					for(MQQueue queue: queues) drain(queue, wait);
+					// object changes are only tracked once both change queues have been read down on this connection
+					if(changeQueues==2 && syncedSince==0L) syncedSince = System.currentTimeMillis();
+				}
+			} catch (Exception ex) {
+				if(!open.get()) break;
+				log.warn("Admin event consumer on [{}] failed, reconnecting in {} ms: {}", key, settings.reconnectMillis, ex.toString());
+				try { Thread.sleep(settings.reconnectMillis); } catch (InterruptedException iex) { break; }
+			} finally {
+				syncedSince = 0L;
+				for(MQQueue queue: queues) try { queue.close(); } catch (Exception x) {/* No Op */}
+				if(qm!=null) try { qm.disconnect(); } catch (Exception x) {/* No Op */}
+			}
+		}
+	}
+
+	/**
+	 * Opens an event queue for input
+	 * @param qm The queue manager connection
+	 * @param queueName The queue name, or null or empty if the queue is not to be read
+	 * @return the open queue or null if it is not configured or does not exist
+	 * @throws MQException thrown on any other failure
+	 */
+	private MQQueue access(final MQQueueManager qm, final String queueName) throws MQException {
+		if(queueName==null || queueName.trim().isEmpty()) return null;
+		try {
+			return qm.accessQueue(queueName.trim(), CMQC.MQOO_INPUT_SHARED | CMQC.MQOO_FAIL_IF_QUIESCING);
+		} catch (MQException mqex) {
+			if(mqex.reasonCode!=CMQC.MQRC_UNKNOWN_OBJECT_NAME) throw mqex;
+			log.warn("Event queue [{}] does not exist on [{}]", queueName, key);
+			return null;
+		}
+	}
+
+	/**
+	 * Reads events from a queue until it is empty
+	 * @param queue The event queue
+	 * @param wait The wait in ms. for the first event
+	 * @throws MQException thrown on any failure other than no message available
+	 */
+	private void drain(final MQQueue queue, final int wait) throws MQException {
+		final MQGetMessageOptions gmo = new MQGetMessageOptions();
+		gmo.options = CMQC.MQGMO_WAIT | CMQC.MQGMO_NO_SYNCPOINT | CMQC.MQGMO_FAIL_IF_QUIESCING | CMQC.MQGMO_CONVERT;
+		gmo.waitInterval = wait;
+		gmo.matchOptions = CMQC.MQMO_NONE;
+		while(open.get()) {
+			final MQMessage message = new MQMessage();
+			try {
+				queue.get(message, gmo);
+			} catch (MQException mqex) {
+				if(mqex.reasonCode==CMQC.MQRC_NO_MSG_AVAILABLE) return;
+				throw mqex;
+			}
+			// once the first event arrives, keep reading whatever else is already there without waiting
+			gmo.waitInterval = 0;
+			final PCFMessage event;
+			try {
+				event = new PCFMessage(message);
+			} catch (Exception ex) {
+				log.debug("Discarding undecodable event on [{}]: {}", key, ex.toString());
+				continue;
+			}
+			if(event.getCommand()==CMQCFC.MQCMD_PERFM_EVENT) {
+				dispatch(queueListeners, decodePerformance(event));
+			} else {
+				dispatch(listeners, decode(event));
+			}
+		}
+	}
+
+	private <T> void dispatch(final List<Consumer<T>> targets, final T event) {
+		if(event==null) return;
+		log.debug("Admin event on [{}]: {}", key, event);
+		for(Consumer<T> listener: targets) {
+			try {
+				listener.accept(event);
+			} catch (Exception ex) {
+				log.warn("Admin event listener failed on [{}] for {}", key, event, ex);
+			}
+		}
+	}
+
+	/**
+	 * Decodes a queue depth or service interval performance event
+	 * @param event The event pcf message
+	 * @return the queue event or null if the event is not a queue depth or service interval event
+	 */
+	static QueueEvent decodePerformance(final PCFMessage event) {
+		final QueueEventType type;
+		switch(event.getReason()) {
+			case CMQC.MQRC_Q_DEPTH_HIGH: type = QueueEventType.DEPTH_HIGH; break;
+			case CMQC.MQRC_Q_DEPTH_LOW: type = QueueEventType.DEPTH_LOW; break;
+			case CMQC.MQRC_Q_FULL: type = QueueEventType.FULL; break;
+			case CMQC.MQRC_Q_SERVICE_INTERVAL_HIGH: type = QueueEventType.SERVICE_INTERVAL_HIGH; break;
+			case CMQC.MQRC_Q_SERVICE_INTERVAL_OK: type = QueueEventType.SERVICE_INTERVAL_OK; break;
+			default: return null;
+		}
+		final Object name = event.getParameterValue(CMQC.MQCA_BASE_OBJECT_NAME);
+		if(!(name instanceof String) || ((String)name).trim().isEmpty()) return null;
+		return new QueueEvent(type, ((String)name).trim(), intValue(event, CMQC.MQIA_HIGH_Q_DEPTH), 
+			intValue(event, CMQC.MQIA_MSG_ENQ_COUNT), intValue(event, CMQC.MQIA_MSG_DEQ_COUNT), 
+			intValue(event, CMQC.MQIA_TIME_SINCE_RESET), -1);
+	}
+
+	private static int intValue(final PCFMessage event, final int parameter) {
+		final Object value = event.getParameterValue(parameter);
+		return value instanceof Integer ? (Integer)value : -1;
+	}
+
+	/**
+	 * Decodes a configuration or command event into a queue or topic change
+	 * @param event The event pcf message
+	 * @return the change or null if the event is not a queue or topic change
+	 */
+	static ObjectChange decode(final PCFMessage event) {
+		if(event.getCommand()==CMQCFC.MQCMD_CONFIG_EVENT) {
+			final Action action;
+			switch(event.getReason()) {
+				case CMQC.MQRC_CONFIG_CREATE_OBJECT: action = Action.CREATE; break;
+				case CMQC.MQRC_CONFIG_CHANGE_OBJECT:
+				case CMQC.MQRC_CONFIG_REFRESH_OBJECT: action = Action.CHANGE; break;
+				case CMQC.MQRC_CONFIG_DELETE_OBJECT: action = Action.DELETE; break;
+				default: return null;
+			}
+			final Object objectType = event.getParameterValue(CMQCFC.MQIACF_OBJECT_TYPE);
+			if(!(objectType instanceof Integer)) return null;
+			final ObjectType type;
+			switch((Integer)objectType) {
+				case CMQC.MQOT_Q: type = ObjectType.QUEUE; break;
+				case CMQC.MQOT_TOPIC: type = ObjectType.TOPIC; break;
+				default: return null;
+			}
+			final List<PCFParameter> params = new ArrayList<PCFParameter>(event.getParameterCount());
+			final Enumeration<?> en = event.getParameters();
+			while(en!=null && en.hasMoreElements()) params.add((PCFParameter)en.nextElement());
+			return change(action, type, params);
+		}
+		if(event.getCommand()==CMQCFC.MQCMD_COMMAND_EVENT) {
+			// the command is reported in the context group, its parameters in the data group
+			final Object command = groupValue(event.getParameter(CMQCFC.MQGACF_COMMAND_CONTEXT), CMQCFC.MQIACF_COMMAND);
+			final PCFParameter data = event.getParameter(CMQCFC.MQGACF_COMMAND_DATA);
+			if(!(command instanceof Integer) || !(data instanceof MQCFGR)) return null;
+			final List<PCFParameter> rest = new ArrayList<PCFParameter>();
+			final Enumeration<?> params = ((MQCFGR)data).getParameters();
+			while(params!=null && params.hasMoreElements()) rest.add((PCFParameter)params.nextElement());
+			switch((Integer)command) {
+				case CMQCFC.MQCMD_CREATE_Q:
+				case CMQCFC.MQCMD_COPY_Q: return change(Action.CREATE, ObjectType.QUEUE, rest);
+				case CMQCFC.MQCMD_CHANGE_Q:
+				case CMQCFC.MQCMD_CLEAR_Q: return change(Action.CHANGE, ObjectType.QUEUE, rest);
+				case CMQCFC.MQCMD_DELETE_Q: return change(Action.DELETE, ObjectType.QUEUE, rest);
+				case CMQCFC.MQCMD_CREATE_TOPIC:
+				case CMQCFC.MQCMD_COPY_TOPIC: return change(Action.CREATE, ObjectType.TOPIC, rest);
+				case CMQCFC.MQCMD_CHANGE_TOPIC: return change(Action.CHANGE, ObjectType.TOPIC, rest);
+				case CMQCFC.MQCMD_DELETE_TOPIC: return change(Action.DELETE, ObjectType.TOPIC, rest);
+				default: return null;
+			}
+		}
+		return null;
+	}
+
+	private static Object groupValue(final PCFParameter group, final int parameter) {
+		if(!(group instanceof MQCFGR)) return null;
+		final Enumeration<?> params = ((MQCFGR)group).getParameters();
+		while(params!=null && params.hasMoreElements()) {
+			final PCFParameter p = (PCFParameter)params.nextElement();
+			if(p.getParameter()==parameter) return p.getValue();
+		}
+		return null;
+	}
+
+	private static ObjectChange change(final Action action, final ObjectType type, final List<PCFParameter> params) {
+		String name = null, toName = null, topicString = null;
+		int queueType = -1;
+		for(PCFParameter p: params) {
+			switch(p.getParameter()) {
+				case CMQC.MQCA_Q_NAME:
+				case CMQC.MQCA_TOPIC_NAME: name = p.getStringValue().trim(); break;
+				case CMQCFC.MQCACF_TO_Q_NAME:
+				case CMQCFC.MQCACF_TO_TOPIC_NAME: toName = p.getStringValue().trim(); break;
+				case CMQC.MQCA_TOPIC_STRING: topicString = p.getStringValue().trim(); break;
+				case CMQC.MQIA_Q_TYPE: queueType = (Integer)p.getValue(); break;
+				default:
+			}
+		}
+		// a copy creates the object named by the "to" parameter
+		if(toName!=null) name = toName;
+		if(name==null || name.isEmpty()) return null;
+		return new ObjectChange(action, type, name, topicString, queueType);
+	}
+
+	/**
+	 * Indicates if this consumer is open
+	 * @return true if open, false otherwise
+	 */
+	public boolean isOpen() {
+		return open.get();
+	}
+	
+	/**
+	 * Returns the time this consumer caught up with the config and command event queues on its current connection.
+	 * Object changes reported by admin events can only be relied on to keep a complete index current when the index
+	 * was loaded after this time.
+	 * @return the time in ms since the epoch, or zero if the consumer is stopped, reconnecting or not reading both queues
+	 */
+	public long getSyncedSince() {
+		return open.get() ? syncedSince : 0L;
+	}
+
+	/**
+	 * Stops the consumer
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		if(open.compareAndSet(true, false)) {
+			reader.interrupt();
+			log.info("Admin event consumer on [{}] closed", key);
+		}
+	}
+
+	/**
+	 * <p>Title: ObjectChange</p>
+	 * <p>Description: A queue or topic change reported by an admin event</p>
+	 */
+	public static class ObjectChange {
+		/** The change */
+		public final Action action;
+		/** The object type */
+		public final ObjectType type;
+		/** The object name */
+		public final String name;
+		/** The topic string of a topic, null if the event did not carry it */
+		public final String topicString;
+		/** The queue type of a queue, -1 if the event did not carry it */
+		public final int queueType;
+
+		ObjectChange(final Action action, final ObjectType type, final String name, final String topicString, final int queueType) {
+			this.action = action;
+			this.type = type;
+			this.name = name;
+			this.topicString = topicString;
+			this.queueType = queueType;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return action + " " + type + " [" + name + "]" + (topicString==null ? "" : " topicString:[" + topicString + "]");
+		}
+	}
+
+	/**
+	 * <p>Title: QueueEventType</p>
+	 * <p>Description: The queue performance event types</p>
+	 */
+	public static enum QueueEventType {
+		/** The depth reached the queue's high limit */
+		DEPTH_HIGH,
+		/** The depth fell to the queue's low limit */
+		DEPTH_LOW,
+		/** The queue is full */
+		FULL,
+		/** No message was retrieved within the queue's service interval */
+		SERVICE_INTERVAL_HIGH,
+		/** A message was retrieved within the queue's service interval */
+		SERVICE_INTERVAL_OK;
+	}
+
+	/**
+	 * <p>Title: QueueEvent</p>
+	 * <p>Description: A queue depth or service interval event. The event statistics are -1 where the event did not carry them.</p>
+	 */
+	public static class QueueEvent {
+		/** The event type */
+		public final QueueEventType type;
+		/** The queue name */
+		public final String queueName;
+		/** The highest depth since the queue's statistics were last reset */
+		public final int highDepth;
+		/** The number of messages put since the statistics were last reset */
+		public final int enqueued;
+		/** The number of messages got since the statistics were last reset */
+		public final int dequeued;
+		/** The seconds since the statistics were last reset */
+		public final int timeSinceReset;
+		/** The queue depth when the event was handled, -1 if not known */
+		public final int depth;
+
+		QueueEvent(final QueueEventType type, final String queueName, final int highDepth, final int enqueued, final int dequeued, final int timeSinceReset, final int depth) {
+			this.type = type;
+			this.queueName = queueName;
+			this.highDepth = highDepth;
+			this.enqueued = enqueued;
+			this.dequeued = dequeued;
+			this.timeSinceReset = timeSinceReset;
+			this.depth = depth;
+		}
+
+		/**
+		 * Returns a copy of this event with the queue's current depth
+		 * @param currentDepth The current depth
+		 * @return the event with the depth
+		 */
+		public QueueEvent withDepth(final int currentDepth) {
+			return new QueueEvent(type, queueName, highDepth, enqueued, dequeued, timeSinceReset, currentDepth);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return type + " [" + queueName + "] depth:" + depth + ", highDepth:" + highDepth + ", enq:" + enqueued + ", deq:" + dequeued;
+		}
+	}
+
+	/**
+	 * <p>Title: Settings</p>
+	 * <p>Description: The admin event consumer settings</p>
+	 */
+	static class Settings {
+		/** Indicates if the consumer is enabled */
+		final boolean enabled;
+		/** The configuration event queue name, empty to not read it */
+		final String configQueue;
+		/** The command event queue name, empty to not read it */
+		final String commandQueue;
+		/** The performance event queue name, empty to not read it */
+		final String perfmQueue;
+		/** The delay in ms. before reconnecting after a failure */
+		final long reconnectMillis;
+
+		Settings(final JsonNode node) {
+			enabled = node.path("enabled").asBoolean(false);
+			configQueue = node.path("configQueue").asText(CONFIG_EVENT_QUEUE);
+			commandQueue = node.path("commandQueue").asText(COMMAND_EVENT_QUEUE);
+			perfmQueue = node.path("perfmQueue").asText(PERFM_EVENT_QUEUE);
+			reconnectMillis = Math.max(1000L, node.path("reconnectMillis").asLong(5000L));
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.pool;
+
+/**
+ * <p>Title: AgentPool</p>
+ * <p>Description: The operations {@link PoolManager} needs from a pcf agent pool for one sub pool,
+ * so the commons-pool2 pool and the striped pool are interchangeable. Method names follow commons-pool2.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.pool.AgentPool</code></p>
+ */
+
+public interface AgentPool {
+	/**
+	 * Borrows an agent, creating one if none are idle and the pool is under its max size
+	 * @return the agent
+	 * @throws Exception thrown if the agent cannot be created or the wait for one times out
+	 */
+	public PCFMessageAgentWrapper borrowObject() throws Exception;
+
+	/**
+	 * Returns a borrowed agent to the pool
+	 * @param agent The agent to return
+	 */
+	public void returnObject(PCFMessageAgentWrapper agent);
+
+	/**
+	 * Destroys a borrowed agent instead of returning it
+	 * @param agent The agent to destroy
+	 * @throws Exception thrown if the agent cannot be destroyed
+	 */
+	public void invalidateObject(PCFMessageAgentWrapper agent) throws Exception;
+
+	/**
+	 * Creates agents until the pool holds its configured minimum number of idle agents
+	 * @throws Exception thrown if an agent cannot be created
+	 */
+	public void preparePool() throws Exception;
+
+	/**
+	 * Destroys all idle agents
+	 */
+	public void clear();
+
+	/**
+	 * Closes the pool and destroys all idle agents
+	 */
+	public void close();
+
+	/**
+	 * Indicates if the pool is closed
+	 * @return true if closed
+	 */
+	public boolean isClosed();
+
+	/**
+	 * Returns the number of borrowed agents
+	 * @return the number of borrowed agents
+	 */
+	public int getNumActive();
+
+	/**
+	 * Returns the number of idle agents
+	 * @return the number of idle agents
+	 */
+	public int getNumIdle();
+
+	/**
+	 * Returns the number of callers waiting to borrow an agent
+	 * @return the number of waiting callers
+	 */
+	public int getNumWaiters();
+
+	/**
+	 * Returns the maximum number of agents
+	 * @return the maximum number of agents
+	 */
+	public int getMaxTotal();
+
+	/**
+	 * Sets the maximum number of agents
+	 * @param maxTotal the maximum number of agents
+	 */
+	public void setMaxTotal(int maxTotal);
+
+	/**
+	 * Sets the maximum number of idle agents
+	 * @param maxIdle the maximum number of idle agents
+	 */
+	public void setMaxIdle(int maxIdle);
+}
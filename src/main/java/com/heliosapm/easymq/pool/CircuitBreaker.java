@@ -0,0 +1,248 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.pool;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.ibm.mq.MQException;
+import com.ibm.mq.constants.CMQC;
+import com.ibm.mq.constants.CMQCFC;
+import com.ibm.mq.pcf.PCFMessage;
+
+/**
+ * <p>Title: CircuitBreaker</p>
+ * <p>Description: Tracks the reachability of one queue manager so callers fail fast while it is down.</p>
+ * <p>The breaker is <b>CLOSED</b> while the queue manager is healthy. After a run of consecutive connection
+ * failures it trips <b>OPEN</b> and every caller is rejected with a {@link CircuitOpenException} without touching the network.
+ * After the open interval a single background probe connects a throw-away agent to any of the queue manager's
+ * instances and pings the command server while the breaker is <b>HALF_OPEN</b>.
+ * A successful probe closes the breaker, a failed one re-opens it with the interval doubled up to a maximum.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.pool.CircuitBreaker</code></p>
+ */
+
+public class CircuitBreaker {
+	/** The key of the queue manager this breaker guards */
+	public final PoolKey key;
+	/** The addresses of the queue manager's instances, used by the probe */
+	private final ConnectionNameList connections;
+	/** The breaker settings */
+	private final Settings settings;
+	/** The scheduler which times probes */
+	private final ScheduledExecutorService scheduler;
+	/** The executor probes run on, since a probe can block for a full connect timeout */
+	private final Executor probeExecutor;
+	/** Invoked when the breaker trips open */
+	private final Runnable onOpen;
+	/** The current state */
+	private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+	/** The number of consecutive failures */
+	private final AtomicInteger failures = new AtomicInteger(0);
+	/** The current open interval in ms. */
+	private volatile long openMillis;
+	/** The last failure which was recorded */
+	private volatile Throwable lastFailure = null;
+	/** Instance logger */
+	protected final Logger log = LoggerFactory.getLogger(getClass());
+
+	/**
+	 * <p>Title: State</p>
+	 * <p>Description: The breaker states</p>
+	 */
+	public static enum State {
+		/** Requests flow normally */
+		CLOSED,
+		/** Requests are rejected until a probe succeeds */
+		OPEN,
+		/** A probe is in progress, requests are still rejected */
+		HALF_OPEN;
+	}
+
+	/**
+	 * Creates a new CircuitBreaker
+	 * @param connections The addresses of the queue manager this breaker guards
+	 * @param settings The breaker settings
+	 * @param scheduler The scheduler which times probes
+	 * @param probeExecutor The executor probes run on
+	 * @param onOpen Invoked when the breaker trips open, e.g. to clear idle connections
+	 */
+	CircuitBreaker(final ConnectionNameList connections, final Settings settings, final ScheduledExecutorService scheduler, final Executor probeExecutor, final Runnable onOpen) {
+		this.key = connections.key;
+		this.connections = connections;
+		this.settings = settings;
+		this.scheduler = scheduler;
+		this.probeExecutor = probeExecutor;
+		this.onOpen = onOpen;
+		openMillis = settings.openMillis;
+	}
+
+	/**
+	 * Rejects the caller if the breaker is not closed
+	 * @throws CircuitOpenException if the breaker is open or half open
+	 */
+	public void checkClosed() {
+		if(settings.enabled && state.get()!=State.CLOSED) {
+			throw new CircuitOpenException(key, lastFailure);
+		}
+	}
+
+	/**
+	 * Indicates if requests are currently allowed
+	 * @return true if the breaker is closed or disabled
+	 */
+	public boolean isClosed() {
+		return !settings.enabled || state.get()==State.CLOSED;
+	}
+
+	/**
+	 * Records a successful request
+	 */
+	void onSuccess() {
+		if(failures.get()!=0) failures.set(0);
+	}
+
+	/**
+	 * Records a failed request. Only failures which indicate the queue manager is unreachable are counted.
+	 * @param t The failure
+	 */
+	void onFailure(final Throwable t) {
+		if(!settings.enabled || !isConnectionFailure(t)) return;
+		lastFailure = t;
+		if(failures.incrementAndGet() >= settings.failureThreshold && state.compareAndSet(State.CLOSED, State.OPEN)) {
+			log.warn("Circuit breaker for [{}] OPEN after {} consecutive failures: {}", key, failures.get(), t.toString());
+			try { onOpen.run(); } catch (Exception x) {/* No Op */}
+			scheduleProbe();
+		}
+	}
+
+	private void scheduleProbe() {
+		scheduler.schedule(() -> {
+			if(state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+				probeExecutor.execute(this::probe);
+			}
+		}, openMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Connects a throw-away agent and pings the queue manager's command server with it, 
+	 * so the breaker only closes once pcf requests can be served again
+	 */
+	private void probe() {
+		try {
+			final PCFMessageAgentWrapper agent = connections.connectAgent(false);
+			try {
+				agent.send(new PCFMessage(CMQCFC.MQCMD_PING_Q_MGR));
+			} finally {
+				try { agent.disconnect(); } catch (Exception x) {/* No Op */}
+			}
+			failures.set(0);
+			openMillis = settings.openMillis;
+			lastFailure = null;
+			state.set(State.CLOSED);
+			log.info("Circuit breaker for [{}] CLOSED, probe succeeded", key);
+		} catch (Throwable t) {
+			lastFailure = t;
+			openMillis = Math.min(settings.maxOpenMillis, openMillis * 2);
+			state.set(State.OPEN);
+			log.warn("Circuit breaker for [{}] probe failed, next probe in {} ms: {}", key, openMillis, t.toString());
+			scheduleProbe();
+		}
+	}
+
+	/**
+	 * Returns the current state
+	 * @return the state
+	 */
+	public State getState() {
+		return state.get();
+	}
+
+	/**
+	 * Returns the number of consecutive failures
+	 * @return the number of consecutive failures
+	 */
+	public int getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * Determines if the passed failure indicates the queue manager is unreachable,
+	 * as opposed to a command level failure such as an unknown object name.
+	 * @param t The failure
+	 * @return true if the failure is a connection failure
+	 */
+	public static boolean isConnectionFailure(final Throwable t) {
+		Throwable cause = t;
+		while(cause!=null) {
+			if(cause instanceof MQException) {
+				switch(((MQException)cause).reasonCode) {
+					case CMQC.MQRC_CONNECTION_BROKEN:
+					case CMQC.MQRC_Q_MGR_NOT_AVAILABLE:
+					case CMQC.MQRC_HOST_NOT_AVAILABLE:
+					case CMQC.MQRC_CHANNEL_NOT_AVAILABLE:
+					case CMQC.MQRC_Q_MGR_QUIESCING:
+					case CMQC.MQRC_Q_MGR_STOPPING:
+					case CMQC.MQRC_CONNECTION_QUIESCING:
+					case CMQC.MQRC_CONNECTION_STOPPING:
+						return true;
+					default:
+						return false;
+				}
+			}
+			if(cause.getCause()==cause) break;
+			cause = cause.getCause();
+		}
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "CircuitBreaker:" + key + ":" + state.get();
+	}
+
+	/**
+	 * <p>Title: Settings</p>
+	 * <p>Description: The circuit breaker settings</p>
+	 */
+	static class Settings {
+		/** Indicates if the breaker is enabled */
+		final boolean enabled;
+		/** The number of consecutive connection failures which trips the breaker */
+		final int failureThreshold;
+		/** The initial time in ms. the breaker stays open before a probe */
+		final long openMillis;
+		/** The maximum time in ms. the breaker stays open before a probe */
+		final long maxOpenMillis;
+
+		Settings(final JsonNode node) {
+			enabled = node.path("enabled").asBoolean(true);
+			failureThreshold = Math.max(1, node.path("failureThreshold").asInt(3));
+			openMillis = Math.max(100L, node.path("openMillis").asLong(5000L));
+			maxOpenMillis = Math.max(openMillis, node.path("maxOpenMillis").asLong(60000L));
+		}
+	}
+
+}
@@ -0,0 +1,53 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.pool;
+
+/**
+ * <p>Title: CircuitOpenException</p>
+ * <p>Description: Thrown when a request is rejected because the target queue manager's circuit breaker is open</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.pool.CircuitOpenException</code></p>
+ */
+
+public class CircuitOpenException extends RuntimeException {
+	private static final long serialVersionUID = 5871602469921634157L;
+	/** The key of the queue manager which was rejected */
+	public final PoolKey key;
+
+	/**
+	 * Creates a new CircuitOpenException
+	 * @param key The key of the queue manager which was rejected
+	 * @param lastFailure The failure which last tripped or kept the breaker open, or null
+	 */
+	public CircuitOpenException(final PoolKey key, final Throwable lastFailure) {
+		super("Circuit open for [" + key + "]" + (lastFailure==null ? "" : ": " + lastFailure), lastFailure, false, false);
+		this.key = key;
+	}
+	
+	/**
+	 * Finds a CircuitOpenException in the cause chain of the passed throwable
+	 * @param t The throwable to inspect
+	 * @return the CircuitOpenException or null if not found
+	 */
+	public static CircuitOpenException find(final Throwable t) {
+		Throwable cause = t;
+		while(cause!=null) {
+			if(cause instanceof CircuitOpenException) return (CircuitOpenException)cause;
+			if(cause.getCause()==cause) break;
+			cause = cause.getCause();
+		}
+		return null;
+	}
+
+}
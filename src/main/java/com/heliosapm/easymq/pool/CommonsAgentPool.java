@@ -0,0 +1,38 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.pool;
+
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+
+/**
+ * <p>Title: CommonsAgentPool</p>
+ * <p>Description: The commons-pool2 {@link GenericObjectPool} as an {@link AgentPool}</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.pool.CommonsAgentPool</code></p>
+ */
+
+public class CommonsAgentPool extends GenericObjectPool<PCFMessageAgentWrapper> implements AgentPool {
+
+	/**
+	 * Creates a new CommonsAgentPool
+	 * @param factory The agent factory
+	 * @param config The pool configuration
+	 */
+	public CommonsAgentPool(final PooledObjectFactory<PCFMessageAgentWrapper> factory, final GenericObjectPoolConfig config) {
+		super(factory, config);
+	}
+
+}
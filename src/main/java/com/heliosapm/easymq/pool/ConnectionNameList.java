@@ -0,0 +1,220 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.pool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: ConnectionNameList</p>
+ * <p>Description: The ordered addresses of a multi-instance queue manager, all reached through the same channel.
+ * Connections are attempted starting at the instance which last accepted one, falling through the rest of the list
+ * in order, so after a failover new connections go straight to the live instance.</p>
+ * <p>Entries use the MQ <b><code>CONNAME</code></b> form <b><code>host(port)</code></b>, or <b><code>host:port</code></b>.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.pool.ConnectionNameList</code></p>
+ */
+
+public class ConnectionNameList {
+	/** The pool key of the sub pool these addresses belong to */
+	public final PoolKey key;
+	/** The ordered instance addresses */
+	private final List<Endpoint> endpoints;
+	/** The index of the instance which last accepted a connection */
+	private final AtomicInteger live = new AtomicInteger(0);
+	/** Instance logger */
+	protected final Logger log = LoggerFactory.getLogger(getClass());
+
+	/** Parses a <b><code>host(port)</code></b> connection name */
+	public static final Pattern CONNAME_PATTERN = Pattern.compile("(.+?)\\((\\d+)\\)");
+	/** Parses a <b><code>host:port</code></b> connection name */
+	public static final Pattern HOST_PORT_PATTERN = Pattern.compile("(.+?):(\\d+)");
+
+	/**
+	 * Creates a new ConnectionNameList. The pool key's own address is always the first entry.
+	 * @param key The pool key of the sub pool
+	 * @param connectionNames The additional connection names, in failover order. May be null or empty.
+	 */
+	public ConnectionNameList(final PoolKey key, final Collection<String> connectionNames) {
+		if(key==null) throw new IllegalArgumentException("The passed pool key was null");
+		this.key = key;
+		final List<Endpoint> list = new ArrayList<Endpoint>();
+		list.add(new Endpoint(key.host, key.port));
+		if(connectionNames!=null) {
+			for(String name: connectionNames) {
+				final Endpoint e = parse(name);
+				if(!list.contains(e)) list.add(e);
+			}
+		}
+		endpoints = Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Parses a connection name
+	 * @param connectionName The connection name in the form <b><code>host(port)</code></b> or <b><code>host:port</code></b>
+	 * @return the endpoint
+	 */
+	public static Endpoint parse(final String connectionName) {
+		if(connectionName==null || connectionName.trim().isEmpty()) throw new IllegalArgumentException("The passed connection name was null or empty");
+		final String cn = connectionName.trim();
+		Matcher m = CONNAME_PATTERN.matcher(cn);
+		if(!m.matches()) {
+			m = HOST_PORT_PATTERN.matcher(cn);
+			if(!m.matches()) throw new IllegalArgumentException("Invalid connection name [" + connectionName + "]");
+		}
+		return new Endpoint(m.group(1).trim(), Integer.parseInt(m.group(2)));
+	}
+
+	/**
+	 * Connects a pcf agent to the first instance which accepts a connection, starting with the last live instance
+	 * @param pooled true if the agent is pooled, false otherwise
+	 * @return the connected agent
+	 */
+	public PCFMessageAgentWrapper connectAgent(final boolean pooled) {
+		return connect((host, port) -> new PCFMessageAgentWrapper(key, host, port, pooled));
+	}
+
+	/**
+	 * Connects to the first instance which accepts a connection, starting with the last live instance
+	 * @param connector Creates the connection for one instance address
+	 * @return the connection
+	 */
+	public <T> T connect(final Connector<T> connector) {
+		final int size = endpoints.size();
+		final int start = live.get();
+		RuntimeException last = null;
+		for(int i = 0; i < size; i++) {
+			final int idx = (start + i) % size;
+			final Endpoint e = endpoints.get(idx);
+			try {
+				final T conn = connector.connect(e.host, e.port);
+				if(idx!=start && live.compareAndSet(start, idx)) {
+					log.warn("Sub pool [{}] failed over to [{}]", key, e);
+				}
+				return conn;
+			} catch (Exception ex) {
+				last = ex instanceof RuntimeException ? (RuntimeException)ex : new RuntimeException(ex.getMessage(), ex);
+				log.debug("Connect to [{}] for [{}] failed: {}", e, key, ex.toString());
+			}
+		}
+		throw last;
+	}
+
+	/**
+	 * Marks the passed instance as failed so the next connection attempt starts with the following instance
+	 * @param host The failed instance host
+	 * @param port The failed instance port
+	 */
+	public void markFailed(final String host, final int port) {
+		final int size = endpoints.size();
+		if(size < 2) return;
+		final int current = live.get();
+		final Endpoint e = endpoints.get(current);
+		if(e.port==port && e.host.equals(host)) {
+			live.compareAndSet(current, (current + 1) % size);
+		}
+	}
+
+	/**
+	 * Returns the instance which last accepted a connection
+	 * @return the live endpoint
+	 */
+	public Endpoint getLive() {
+		return endpoints.get(live.get());
+	}
+
+	/**
+	 * Returns the ordered instance addresses
+	 * @return the endpoints
+	 */
+	public List<Endpoint> getEndpoints() {
+		return endpoints;
+	}
+
+	/**
+	 * Indicates if this list has more than one instance
+	 * @return true if multi-instance
+	 */
+	public boolean isMultiInstance() {
+		return endpoints.size() > 1;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return key.channel + "@" + endpoints.toString();
+	}
+
+	/**
+	 * <p>Title: Connector</p>
+	 * <p>Description: Creates a connection to one instance address</p>
+	 */
+	public static interface Connector<T> {
+		/**
+		 * Connects to the passed address
+		 * @param host The host
+		 * @param port The port
+		 * @return the connection
+		 * @throws Exception thrown if the connection fails
+		 */
+		public T connect(String host, int port) throws Exception;
+	}
+
+	/**
+	 * <p>Title: Endpoint</p>
+	 * <p>Description: One queue manager instance address</p>
+	 */
+	public static class Endpoint {
+		/** The host name or ip address */
+		public final String host;
+		/** The listening port */
+		public final int port;
+
+		Endpoint(final String host, final int port) {
+			if(port < 1 || port > 65535) throw new IllegalArgumentException("Invalid port:" + port);
+			this.host = host;
+			this.port = port;
+		}
+
+		@Override
+		public String toString() {
+			return host + "(" + port + ")";
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * host.hashCode() + port;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if(this==obj) return true;
+			if(!(obj instanceof Endpoint)) return false;
+			final Endpoint other = (Endpoint)obj;
+			return port==other.port && host.equals(other.host);
+		}
+	}
+
+}
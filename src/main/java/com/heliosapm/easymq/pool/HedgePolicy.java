@@ -0,0 +1,141 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.pool;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.heliosapm.easymq.metrics.MetricsService;
+import com.ibm.mq.constants.CMQCFC;
+
+/**
+ * <p>Title: HedgePolicy</p>
+ * <p>Description: Decides when a read-only pcf inquiry against one sub pool should be hedged.
+ * A hedge is a duplicate of the request, sent through the sub pool's in-flight limiter on the same transport as the original
+ * (another pooled connection, or the multiplexed agent), once the original has been outstanding
+ * for longer than the configured round trip percentile of that command, e.g. p95. Whichever reply arrives first wins.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.pool.HedgePolicy</code></p>
+ */
+
+public class HedgePolicy {
+	/** The name of the sub pool */
+	private final String poolName;
+	/** The hedge settings */
+	private final Settings settings;
+	/** The cached hedge delays keyed by pcf command */
+	private final Map<Integer, CachedDelay> delays = new ConcurrentHashMap<Integer, CachedDelay>(16, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** The rate of hedges sent */
+	final Meter hedges;
+	/** The rate of hedges which replied before the original request */
+	final Meter wins;
+
+	/** The pcf commands which are safe to send twice */
+	public static final Set<Integer> READ_ONLY_COMMANDS = Collections.unmodifiableSet(new HashSet<Integer>(Arrays.asList(
+		CMQCFC.MQCMD_INQUIRE_Q, CMQCFC.MQCMD_INQUIRE_Q_STATUS, CMQCFC.MQCMD_INQUIRE_Q_NAMES,
+		CMQCFC.MQCMD_INQUIRE_TOPIC, CMQCFC.MQCMD_INQUIRE_TOPIC_STATUS, CMQCFC.MQCMD_INQUIRE_TOPIC_NAMES,
+		CMQCFC.MQCMD_INQUIRE_SUBSCRIPTION, CMQCFC.MQCMD_INQUIRE_SUB_STATUS,
+		CMQCFC.MQCMD_INQUIRE_Q_MGR, CMQCFC.MQCMD_INQUIRE_CHANNEL, CMQCFC.MQCMD_INQUIRE_CHANNEL_STATUS
+	)));
+
+	/**
+	 * Creates a new HedgePolicy
+	 * @param poolName The name of the sub pool
+	 * @param settings The hedge settings
+	 */
+	HedgePolicy(final String poolName, final Settings settings) {
+		this.poolName = poolName;
+		this.settings = settings;
+		final MetricRegistry registry = MetricsService.getInstance().getRegistry();
+		hedges = registry.meter(MetricRegistry.name("pool", poolName, "hedges"));
+		wins = registry.meter(MetricRegistry.name("pool", poolName, "hedgeWins"));
+	}
+
+	/**
+	 * Indicates if the passed command may be hedged
+	 * @param command The pcf command code
+	 * @return true if hedging is enabled and the command is read-only
+	 */
+	public boolean isHedgeable(final int command) {
+		return settings.enabled && READ_ONLY_COMMANDS.contains(command);
+	}
+
+	/**
+	 * Returns the time after which a request for the passed command should be hedged
+	 * @param command The pcf command code
+	 * @return the delay in ms. or -1 if too few round trips have been recorded to pick one
+	 */
+	public long delayMillis(final int command) {
+		final long now = System.currentTimeMillis();
+		final CachedDelay cached = delays.get(command);
+		if(cached!=null && now - cached.computedAt < settings.refreshMillis) return cached.delay;
+		final Timer timer = MetricsService.getInstance().getPCFTimer(poolName, command);
+		long delay = -1L;
+		if(timer!=null && timer.getCount() >= settings.minSamples) {
+			final double nanos = timer.getSnapshot().getValue(settings.percentile);
+			delay = Math.max(settings.minDelayMillis, TimeUnit.NANOSECONDS.toMillis((long)nanos));
+		}
+		delays.put(command, new CachedDelay(delay, now));
+		return delay;
+	}
+
+	/**
+	 * <p>Title: CachedDelay</p>
+	 * <p>Description: A hedge delay and when it was computed</p>
+	 */
+	private static class CachedDelay {
+		final long delay;
+		final long computedAt;
+
+		CachedDelay(final long delay, final long computedAt) {
+			this.delay = delay;
+			this.computedAt = computedAt;
+		}
+	}
+
+	/**
+	 * <p>Title: Settings</p>
+	 * <p>Description: The hedge settings for one sub pool</p>
+	 */
+	static class Settings {
+		/** Indicates if hedging is enabled */
+		final boolean enabled;
+		/** The round trip percentile after which a request is hedged, e.g. 0.95 */
+		final double percentile;
+		/** The minimum hedge delay in ms. */
+		final long minDelayMillis;
+		/** The number of recorded round trips required before hedging starts */
+		final long minSamples;
+		/** How often in ms. the hedge delay is recomputed */
+		final long refreshMillis;
+
+		Settings(final JsonNode node) {
+			enabled = node.path("enabled").asBoolean(false);
+			percentile = Math.min(0.999d, Math.max(0.5d, node.path("percentile").asDouble(0.95d)));
+			minDelayMillis = Math.max(1L, node.path("minDelayMillis").asLong(10L));
+			minSamples = Math.max(1L, node.path("minSamples").asLong(100L));
+			refreshMillis = Math.max(0L, node.path("refreshMillis").asLong(1000L));
+		}
+	}
+
+}
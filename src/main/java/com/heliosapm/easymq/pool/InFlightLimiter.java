@@ -0,0 +1,228 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.pool;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * <p>Title: InFlightLimiter</p>
+ * <p>Description: Caps the number of async pcf requests in flight against one sub pool.
+ * Requests over the limit are queued without blocking the caller, up to a bounded number of waiters, 
+ * and started on the executor as earlier requests complete. A slot held longer than the slot timeout 
+ * is reclaimed and its request failed, so a lost reply cannot leak capacity.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.pool.InFlightLimiter</code></p>
+ */
+
+public class InFlightLimiter {
+	/** The maximum number of in-flight requests */
+	private final int maxInFlight;
+	/** The maximum number of requests waiting for a slot */
+	private final int maxWaiting;
+	/** The maximum time in ms a request may hold a slot */
+	private final long slotTimeout;
+	/** The executor on which waiting requests are started */
+	private final Executor executor;
+	/** The scheduler which times out held slots */
+	private final ScheduledExecutorService scheduler;
+	/** The current number of in-flight requests */
+	private final AtomicInteger inFlight = new AtomicInteger(0);
+	/** The requests waiting for an in-flight slot */
+	private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<Runnable>();
+	/** The number of requests waiting for an in-flight slot */
+	private final AtomicInteger waitingCount = new AtomicInteger(0);
+	/** The number of requests rejected because the wait queue was full */
+	private final AtomicLong rejected = new AtomicLong(0L);
+	/** The number of requests failed because they held their slot past the slot timeout */
+	private final AtomicLong timedOut = new AtomicLong(0L);
+
+	/**
+	 * Creates a new InFlightLimiter
+	 * @param maxInFlight The maximum number of in-flight requests
+	 * @param maxWaiting The maximum number of requests waiting for a slot
+	 * @param slotTimeout The maximum time in ms a request may hold a slot
+	 * @param executor The executor on which waiting requests are started
+	 * @param scheduler The scheduler which times out held slots
+	 */
+	public InFlightLimiter(final int maxInFlight, final int maxWaiting, final long slotTimeout, final Executor executor, final ScheduledExecutorService scheduler) {
+		if(maxInFlight < 1) throw new IllegalArgumentException("Invalid max in-flight:" + maxInFlight);
+		if(maxWaiting < 0) throw new IllegalArgumentException("Invalid max waiting:" + maxWaiting);
+		if(slotTimeout < 1) throw new IllegalArgumentException("Invalid slot timeout:" + slotTimeout);
+		if(executor==null) throw new IllegalArgumentException("The passed executor was null");
+		if(scheduler==null) throw new IllegalArgumentException("The passed scheduler was null");
+		this.maxInFlight = maxInFlight;
+		this.maxWaiting = maxWaiting;
+		this.slotTimeout = slotTimeout;
+		this.executor = executor;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Submits an async task which is started on the executor when an in-flight slot is available.
+	 * If the wait queue is full, the returned future fails immediately with a {@link RejectedExecutionException}.
+	 * If the task's future does not complete within the slot timeout, the slot is released, the task's future 
+	 * is cancelled and the returned future fails with a {@link TimeoutException}.
+	 * @param task A supplier which starts the task and returns its future
+	 * @return a future which completes with the task's result
+	 */
+	public <T> CompletableFuture<T> submit(final Supplier<CompletableFuture<T>> task) {
+		if(task==null) throw new IllegalArgumentException("The passed task was null");
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		if(waitingCount.incrementAndGet() > maxWaiting + availableSlots()) {
+			waitingCount.decrementAndGet();
+			rejected.incrementAndGet();
+			result.completeExceptionally(new RejectedExecutionException("In-flight limit [" + maxInFlight + "] and wait queue [" + maxWaiting + "] are full"));
+			return result;
+		}
+		waiting.add(() -> start(task, result));
+		drain();
+		return result;
+	}
+
+	/**
+	 * Starts a task in a slot which has already been acquired and arranges for the slot to be released exactly once, 
+	 * either when the task completes or when the slot times out
+	 * @param task A supplier which starts the task and returns its future
+	 * @param result The future handed to the submitter
+	 */
+	private <T> void start(final Supplier<CompletableFuture<T>> task, final CompletableFuture<T> result) {
+		final AtomicBoolean released = new AtomicBoolean(false);
+		CompletableFuture<T> f;
+		try {
+			f = task.get();
+			if(f==null) throw new IllegalStateException("The task returned a null future");
+		} catch (Throwable t) {
+			f = new CompletableFuture<T>();
+			f.completeExceptionally(t);
+		}
+		final CompletableFuture<T> started = f;
+		final ScheduledFuture<?> timeout = started.isDone() ? null : scheduler.schedule(() -> {
+			if(released.compareAndSet(false, true)) {
+				timedOut.incrementAndGet();
+				release();
+				result.completeExceptionally(new TimeoutException("In-flight request held its slot for more than [" + slotTimeout + "] ms"));
+				started.cancel(false);
+			}
+		}, slotTimeout, TimeUnit.MILLISECONDS);
+		started.whenComplete((v, t) -> {
+			if(timeout!=null) timeout.cancel(false);
+			if(released.compareAndSet(false, true)) release();
+			if(t!=null) result.completeExceptionally(t);
+			else result.complete(v);
+		});
+	}
+
+	/**
+	 * Hands waiting tasks to the executor while there are free slots. 
+	 * Tasks are never run on the calling thread, which may be a reply reader completing an earlier request.
+	 */
+	private void drain() {
+		while(!waiting.isEmpty()) {
+			final int current = inFlight.get();
+			if(current >= maxInFlight) return;
+			if(!inFlight.compareAndSet(current, current + 1)) continue;
+			final Runnable r = waiting.poll();
+			if(r==null) {
+				// lost the race for the last waiter, give the slot back and re-check
+				inFlight.decrementAndGet();
+				continue;
+			}
+			waitingCount.decrementAndGet();
+			try {
+				executor.execute(r);
+			} catch (RejectedExecutionException rex) {
+				// the executor is shut down, run in place so the submitter's future is still completed
+				r.run();
+			}
+		}
+	}
+
+	private void release() {
+		inFlight.decrementAndGet();
+		drain();
+	}
+	
+	private int availableSlots() {
+		return Math.max(0, maxInFlight - inFlight.get());
+	}
+
+	/**
+	 * Returns the number of requests currently in flight
+	 * @return the number of requests in flight
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Returns the number of requests waiting for an in-flight slot
+	 * @return the number of waiting requests
+	 */
+	public int getWaiting() {
+		return waitingCount.get();
+	}
+
+	/**
+	 * Returns the maximum number of in-flight requests
+	 * @return the maximum number of in-flight requests
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+	
+	/**
+	 * Returns the maximum number of requests waiting for an in-flight slot
+	 * @return the maximum number of waiting requests
+	 */
+	public int getMaxWaiting() {
+		return maxWaiting;
+	}
+	
+	/**
+	 * Returns the maximum time in ms a request may hold a slot
+	 * @return the slot timeout in ms
+	 */
+	public long getSlotTimeout() {
+		return slotTimeout;
+	}
+	
+	/**
+	 * Returns the number of requests rejected because the wait queue was full
+	 * @return the number of rejected requests
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+	
+	/**
+	 * Returns the number of requests failed because they held their slot past the slot timeout
+	 * @return the number of timed out requests
+	 */
+	public long getTimedOut() {
+		return timedOut.get();
+	}
+
+}
@@ -0,0 +1,432 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.pool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQGetMessageOptions;
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.MQPutMessageOptions;
+import com.ibm.mq.MQQueue;
+import com.ibm.mq.MQQueueManager;
+import com.ibm.mq.constants.CMQC;
+import com.ibm.mq.constants.CMQCFC;
+import com.ibm.mq.constants.MQConstants;
+import com.ibm.mq.pcf.PCFException;
+import com.ibm.mq.pcf.PCFMessage;
+
+/**
+ * <p>Title: MultiplexedPCFAgent</p>
+ * <p>Description: A PCF agent which keeps many requests in flight against one queue manager.
+ * Requests are put to the command queue with a locally generated MsgId and the command server
+ * replies are matched back to the waiting caller by CorrelId on a shared temporary reply queue.</p>
+ * <p>Two connections are used: one for puts to the command queue and one owned by the reader thread
+ * which creates and drains the reply queue, since a blocking get would otherwise serialize all puts on the same handle.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.pool.MultiplexedPCFAgent</code></p>
+ */
+
+public class MultiplexedPCFAgent implements Closeable {
+	/** The agent's pool key */
+	public final PoolKey key;
+	/** The host of the instance this agent is connected to */
+	public final String connectedHost;
+	/** The port of the instance this agent is connected to */
+	public final int connectedPort;
+	/** The connection used to put requests */
+	private final MQQueueManager putConnection;
+	/** The connection used by the reader to get replies */
+	private final MQQueueManager getConnection;
+	/** The command queue requests are put to */
+	private final MQQueue commandQueue;
+	/** The temporary dynamic queue replies are read from */
+	private final MQQueue replyQueue;
+	/** The resolved reply queue name */
+	private final String replyQueueName;
+	/** The queue manager name */
+	private final String queueManagerName;
+	/** The pcf response message wait time in seconds */
+	private final int pcfWait;
+	/** The pcf response message expiration time in seconds */
+	private final int pcfExpiry;
+	/** The in-flight requests keyed by the request MsgId */
+	private final Map<ByteBuffer, PendingRequest> pending = new ConcurrentHashMap<ByteBuffer, PendingRequest>(128, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** The reply reader thread */
+	private final Thread reader;
+	/** Indicates if this agent is open */
+	private final AtomicBoolean open = new AtomicBoolean(true);
+	/** Serial number for generating request MsgIds */
+	private final AtomicLong msgIdSerial = new AtomicLong(0L);
+	/** A per agent MsgId prefix */
+	private final long msgIdPrefix = System.nanoTime();
+	/** Instance logger */
+	protected final Logger log = LoggerFactory.getLogger(getClass());
+
+	/** The command queue name */
+	public static final String COMMAND_QUEUE = "SYSTEM.ADMIN.COMMAND.QUEUE";
+	/** The model queue the reply queue is created from */
+	public static final String MODEL_QUEUE = "SYSTEM.DEFAULT.MODEL.QUEUE";
+	/** The reply queue dynamic name prefix */
+	public static final String REPLY_QUEUE_PREFIX = "EASYMQ.MUX.*";
+	/** The reader get wait in ms. */
+	public static final int READER_WAIT_MS = 1000;
+	/** The minimum interval in ms. between request timeout checks, which are made on every reader pass */
+	public static final long EXPIRY_CHECK_MS = 100L;
+	/** The MQ message id length */
+	private static final int MSG_ID_LENGTH = 24;
+
+	/**
+	 * Creates a new connected MultiplexedPCFAgent
+	 * @param key The pool key of the queue manager to connect to
+	 * @param pcfWait The pcf response message wait time in seconds
+	 * @param pcfExpiry The pcf response message expiration time in seconds
+	 */
+	public MultiplexedPCFAgent(final PoolKey key, final int pcfWait, final int pcfExpiry) {
+		this(new ConnectionNameList(key, null), pcfWait, pcfExpiry);
+	}
+
+	/**
+	 * Creates a new MultiplexedPCFAgent connected to the first live instance of a multi-instance queue manager
+	 * @param connections The queue manager instance addresses
+	 * @param pcfWait The pcf response message wait time in seconds
+	 * @param pcfExpiry The pcf response message expiration time in seconds
+	 */
+	public MultiplexedPCFAgent(final ConnectionNameList connections, final int pcfWait, final int pcfExpiry) {
+		if(connections==null) throw new IllegalArgumentException("The passed connection name list was null");
+		this.key = connections.key;
+		this.pcfWait = pcfWait > 0 ? pcfWait : PCFMessageAgentWrapper.DEFAULT_PCF_WAIT;
+		this.pcfExpiry = pcfExpiry;
+		// both connections must reach the same instance, so the reader's follows wherever the put connection landed
+		final Object[] endpoint = new Object[2];
+		final MQQueueManager putConn = connections.connect((host, port) -> {
+			final MQQueueManager qm = connect(host, port, key.channel);
+			endpoint[0] = host;
+			endpoint[1] = port;
+			return qm;
+		});
+		connectedHost = (String)endpoint[0];
+		connectedPort = (Integer)endpoint[1];
+		MQQueueManager getConn = null;
+		try {
+			getConn = connect(connectedHost, connectedPort, key.channel);
+			commandQueue = putConn.accessQueue(COMMAND_QUEUE, CMQC.MQOO_OUTPUT | CMQC.MQOO_FAIL_IF_QUIESCING);
+			replyQueue = getConn.accessQueue(MODEL_QUEUE, CMQC.MQOO_INPUT_EXCLUSIVE | CMQC.MQOO_FAIL_IF_QUIESCING, null, REPLY_QUEUE_PREFIX, null);
+			replyQueueName = replyQueue.getName().trim();
+			queueManagerName = putConn.getName().trim();
+		} catch (MQException mqex) {
+			try { putConn.disconnect(); } catch (Exception x) {/* No Op */}
+			if(getConn!=null) try { getConn.disconnect(); } catch (Exception x) {/* No Op */}
+			throw new RuntimeException(mqex.getMessage(), mqex);
+		}
+		putConnection = putConn;
+		getConnection = getConn;
+		reader = new Thread(this::readReplies, "MultiplexedPCFReader[" + key + "]");
+		reader.setDaemon(true);
+		reader.start();
+		log.info("Multiplexed PCF agent connected to [{}] on [{}] at [{}({})], reply queue [{}]", queueManagerName, key, connectedHost, connectedPort, replyQueueName);
+	}
+
+	static MQQueueManager connect(final String host, final int port, final String channel) throws MQException {
+		final Hashtable<String, Object> props = new Hashtable<String, Object>();
+		props.put(MQConstants.HOST_NAME_PROPERTY, host);
+		props.put(MQConstants.PORT_PROPERTY, port);
+		props.put(MQConstants.CHANNEL_PROPERTY, channel);
+		props.put(MQConstants.TRANSPORT_PROPERTY, MQConstants.TRANSPORT_MQSERIES_CLIENT);
+		return new MQQueueManager("", props);
+	}
+
+	/**
+	 * Sends a PCF request to the connected queue manager and waits for the responses.
+	 * @param pcfMessage the request message
+	 * @return an array of PCF response messages. A single PCF request can generate multiple replies.
+	 * @throws PCFException if the response indicates an error in PCF processing
+	 * @throws MQException if there is a problem with the request or response
+	 * @throws IOException if there is a problem with reading or writing
+	 */
+	public PCFMessage[] send(final PCFMessage pcfMessage) throws PCFException, MQException, IOException {
+		final CompletableFuture<PCFMessage[]> future = sendAsync(pcfMessage);
+		try {
+			// the reader expires the request after pcfWait, so this is only a backstop
+			return future.get(pcfWait + 1, TimeUnit.SECONDS);
+		} catch (ExecutionException eex) {
+			final Throwable cause = eex.getCause();
+			if(cause instanceof MQException) throw (MQException)cause;
+			if(cause instanceof IOException) throw (IOException)cause;
+			throw new RuntimeException(cause.getMessage(), cause);
+		} catch (TimeoutException tex) {
+			future.cancel(false);
+			throw new MQException(CMQC.MQCC_FAILED, CMQC.MQRC_NO_MSG_AVAILABLE, this);
+		} catch (InterruptedException iex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for PCF response from [" + key + "]", iex);
+		}
+	}
+
+	/**
+	 * Puts a PCF request to the command queue and returns a future which completes when the last response arrives.
+	 * @param pcfMessage the request message
+	 * @return a future for the array of PCF response messages
+	 */
+	public CompletableFuture<PCFMessage[]> sendAsync(final PCFMessage pcfMessage) {
+		if(pcfMessage==null) throw new IllegalArgumentException("The passed PCF message was null");
+		final PendingRequest pr = new PendingRequest(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(pcfWait));
+		if(!open.get()) {
+			pr.completeExceptionally(new IOException("Multiplexed PCF agent [" + key + "] is closed"));
+			return pr;
+		}
+		final int command = pcfMessage.getCommand();
+		final long start = System.nanoTime();
+		final byte[] msgId = nextMsgId();
+		final ByteBuffer msgKey = ByteBuffer.wrap(msgId);
+		// register before the put so a fast reply cannot miss its waiter
+		pending.put(msgKey, pr);
+		// drop the entry however the request ends, including a cancel by a timed out caller
+		pr.whenComplete((r, t) -> pending.remove(msgKey, pr));
+		try {
+			final MQMessage request = new MQMessage();
+			request.messageType = CMQC.MQMT_REQUEST;
+			request.format = CMQC.MQFMT_ADMIN;
+			request.feedback = CMQC.MQFB_NONE;
+			request.replyToQueueName = replyQueueName;
+			request.messageId = msgId;
+			if(pcfExpiry > 0) {
+				request.expiry = pcfExpiry * 10;
+				request.report = CMQC.MQRO_PASS_DISCARD_AND_EXPIRY | CMQC.MQRO_DISCARD_MSG;
+			}
+			pcfMessage.write(request);
+			final MQPutMessageOptions pmo = new MQPutMessageOptions();
+			pmo.options = CMQC.MQPMO_NO_SYNCPOINT | CMQC.MQPMO_FAIL_IF_QUIESCING;
+			synchronized(commandQueue) {
+				commandQueue.put(request, pmo);
+			}
+		} catch (Exception ex) {
+			pending.remove(msgKey);
+			pr.completeExceptionally(ex);
+		}
+		// runs on the reader thread, so keep it to a couple of metric updates
+		pr.whenComplete((r, t) -> PoolManager.getInstance().recordRoundTrip(key, command, System.nanoTime() - start, r, t));
+		return pr;
+	}
+
+	/**
+	 * Generates a unique MsgId for a request
+	 * @return the MsgId bytes
+	 */
+	private byte[] nextMsgId() {
+		final ByteBuffer bb = ByteBuffer.allocate(MSG_ID_LENGTH);
+		bb.putLong(msgIdPrefix).putLong(System.identityHashCode(this)).putLong(msgIdSerial.incrementAndGet());
+		return bb.array();
+	}
+
+	/**
+	 * The reader thread body. Drains the reply queue and completes requests when their last response arrives.
+	 */
+	private void readReplies() {
+		final MQGetMessageOptions gmo = new MQGetMessageOptions();
+		gmo.options = CMQC.MQGMO_WAIT | CMQC.MQGMO_NO_SYNCPOINT | CMQC.MQGMO_FAIL_IF_QUIESCING | CMQC.MQGMO_CONVERT;
+		gmo.waitInterval = READER_WAIT_MS;
+		gmo.matchOptions = CMQC.MQMO_NONE;
+		long nextExpiryCheck = 0L;
+		while(open.get()) {
+			// checked on every pass, since steady or unmatched reply traffic may never let the get time out
+			final long now = System.currentTimeMillis();
+			if(now >= nextExpiryCheck) {
+				expireRequests(now);
+				nextExpiryCheck = now + EXPIRY_CHECK_MS;
+			}
+			final MQMessage reply = new MQMessage();
+			try {
+				replyQueue.get(reply, gmo);
+			} catch (MQException mqex) {
+				if(mqex.reasonCode==CMQC.MQRC_NO_MSG_AVAILABLE) {
+					continue;
+				}
+				if(open.get()) {
+					log.error("Multiplexed PCF agent reader failed on [{}]", key, mqex);
+					failAll(mqex);
+					closeQuietly();
+				}
+				break;
+			}
+			final PendingRequest pr = pending.get(ByteBuffer.wrap(reply.correlationId));
+			if(pr==null) {
+				log.debug("Discarding unmatched PCF reply on [{}]", key);
+				continue;
+			}
+			try {
+				final PCFMessage response = new PCFMessage(reply);
+				if(pr.add(response)) {
+					pending.remove(ByteBuffer.wrap(reply.correlationId));
+				}
+			} catch (Exception ex) {
+				pending.remove(ByteBuffer.wrap(reply.correlationId));
+				pr.completeExceptionally(ex);
+			}
+		}
+	}
+
+	/**
+	 * Fails any requests which have passed their deadline
+	 * @param now The current time in ms.
+	 */
+	private void expireRequests(final long now) {
+		if(pending.isEmpty()) return;
+		for(final Iterator<PendingRequest> iter = pending.values().iterator(); iter.hasNext();) {
+			final PendingRequest pr = iter.next();
+			if(pr.isDone()) {
+				iter.remove();
+			} else if(pr.deadline < now) {
+				iter.remove();
+				pr.completeExceptionally(new MQException(CMQC.MQCC_FAILED, CMQC.MQRC_NO_MSG_AVAILABLE, this));
+			}
+		}
+	}
+
+	/**
+	 * Fails all in-flight requests
+	 * @param cause The failure cause
+	 */
+	private void failAll(final Throwable cause) {
+		for(final Iterator<PendingRequest> iter = pending.values().iterator(); iter.hasNext();) {
+			final PendingRequest pr = iter.next();
+			iter.remove();
+			pr.completeExceptionally(cause);
+		}
+	}
+
+	/**
+	 * Indicates if this agent is open and its reader is running
+	 * @return true if open, false otherwise
+	 */
+	public boolean isOpen() {
+		return open.get();
+	}
+
+	/**
+	 * Returns the number of requests currently awaiting responses
+	 * @return the number of in-flight requests
+	 */
+	public int getInFlight() {
+		return pending.size();
+	}
+
+	/**
+	 * Returns the name of the queue manager
+	 * @return the queue manager name
+	 */
+	public String getQManagerName() {
+		return queueManagerName;
+	}
+
+	/**
+	 * Returns the wait interval in seconds.
+	 * @return the wait interval
+	 */
+	public int getWaitInterval() {
+		return pcfWait;
+	}
+
+	/**
+	 * Closes the queues and both connections and fails any in-flight requests
+	 * {@inheritDoc}
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if(open.get()) {
+			closeQuietly();
+			failAll(new IOException("Multiplexed PCF agent [" + key + "] was closed"));
+		}
+	}
+
+	private void closeQuietly() {
+		if(open.compareAndSet(true, false)) {
+			synchronized(commandQueue) {
+				try { commandQueue.close(); } catch (Exception x) {/* No Op */}
+			}
+			try { putConnection.disconnect(); } catch (Exception x) {/* No Op */}
+			if(Thread.currentThread()!=reader) {
+				try { reader.join(READER_WAIT_MS * 2); } catch (InterruptedException iex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			try { replyQueue.close(); } catch (Exception x) {/* No Op */}
+			try { getConnection.disconnect(); } catch (Exception x) {/* No Op */}
+			log.info("Multiplexed PCF agent on [{}] closed", key);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "MuxPCF:" + key.toString();
+	}
+
+	/**
+	 * <p>Title: PendingRequest</p>
+	 * <p>Description: Accumulates the responses for one in-flight request</p>
+	 */
+	private static class PendingRequest extends CompletableFuture<PCFMessage[]> {
+		/** The time in ms. after which the request is failed */
+		final long deadline;
+		/** The responses received so far */
+		final List<PCFMessage> responses = new ArrayList<PCFMessage>(4);
+
+		PendingRequest(final long deadline) {
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Adds a response and completes this request if it was the last one.
+		 * Only called from the reader thread.
+		 * @param response The response to add
+		 * @return true if the request is complete, false if more responses are expected
+		 */
+		boolean add(final PCFMessage response) {
+			responses.add(response);
+			if(response.getControl()!=CMQCFC.MQCFC_LAST) return false;
+			final PCFMessage[] all = responses.toArray(new PCFMessage[responses.size()]);
+			for(PCFMessage p: all) {
+				if(p.getCompCode()==CMQC.MQCC_FAILED) {
+					completeExceptionally(new PCFException(p.getCompCode(), p.getReason(), all));
+					return true;
+				}
+			}
+			complete(all);
+			return true;
+		}
+	}
+
+}
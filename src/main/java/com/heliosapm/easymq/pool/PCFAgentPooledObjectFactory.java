@@ -12,7 +12,7 @@
 // see <http://www.gnu.org/licenses/>.
 package com.heliosapm.easymq.pool;
 
-import org.apache.commons.pool2.BaseKeyedPooledObjectFactory;
+import org.apache.commons.pool2.BasePooledObjectFactory;
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
 
@@ -20,30 +20,45 @@ import com.ibm.mq.pcf.PCFMessageAgent;
 
 /**
  * <p>Title: PCFAgentPooledObjectFactory</p>
- * <p>Description: Pooled object factory to fuel pcf message agent pools</p> 
+ * <p>Description: Pooled object factory to fuel the pcf message agent pool for one MQ endpoint</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>com.heliosapm.easymq.PCFAgentPooledObjectFactory</code></p>
  */
 
-public class PCFAgentPooledObjectFactory extends BaseKeyedPooledObjectFactory<PoolKey, PCFMessageAgentWrapper> {
-	/** Shareable instance */
-	public static final PCFAgentPooledObjectFactory INSTANCE = new PCFAgentPooledObjectFactory();
+public class PCFAgentPooledObjectFactory extends BasePooledObjectFactory<PCFMessageAgentWrapper> {
+	/** The addresses of the MQ endpoint this factory connects to */
+	private final ConnectionNameList connections;
 	
-	private PCFAgentPooledObjectFactory() {}
+	/**
+	 * Creates a new PCFAgentPooledObjectFactory
+	 * @param key The key of the MQ endpoint to connect to
+	 */
+	public PCFAgentPooledObjectFactory(final PoolKey key) {
+		this(new ConnectionNameList(key, null));
+	}
+	
+	/**
+	 * Creates a new PCFAgentPooledObjectFactory for a multi-instance MQ endpoint
+	 * @param connections The addresses of the MQ endpoint instances
+	 */
+	public PCFAgentPooledObjectFactory(final ConnectionNameList connections) {
+		if(connections==null) throw new IllegalArgumentException("The passed connection name list was null");
+		this.connections = connections;
+	}
 	
 	/**
 	 * {@inheritDoc}
-	 * @see org.apache.commons.pool2.BaseKeyedPooledObjectFactory#create(java.lang.Object)
+	 * @see org.apache.commons.pool2.BasePooledObjectFactory#create()
 	 */
 	@Override
-	public PCFMessageAgentWrapper create(final PoolKey key) throws Exception {
-		return PCFMessageAgentWrapper.fromKey(key, true);
+	public PCFMessageAgentWrapper create() throws Exception {
+		return connections.connectAgent(true);
 	}
 
 	/**
 	 * {@inheritDoc}
-	 * @see org.apache.commons.pool2.BaseKeyedPooledObjectFactory#wrap(java.lang.Object)
+	 * @see org.apache.commons.pool2.BasePooledObjectFactory#wrap(java.lang.Object)
 	 */
 	@Override
 	public PooledObject<PCFMessageAgentWrapper> wrap(final PCFMessageAgentWrapper value) {		
@@ -51,9 +66,10 @@ public class PCFAgentPooledObjectFactory extends BaseKeyedPooledObjectFactory<Po
 	}
 	
 	@Override
-	public boolean validateObject(final PoolKey key, final PooledObject<PCFMessageAgentWrapper> p) {
+	public boolean validateObject(final PooledObject<PCFMessageAgentWrapper> p) {
 		try {
 			final PCFMessageAgentWrapper wrapper = p.getObject();
+			if(wrapper.isBroken()) return false;
 			final PCFMessageAgent agent = wrapper.getRawAgent();
 			return agent.getQManagerName().equals(wrapper.getQManagerName());
 		} catch (Exception ex) {
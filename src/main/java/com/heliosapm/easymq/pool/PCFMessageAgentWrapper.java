@@ -14,6 +14,9 @@ package com.heliosapm.easymq.pool;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -38,8 +41,16 @@ public class PCFMessageAgentWrapper implements Closeable {
 	private final String queueManagerName;
 	/** The wrapper's pool key */
 	public final PoolKey key;
+	/** The host of the instance this wrapper is connected to, which differs from the key's after a failover */
+	public final String connectedHost;
+	/** The port of the instance this wrapper is connected to */
+	public final int connectedPort;
 	/** Indicates if this wrapper is pooled */
 	private final boolean pooled;
+	/** Set when a send fails with a connection failure so the pool discards this wrapper */
+	private volatile boolean broken = false;
+	/** The System.nanoTime() when this wrapper was created or last returned to a {@link StripedAgentPool} */
+	volatile long lastReturned = 0L;
 	/** Flag indicating if the pcf expiry has been set */
 	private static final AtomicBoolean expirySet = new AtomicBoolean(false);
 	/** The system property to enable or disable pcf message expiry */
@@ -58,9 +69,23 @@ public class PCFMessageAgentWrapper implements Closeable {
 	 * @param pooled true if this agent is pooled, false otherwise
 	 */
 	public PCFMessageAgentWrapper(final String host, final int port, final String channel, final boolean pooled) {
-		key = PoolKey.poolKey(host, channel, port);
+		this(PoolKey.poolKey(host, channel, port), host, port, pooled);
+	}
+	
+	/**
+	 * Creates a new PCFMessageAgentWrapper for a pool key, connected to one instance of a multi-instance queue manager
+	 * @param key The pool key the wrapper belongs to
+	 * @param host the hostname or IP address of the instance to connect to
+	 * @param port the port of the instance to connect to
+	 * @param pooled true if this agent is pooled, false otherwise
+	 */
+	public PCFMessageAgentWrapper(final PoolKey key, final String host, final int port, final boolean pooled) {
+		if(key==null) throw new IllegalArgumentException("The passed pool key was null");
+		this.key = key;
+		connectedHost = host;
+		connectedPort = port;
 		try {
-			pcf = new PCFMessageAgent(host, port, channel);
+			pcf = new PCFMessageAgent(host, port, key.channel);
 			queueManagerName = pcf.getQManagerName();
 			this.pooled = pooled;
 		} catch (MQException mqex) {
@@ -68,6 +93,24 @@ public class PCFMessageAgentWrapper implements Closeable {
 		}
 	}
 	
+	/**
+	 * Creates a new PCFMessageAgentWrapper around an agent created elsewhere, e.g. an unconnected agent in the pool benchmarks
+	 * @param key The pool key the wrapper belongs to
+	 * @param agent The agent to wrap
+	 * @param queueManagerName The name of the queue manager the agent is connected to
+	 * @param pooled true if this agent is pooled, false otherwise
+	 */
+	PCFMessageAgentWrapper(final PoolKey key, final PCFMessageAgent agent, final String queueManagerName, final boolean pooled) {
+		if(key==null) throw new IllegalArgumentException("The passed pool key was null");
+		if(agent==null) throw new IllegalArgumentException("The passed agent was null");
+		this.key = key;
+		connectedHost = key.host;
+		connectedPort = key.port;
+		pcf = agent;
+		this.queueManagerName = queueManagerName;
+		this.pooled = pooled;
+	}
+	
 	/**
 	 * Creates a new PCFMessageAgentWrapper
 	 * @param host the hostname or IP address where the queue manager resides
@@ -125,7 +168,7 @@ public class PCFMessageAgentWrapper implements Closeable {
 	 */
 	public void close() throws IOException {
 		if(pooled) {
-			PoolManager.getInstance().pool.returnObject(key, this);
+			PoolManager.getInstance().returnConnection(this);
 		} else {
 			try {
 				pcf.disconnect();
@@ -149,6 +192,14 @@ public class PCFMessageAgentWrapper implements Closeable {
 		return queueManagerName;
 	}
 	
+	/**
+	 * Indicates if a send on this wrapper failed with a connection failure
+	 * @return true if this wrapper's connection is broken
+	 */
+	public boolean isBroken() {
+		return broken;
+	}
+	
 	/**
 	 * Returns the raw agent
 	 * @return the raw agent
@@ -174,7 +225,48 @@ public class PCFMessageAgentWrapper implements Closeable {
 	 * @throws IOException if there is a problem with reading or writing
 	 */
 	public PCFMessage[] send(final PCFMessage pcfMessage) throws PCFException, MQException, IOException {
-		return pcf.send(pcfMessage);
+		if(!pooled) return pcf.send(pcfMessage);
+		final long start = System.nanoTime();
+		PCFMessage[] responses = null;
+		Exception error = null;
+		try {
+			responses = pcf.send(pcfMessage);
+			return responses;
+		} catch (Exception ex) {
+			error = ex;
+			if(CircuitBreaker.isConnectionFailure(ex)) broken = true;
+			throw ex;
+		} finally {
+			PoolManager.getInstance().recordRoundTrip(key, pcfMessage.getCommand(), System.nanoTime() - start, responses, error);
+		}
+	}
+	
+	/**
+	 * Sends a PCF request on the pool manager's async executor.
+	 * The caller remains responsible for closing this wrapper once the returned future completes.
+	 * @param pcfMessage the request message
+	 * @return a future for the array of PCF response messages
+	 */
+	public CompletableFuture<PCFMessage[]> sendAsync(final PCFMessage pcfMessage) {
+		return sendAsync(pcfMessage, PoolManager.getInstance().getAsyncExecutor());
+	}
+	
+	/**
+	 * Sends a PCF request on the passed executor.
+	 * The caller remains responsible for closing this wrapper once the returned future completes.
+	 * @param pcfMessage the request message
+	 * @param executor The executor to run the blocking send on
+	 * @return a future for the array of PCF response messages
+	 */
+	public CompletableFuture<PCFMessage[]> sendAsync(final PCFMessage pcfMessage, final Executor executor) {
+		if(executor==null) throw new IllegalArgumentException("The passed executor was null");
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return send(pcfMessage);
+			} catch (Exception ex) {
+				throw new CompletionException(ex);
+			}
+		}, executor);
 	}
 
 	/**
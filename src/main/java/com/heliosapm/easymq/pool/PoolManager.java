@@ -12,20 +12,44 @@
 // see <http://www.gnu.org/licenses/>.
 package com.heliosapm.easymq.pool;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
-import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
 import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.heliosapm.easymq.MQConfig;
 import com.heliosapm.easymq.cache.CacheService;
 import com.heliosapm.easymq.json.JSONOps;
+import com.heliosapm.easymq.metrics.MetricsService;
+import com.ibm.mq.pcf.PCFMessage;
 
 /**
  * <p>Title: PoolManager</p>
@@ -44,16 +68,77 @@ public class PoolManager {
 	
 	/** Instance logger */
 	protected Logger log = LoggerFactory.getLogger(getClass());
-	/** The pool configuration */
-	protected final GenericKeyedObjectPoolConfig poolConfig;
-	/** The pool */
-	protected final GenericKeyedObjectPool<PoolKey, PCFMessageAgentWrapper> pool;
+	/** The default pool configuration which sub pool overrides are applied to */
+	protected final ObjectNode poolConfigNode;
+	/** The pcf agent pools keyed by the pool key */
+	protected final Map<String, AgentPool> pools = new ConcurrentHashMap<String, AgentPool>(32, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** The default adaptive sizing configuration which sub pool overrides are applied to */
+	protected final ObjectNode adaptiveConfigNode;
+	/** The default hedge configuration which sub pool overrides are applied to */
+	protected final ObjectNode hedgeConfigNode;
+	/** The default admin event consumer configuration which sub pool overrides are applied to */
+	protected final ObjectNode eventsConfigNode;
+	/** The admin event consumers keyed by the pool key */
+	protected final Map<String, AdminEventConsumer> eventConsumers = new ConcurrentHashMap<String, AdminEventConsumer>(32, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** The hedge policies keyed by the pool key */
+	protected final Map<String, HedgePolicy> hedgePolicies = new ConcurrentHashMap<String, HedgePolicy>(32, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** The default pool implementation, <b><code>commons</code></b> or <b><code>striped</code></b> */
+	protected final String defaultPoolType;
+	/** The striped pool settings */
+	protected final JsonNode stripedPoolConfig;
+	/** The adaptive pool sizer */
+	protected final AdaptivePoolSizer adaptiveSizer = new AdaptivePoolSizer(pools);
 	/** A set of installed pool keys */
 	protected final Set<String> poolKeys = new CopyOnWriteArraySet<String>();
 	/** A map of pool keys keyed by the pool name */
 	protected final Map<String, String> poolNameKeys = new ConcurrentHashMap<String, String>(32, 0.75f, Runtime.getRuntime().availableProcessors());
 	/** A map of pool names keyed by the pool key */
 	protected final Map<String, String> poolKeyNames = new ConcurrentHashMap<String, String>(32, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** A map of installed sub pools keyed by the pool key */
+	protected final Map<String, SubPool> subPools = new ConcurrentHashMap<String, SubPool>(32, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** A map of multiplexed pcf agents keyed by the pool key */
+	protected final Map<String, MultiplexedPCFAgent> multiplexedAgents = new ConcurrentHashMap<String, MultiplexedPCFAgent>(32, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** A map of async in-flight limiters keyed by the pool key */
+	protected final Map<String, InFlightLimiter> inFlightLimiters = new ConcurrentHashMap<String, InFlightLimiter>(32, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** The last warm-up time in ms. keyed by pool name, -1 if the warm-up failed or has not completed */
+	protected final Map<String, Long> warmupTimings = new ConcurrentHashMap<String, Long>(32, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** The per sub pool warm-up deadline in ms. */
+	protected final long warmupTimeoutMillis;
+	/** The configured sub pools, warmed up once the singleton is published */
+	private final List<SubPool> configured;
+	/** The warm-up of the configured sub pools */
+	private volatile CompletableFuture<Map<String, Long>> warmup = CompletableFuture.completedFuture(Collections.<String, Long>emptyMap());
+	/** The borrow timers keyed by the pool key */
+	protected final Map<String, Timer> borrowTimers = new ConcurrentHashMap<String, Timer>(32, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** The circuit breaker settings */
+	protected final CircuitBreaker.Settings breakerSettings;
+	/** The circuit breakers keyed by the pool key */
+	protected final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>(32, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** The scheduler which times circuit breaker probes and hedged requests */
+	protected final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+		final Thread t = new Thread(r, "PoolManagerScheduler");
+		t.setDaemon(true);
+		return t;
+	});
+	/** Collapses identical concurrent pcf requests */
+	protected final RequestCoalescer coalescer;
+	/** The return timers keyed by the pool key */
+	protected final Map<String, Timer> returnTimers = new ConcurrentHashMap<String, Timer>(32, 0.75f, Runtime.getRuntime().availableProcessors());
+	
+	/** Matches characters which are not safe in an unquoted JMX ObjectName value */
+	private static final Pattern JMX_UNSAFE = Pattern.compile("[:,=*?\"@\\s]");
+	/** The default per sub pool warm-up deadline in ms. */
+	public static final long DEFAULT_WARMUP_TIMEOUT = 15000L;
+	/** Executor for blocking borrows and sends issued through the async api. Bounded in practice by the sub pool in-flight limits. */
+	protected final ExecutorService asyncExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+		final AtomicInteger serial = new AtomicInteger();
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread t = new Thread(r, "PCFAsyncTask#" + serial.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
 	
 	
 	/** Instance logger */
@@ -67,7 +152,10 @@ public class PoolManager {
 		if(instance==null) {
 			synchronized(lock) {
 				if(instance==null) {					
-					instance = new PoolManager();
+					final PoolManager pm = new PoolManager();
+					instance = pm;
+					// started once published, so warm-up tasks which reach getInstance() do not wait on the lock
+					pm.warmup = pm.warmUp(pm.configured, pm.warmupTimeoutMillis);
 				}
 			}
 		}
@@ -80,19 +168,44 @@ public class PoolManager {
 	
 	private PoolManager() {
 		final JsonNode rootNode = MQConfig.getInstance().getRootNode();
-		poolConfig = JSONOps.parseToObject(rootNode.get("poolconfig"), GenericKeyedObjectPoolConfig.class);
-		pool = new GenericKeyedObjectPool<PoolKey, PCFMessageAgentWrapper>(PCFAgentPooledObjectFactory.INSTANCE, poolConfig);
+		final JsonNode configNode = rootNode.get("poolconfig");
+		poolConfigNode = configNode!=null && configNode.isObject() ? (ObjectNode)configNode : JSONOps.getNodeFactory().objectNode();
+		final JsonNode adaptiveNode = rootNode.get("adaptive");
+		adaptiveConfigNode = adaptiveNode!=null && adaptiveNode.isObject() ? (ObjectNode)adaptiveNode : JSONOps.getNodeFactory().objectNode();
+		defaultPoolType = rootNode.path("poolType").asText(SubPool.POOL_TYPE_COMMONS).trim().toLowerCase();
+		stripedPoolConfig = rootNode.path("stripedPool");
+		final JsonNode hedgeNode = rootNode.get("hedge");
+		hedgeConfigNode = hedgeNode!=null && hedgeNode.isObject() ? (ObjectNode)hedgeNode : JSONOps.getNodeFactory().objectNode();
+		final JsonNode eventsNode = rootNode.get("events");
+		eventsConfigNode = eventsNode!=null && eventsNode.isObject() ? (ObjectNode)eventsNode : JSONOps.getNodeFactory().objectNode();
 		log.info("PCFMessageAgent Pool Started");
+		warmupTimeoutMillis = rootNode.path("warmup").path("timeoutMillis").asLong(DEFAULT_WARMUP_TIMEOUT);
+		breakerSettings = new CircuitBreaker.Settings(rootNode.path("circuitBreaker"));
+		coalescer = new RequestCoalescer(rootNode.path("coalesce").path("enabled").asBoolean(true));
 		final JsonNode poolDefs = rootNode.get("pools");
+		configured = new ArrayList<SubPool>(poolDefs.size());
 		for(JsonNode poolDef: poolDefs) {
 			final SubPool subPool = JSONOps.parseToObject(poolDef, SubPool.class);
-			installSubPool(subPool);
+			if(registerSubPool(subPool)) {
+				configured.add(subPool);
+			}
 		}
 		Runtime.getRuntime().addShutdownHook(new Thread("PoolManagerShutdown"){
 			@Override
 			public void run() {
 				log.info("Closing PCF Pool...");
-				pool.close();
+				adaptiveSizer.shutdown();
+				scheduler.shutdownNow();
+				MetricsService.getInstance().shutdown();
+				for(MultiplexedPCFAgent agent: multiplexedAgents.values()) {
+					try { agent.close(); } catch (Exception x) {/* No Op */}
+				}
+				for(AdminEventConsumer consumer: eventConsumers.values()) {
+					consumer.close();
+				}
+				for(AgentPool pool: pools.values()) {
+					try { pool.close(); } catch (Exception x) {/* No Op */}
+				}
 			}
 		});
 	}
@@ -101,25 +214,351 @@ public class PoolManager {
 	 * Acquires a connection for the passed key
 	 * @param poolKey The pool key
 	 * @return the connection
+	 * @throws CircuitOpenException if the key's queue manager is marked as unreachable
 	 */
 	public PCFMessageAgentWrapper getConnection(final String poolKey) {
 		if(poolKey==null || poolKey.trim().isEmpty()) throw new IllegalArgumentException("The key was null or empty");
 		final PoolKey _key = PoolKey.poolKey(poolKey.trim());
-		if(!poolKeys.contains(_key)) {
+		AgentPool pool = pools.get(_key.key);
+		if(pool==null) {
 			synchronized(poolKeys) {
-				if(!poolKeys.contains(_key)) {
+				pool = pools.get(_key.key);
+				if(pool==null) {
 					installSubPool(_key);
+					pool = pools.get(_key.key);
+					if(pool==null) throw new RuntimeException("Failed to install pool for key [" + _key + "]");
 				}
 			}
 		}
+		final CircuitBreaker breaker = breakers.get(_key.key);
+		if(breaker!=null) breaker.checkClosed();
 		try {
-			return pool.borrowObject(_key);
+			final long start = System.nanoTime();
+			final PCFMessageAgentWrapper conn = pool.borrowObject();
+			final long elapsed = System.nanoTime() - start;
+			adaptiveSizer.recordBorrowWait(_key.key, elapsed);
+			final Timer t = borrowTimers.get(_key.key);
+			if(t!=null) t.update(elapsed, TimeUnit.NANOSECONDS);
+			return conn;
 		} catch (Exception ex) {
+			if(breaker!=null) breaker.onFailure(ex);
 			log.error("Failed to acquire connection for key [{}]", _key, ex);
 			throw new RuntimeException("Failed to acquire connection for key [" + _key + "]", ex);
 		}
 	}
 
+	/**
+	 * Returns a borrowed connection to its pool
+	 * @param conn The connection to return
+	 */
+	void returnConnection(final PCFMessageAgentWrapper conn) {
+		final AgentPool pool = pools.get(conn.key.key);
+		if(pool!=null && conn.isBroken()) {
+			final SubPool subPool = subPools.get(conn.key.key);
+			if(subPool!=null) subPool.connections.markFailed(conn.connectedHost, conn.connectedPort);
+			try { pool.invalidateObject(conn); } catch (Exception x) {/* No Op */}
+		} else if(pool!=null) {
+			final long start = System.nanoTime();
+			pool.returnObject(conn);
+			final Timer t = returnTimers.get(conn.key.key);
+			if(t!=null) t.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		} else {
+			try { conn.disconnect(); } catch (Exception x) {/* No Op */}
+		}
+	}
+	
+	/**
+	 * Records the round trip time and response count of a pcf request
+	 * @param key The pool key
+	 * @param command The pcf command code
+	 * @param nanos The round trip time in ns.
+	 * @param responses The response messages, or null if the request failed
+	 * @param error The failure if the request failed, otherwise null
+	 */
+	void recordRoundTrip(final PoolKey key, final int command, final long nanos, final PCFMessage[] responses, final Throwable error) {
+		adaptiveSizer.recordRoundTrip(key.key, nanos);
+		final CircuitBreaker breaker = breakers.get(key.key);
+		if(breaker!=null) {
+			if(error==null) breaker.onSuccess();
+			else breaker.onFailure(error);
+		}
+		final String poolName = poolKeyNames.get(key.key);
+		MetricsService.getInstance().recordPCF(poolName==null ? key.key : poolName, command, nanos, responses==null ? -1 : responses.length);
+	}
+	
+	/**
+	 * Builds the adaptive sizing settings for the passed sub pool by applying its overrides to the default 
+	 * <b><code>adaptive</code></b> config
+	 * @param subPool The sub pool
+	 * @return the merged adaptive settings node
+	 */
+	protected JsonNode adaptiveConfig(final SubPool subPool) {
+		return mergeConfig(adaptiveConfigNode, subPool.adaptive);
+	}
+	
+	/**
+	 * Builds the hedge settings for the passed sub pool by applying its overrides to the default 
+	 * <b><code>hedge</code></b> config
+	 * @param subPool The sub pool
+	 * @return the merged hedge settings node
+	 */
+	protected JsonNode hedgeConfig(final SubPool subPool) {
+		return mergeConfig(hedgeConfigNode, subPool.hedge);
+	}
+	
+	private static JsonNode mergeConfig(final ObjectNode defaults, final JsonNode overrides) {
+		final ObjectNode merged = defaults.deepCopy();
+		if(overrides!=null) {
+			merged.setAll((ObjectNode)overrides);
+		}
+		return merged;
+	}
+	
+	/**
+	 * Builds the admin event consumer settings for the passed sub pool by applying its overrides to the default 
+	 * <b><code>events</code></b> config
+	 * @param subPool The sub pool
+	 * @return the merged admin event consumer settings node
+	 */
+	protected JsonNode eventsConfig(final SubPool subPool) {
+		return mergeConfig(eventsConfigNode, subPool.events);
+	}
+	
+	/**
+	 * Registers a listener for the queue and topic changes reported by a queue manager's admin events
+	 * @param poolKey The pool key of the queue manager
+	 * @param listener The listener
+	 * @return true if the listener was registered, false if the queue manager has no admin event consumer
+	 */
+	public boolean addObjectChangeListener(final String poolKey, final Consumer<AdminEventConsumer.ObjectChange> listener) {
+		final AdminEventConsumer consumer = eventConsumers.get(poolKey);
+		if(consumer==null) return false;
+		consumer.addListener(listener);
+		return true;
+	}
+	
+	/**
+	 * Returns the time a queue manager's admin event consumer caught up with the config and command event queues
+	 * on its current connection
+	 * @param poolKey The pool key of the queue manager
+	 * @return the time in ms since the epoch, or zero if there is no consumer or it is stopped, reconnecting or not reading both queues
+	 */
+	public long getEventsSyncedSince(final String poolKey) {
+		final AdminEventConsumer consumer = eventConsumers.get(poolKey);
+		return consumer==null ? 0L : consumer.getSyncedSince();
+	}
+	
+	/**
+	 * Registers a listener for the queue depth and service interval events reported by a queue manager's performance events
+	 * @param poolKey The pool key of the queue manager
+	 * @param listener The listener
+	 * @return true if the listener was registered, false if the queue manager has no admin event consumer
+	 */
+	public boolean addQueueEventListener(final String poolKey, final Consumer<AdminEventConsumer.QueueEvent> listener) {
+		final AdminEventConsumer consumer = eventConsumers.get(poolKey);
+		if(consumer==null) return false;
+		consumer.addQueueListener(listener);
+		return true;
+	}
+	
+	/**
+	 * Builds the pool configuration for the passed sub pool by applying its overrides to the default
+	 * <b><code>poolconfig</code></b>. The per-key settings become the settings of the sub pool's own pool,
+	 * so <b><code>maxTotal</code></b> across all keys is not enforced.
+	 * @param subPool The sub pool
+	 * @return the sub pool's pool configuration
+	 */
+	protected GenericObjectPoolConfig poolConfig(final SubPool subPool) {
+		final ObjectNode merged = poolConfigNode.deepCopy();
+		if(subPool.poolConfig!=null) {
+			merged.setAll((ObjectNode)subPool.poolConfig);
+		}
+		final GenericKeyedObjectPoolConfig keyed = JSONOps.parseToObject(merged, GenericKeyedObjectPoolConfig.class);
+		final GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+		config.setMaxTotal(keyed.getMaxTotalPerKey());
+		config.setMaxIdle(keyed.getMaxIdlePerKey());
+		config.setMinIdle(keyed.getMinIdlePerKey());
+		config.setLifo(keyed.getLifo());
+		config.setFairness(keyed.getFairness());
+		config.setMaxWaitMillis(keyed.getMaxWaitMillis());
+		config.setMinEvictableIdleTimeMillis(keyed.getMinEvictableIdleTimeMillis());
+		config.setSoftMinEvictableIdleTimeMillis(keyed.getSoftMinEvictableIdleTimeMillis());
+		config.setNumTestsPerEvictionRun(keyed.getNumTestsPerEvictionRun());
+		config.setEvictionPolicyClassName(keyed.getEvictionPolicyClassName());
+		config.setTestOnCreate(keyed.getTestOnCreate());
+		config.setTestOnBorrow(keyed.getTestOnBorrow());
+		config.setTestOnReturn(keyed.getTestOnReturn());
+		config.setTestWhileIdle(keyed.getTestWhileIdle());
+		config.setTimeBetweenEvictionRunsMillis(keyed.getTimeBetweenEvictionRunsMillis());
+		config.setBlockWhenExhausted(keyed.getBlockWhenExhausted());
+		config.setJmxEnabled(keyed.getJmxEnabled());
+		config.setJmxNameBase(keyed.getJmxNameBase());
+		config.setJmxNamePrefix(keyed.getJmxNamePrefix() + "-" + JMX_UNSAFE.matcher(subPool.poolName).replaceAll("_"));
+		return config;
+	}
+	
+	/**
+	 * Returns the pool configuration in effect for the passed key
+	 * @param poolKey The pool key
+	 * @return the pool configuration or null if the key is not installed
+	 */
+	public GenericObjectPoolConfig getPoolConfig(final String poolKey) {
+		final SubPool subPool = subPools.get(poolKey);
+		return subPool==null ? null : poolConfig(subPool);
+	}
+	
+	/**
+	 * Sends a pcf request asynchronously, subject to the key's sub pool in-flight limit.
+	 * Multiplexed sub pools send directly on the multiplexed agent, otherwise a pooled agent 
+	 * is borrowed on the async executor and returned when the send completes.
+	 * Read-only inquiries against sub pools with hedging enabled are sent a second time, through the same 
+	 * limiter and transport, if the first send is slower than the hedge delay, and the first reply wins.
+	 * @param poolKey The pool key
+	 * @param request The pcf request
+	 * @return a future for the array of PCF response messages
+	 */
+	public CompletableFuture<PCFMessage[]> sendAsync(final String poolKey, final PCFMessage request) {
+		if(poolKey==null || poolKey.trim().isEmpty()) throw new IllegalArgumentException("The key was null or empty");
+		if(request==null) throw new IllegalArgumentException("The passed request was null");
+		final String pk = poolKey.trim();
+		final CircuitBreaker breaker = breakers.get(pk);
+		if(breaker!=null && !breaker.isClosed()) {
+			final CompletableFuture<PCFMessage[]> rejected = new CompletableFuture<PCFMessage[]>();
+			rejected.completeExceptionally(new CircuitOpenException(breaker.key, null));
+			return rejected;
+		}
+		final InFlightLimiter limiter = getInFlightLimiter(pk);
+		final Supplier<CompletableFuture<PCFMessage[]>> send = () -> {
+			final MultiplexedPCFAgent mux = getMultiplexedAgent(pk);
+			if(mux!=null) {
+				return mux.sendAsync(request);
+			}
+			return sendPooledAsync(pk, request);
+		};
+		final CompletableFuture<PCFMessage[]> primary = limiter.submit(send);
+		final HedgePolicy hedge = hedgePolicies.get(pk);
+		if(hedge==null || !hedge.isHedgeable(request.getCommand())) return primary;
+		final long delay = hedge.delayMillis(request.getCommand());
+		if(delay < 0) return primary;
+		final CompletableFuture<PCFMessage[]> result = new CompletableFuture<PCFMessage[]>();
+		// the result fails only once every send that was issued has failed
+		final AtomicInteger outstanding = new AtomicInteger(1);
+		primary.whenComplete((r, t) -> {
+			if(t==null) result.complete(r);
+			else if(outstanding.decrementAndGet()==0) result.completeExceptionally(t);
+		});
+		scheduler.schedule(() -> {
+			// never hedge past queued requests or into an open breaker, that would only add load
+			if(result.isDone() || limiter.getWaiting() > 0 || (breaker!=null && !breaker.isClosed())) return;
+			outstanding.incrementAndGet();
+			hedge.hedges.mark();
+			// the hedge takes an in-flight slot and the same transport as the primary
+			limiter.submit(send).whenComplete((r, t) -> {
+				if(t==null) {
+					if(result.complete(r)) hedge.wins.mark();
+				} else if(outstanding.decrementAndGet()==0) {
+					result.completeExceptionally(t);
+				}
+			});
+		}, delay, TimeUnit.MILLISECONDS);
+		return result;
+	}
+	
+	/**
+	 * Borrows a pooled agent on the async executor, sends the request and returns the agent when the send completes
+	 * @param poolKey The pool key
+	 * @param request The pcf request
+	 * @return a future for the array of PCF response messages
+	 */
+	private CompletableFuture<PCFMessage[]> sendPooledAsync(final String poolKey, final PCFMessage request) {
+		return CompletableFuture.supplyAsync(() -> getConnection(poolKey), asyncExecutor)
+			.thenCompose(conn -> conn.sendAsync(request, Runnable::run)
+				.whenComplete((r, t) -> {
+					try { conn.close(); } catch (Exception x) {/* No Op */}
+				})
+			);
+	}
+	
+	/**
+	 * Indicates if requests for the passed command against the passed key are hedged
+	 * @param poolKey The pool key
+	 * @param command The pcf command code
+	 * @return true if hedged, false otherwise
+	 */
+	public boolean isHedged(final String poolKey, final int command) {
+		final HedgePolicy hedge = hedgePolicies.get(poolKey);
+		return hedge!=null && hedge.isHedgeable(command);
+	}
+	
+	/**
+	 * Returns the coalescer which collapses identical concurrent pcf requests
+	 * @return the request coalescer
+	 */
+	public RequestCoalescer getCoalescer() {
+		return coalescer;
+	}
+	
+	/**
+	 * Returns the async in-flight limiter for the passed key
+	 * @param poolKey The pool key
+	 * @return the limiter
+	 */
+	public InFlightLimiter getInFlightLimiter(final String poolKey) {
+		InFlightLimiter limiter = inFlightLimiters.get(poolKey);
+		if(limiter==null) {
+			final SubPool subPool = subPools.get(poolKey);
+			final int maxInFlight = subPool==null ? SubPool.DEFAULT_MAX_IN_FLIGHT : subPool.maxInFlight;
+			// a request which has neither been answered nor expired by the time its reply would have expired is lost
+			final long slotTimeout = subPool==null || subPool.pcfWait + subPool.pcfExpiry < 1 
+				? SubPool.DEFAULT_SLOT_TIMEOUT 
+				: TimeUnit.SECONDS.toMillis(subPool.pcfWait + subPool.pcfExpiry);
+			limiter = inFlightLimiters.computeIfAbsent(poolKey, 
+				k -> new InFlightLimiter(maxInFlight, maxInFlight * SubPool.WAITING_PER_IN_FLIGHT, slotTimeout, asyncExecutor, scheduler)
+			);
+		}
+		return limiter;
+	}
+	
+	/**
+	 * Returns the executor used for blocking borrows and sends issued through the async api
+	 * @return the async executor
+	 */
+	public ExecutorService getAsyncExecutor() {
+		return asyncExecutor;
+	}
+	
+	/**
+	 * Returns the multiplexed pcf agent for the passed key, reconnecting it if the prior agent was closed.
+	 * @param poolKey The pool key
+	 * @return the multiplexed agent or null if the key's sub pool is not multiplexed
+	 * @throws CircuitOpenException if the key's queue manager is marked as unreachable
+	 */
+	public MultiplexedPCFAgent getMultiplexedAgent(final String poolKey) {
+		if(poolKey==null || poolKey.trim().isEmpty()) throw new IllegalArgumentException("The key was null or empty");
+		final String pk = poolKey.trim();
+		final SubPool subPool = subPools.get(pk);
+		if(subPool==null || !subPool.multiplexed) return null;
+		final CircuitBreaker breaker = breakers.get(pk);
+		if(breaker!=null) breaker.checkClosed();
+		MultiplexedPCFAgent agent = multiplexedAgents.get(pk);
+		if(agent==null || !agent.isOpen()) {
+			synchronized(multiplexedAgents) {
+				agent = multiplexedAgents.get(pk);
+				if(agent==null || !agent.isOpen()) {
+					if(agent!=null) subPool.connections.markFailed(agent.connectedHost, agent.connectedPort);
+					try {
+						agent = new MultiplexedPCFAgent(subPool.connections, subPool.pcfWait, subPool.pcfExpiry);
+					} catch (Exception ex) {
+						if(breaker!=null) breaker.onFailure(ex);
+						log.error("Failed to connect multiplexed agent for key [{}]", pk, ex);
+						throw new RuntimeException("Failed to connect multiplexed agent for key [" + pk + "]", ex);
+					}
+					multiplexedAgents.put(pk, agent);
+				}
+			}
+		}
+		return agent;
+	}
 	
 	/**
 	 * Installs a new sub pool
@@ -162,27 +601,226 @@ public class PoolManager {
 	 * @return true if the pool was installed, false otherwise
 	 */
 	public boolean installSubPool(final SubPool subPool) {
-		if(subPool==null) throw new IllegalArgumentException("The passed sub pool was null");
-		final String pk = subPool.key.toString();
-		if(poolKeys.add(pk)) {
-			log.info("Installing sub pool [{}]...", subPool.poolName);
+		if(registerSubPool(subPool)) {
 			try {
-				pool.preparePool(subPool.key);
-				poolNameKeys.put(subPool.poolName, pk);
-				poolKeyNames.put(pk, subPool.poolName);
+				pools.get(subPool.key.key).preparePool();
 				log.info("SubPool [{}] installed", subPool.poolName);
-				CacheService.getInstance().getCachesForMQInstance(subPool.key.toString());
 				return true;
 			} catch (Exception ex) {
-				poolKeys.remove(subPool.key);
+				unregisterSubPool(subPool);
 				log.error("Failed to install pool [{}]", subPool.poolName, ex);				
 			}
-		} else {
-			log.debug("SubPool with key [{}] and name [{}] is already installed", subPool.key, subPool.poolName);
 		}
 		return false;
 	}
 	
+	/**
+	 * Registers a sub pool's key and name without connecting to it
+	 * @param subPool The sub pool to register
+	 * @return true if the pool was registered, false if it was already installed
+	 */
+	protected boolean registerSubPool(final SubPool subPool) {
+		if(subPool==null) throw new IllegalArgumentException("The passed sub pool was null");
+		final String pk = subPool.key.toString();
+		if(poolKeys.add(pk)) {
+			log.info("Installing sub pool [{}]...", subPool.poolName);
+			poolNameKeys.put(subPool.poolName, pk);
+			poolKeyNames.put(pk, subPool.poolName);
+			subPools.put(pk, subPool);
+			final AgentPool pool = createPool(subPool);
+			pools.put(pk, pool);
+			final AdaptivePoolSizer.Settings adaptive = new AdaptivePoolSizer.Settings(adaptiveConfig(subPool));
+			if(adaptive.enabled) {
+				final int initial = Math.min(adaptive.maxTotal, Math.max(adaptive.minTotal, pool.getMaxTotal()));
+				pool.setMaxTotal(initial);
+				pool.setMaxIdle(initial);
+				adaptiveSizer.register(pk, adaptive);
+			}
+			breakers.put(pk, new CircuitBreaker(subPool.connections, breakerSettings, scheduler, asyncExecutor, () -> pool.clear()));
+			registerPoolMetrics(subPool, pool);
+			hedgePolicies.put(pk, new HedgePolicy(subPool.poolName, new HedgePolicy.Settings(hedgeConfig(subPool))));
+			final AdminEventConsumer.Settings events = new AdminEventConsumer.Settings(eventsConfig(subPool));
+			if(events.enabled) {
+				eventConsumers.put(pk, new AdminEventConsumer(subPool.connections, events));
+			}
+			CacheService.getInstance().getCachesForMQInstance(pk);
+			return true;
+		}
+		log.debug("SubPool with key [{}] and name [{}] is already installed", subPool.key, subPool.poolName);
+		return false;
+	}
+	
+	private void unregisterSubPool(final SubPool subPool) {
+		final String pk = subPool.key.toString();
+		poolKeys.remove(pk);
+		subPools.remove(pk);
+		poolNameKeys.remove(subPool.poolName, pk);
+		poolKeyNames.remove(pk);
+		breakers.remove(pk);
+		adaptiveSizer.unregister(pk);
+		hedgePolicies.remove(pk);
+		final AdminEventConsumer consumer = eventConsumers.remove(pk);
+		if(consumer!=null) consumer.close();
+		borrowTimers.remove(pk);
+		returnTimers.remove(pk);
+		MetricsService.getInstance().removePoolMetrics(subPool.poolName);
+		final AgentPool pool = pools.remove(pk);
+		if(pool!=null) try { pool.close(); } catch (Exception x) {/* No Op */}
+	}
+	
+	/**
+	 * Creates the agent pool for a sub pool using the sub pool's pool type, or the default
+	 * @param subPool The sub pool
+	 * @return the agent pool
+	 */
+	protected AgentPool createPool(final SubPool subPool) {
+		final PCFAgentPooledObjectFactory factory = new PCFAgentPooledObjectFactory(subPool.connections);
+		final String poolType = subPool.poolType==null ? defaultPoolType : subPool.poolType;
+		if(SubPool.POOL_TYPE_STRIPED.equals(poolType)) {
+			return new StripedAgentPool(factory, poolConfig(subPool), stripedPoolConfig);
+		} else if(SubPool.POOL_TYPE_COMMONS.equals(poolType)) {
+			return new CommonsAgentPool(factory, poolConfig(subPool));
+		}
+		throw new IllegalArgumentException("Unknown pool type [" + poolType + "] for sub pool [" + subPool.poolName + "]");
+	}
+	
+	/**
+	 * Registers the borrow and return timers and the pool state gauges for a sub pool
+	 * @param subPool The sub pool
+	 * @param pool The sub pool's pool
+	 */
+	private void registerPoolMetrics(final SubPool subPool, final AgentPool pool) {
+		final String pk = subPool.key.toString();
+		final MetricsService metrics = MetricsService.getInstance();
+		final MetricRegistry registry = metrics.getRegistry();
+		final String prefix = MetricRegistry.name("pool", subPool.poolName);
+		// drop anything left over from a prior registration of the same name
+		metrics.removeMetrics(prefix + ".");
+		borrowTimers.put(pk, registry.timer(MetricRegistry.name(prefix, "borrow")));
+		returnTimers.put(pk, registry.timer(MetricRegistry.name(prefix, "return")));
+		registry.register(MetricRegistry.name(prefix, "active"), (Gauge<Integer>)pool::getNumActive);
+		registry.register(MetricRegistry.name(prefix, "idle"), (Gauge<Integer>)pool::getNumIdle);
+		registry.register(MetricRegistry.name(prefix, "waiters"), (Gauge<Integer>)pool::getNumWaiters);
+		registry.register(MetricRegistry.name(prefix, "maxTotal"), (Gauge<Integer>)pool::getMaxTotal);
+		registry.register(MetricRegistry.name(prefix, "inFlight"), (Gauge<Integer>)() -> getInFlightLimiter(pk).getInFlight());
+		registry.register(MetricRegistry.name(prefix, "inFlightWaiting"), (Gauge<Integer>)() -> getInFlightLimiter(pk).getWaiting());
+		registry.register(MetricRegistry.name(prefix, "inFlightRejected"), (Gauge<Long>)() -> getInFlightLimiter(pk).getRejected());
+		registry.register(MetricRegistry.name(prefix, "inFlightTimedOut"), (Gauge<Long>)() -> getInFlightLimiter(pk).getTimedOut());
+		registry.register(MetricRegistry.name(prefix, "breaker"), (Gauge<String>)() -> {
+			final CircuitBreaker breaker = breakers.get(pk);
+			return breaker==null ? null : breaker.getState().name();
+		});
+	}
+	
+	/**
+	 * Connects the passed sub pools in parallel without blocking the caller, allowing at most the passed deadline for each.
+	 * Sub pools which fail or miss the deadline stay registered so callers can connect lazily once the
+	 * queue manager is reachable, and a late completion updates the recorded timing.
+	 * @param subPools The sub pools to warm up
+	 * @param timeoutMillis The per sub pool deadline in ms.
+	 * @return a future for the warm-up time in ms. keyed by pool name, -1 for pools which failed or timed out
+	 */
+	public CompletableFuture<Map<String, Long>> warmUp(final Collection<SubPool> subPools, final long timeoutMillis) {
+		final long startTime = System.currentTimeMillis();
+		final Map<SubPool, CompletableFuture<Long>> tasks = new LinkedHashMap<SubPool, CompletableFuture<Long>>(subPools.size());
+		for(final SubPool subPool: subPools) {
+			warmupTimings.put(subPool.poolName, -1L);
+			final CompletableFuture<Long> task = CompletableFuture.supplyAsync(() -> warmSubPool(subPool), asyncExecutor);
+			task.thenAccept(elapsed -> warmupTimings.put(subPool.poolName, elapsed));
+			tasks.put(subPool, withTimeout(task, timeoutMillis));
+		}
+		return CompletableFuture.allOf(tasks.values().toArray(new CompletableFuture<?>[tasks.size()])).handle((v, t) -> {
+			final Map<String, Long> timings = new LinkedHashMap<String, Long>(tasks.size());
+			int ok = 0;
+			final StringBuilder b = new StringBuilder("===Sub pool warm-up:");
+			for(final Map.Entry<SubPool, CompletableFuture<Long>> entry: tasks.entrySet()) {
+				final String poolName = entry.getKey().poolName;
+				long elapsed = -1L;
+				b.append("\n\t").append(poolName).append(" [").append(entry.getKey().key).append("]: ");
+				try {
+					elapsed = entry.getValue().join();
+					b.append(elapsed).append(" ms");
+					ok++;
+				} catch (CompletionException cex) {
+					Throwable cause = cex;
+					while(cause instanceof CompletionException && cause.getCause()!=null) cause = cause.getCause();
+					if(cause instanceof TimeoutException) b.append("TIMED OUT after ").append(timeoutMillis).append(" ms");
+					else b.append("FAILED: ").append(cause);
+				}
+				timings.put(poolName, elapsed);
+			}
+			b.append("\n===");
+			log.info(b.toString());
+			log.info("Warmed up {} of {} sub pools in {} ms", ok, tasks.size(), System.currentTimeMillis() - startTime);
+			return timings;
+		});
+	}
+	
+	/**
+	 * Returns a future which completes like the passed task, or fails with a {@link TimeoutException} if the task does not complete in time.
+	 * The task itself is not cancelled.
+	 * @param task The task
+	 * @param timeoutMillis The deadline in ms.
+	 * @return the future
+	 */
+	private <T> CompletableFuture<T> withTimeout(final CompletableFuture<T> task, final long timeoutMillis) {
+		final CompletableFuture<T> timed = new CompletableFuture<T>();
+		final ScheduledFuture<?> timeout = scheduler.schedule(() -> timed.completeExceptionally(new TimeoutException()), timeoutMillis, TimeUnit.MILLISECONDS);
+		task.whenComplete((value, t) -> {
+			timeout.cancel(false);
+			if(t!=null) timed.completeExceptionally(t);
+			else timed.complete(value);
+		});
+		return timed;
+	}
+	
+	/**
+	 * Prepares the sub pool and connects one agent to verify the queue manager is reachable
+	 * @param subPool The sub pool to warm
+	 * @return the elapsed time in ms.
+	 */
+	protected long warmSubPool(final SubPool subPool) {
+		final long startTime = System.currentTimeMillis();
+		final AgentPool pool = pools.get(subPool.key.key);
+		try {
+			pool.preparePool();
+		} catch (Exception ex) {
+			throw new RuntimeException("Failed to prepare pool [" + subPool.poolName + "]", ex);
+		}
+		if(subPool.multiplexed) {
+			getMultiplexedAgent(subPool.key.toString());
+		} else {
+			returnConnection(getConnection(subPool.key.toString()));
+		}
+		return System.currentTimeMillis() - startTime;
+	}
+	
+	/**
+	 * Returns the circuit breaker for the passed key
+	 * @param poolKey The pool key
+	 * @return the circuit breaker or null if the key is not installed
+	 */
+	public CircuitBreaker getCircuitBreaker(final String poolKey) {
+		if(poolKey==null || poolKey.trim().isEmpty()) throw new IllegalArgumentException("The pool key was null or empty");
+		return breakers.get(poolKey.trim());
+	}
+	
+	/**
+	 * Returns the warm-up of the configured sub pools, started when the pool manager is created
+	 * @return a future for the warm-up time in ms. keyed by pool name, -1 for pools which failed or timed out
+	 */
+	public CompletableFuture<Map<String, Long>> getWarmup() {
+		return warmup;
+	}
+	
+	/**
+	 * Returns the last warm-up time in ms. keyed by pool name
+	 * @return the warm-up timings, -1 for pools which failed or have not completed
+	 */
+	public Map<String, Long> getWarmupTimings() {
+		return Collections.unmodifiableMap(new LinkedHashMap<String, Long>(warmupTimings));
+	}
+	
 	/**
 	 * Returns the key for the passed pool name
 	 * @param poolName The pool name
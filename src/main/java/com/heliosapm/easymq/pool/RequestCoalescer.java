@@ -0,0 +1,175 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.pool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import javax.xml.bind.DatatypeConverter;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.heliosapm.easymq.metrics.MetricsService;
+import com.ibm.mq.pcf.MQCFIF;
+import com.ibm.mq.pcf.MQCFSF;
+import com.ibm.mq.pcf.PCFMessage;
+import com.ibm.mq.pcf.PCFParameter;
+
+/**
+ * <p>Title: RequestCoalescer</p>
+ * <p>Description: Collapses identical concurrent pcf requests into one round trip.
+ * The first caller for a given pool key, command and parameter set sends the request; callers arriving while it
+ * is in flight wait for and share its response. Nothing is cached once the request completes.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.pool.RequestCoalescer</code></p>
+ */
+
+public class RequestCoalescer {
+	/** Indicates if coalescing is enabled */
+	private final boolean enabled;
+	/** The in-flight requests keyed by request key */
+	private final Map<RequestKey, CompletableFuture<PCFMessage[]>> inFlight = new ConcurrentHashMap<RequestKey, CompletableFuture<PCFMessage[]>>(32, 0.75f, Runtime.getRuntime().availableProcessors());
+	/** The rate of requests which joined an in-flight request instead of being sent */
+	private final Meter coalesced;
+
+	/**
+	 * Creates a new RequestCoalescer
+	 * @param enabled true to coalesce, false to send every request
+	 */
+	RequestCoalescer(final boolean enabled) {
+		this.enabled = enabled;
+		coalesced = MetricsService.getInstance().getRegistry().meter(MetricRegistry.name("pcf", "coalesced"));
+	}
+
+	/**
+	 * Sends the passed request, or joins an identical request already in flight for the same key
+	 * @param key The pool key the request is sent to
+	 * @param request The pcf request
+	 * @param sender Sends the request and returns the response
+	 * @return the pcf response messages
+	 */
+	public PCFMessage[] execute(final PoolKey key, final PCFMessage request, final Supplier<PCFMessage[]> sender) {
+		if(!enabled) return sender.get();
+		final RequestKey rk = new RequestKey(key, request);
+		final CompletableFuture<PCFMessage[]> mine = new CompletableFuture<PCFMessage[]>();
+		final CompletableFuture<PCFMessage[]> existing = inFlight.putIfAbsent(rk, mine);
+		if(existing!=null) {
+			coalesced.mark();
+			try {
+				final PCFMessage[] response = existing.join();
+				return response==null ? null : response.clone();
+			} catch (CompletionException cex) {
+				final Throwable cause = cex.getCause();
+				if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+				throw new RuntimeException("PCF Exception", cause);
+			}
+		}
+		try {
+			final PCFMessage[] response = sender.get();
+			mine.complete(response);
+			return response;
+		} catch (RuntimeException ex) {
+			mine.completeExceptionally(ex);
+			throw ex;
+		} catch (Error er) {
+			mine.completeExceptionally(er);
+			throw er;
+		} finally {
+			inFlight.remove(rk, mine);
+		}
+	}
+
+	/**
+	 * Returns the number of distinct requests currently in flight
+	 * @return the number of in-flight requests
+	 */
+	public int getInFlightCount() {
+		return inFlight.size();
+	}
+
+	/**
+	 * Builds the canonical signature of a pcf request: the command followed by its parameters ordered by
+	 * parameter id, so the same parameter set added in a different order produces the same signature.
+	 * @param request The pcf request
+	 * @return the signature
+	 */
+	static String signature(final PCFMessage request) {
+		final List<String> params = new ArrayList<String>(request.getParameterCount());
+		final Enumeration<?> en = request.getParameters();
+		while(en!=null && en.hasMoreElements()) {
+			final PCFParameter p = (PCFParameter)en.nextElement();
+			final StringBuilder b = new StringBuilder();
+			b.append(String.format("%08d", p.getParameter())).append(':').append(p.getType());
+			if(p instanceof MQCFSF) {
+				b.append('~').append(((MQCFSF)p).getOperator()).append('=').append(((MQCFSF)p).getFilterValue());
+			} else if(p instanceof MQCFIF) {
+				b.append('~').append(((MQCFIF)p).getOperator()).append('=').append(((MQCFIF)p).getFilterValue());
+			} else {
+				b.append('=').append(valueString(p.getValue()));
+			}
+			params.add(b.toString());
+		}
+		Collections.sort(params);
+		final StringBuilder b = new StringBuilder().append(request.getCommand());
+		for(String s: params) {
+			b.append('|').append(s);
+		}
+		return b.toString();
+	}
+
+	private static String valueString(final Object value) {
+		if(value instanceof int[]) return Arrays.toString((int[])value);
+		if(value instanceof String[]) return Arrays.toString((String[])value);
+		if(value instanceof byte[]) return DatatypeConverter.printHexBinary((byte[])value);
+		return String.valueOf(value);
+	}
+
+	/**
+	 * <p>Title: RequestKey</p>
+	 * <p>Description: Identifies a pcf request by pool key and request signature</p>
+	 */
+	private static class RequestKey {
+		final PoolKey key;
+		final String signature;
+		final int hashCode;
+
+		RequestKey(final PoolKey key, final PCFMessage request) {
+			this.key = key;
+			this.signature = signature(request);
+			hashCode = 31 * key.hashCode() + signature.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if(this==obj) return true;
+			if(!(obj instanceof RequestKey)) return false;
+			final RequestKey other = (RequestKey)obj;
+			return hashCode==other.hashCode && signature.equals(other.signature) && key.equals(other.key);
+		}
+	}
+
+}
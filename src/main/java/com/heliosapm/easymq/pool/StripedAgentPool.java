@@ -0,0 +1,329 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.pool;
+
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * <p>Title: StripedAgentPool</p>
+ * <p>Description: A lock-free pcf agent pool. Idle agents sit in a fixed array of slots which are claimed and released
+ * with CAS, each thread starting its scan at a slot derived from its id so a thread tends to get back the agent it last used
+ * and threads on different cores rarely touch the same slot. A returning agent always goes back to a slot, where any
+ * running borrower can take it, and then wakes one parked borrower if there are any.</p>
+ * <p>The hot path touches nothing but the slots: there is no shared idle counter, so <b><code>maxIdle</code></b> is not
+ * enforced separately from <b><code>maxTotal</code></b>. The slot array is sized from the initial max size and
+ * the max size can not be raised past it.</p>
+ * <p>Borrow validation is lease-age based: an agent is only validated when it has been idle for longer than
+ * <b><code>validateAfterIdleMillis</code></b>, since a recently used connection is known to be good.
+ * Agents idle for longer than <b><code>minEvictableIdleTimeMillis</code></b> are discarded on borrow instead of by an evictor.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.pool.StripedAgentPool</code></p>
+ */
+
+public class StripedAgentPool implements AgentPool {
+	/** The agent factory */
+	private final PCFAgentPooledObjectFactory factory;
+	/** The idle agent slots */
+	private final AtomicReferenceArray<PCFMessageAgentWrapper> slots;
+	/** The slot index mask */
+	private final int mask;
+	/** The number of live agents, idle or borrowed */
+	private final AtomicInteger total = new AtomicInteger(0);
+	/** The number of callers waiting for an agent */
+	private final AtomicInteger waiters = new AtomicInteger(0);
+	/** The parked borrowers */
+	private final Queue<Thread> parked = new ConcurrentLinkedQueue<Thread>();
+	/** The maximum number of agents */
+	private volatile int maxTotal;
+	/** The number of idle agents created by {@link #preparePool()} */
+	private final int minIdle;
+	/** The maximum time in ms. to wait for an agent, negative for no limit */
+	private final long maxWaitMillis;
+	/** Indicates if borrowers wait when the pool is exhausted */
+	private final boolean blockWhenExhausted;
+	/** Indicates if agents are validated on borrow */
+	private final boolean testOnBorrow;
+	/** The idle time in ns. after which an agent is validated on borrow */
+	private final long validateAfterIdleNanos;
+	/** The idle time in ns. after which an agent is discarded on borrow, zero or less to keep them */
+	private final long evictAfterIdleNanos;
+	/** Indicates if the pool is closed */
+	private volatile boolean closed = false;
+
+	/** The minimum number of slots */
+	public static final int MIN_SLOTS = 64;
+	/** The maximum number of slots */
+	public static final int MAX_SLOTS = 1 << 16;
+	/** The default idle time in ms. after which an agent is validated on borrow */
+	public static final long DEFAULT_VALIDATE_AFTER_IDLE = 5000L;
+	/** The longest a waiting borrower parks before rescanning the slots */
+	private static final long RESCAN_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	/**
+	 * Creates a new StripedAgentPool
+	 * @param factory The agent factory
+	 * @param config The pool configuration. Only the sizing, wait, testOnBorrow and idle time settings apply.
+	 * @param settings The striped pool settings
+	 */
+	public StripedAgentPool(final PCFAgentPooledObjectFactory factory, final GenericObjectPoolConfig config, final JsonNode settings) {
+		if(factory==null) throw new IllegalArgumentException("The passed factory was null");
+		this.factory = factory;
+		final int configuredMax = config.getMaxTotal() < 0 ? MAX_SLOTS : Math.min(MAX_SLOTS, config.getMaxTotal());
+		minIdle = config.getMinIdle();
+		maxWaitMillis = config.getMaxWaitMillis();
+		blockWhenExhausted = config.getBlockWhenExhausted();
+		testOnBorrow = config.getTestOnBorrow();
+		evictAfterIdleNanos = TimeUnit.MILLISECONDS.toNanos(config.getMinEvictableIdleTimeMillis());
+		validateAfterIdleNanos = TimeUnit.MILLISECONDS.toNanos(settings.path("validateAfterIdleMillis").asLong(DEFAULT_VALIDATE_AFTER_IDLE));
+		// twice the max size so a returning agent finds a free slot within a probe or two
+		final int size = Math.min(MAX_SLOTS, Math.max(MIN_SLOTS, Integer.highestOneBit(Math.max(1, configuredMax) * 2 - 1) << 1));
+		slots = new AtomicReferenceArray<PCFMessageAgentWrapper>(size);
+		mask = size - 1;
+		maxTotal = Math.min(configuredMax, size);
+	}
+
+	@Override
+	public PCFMessageAgentWrapper borrowObject() throws Exception {
+		final long deadline = maxWaitMillis < 0 ? Long.MAX_VALUE : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		while(true) {
+			if(closed) throw new IllegalStateException("Pool closed");
+			PCFMessageAgentWrapper agent = takeIdle();
+			if(agent==null) agent = tryCreate();
+			if(agent==null) {
+				if(!blockWhenExhausted) throw new NoSuchElementException("Pool exhausted");
+				agent = awaitIdle(deadline);
+				if(agent==null) {
+					if(System.nanoTime() - deadline >= 0) throw new NoSuchElementException("Timeout waiting for idle object");
+					continue;
+				}
+			}
+			if(activate(agent)) return agent;
+		}
+	}
+
+	@Override
+	public void returnObject(final PCFMessageAgentWrapper agent) {
+		agent.lastReturned = System.nanoTime();
+		if(closed || total.get() > maxTotal) {
+			destroy(agent);
+			return;
+		}
+		if(!offerIdle(agent)) {
+			destroy(agent);
+			return;
+		}
+		if(waiters.get() > 0) {
+			final Thread t = parked.poll();
+			if(t!=null) LockSupport.unpark(t);
+		}
+	}
+
+	@Override
+	public void invalidateObject(final PCFMessageAgentWrapper agent) throws Exception {
+		destroy(agent);
+	}
+
+	@Override
+	public void preparePool() throws Exception {
+		while(getNumIdle() < minIdle) {
+			final PCFMessageAgentWrapper agent = tryCreate();
+			if(agent==null) return;
+			if(!offerIdle(agent)) {
+				destroy(agent);
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void clear() {
+		for(int i = 0; i <= mask; i++) {
+			if(slots.get(i)==null) continue;
+			final PCFMessageAgentWrapper agent = slots.getAndSet(i, null);
+			if(agent!=null) destroy(agent);
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		clear();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public int getNumActive() {
+		return Math.max(0, total.get() - getNumIdle());
+	}
+
+	/**
+	 * Counts the occupied slots, which is not atomic with respect to concurrent borrows and returns
+	 * {@inheritDoc}
+	 * @see com.heliosapm.easymq.pool.AgentPool#getNumIdle()
+	 */
+	@Override
+	public int getNumIdle() {
+		int count = 0;
+		for(int i = 0; i <= mask; i++) {
+			if(slots.get(i)!=null) count++;
+		}
+		return count;
+	}
+
+	@Override
+	public int getNumWaiters() {
+		return waiters.get();
+	}
+
+	@Override
+	public int getMaxTotal() {
+		return maxTotal;
+	}
+
+	@Override
+	public void setMaxTotal(final int maxTotal) {
+		this.maxTotal = maxTotal < 0 ? slots.length() : Math.min(maxTotal, slots.length());
+	}
+
+	/**
+	 * No op, idle agents are bounded by the max size
+	 * {@inheritDoc}
+	 * @see com.heliosapm.easymq.pool.AgentPool#setMaxIdle(int)
+	 */
+	@Override
+	public void setMaxIdle(final int maxIdle) {
+		/* No Op */
+	}
+
+	/**
+	 * Returns the slot the calling thread starts its scans at
+	 * @return the home slot index
+	 */
+	private int homeSlot() {
+		final long h = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * Claims an idle agent
+	 * @return the agent or null if none are idle
+	 */
+	private PCFMessageAgentWrapper takeIdle() {
+		final int home = homeSlot();
+		for(int i = 0; i <= mask; i++) {
+			final int idx = (home + i) & mask;
+			final PCFMessageAgentWrapper agent = slots.get(idx);
+			if(agent!=null && slots.compareAndSet(idx, agent, null)) return agent;
+		}
+		return null;
+	}
+
+	/**
+	 * Parks an agent in a free slot
+	 * @param agent The agent
+	 * @return true if parked, false if every slot is taken
+	 */
+	private boolean offerIdle(final PCFMessageAgentWrapper agent) {
+		final int home = homeSlot();
+		for(int i = 0; i <= mask; i++) {
+			final int idx = (home + i) & mask;
+			if(slots.get(idx)==null && slots.compareAndSet(idx, null, agent)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Creates an agent if the pool is under its max size
+	 * @return the agent or null if the pool is at its max size
+	 * @throws Exception thrown if the agent cannot be created
+	 */
+	private PCFMessageAgentWrapper tryCreate() throws Exception {
+		while(true) {
+			final int current = total.get();
+			if(current >= maxTotal) return null;
+			if(total.compareAndSet(current, current + 1)) break;
+		}
+		try {
+			final PCFMessageAgentWrapper agent = factory.create();
+			agent.lastReturned = System.nanoTime();
+			return agent;
+		} catch (Exception ex) {
+			total.decrementAndGet();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Parks until an agent is returned, up to the rescan interval or the deadline
+	 * @param deadline The borrow deadline in ns.
+	 * @return an idle agent or null if none was claimed
+	 * @throws InterruptedException thrown if the caller is interrupted while waiting
+	 */
+	private PCFMessageAgentWrapper awaitIdle(final long deadline) throws InterruptedException {
+		final long remaining = deadline - System.nanoTime();
+		if(remaining <= 0) return null;
+		final Thread me = Thread.currentThread();
+		waiters.incrementAndGet();
+		parked.add(me);
+		try {
+			// rescan after registering so a return between the last scan and now can not be missed
+			final PCFMessageAgentWrapper agent = takeIdle();
+			if(agent!=null) return agent;
+			LockSupport.parkNanos(this, Math.min(remaining, RESCAN_NANOS));
+			if(Thread.interrupted()) throw new InterruptedException();
+			return takeIdle();
+		} finally {
+			parked.remove(me);
+			waiters.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Checks a borrowed agent's idle time, validating it if it has not been used recently
+	 * @param agent The agent
+	 * @return true if the agent can be used, false if it was destroyed
+	 */
+	private boolean activate(final PCFMessageAgentWrapper agent) {
+		final long idleFor = System.nanoTime() - agent.lastReturned;
+		if(agent.isBroken() || (evictAfterIdleNanos > 0 && idleFor > evictAfterIdleNanos)) {
+			destroy(agent);
+			return false;
+		}
+		if(testOnBorrow && idleFor > validateAfterIdleNanos && !factory.validateObject(factory.wrap(agent))) {
+			destroy(agent);
+			return false;
+		}
+		return true;
+	}
+
+	private void destroy(final PCFMessageAgentWrapper agent) {
+		total.decrementAndGet();
+		try { agent.disconnect(); } catch (Exception x) {/* No Op */}
+	}
+
+}
@@ -12,10 +12,12 @@
 // see <http://www.gnu.org/licenses/>.
 package com.heliosapm.easymq.pool;
 
+import java.util.List;
 import java.util.regex.Matcher;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
 
 /**
  * <p>Title: SubPool</p>
@@ -38,8 +40,35 @@ public class SubPool {
 	final int pcfWait;
 	/** The pcf response message expiration time in seconds */
 	final int pcfExpiry;
+	/** Indicates if pcf requests should be multiplexed over one connection instead of borrowing pooled agents */
+	final boolean multiplexed;
+	/** The maximum number of async pcf requests in flight against this sub pool */
+	final int maxInFlight;
+	/** The optional pool config overrides for this sub pool, using the same fields as the global <b><code>poolconfig</code></b> */
+	final JsonNode poolConfig;
+	/** The optional adaptive sizing overrides for this sub pool, using the same fields as the global <b><code>adaptive</code></b> */
+	final JsonNode adaptive;
+	/** The optional pool implementation, overriding the global <b><code>poolType</code></b> */
+	final String poolType;
+	/** The optional hedge overrides for this sub pool, using the same fields as the global <b><code>hedge</code></b> */
+	final JsonNode hedge;
+	/** The optional admin event consumer overrides for this sub pool, using the same fields as the global <b><code>events</code></b> */
+	final JsonNode events;
 	/** The pool key for this sub pool */
 	final PoolKey key;
+	/** The ordered instance addresses, starting with the key's host and port */
+	final ConnectionNameList connections;
+	
+	/** The commons-pool2 pool type */
+	public static final String POOL_TYPE_COMMONS = "commons";
+	/** The lock-free striped pool type */
+	public static final String POOL_TYPE_STRIPED = "striped";
+	/** The default maximum number of async pcf requests in flight per sub pool */
+	public static final int DEFAULT_MAX_IN_FLIGHT = 32;
+	/** The number of async pcf requests which may wait for an in-flight slot, per slot */
+	public static final int WAITING_PER_IN_FLIGHT = 8;
+	/** The default maximum time in ms an async pcf request may hold an in-flight slot */
+	public static final long DEFAULT_SLOT_TIMEOUT = 30000L;
 	
 	
 	/**
@@ -50,11 +79,23 @@ public class SubPool {
 	 * @param port The MQ endpoint listening port
 	 * @param pcfWait The pcf response message wait time in seconds
 	 * @param pcfExpiry The pcf response message expiration time in seconds
+	 * @param multiplexed true to multiplex pcf requests over one connection
+	 * @param maxInFlight The maximum number of async pcf requests in flight, or zero for the default
+	 * @param poolConfig The optional pool config overrides for this sub pool
+	 * @param adaptive The optional adaptive sizing overrides for this sub pool
+	 * @param connectionNames The optional standby instance addresses of a multi-instance queue manager, in failover order
+	 * @param hedge The optional hedge overrides for this sub pool
+	 * @param poolType The optional pool implementation, <b><code>commons</code></b> or <b><code>striped</code></b>
+	 * @param events The optional admin event consumer overrides for this sub pool
 	 */
 	@JsonCreator
 	public SubPool(@JsonProperty("poolName") final String poolName, @JsonProperty("host") final String host, 
 			@JsonProperty("channel") final String channel, @JsonProperty("port") final int port, 
-			@JsonProperty("pcfWait") final int pcfWait, @JsonProperty("pcfExpiry") final int pcfExpiry) {
+			@JsonProperty("pcfWait") final int pcfWait, @JsonProperty("pcfExpiry") final int pcfExpiry,
+			@JsonProperty("multiplexed") final boolean multiplexed, @JsonProperty("maxInFlight") final int maxInFlight,
+			@JsonProperty("poolconfig") final JsonNode poolConfig, @JsonProperty("adaptive") final JsonNode adaptive,
+			@JsonProperty("connectionNames") final List<String> connectionNames, @JsonProperty("hedge") final JsonNode hedge,
+			@JsonProperty("poolType") final String poolType, @JsonProperty("events") final JsonNode events) {
 		if(poolName==null || poolName.trim().isEmpty()) throw new IllegalArgumentException("The pool name was null or empty");
 		if(host==null || host.trim().isEmpty()) throw new IllegalArgumentException("The host was null or empty");
 		if(channel==null || channel.trim().isEmpty()) throw new IllegalArgumentException("The channel was null or empty");
@@ -64,7 +105,28 @@ public class SubPool {
 		this.port = port;
 		this.pcfWait = pcfWait;
 		this.pcfExpiry = pcfExpiry;
+		this.multiplexed = multiplexed;
+		this.maxInFlight = maxInFlight > 0 ? maxInFlight : DEFAULT_MAX_IN_FLIGHT;
+		this.poolConfig = poolConfig==null || !poolConfig.isObject() ? null : poolConfig;
+		this.adaptive = adaptive==null || !adaptive.isObject() ? null : adaptive;
+		this.hedge = hedge==null || !hedge.isObject() ? null : hedge;
+		this.events = events==null || !events.isObject() ? null : events;
+		this.poolType = poolType==null || poolType.trim().isEmpty() ? null : poolType.trim().toLowerCase();
 		key = PoolKey.poolKey(host, channel, port);
+		connections = new ConnectionNameList(key, connectionNames);
+	}
+	
+	/**
+	 * Creates a new non-multiplexed SubPool
+	 * @param poolName The assigned pool name
+	 * @param host The MQ endpoint host
+	 * @param channel The MQ endpoint channel name
+	 * @param port The MQ endpoint listening port
+	 * @param pcfWait The pcf response message wait time in seconds
+	 * @param pcfExpiry The pcf response message expiration time in seconds
+	 */
+	public SubPool(final String poolName, final String host, final String channel, final int port, final int pcfWait, final int pcfExpiry) {
+		this(poolName, host, channel, port, pcfWait, pcfExpiry, false, DEFAULT_MAX_IN_FLIGHT, null, null, null, null, null, null);
 	}
 	
 	/**
@@ -122,6 +184,38 @@ public class SubPool {
 		return pcfExpiry;
 	}
 
+	public boolean isMultiplexed() {
+		return multiplexed;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public JsonNode getPoolConfig() {
+		return poolConfig;
+	}
+
+	public JsonNode getAdaptive() {
+		return adaptive;
+	}
+
+	public JsonNode getHedge() {
+		return hedge;
+	}
+
+	public JsonNode getEvents() {
+		return events;
+	}
+
+	public String getPoolType() {
+		return poolType;
+	}
+
+	public ConnectionNameList getConnections() {
+		return connections;
+	}
+
 	public PoolKey getPoolKey() {
 		return key;
 	}
@@ -0,0 +1,67 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: MQTest</p>
+ * <p>Description: Tests the grouping of queue names into generic inquiries for the bulk queue attribute calls</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.MQTest</code></p>
+ */
+
+public class MQTest {
+
+	static TreeSet<String> names(final String...names) {
+		return new TreeSet<String>(Arrays.asList(names));
+	}
+
+	/**
+	 * Names sharing a first segment are inquired with their longest common prefix, single names as themselves
+	 */
+	@Test
+	public void prefixGroups() {
+		assertEquals(Arrays.asList("APP.ORDERS.*", "AUDIT", "SYS.LOG"),
+			MQ.prefixGroups(names("APP.ORDERS.IN", "APP.ORDERS.OUT", "SYS.LOG", "AUDIT"), 16));
+	}
+
+	/**
+	 * A group's inquiry runs as far as its names agree, which may be past the first segment
+	 */
+	@Test
+	public void prefixGroupsCommonPrefix() {
+		assertEquals(Collections.singletonList("APP.*"), MQ.prefixGroups(names("APP.ORDERS", "APP.TRADES"), 16));
+		assertEquals(Collections.singletonList("APP.ORD*"), MQ.prefixGroups(names("APP.ORDERS", "APP.ORDINALS"), 16));
+		// a name without a dot is its own segment, so it is not grouped with dotted names sharing its start
+		assertEquals(Arrays.asList("APP", "APP.ORDERS"), MQ.prefixGroups(names("APP", "APP.ORDERS"), 16));
+	}
+
+	/**
+	 * More groups than allowed fall back to one inquiry for all queues
+	 */
+	@Test
+	public void prefixGroupsOverflow() {
+		assertEquals(Arrays.asList("A.1", "B.1"), MQ.prefixGroups(names("A.1", "B.1"), 2));
+		assertEquals(Collections.singletonList("*"), MQ.prefixGroups(names("A.1", "B.1", "C.1"), 2));
+		assertEquals(Collections.emptyList(), MQ.prefixGroups(names(), 2));
+	}
+
+}
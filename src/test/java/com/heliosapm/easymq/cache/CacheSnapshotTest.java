@@ -0,0 +1,134 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.heliosapm.easymq.commands.QueueAttribute;
+import com.heliosapm.easymq.commands.QueueStatusTable;
+import com.ibm.mq.constants.CMQC;
+import com.ibm.mq.constants.CMQCFC;
+import com.ibm.mq.pcf.PCFMessage;
+
+/**
+ * <p>Title: CacheSnapshotTest</p>
+ * <p>Description: Tests the comparison of snapshot contents used to keep a snapshot's version when a reload changes nothing</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.cache.CacheSnapshotTest</code></p>
+ */
+
+public class CacheSnapshotTest {
+
+	static <K, V> CacheSnapshot<K, V> snapshot(final Map<K, V> contents) {
+		return new CacheSnapshot<K, V>(contents, 1L, 1L);
+	}
+
+	static Map<QueueAttribute, Object> attrs(final int depth, final int...onQTime) {
+		final Map<QueueAttribute, Object> map = new EnumMap<QueueAttribute, Object>(QueueAttribute.class);
+		map.put(QueueAttribute.NAME, "APP.ORDERS");
+		map.put(QueueAttribute.ADMIN, true);
+		map.put(QueueAttribute.QUEUE_DEPTH, depth);
+		map.put(QueueAttribute.ON_Q_TIME, onQTime);
+		return map;
+	}
+
+	static Map<QueueAttribute, Object> row(final int depth, final int...onQTime) {
+		final PCFMessage p = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q_STATUS);
+		p.addParameter(CMQC.MQCA_Q_NAME, "APP.ORDERS");
+		p.addParameter(CMQC.MQIA_CURRENT_Q_DEPTH, depth);
+		p.addParameter(CMQCFC.MQIACF_Q_TIME_INDICATOR, onQTime);
+		return QueueStatusTable.from(null, p).get("APP.ORDERS");
+	}
+
+	static Map<String, Object> contents(final Object value) {
+		final Map<String, Object> map = new HashMap<String, Object>();
+		map.put("APP.ORDERS", value);
+		return map;
+	}
+
+	/**
+	 * Map values compare by attribute and array values by value, whichever map implementation holds them
+	 */
+	@Test
+	public void sameContentsAcrossMapTypes() {
+		final CacheSnapshot<String, Object> enumMaps = snapshot(contents(attrs(812, 1500, 2200)));
+		final CacheSnapshot<String, Object> rows = snapshot(contents(row(812, 1500, 2200)));
+		assertTrue(enumMaps.sameContents(snapshot(contents(attrs(812, 1500, 2200)))));
+		assertTrue(enumMaps.sameContents(rows));
+		assertTrue(rows.sameContents(enumMaps));
+		assertTrue(rows.sameContents(snapshot(contents(row(812, 1500, 2200)))));
+		assertFalse(enumMaps.sameContents(snapshot(contents(row(813, 1500, 2200)))));
+		assertFalse(rows.sameContents(snapshot(contents(attrs(812, 1500, 2201)))));
+	}
+
+	/**
+	 * Maps with a missing or an extra attribute differ
+	 */
+	@Test
+	public void differentAttributes() {
+		final Map<QueueAttribute, Object> extra = attrs(812, 1500, 2200);
+		extra.put(QueueAttribute.OPEN_INPUTS, 0);
+		final CacheSnapshot<String, Object> base = snapshot(contents(attrs(812, 1500, 2200)));
+		assertFalse(base.sameContents(snapshot(contents(extra))));
+		assertFalse(snapshot(contents(extra)).sameContents(base));
+		final Map<QueueAttribute, Object> swapped = attrs(812, 1500, 2200);
+		swapped.remove(QueueAttribute.ADMIN);
+		swapped.put(QueueAttribute.OPEN_INPUTS, true);
+		assertFalse(base.sameContents(snapshot(contents(swapped))));
+	}
+
+	/**
+	 * Keys, null values and plain values are compared as well
+	 */
+	@Test
+	public void keysAndValues() {
+		final CacheSnapshot<String, Object> depth = snapshot(contents(812));
+		assertTrue(depth.sameContents(snapshot(contents(812))));
+		assertFalse(depth.sameContents(snapshot(contents(813))));
+		assertTrue(snapshot(contents(new String[]{"a", "b"})).sameContents(snapshot(contents(new String[]{"a", "b"}))));
+		assertTrue(snapshot(contents(null)).sameContents(snapshot(contents(null))));
+		assertFalse(snapshot(contents(null)).sameContents(depth));
+		final Map<String, Object> other = new HashMap<String, Object>();
+		other.put("APP.TRADES", null);
+		assertFalse(snapshot(contents(null)).sameContents(snapshot(other)));
+		other.put("APP.ORDERS", 812);
+		assertFalse(depth.sameContents(snapshot(other)));
+	}
+
+	/**
+	 * A snapshot copies its contents, and a restamped snapshot keeps the contents and version
+	 */
+	@Test
+	public void copyAndRestamp() {
+		final Map<String, Object> contents = contents(812);
+		final CacheSnapshot<String, Object> snapshot = new CacheSnapshot<String, Object>(contents, 7L, 3L);
+		contents.put("APP.TRADES", 0);
+		assertEquals(1, snapshot.size());
+		final CacheSnapshot<String, Object> restamped = snapshot.restamp(4L);
+		assertEquals(7L, restamped.getVersion());
+		assertEquals(4L, restamped.changes);
+		assertEquals(snapshot.getTimestamp(), restamped.getTimestamp());
+		assertTrue(restamped.sameContents(snapshot));
+		assertEquals(snapshot.etag(), restamped.etag());
+	}
+
+}
@@ -0,0 +1,164 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.heliosapm.easymq.commands.QueueAttribute;
+import com.heliosapm.easymq.commands.QueueStatusTable;
+import com.ibm.mq.constants.CMQC;
+import com.ibm.mq.constants.CMQCFC;
+import com.ibm.mq.pcf.PCFMessage;
+
+/**
+ * <p>Title: EntryWeigherTest</p>
+ * <p>Description: Tests the retained heap estimates and the weight tracked as entries enter and leave a cache</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.cache.EntryWeigherTest</code></p>
+ */
+
+public class EntryWeigherTest {
+
+	/**
+	 * Scalars, strings and arrays are estimated from their layout, shared instances are free
+	 */
+	@Test
+	public void estimateScalars() {
+		assertEquals(0L, EntryWeigher.estimate(null, 0));
+		assertEquals(0L, EntryWeigher.estimate(Boolean.TRUE, 0));
+		assertEquals(0L, EntryWeigher.estimate(QueueAttribute.NAME, 0));
+		assertEquals(16L, EntryWeigher.estimate(812, 0));
+		assertEquals(24L, EntryWeigher.estimate(812L, 0));
+		assertEquals(24L, EntryWeigher.estimate(new Date(), 0));
+		// 24 byte header plus a 16 byte array header and 2 bytes per char
+		assertEquals(24L + 40L, EntryWeigher.estimate("APP.ORDERS", 0));
+		assertEquals(24L + 16L, EntryWeigher.estimate("", 0));
+		assertEquals(24L, EntryWeigher.estimate(new int[]{1500, 2200}, 0));
+		assertEquals(32L, EntryWeigher.estimate(new long[]{1L, 2L}, 0));
+		assertEquals(24L, EntryWeigher.estimate(new byte[5], 0));
+		assertEquals(24L + 16L + 16L, EntryWeigher.estimate(new Integer[]{1, 2}, 0));
+	}
+
+	/**
+	 * Maps and collections are walked, an enum map's table is sized to its key universe
+	 */
+	@Test
+	public void estimateContainers() {
+		final Map<QueueAttribute, Object> attrs = new EnumMap<QueueAttribute, Object>(QueueAttribute.class);
+		attrs.put(QueueAttribute.QUEUE_DEPTH, 812);
+		attrs.put(QueueAttribute.ADMIN, true);
+		final long slots = QueueAttribute.values().length;
+		assertEquals(48L + align(16 + 4 * slots) + 16L, EntryWeigher.estimate(attrs, 0));
+		final Map<String, Object> map = new HashMap<String, Object>();
+		map.put("", 1);
+		assertEquals(48L + align(16 + 4 * 16) + 32L + 40L + 16L, EntryWeigher.estimate(map, 0));
+		assertEquals(40L + 24L + 32L, EntryWeigher.estimate(new ArrayList<Object>(Arrays.asList(1, 2)), 0));
+		// more than 12 entries doubles the hash table
+		final Map<Integer, Integer> large = new HashMap<Integer, Integer>();
+		for(int i = 0; i < 13; i++) large.put(i, i);
+		assertEquals(48L + align(16 + 4 * 32) + 13 * (32L + 16L + 16L), EntryWeigher.estimate(large, 0));
+	}
+
+	/**
+	 * Nesting past the maximum depth is counted as a single object
+	 */
+	@Test
+	public void estimateDepthBound() {
+		Object nested = "x";
+		for(int i = 0; i < 20; i++) nested = Arrays.asList(nested);
+		final long bytes = EntryWeigher.estimate(nested, 0);
+		assertTrue(bytes > 0 && bytes < 20 * (40L + 24L));
+	}
+
+	/**
+	 * The tracked weight follows entries in and out of the cache
+	 */
+	@Test
+	public void tracksWeight() {
+		final AtomicLong total = new AtomicLong();
+		final EntryWeigher weigher = new EntryWeigher(total);
+		final Cache<Object, Object> cache = CacheBuilder.newBuilder().maximumWeight(1 << 20).weigher(weigher).removalListener(weigher).build();
+		cache.put("APP.ORDERS", 812);
+		assertEquals(EntryWeigher.entryBytes("APP.ORDERS", 812), weigher.getWeight());
+		cache.put("APP.ORDERS", 812L);
+		assertEquals(EntryWeigher.entryBytes("APP.ORDERS", 812L), weigher.getWeight());
+		assertEquals(weigher.getWeight(), total.get());
+		cache.invalidateAll();
+		assertEquals(0L, weigher.getWeight());
+		assertEquals(0L, total.get());
+	}
+
+	/**
+	 * The columns of a queue status table are tracked once while any of its rows is cached
+	 */
+	@Test
+	public void tracksSharedTableOnce() {
+		final EntryWeigher weigher = new EntryWeigher(new AtomicLong());
+		final Cache<Object, Object> cache = CacheBuilder.newBuilder().maximumWeight(1 << 20).weigher(weigher).removalListener(weigher).build();
+		final QueueStatusTable table = QueueStatusTable.from(null, status("APP.ORDERS", 812), status("APP.TRADES", 0), status("SYS.LOG", 3));
+		cache.putAll(table);
+		long rows = 0L;
+		for(String name: table.keySet()) rows += EntryWeigher.ENTRY_OVERHEAD + EntryWeigher.estimate(name, 0) + QueueStatusTable.VIEW_BYTES;
+		assertEquals(table.columnBytes() + rows, weigher.getWeight());
+		// the columns stay retained until the last row leaves
+		cache.invalidate("APP.ORDERS");
+		cache.invalidate("APP.TRADES");
+		assertEquals(table.columnBytes() + EntryWeigher.ENTRY_OVERHEAD + EntryWeigher.estimate("SYS.LOG", 0) + QueueStatusTable.VIEW_BYTES, weigher.getWeight());
+		// a depth update is a view over the same columns
+		cache.put("SYS.LOG", QueueStatusTable.withDepth(table.get("SYS.LOG"), 4));
+		assertEquals(table.columnBytes() + EntryWeigher.ENTRY_OVERHEAD + EntryWeigher.estimate("SYS.LOG", 0) + QueueStatusTable.DEPTH_VIEW_BYTES, weigher.getWeight());
+		// replacing the last row with a row of another table releases the first table's columns
+		final QueueStatusTable reloaded = QueueStatusTable.from(null, status("SYS.LOG", 5));
+		cache.put("SYS.LOG", reloaded.get("SYS.LOG"));
+		assertEquals(reloaded.columnBytes() + EntryWeigher.ENTRY_OVERHEAD + EntryWeigher.estimate("SYS.LOG", 0) + QueueStatusTable.VIEW_BYTES, weigher.getWeight());
+		cache.invalidateAll();
+		cache.cleanUp();
+		assertEquals(0L, weigher.getWeight());
+	}
+
+	/**
+	 * A view's weight bounding the cache is its share of the table's columns
+	 */
+	@Test
+	public void sharedWeightBoundsByShare() {
+		final QueueStatusTable table = QueueStatusTable.from(null, status("APP.ORDERS", 812), status("APP.TRADES", 0));
+		final Object row = table.get("APP.ORDERS");
+		assertEquals(QueueStatusTable.VIEW_BYTES + table.columnBytes() / 2, EntryWeigher.estimate(row, 0));
+	}
+
+	static PCFMessage status(final String name, final int depth) {
+		final PCFMessage p = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q_STATUS);
+		p.addParameter(CMQC.MQCA_Q_NAME, name);
+		p.addParameter(CMQC.MQIA_CURRENT_Q_DEPTH, depth);
+		return p;
+	}
+
+	private static long align(final long bytes) {
+		return (bytes + 7L) & ~7L;
+	}
+
+}
@@ -0,0 +1,145 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.commands;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.heliosapm.easymq.commands.PCFFilter.Attribute;
+import com.heliosapm.easymq.commands.PCFFilter.Condition;
+import com.heliosapm.easymq.commands.PCFFilter.ObjectType;
+import com.heliosapm.easymq.commands.PCFFilter.Operator;
+import com.ibm.mq.constants.CMQC;
+
+/**
+ * <p>Title: PCFFilterTest</p>
+ * <p>Description: Tests parsing of filter expressions and the split between the conditions sent to the command server
+ * and those applied on the client.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.commands.PCFFilterTest</code></p>
+ */
+
+public class PCFFilterTest {
+
+	/**
+	 * The first attribute condition is pushed down, further ones and name conditions stay on the client
+	 */
+	@Test
+	public void parseSplitsConditions() {
+		final PCFFilter filter = PCFFilter.parse(ObjectType.QUEUE, "depth > 1000 && name like PRICE.* and ipprocs == 0");
+		assertEquals("PRICE.*", filter.genericName);
+		assertEquals(Attribute.DEPTH, filter.pushdown.attribute);
+		assertEquals(Operator.GREATER, filter.pushdown.operator);
+		assertEquals(1000, filter.pushdown.value);
+		assertEquals(2, filter.residual.size());
+		assertEquals(Attribute.QUEUE_NAME, filter.residual.get(0).attribute);
+		assertEquals(Attribute.OPEN_INPUTS, filter.residual.get(1).attribute);
+		assertTrue(filter.requiresAttributes());
+		assertArrayEquals(new int[]{CMQC.MQCA_Q_NAME, CMQC.MQIA_OPEN_INPUT_COUNT}, filter.responseAttributes());
+	}
+
+	/**
+	 * An empty expression lists every object by name only
+	 */
+	@Test
+	public void parseEmpty() {
+		for(String expr: new String[]{null, "", "   "}) {
+			final PCFFilter filter = PCFFilter.parse(ObjectType.TOPIC, expr);
+			assertEquals("*", filter.genericName);
+			assertNull(filter.pushdown);
+			assertTrue(filter.residual.isEmpty());
+			assertFalse(filter.requiresAttributes());
+		}
+	}
+
+	/**
+	 * Quoted values are unquoted, and the operators and attribute aliases are case insensitive
+	 */
+	@Test
+	public void parseValuesAndOperators() {
+		final PCFFilter filter = PCFFilter.parse(ObjectType.TOPIC, "TopicStr NOT  LIKE 'prices/*'");
+		assertEquals(Attribute.TOPIC_STRING, filter.pushdown.attribute);
+		assertEquals(Operator.NOT_LIKE, filter.pushdown.operator);
+		assertEquals("prices/*", filter.pushdown.value);
+		assertEquals(Operator.NOT_LESS, PCFFilter.parse(ObjectType.QUEUE, "curdepth>=5").pushdown.operator);
+	}
+
+	/**
+	 * Malformed conditions, unknown attributes and like on integers are rejected
+	 */
+	@Test
+	public void parseRejectsInvalid() {
+		for(String expr: new String[]{"depth", "depth > many", "depth like 5*", "topicstring == x", "depth ~ 5"}) {
+			try {
+				PCFFilter.parse(ObjectType.QUEUE, expr);
+				throw new AssertionError("Parsed [" + expr + "]");
+			} catch (IllegalArgumentException expected) {
+				/* No Op */
+			}
+		}
+	}
+
+	/**
+	 * Only exact names and names with a single trailing wildcard become the generic name
+	 */
+	@Test
+	public void genericName() {
+		assertEquals("APP.ORDERS", new Condition(Attribute.QUEUE_NAME, Operator.EQUAL, "APP.ORDERS").genericName());
+		assertEquals("APP.*", new Condition(Attribute.QUEUE_NAME, Operator.LIKE, "APP.*").genericName());
+		assertNull(new Condition(Attribute.QUEUE_NAME, Operator.LIKE, "APP.*.IN").genericName());
+		assertNull(new Condition(Attribute.QUEUE_NAME, Operator.NOT_LIKE, "APP.*").genericName());
+		assertNull(new Condition(Attribute.QUEUE_NAME, Operator.GREATER, "APP").genericName());
+		assertNull(new Condition(Attribute.QUEUE_DESC, Operator.EQUAL, "APP").genericName());
+		// as with the command server, only a trailing wildcard is generic, so the name is matched literally on the client
+		final PCFFilter filter = PCFFilter.parse(ObjectType.QUEUE, "name like APP.*.IN");
+		assertEquals("*", filter.genericName);
+		assertTrue(filter.matchesName("APP.*.IN"));
+		assertFalse(filter.matchesName("APP.X.IN"));
+	}
+
+	/**
+	 * The literal prefix stops at the first regex meta character, and drops a character a quantifier applies to
+	 */
+	@Test
+	public void literalPrefix() {
+		assertEquals("APP.ORDERS", PCFFilter.literalPrefix(Pattern.compile("^APP\\.ORDERS.*")));
+		assertEquals("APP.ORDER", PCFFilter.literalPrefix(Pattern.compile("APP\\.ORDERS?")));
+		assertEquals("APP.ORDER", PCFFilter.literalPrefix(Pattern.compile("APP\\.ORDERS{2}")));
+		assertEquals("APP", PCFFilter.literalPrefix(Pattern.compile("APP[0-9]+")));
+		assertEquals("", PCFFilter.literalPrefix(Pattern.compile("APP|SYS")));
+		assertEquals("", PCFFilter.literalPrefix(Pattern.compile("app.*", Pattern.CASE_INSENSITIVE)));
+		assertEquals("", PCFFilter.literalPrefix(Pattern.compile("\\w+")));
+		assertEquals("", PCFFilter.literalPrefix(null));
+	}
+
+	/**
+	 * A regex filter sends the include pattern's literal prefix and applies both patterns on the client
+	 */
+	@Test
+	public void regexFilter() {
+		final PCFFilter filter = PCFFilter.regex(ObjectType.QUEUE, Pattern.compile(".*\\.BACKOUT"), Pattern.compile("APP\\..*"));
+		assertEquals("APP.*", filter.genericName);
+		assertTrue(filter.matchesName("APP.ORDERS"));
+		assertFalse(filter.matchesName("APP.ORDERS.BACKOUT"));
+		assertFalse(filter.matchesName("SYS.ORDERS"));
+	}
+
+}
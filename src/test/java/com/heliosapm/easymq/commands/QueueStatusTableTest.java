@@ -0,0 +1,169 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.commands;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.ibm.mq.constants.CMQC;
+import com.ibm.mq.constants.CMQCFC;
+import com.ibm.mq.pcf.PCFMessage;
+
+/**
+ * <p>Title: QueueStatusTableTest</p>
+ * <p>Description: Tests the row views of the queue status table, their equality with each other and with other maps,
+ * and the rows built from single queues and depth updates</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.commands.QueueStatusTableTest</code></p>
+ */
+
+public class QueueStatusTableTest {
+
+	static PCFMessage status(final String name, final int depth, final int openInputs, final int...onQTime) {
+		final PCFMessage p = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q_STATUS);
+		p.addParameter(CMQC.MQCA_Q_NAME, name + "    ");
+		p.addParameter(CMQC.MQIA_CURRENT_Q_DEPTH, depth);
+		p.addParameter(CMQC.MQIA_OPEN_INPUT_COUNT, openInputs);
+		if(onQTime.length > 0) p.addParameter(CMQCFC.MQIACF_Q_TIME_INDICATOR, onQTime);
+		return p;
+	}
+
+	static QueueStatusTable table() {
+		return QueueStatusTable.from(null, status("SYS.LOG", 3, 0), status("APP.ORDERS", 812, 2, 1500, 2200), status("APP.TRADES", 0, 1, 10, 20));
+	}
+
+	static Map<QueueAttribute, Object> map(final String name, final int depth, final int openInputs, final int...onQTime) {
+		final Map<QueueAttribute, Object> map = new EnumMap<QueueAttribute, Object>(QueueAttribute.class);
+		map.put(QueueAttribute.NAME, name);
+		map.put(QueueAttribute.ADMIN, !name.startsWith("SYSTEM."));
+		map.put(QueueAttribute.QUEUE_DEPTH, depth);
+		map.put(QueueAttribute.OPEN_INPUTS, openInputs);
+		if(onQTime.length > 0) map.put(QueueAttribute.ON_Q_TIME, onQTime);
+		return map;
+	}
+
+	/**
+	 * Rows are sorted by name and hold only the attributes the responses carried
+	 */
+	@Test
+	public void rows() {
+		final QueueStatusTable table = table();
+		assertEquals(Arrays.asList("APP.ORDERS", "APP.TRADES", "SYS.LOG"), Arrays.asList(table.keySet().toArray()));
+		final Map<QueueAttribute, Object> orders = table.get("APP.ORDERS");
+		assertEquals(812, orders.get(QueueAttribute.QUEUE_DEPTH));
+		assertArrayEquals(new int[]{1500, 2200}, (int[])orders.get(QueueAttribute.ON_Q_TIME));
+		assertTrue(orders.containsKey(QueueAttribute.OPEN_INPUTS));
+		assertFalse(orders.containsKey(QueueAttribute.OPEN_OUTPUTS));
+		assertNull(orders.get(QueueAttribute.LAST_GET));
+		assertEquals(5, orders.size());
+		assertEquals(5, orders.entrySet().size());
+		assertEquals(4, table.get("SYS.LOG").size());
+		assertEquals(812, table.depth(table.row("APP.ORDERS")));
+		assertTrue(table.row("APP.MISSING") < 0);
+		assertNull(table.get("APP.MISSING"));
+	}
+
+	/**
+	 * Rows of tables built from the same responses are equal and hash alike, and differ if any column differs
+	 */
+	@Test
+	public void rowEquality() {
+		final QueueStatusTable a = table();
+		final QueueStatusTable b = table();
+		assertEquals(a.get("APP.ORDERS"), b.get("APP.ORDERS"));
+		assertEquals(a.get("APP.ORDERS").hashCode(), b.get("APP.ORDERS").hashCode());
+		assertEquals(a, b);
+		assertNotEquals(a.get("APP.ORDERS"), a.get("APP.TRADES"));
+		final QueueStatusTable deeper = QueueStatusTable.from(null, status("APP.ORDERS", 813, 2, 1500, 2200));
+		assertNotEquals(a.get("APP.ORDERS"), deeper.get("APP.ORDERS"));
+		final QueueStatusTable noTimes = QueueStatusTable.from(null, status("APP.ORDERS", 812, 2));
+		assertNotEquals(a.get("APP.ORDERS"), noTimes.get("APP.ORDERS"));
+	}
+
+	/**
+	 * A row equals a map of the same attributes, comparing the on queue times by value. The reverse comparison
+	 * is up to the other map, which compares the on queue times by identity.
+	 */
+	@Test
+	public void rowEqualsMaps() {
+		final Map<QueueAttribute, Object> orders = table().get("APP.ORDERS");
+		assertEquals(orders, map("APP.ORDERS", 812, 2, 1500, 2200));
+		assertNotEquals(orders, map("APP.ORDERS", 812, 2, 1500, 2201));
+		assertNotEquals(orders, map("APP.ORDERS", 812, 2));
+		final Map<QueueAttribute, Object> extra = map("APP.ORDERS", 812, 2, 1500, 2200);
+		extra.put(QueueAttribute.OPEN_OUTPUTS, 0);
+		assertNotEquals(orders, extra);
+		assertNotEquals(orders, "APP.ORDERS");
+	}
+
+	/**
+	 * A depth update overrides the depth over the same columns and leaves the table's row unchanged
+	 */
+	@Test
+	public void withDepth() {
+		final QueueStatusTable table = table();
+		final Map<QueueAttribute, Object> orders = table.get("APP.ORDERS");
+		final Map<QueueAttribute, Object> updated = QueueStatusTable.withDepth(orders, 5);
+		assertEquals(5, updated.get(QueueAttribute.QUEUE_DEPTH));
+		assertEquals(812, orders.get(QueueAttribute.QUEUE_DEPTH));
+		assertEquals(812, table.depth(table.row("APP.ORDERS")));
+		assertEquals(updated, map("APP.ORDERS", 5, 2, 1500, 2200));
+		assertEquals(QueueStatusTable.from(null, status("APP.ORDERS", 5, 2, 1500, 2200)).get("APP.ORDERS"), updated);
+		assertEquals(updated, QueueStatusTable.from(null, status("APP.ORDERS", 5, 2, 1500, 2200)).get("APP.ORDERS"));
+		assertEquals(QueueStatusTable.from(null, status("APP.ORDERS", 5, 2, 1500, 2200)).get("APP.ORDERS").hashCode(), updated.hashCode());
+		assertNotEquals(orders, updated);
+		assertEquals(orders, QueueStatusTable.withDepth(updated, 812));
+		assertEquals(5, updated.size());
+	}
+
+	/**
+	 * A depth update of a row without a depth adds it, and other maps are copied into a one row table
+	 */
+	@Test
+	public void withDepthAddsAndCopies() {
+		final PCFMessage noDepth = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q_STATUS);
+		noDepth.addParameter(CMQC.MQCA_Q_NAME, "APP.ORDERS");
+		final Map<QueueAttribute, Object> row = QueueStatusTable.from(null, noDepth).get("APP.ORDERS");
+		assertEquals(2, row.size());
+		final Map<QueueAttribute, Object> updated = QueueStatusTable.withDepth(row, 7);
+		assertEquals(3, updated.size());
+		assertEquals(7, updated.get(QueueAttribute.QUEUE_DEPTH));
+		final Map<QueueAttribute, Object> copied = QueueStatusTable.withDepth(map("APP.ORDERS", 812, 2, 1500, 2200), 9);
+		assertEquals(copied, map("APP.ORDERS", 9, 2, 1500, 2200));
+	}
+
+	/**
+	 * A one row table built from a queue's attributes holds the status and name derived attributes only
+	 */
+	@Test
+	public void single() {
+		final Map<QueueAttribute, Object> attrs = map("APP.ORDERS", 812, 2, 1500, 2200);
+		attrs.put(QueueAttribute.MAX_DEPTH, 5000);
+		attrs.put(QueueAttribute.DESCRIPTION, "Orders");
+		final Map<QueueAttribute, Object> row = QueueStatusTable.single("APP.ORDERS", attrs);
+		assertEquals(row, map("APP.ORDERS", 812, 2, 1500, 2200));
+		assertEquals(table().get("APP.ORDERS"), row);
+	}
+
+}
@@ -0,0 +1,174 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.DataOutput;
+
+import org.junit.Test;
+
+import com.heliosapm.easymq.commands.PCFFilter.ObjectType;
+import com.heliosapm.easymq.pool.AdminEventConsumer.Action;
+import com.heliosapm.easymq.pool.AdminEventConsumer.ObjectChange;
+import com.heliosapm.easymq.pool.AdminEventConsumer.QueueEvent;
+import com.heliosapm.easymq.pool.AdminEventConsumer.QueueEventType;
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.constants.CMQC;
+import com.ibm.mq.constants.CMQCFC;
+import com.ibm.mq.headers.pcf.MQCFGR;
+import com.ibm.mq.headers.pcf.MQCFIN;
+import com.ibm.mq.headers.pcf.MQCFST;
+import com.ibm.mq.headers.pcf.PCFParameter;
+import com.ibm.mq.pcf.PCFMessage;
+
+/**
+ * <p>Title: AdminEventConsumerTest</p>
+ * <p>Description: Tests decoding of configuration, command and performance events. The events are written the way the
+ * queue manager puts them and read back through {@link PCFMessage}, as the consumer does.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.pool.AdminEventConsumerTest</code></p>
+ */
+
+public class AdminEventConsumerTest {
+
+	/**
+	 * Builds an event message and reads it back as the consumer would
+	 * @param command The event command
+	 * @param reason The event reason
+	 * @param params The event parameters
+	 * @return the read event
+	 * @throws Exception thrown on any error
+	 */
+	static PCFMessage event(final int command, final int reason, final PCFParameter...params) throws Exception {
+		final com.ibm.mq.headers.pcf.PCFMessage pcf = new com.ibm.mq.headers.pcf.PCFMessage(CMQCFC.MQCFT_EVENT, command, 1, true);
+		for(PCFParameter p: params) pcf.addParameter(p);
+		final MQMessage message = new MQMessage();
+		pcf.write((DataOutput)message);
+		// the reason follows type, length, version, command, sequence, control and completion code in the MQCFH
+		message.seek(28);
+		message.writeInt(reason);
+		message.seek(0);
+		return new PCFMessage(message);
+	}
+
+	static MQCFGR group(final int parameter, final PCFParameter...params) {
+		final MQCFGR group = new MQCFGR();
+		group.setParameter(parameter);
+		for(PCFParameter p: params) group.addParameter(p);
+		return group;
+	}
+
+	static PCFMessage commandEvent(final int command, final PCFParameter...data) throws Exception {
+		return event(CMQCFC.MQCMD_COMMAND_EVENT, CMQC.MQRC_COMMAND_PCF,
+			group(CMQCFC.MQGACF_COMMAND_CONTEXT,
+				new MQCFST(CMQCFC.MQCACF_EVENT_USER_ID, "mqm"),
+				new MQCFIN(CMQCFC.MQIACF_COMMAND, command)),
+			group(CMQCFC.MQGACF_COMMAND_DATA, data));
+	}
+
+	/**
+	 * A command event reports the command in its context group and the object in its data group
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void commandEventCreatesQueue() throws Exception {
+		final ObjectChange change = AdminEventConsumer.decode(commandEvent(CMQCFC.MQCMD_CREATE_Q,
+			new MQCFST(CMQC.MQCA_Q_NAME, "APP.ORDERS  "), new MQCFIN(CMQC.MQIA_Q_TYPE, CMQC.MQQT_LOCAL)));
+		assertNotNull(change);
+		assertEquals(Action.CREATE, change.action);
+		assertEquals(ObjectType.QUEUE, change.type);
+		assertEquals("APP.ORDERS", change.name);
+		assertEquals(CMQC.MQQT_LOCAL, change.queueType);
+	}
+
+	/**
+	 * A copy creates the object named by the to name
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void commandEventCopyCreatesToName() throws Exception {
+		final ObjectChange change = AdminEventConsumer.decode(commandEvent(CMQCFC.MQCMD_COPY_Q,
+			new MQCFST(CMQCFC.MQCACF_FROM_Q_NAME, "APP.ORDERS"), new MQCFST(CMQCFC.MQCACF_TO_Q_NAME, "APP.ORDERS.COPY")));
+		assertEquals(Action.CREATE, change.action);
+		assertEquals("APP.ORDERS.COPY", change.name);
+	}
+
+	/**
+	 * Clears are changes, topic deletes are deletes
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void commandEventActions() throws Exception {
+		assertEquals(Action.CHANGE, AdminEventConsumer.decode(commandEvent(CMQCFC.MQCMD_CLEAR_Q,
+			new MQCFST(CMQC.MQCA_Q_NAME, "APP.ORDERS"))).action);
+		final ObjectChange change = AdminEventConsumer.decode(commandEvent(CMQCFC.MQCMD_DELETE_TOPIC,
+			new MQCFST(CMQC.MQCA_TOPIC_NAME, "PRICES")));
+		assertEquals(Action.DELETE, change.action);
+		assertEquals(ObjectType.TOPIC, change.type);
+		assertEquals("PRICES", change.name);
+	}
+
+	/**
+	 * Commands that do not change queues or topics, and command events without a context, are ignored
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void commandEventIgnored() throws Exception {
+		assertNull(AdminEventConsumer.decode(commandEvent(CMQCFC.MQCMD_CHANGE_CHANNEL,
+			new MQCFST(CMQCFC.MQCACH_CHANNEL_NAME, "SYSTEM.ADMIN.SVRCONN"))));
+		assertNull(AdminEventConsumer.decode(event(CMQCFC.MQCMD_COMMAND_EVENT, CMQC.MQRC_COMMAND_PCF,
+			group(CMQCFC.MQGACF_COMMAND_DATA, new MQCFST(CMQC.MQCA_Q_NAME, "APP.ORDERS")))));
+	}
+
+	/**
+	 * A configuration event carries the object type and the object's attributes
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void configEvent() throws Exception {
+		final ObjectChange change = AdminEventConsumer.decode(event(CMQCFC.MQCMD_CONFIG_EVENT, CMQC.MQRC_CONFIG_CHANGE_OBJECT,
+			new MQCFIN(CMQCFC.MQIACF_OBJECT_TYPE, CMQC.MQOT_TOPIC), new MQCFST(CMQC.MQCA_TOPIC_NAME, "PRICES"),
+			new MQCFST(CMQC.MQCA_TOPIC_STRING, "prices/fx")));
+		assertEquals(Action.CHANGE, change.action);
+		assertEquals(ObjectType.TOPIC, change.type);
+		assertEquals("PRICES", change.name);
+		assertEquals("prices/fx", change.topicString);
+		assertNull(AdminEventConsumer.decode(event(CMQCFC.MQCMD_CONFIG_EVENT, CMQC.MQRC_CONFIG_CREATE_OBJECT,
+			new MQCFIN(CMQCFC.MQIACF_OBJECT_TYPE, CMQC.MQOT_CHANNEL), new MQCFST(CMQCFC.MQCACH_CHANNEL_NAME, "TO.QM2"))));
+	}
+
+	/**
+	 * A depth event reports the queue in its base object name
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void performanceEvent() throws Exception {
+		final QueueEvent event = AdminEventConsumer.decodePerformance(event(CMQCFC.MQCMD_PERFM_EVENT, CMQC.MQRC_Q_DEPTH_HIGH,
+			new MQCFST(CMQC.MQCA_BASE_OBJECT_NAME, "APP.ORDERS  "), new MQCFIN(CMQC.MQIA_HIGH_Q_DEPTH, 812),
+			new MQCFIN(CMQC.MQIA_MSG_ENQ_COUNT, 900), new MQCFIN(CMQC.MQIA_MSG_DEQ_COUNT, 88)));
+		assertEquals(QueueEventType.DEPTH_HIGH, event.type);
+		assertEquals("APP.ORDERS", event.queueName);
+		assertEquals(812, event.highDepth);
+		assertEquals(900, event.enqueued);
+		assertEquals(88, event.dequeued);
+		assertEquals(-1, event.timeSinceReset);
+		assertEquals(-1, event.depth);
+		assertNull(AdminEventConsumer.decodePerformance(event(CMQCFC.MQCMD_PERFM_EVENT, CMQC.MQRC_Q_MGR_ACTIVE,
+			new MQCFST(CMQC.MQCA_BASE_OBJECT_NAME, "APP.ORDERS"))));
+	}
+
+}
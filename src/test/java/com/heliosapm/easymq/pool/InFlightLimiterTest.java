@@ -0,0 +1,159 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * <p>Title: InFlightLimiterTest</p>
+ * <p>Description: Tests the in-flight cap, the bounded wait queue and the reclaiming of slots held past the slot timeout.
+ * Waiting tasks are started on the releasing thread so the tests run deterministically.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.pool.InFlightLimiterTest</code></p>
+ */
+
+public class InFlightLimiterTest {
+	/** The scheduler timing out held slots */
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	/** The futures of the started tasks, in start order */
+	private final List<CompletableFuture<String>> started = new ArrayList<CompletableFuture<String>>();
+
+	@After
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	private CompletableFuture<String> submit(final InFlightLimiter limiter) {
+		return limiter.submit(() -> {
+			final CompletableFuture<String> f = new CompletableFuture<String>();
+			started.add(f);
+			return f;
+		});
+	}
+
+	static Throwable cause(final CompletableFuture<?> f) throws InterruptedException {
+		try {
+			f.get(5, TimeUnit.SECONDS);
+			return null;
+		} catch (ExecutionException eex) {
+			return eex.getCause();
+		} catch (TimeoutException tex) {
+			throw new AssertionError("The future did not complete");
+		}
+	}
+
+	/**
+	 * Requests over the limit wait, requests over the wait queue are rejected, and a completion starts the next waiter
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void limitsInFlightAndWaiting() throws Exception {
+		final InFlightLimiter limiter = new InFlightLimiter(2, 1, 60000, Runnable::run, scheduler);
+		final CompletableFuture<String> first = submit(limiter);
+		submit(limiter);
+		final CompletableFuture<String> third = submit(limiter);
+		assertEquals(2, started.size());
+		assertEquals(2, limiter.getInFlight());
+		assertEquals(1, limiter.getWaiting());
+		final CompletableFuture<String> fourth = submit(limiter);
+		assertTrue(cause(fourth) instanceof RejectedExecutionException);
+		assertEquals(1, limiter.getRejected());
+		started.get(0).complete("MQRC_NONE");
+		assertEquals("MQRC_NONE", first.get());
+		assertEquals(3, started.size());
+		assertEquals(2, limiter.getInFlight());
+		assertEquals(0, limiter.getWaiting());
+		assertFalse(third.isDone());
+		started.get(2).complete("third");
+		started.get(1).complete("second");
+		assertEquals("third", third.get());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	/**
+	 * A failed or throwing task fails its future and gives its slot back
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void failuresReleaseTheSlot() throws Exception {
+		final InFlightLimiter limiter = new InFlightLimiter(1, 0, 60000, Runnable::run, scheduler);
+		final IllegalStateException failure = new IllegalStateException("MQRC_CONNECTION_BROKEN");
+		assertEquals(failure, cause(limiter.<String>submit(() -> { throw failure; })));
+		assertEquals(0, limiter.getInFlight());
+		final CompletableFuture<String> failed = submit(limiter);
+		started.get(0).completeExceptionally(failure);
+		assertEquals(failure, cause(failed));
+		assertTrue(cause(limiter.<String>submit(() -> null)) instanceof IllegalStateException);
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	/**
+	 * A slot held past the slot timeout is reclaimed, the task is cancelled and its future fails with a timeout
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void reclaimsTimedOutSlots() throws Exception {
+		final InFlightLimiter limiter = new InFlightLimiter(1, 1, 50, Runnable::run, scheduler);
+		final CompletableFuture<String> lost = submit(limiter);
+		final CompletableFuture<String> next = submit(limiter);
+		assertTrue(cause(lost) instanceof TimeoutException);
+		// the task is cancelled just after its caller's future fails
+		try {
+			started.get(0).get(5, TimeUnit.SECONDS);
+			throw new AssertionError("The timed out task was not cancelled");
+		} catch (CancellationException expected) {
+			/* No Op */
+		}
+		assertEquals(1, limiter.getTimedOut());
+		// the reclaimed slot started the waiter
+		assertEquals(2, started.size());
+		started.get(1).complete("next");
+		assertEquals("next", next.get());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	/**
+	 * Invalid limits are rejected
+	 */
+	@Test
+	public void rejectsInvalidSettings() {
+		final Object[][] settings = {{0, 1, 1L}, {1, -1, 1L}, {1, 1, 0L}};
+		for(Object[] s: settings) {
+			try {
+				new InFlightLimiter((Integer)s[0], (Integer)s[1], (Long)s[2], Runnable::run, scheduler);
+				throw new AssertionError("Accepted " + Arrays.toString(s));
+			} catch (IllegalArgumentException expected) {
+				/* No Op */
+			}
+		}
+	}
+
+}
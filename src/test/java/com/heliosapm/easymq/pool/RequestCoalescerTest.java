@@ -0,0 +1,195 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.heliosapm.easymq.metrics.MetricsService;
+import com.ibm.mq.constants.CMQC;
+import com.ibm.mq.constants.CMQCFC;
+import com.ibm.mq.pcf.PCFMessage;
+
+/**
+ * <p>Title: RequestCoalescerTest</p>
+ * <p>Description: Tests the canonical request signature and the sharing of one response between concurrent identical requests</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.pool.RequestCoalescerTest</code></p>
+ */
+
+public class RequestCoalescerTest {
+	/** The meter marked when a request joins one in flight, shared by all coalescers */
+	static final Meter COALESCED = MetricsService.getInstance().getRegistry().meter(MetricRegistry.name("pcf", "coalesced"));
+
+	static PCFMessage depthRequest(final String generic, final int...attrs) {
+		final PCFMessage request = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q);
+		request.addParameter(CMQC.MQCA_Q_NAME, generic);
+		request.addParameter(CMQC.MQIA_Q_TYPE, CMQC.MQQT_LOCAL);
+		request.addParameter(CMQCFC.MQIACF_Q_ATTRS, attrs);
+		return request;
+	}
+
+	/**
+	 * The same parameters added in a different order produce the same signature
+	 */
+	@Test
+	public void signatureIgnoresParameterOrder() {
+		final PCFMessage reordered = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q);
+		reordered.addParameter(CMQCFC.MQIACF_Q_ATTRS, new int[]{CMQC.MQIA_CURRENT_Q_DEPTH});
+		reordered.addParameter(CMQC.MQIA_Q_TYPE, CMQC.MQQT_LOCAL);
+		reordered.addParameter(CMQC.MQCA_Q_NAME, "APP.*");
+		assertEquals(RequestCoalescer.signature(depthRequest("APP.*", CMQC.MQIA_CURRENT_Q_DEPTH)), RequestCoalescer.signature(reordered));
+	}
+
+	/**
+	 * The command, every parameter value, and filter operators and values distinguish requests
+	 */
+	@Test
+	public void signatureDistinguishesRequests() {
+		final String base = RequestCoalescer.signature(depthRequest("APP.*", CMQC.MQIA_CURRENT_Q_DEPTH));
+		assertNotEquals(base, RequestCoalescer.signature(depthRequest("SYS.*", CMQC.MQIA_CURRENT_Q_DEPTH)));
+		assertNotEquals(base, RequestCoalescer.signature(depthRequest("APP.*", CMQC.MQIA_MAX_Q_DEPTH)));
+		final PCFMessage names = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q_NAMES);
+		names.addParameter(CMQC.MQCA_Q_NAME, "APP.*");
+		final PCFMessage status = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q_STATUS);
+		status.addParameter(CMQC.MQCA_Q_NAME, "APP.*");
+		assertNotEquals(RequestCoalescer.signature(names), RequestCoalescer.signature(status));
+		final PCFMessage greater = depthRequest("*", CMQC.MQIA_CURRENT_Q_DEPTH);
+		greater.addFilterParameter(CMQC.MQIA_CURRENT_Q_DEPTH, CMQCFC.MQCFOP_GREATER, 1000);
+		final PCFMessage less = depthRequest("*", CMQC.MQIA_CURRENT_Q_DEPTH);
+		less.addFilterParameter(CMQC.MQIA_CURRENT_Q_DEPTH, CMQCFC.MQCFOP_LESS, 1000);
+		final PCFMessage lessMore = depthRequest("*", CMQC.MQIA_CURRENT_Q_DEPTH);
+		lessMore.addFilterParameter(CMQC.MQIA_CURRENT_Q_DEPTH, CMQCFC.MQCFOP_LESS, 2000);
+		assertNotEquals(RequestCoalescer.signature(greater), RequestCoalescer.signature(less));
+		assertNotEquals(RequestCoalescer.signature(less), RequestCoalescer.signature(lessMore));
+	}
+
+	/**
+	 * Callers arriving while an identical request is in flight share its response, each with its own array
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void concurrentRequestsShareOneRoundTrip() throws Exception {
+		final RequestCoalescer coalescer = new RequestCoalescer(true);
+		final PoolKey key = PoolKey.poolKey("localhost", "SYSTEM.DEF.SVRCONN", 1414);
+		final PCFMessage[] response = new PCFMessage[]{new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q)};
+		final AtomicInteger sent = new AtomicInteger();
+		final CountDownLatch sending = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CompletableFuture<PCFMessage[]> first = CompletableFuture.supplyAsync(() -> coalescer.execute(key, depthRequest("APP.*"), () -> {
+			sent.incrementAndGet();
+			sending.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException iex) {
+				throw new RuntimeException(iex);
+			}
+			return response;
+		}));
+		sending.await(5, TimeUnit.SECONDS);
+		final long joined = COALESCED.getCount();
+		final CompletableFuture<PCFMessage[]> second = CompletableFuture.supplyAsync(() -> coalescer.execute(key, depthRequest("APP.*"), () -> {
+			sent.incrementAndGet();
+			return new PCFMessage[0];
+		}));
+		awaitJoined(joined);
+		release.countDown();
+		assertSame(response, first.get(5, TimeUnit.SECONDS));
+		final PCFMessage[] shared = second.get(5, TimeUnit.SECONDS);
+		assertNotSame(response, shared);
+		assertSame(response[0], shared[0]);
+		assertEquals(1, sent.get());
+		assertEquals(0, coalescer.getInFlightCount());
+	}
+
+	/**
+	 * Nothing is kept once a request completes, and a disabled coalescer sends every request
+	 */
+	@Test
+	public void completedRequestsAreNotShared() {
+		final PoolKey key = PoolKey.poolKey("localhost", "SYSTEM.DEF.SVRCONN", 1414);
+		for(boolean enabled: new boolean[]{true, false}) {
+			final RequestCoalescer coalescer = new RequestCoalescer(enabled);
+			final AtomicInteger sent = new AtomicInteger();
+			for(int i = 0; i < 3; i++) {
+				coalescer.execute(key, depthRequest("APP.*"), () -> {
+					sent.incrementAndGet();
+					return new PCFMessage[0];
+				});
+			}
+			assertEquals(3, sent.get());
+		}
+	}
+
+	/**
+	 * A failed request fails the callers sharing it with the same exception
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void failureIsShared() throws Exception {
+		final RequestCoalescer coalescer = new RequestCoalescer(true);
+		final PoolKey key = PoolKey.poolKey("localhost", "SYSTEM.DEF.SVRCONN", 1414);
+		final IllegalStateException failure = new IllegalStateException("MQRC_Q_MGR_NOT_AVAILABLE");
+		final CountDownLatch sending = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CompletableFuture<Throwable> first = CompletableFuture.supplyAsync(() -> caught(() -> coalescer.execute(key, depthRequest("APP.*"), () -> {
+			sending.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException iex) {
+				throw new RuntimeException(iex);
+			}
+			throw failure;
+		})));
+		sending.await(5, TimeUnit.SECONDS);
+		final long joined = COALESCED.getCount();
+		final CompletableFuture<Throwable> second = CompletableFuture.supplyAsync(() -> caught(() -> coalescer.execute(key, depthRequest("APP.*"), () -> new PCFMessage[0])));
+		awaitJoined(joined);
+		release.countDown();
+		assertSame(failure, first.get(5, TimeUnit.SECONDS));
+		assertSame(failure, second.get(5, TimeUnit.SECONDS));
+	}
+
+	static Throwable caught(final Runnable task) {
+		try {
+			task.run();
+			return null;
+		} catch (Throwable t) {
+			return t;
+		}
+	}
+
+	/**
+	 * Waits for a caller to join the request in flight
+	 * @param joined The number of joined requests before the caller was started
+	 * @throws InterruptedException thrown if interrupted while waiting
+	 */
+	static void awaitJoined(final long joined) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 5000;
+		while(COALESCED.getCount()==joined && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		assertEquals(joined + 1, COALESCED.getCount());
+	}
+
+}
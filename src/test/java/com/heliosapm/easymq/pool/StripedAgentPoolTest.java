@@ -0,0 +1,198 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.easymq.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.ibm.mq.pcf.PCFMessageAgent;
+
+/**
+ * <p>Title: StripedAgentPoolTest</p>
+ * <p>Description: Tests borrowing from and returning to the striped agent pool with agents which are not connected</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.easymq.pool.StripedAgentPoolTest</code></p>
+ */
+
+public class StripedAgentPoolTest {
+	/** The pool key of the test agents */
+	static final PoolKey KEY = PoolKey.poolKey("localhost", "SYSTEM.DEF.SVRCONN", 1414);
+
+	/**
+	 * <p>Title: TestFactory</p>
+	 * <p>Description: Creates unconnected agents and fails validation of the agents it is told to</p>
+	 */
+	static class TestFactory extends PCFAgentPooledObjectFactory {
+		/** The number of agents created */
+		final AtomicInteger created = new AtomicInteger();
+		/** The number of validations */
+		final AtomicInteger validated = new AtomicInteger();
+		/** The agents which fail validation */
+		final Set<PCFMessageAgentWrapper> invalid = ConcurrentHashMap.newKeySet();
+
+		TestFactory() {
+			super(KEY);
+		}
+
+		@Override
+		public PCFMessageAgentWrapper create() {
+			created.incrementAndGet();
+			return new PCFMessageAgentWrapper(KEY, new PCFMessageAgent(), "QM1", true);
+		}
+
+		@Override
+		public boolean validateObject(final PooledObject<PCFMessageAgentWrapper> p) {
+			validated.incrementAndGet();
+			return !invalid.contains(p.getObject());
+		}
+	}
+
+	static StripedAgentPool pool(final TestFactory factory, final int maxTotal, final long maxWaitMillis, final boolean block, final long validateAfterIdleMillis) {
+		final GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+		config.setMaxTotal(maxTotal);
+		config.setMinIdle(maxTotal);
+		config.setMaxWaitMillis(maxWaitMillis);
+		config.setBlockWhenExhausted(block);
+		config.setTestOnBorrow(true);
+		return new StripedAgentPool(factory, config, JsonNodeFactory.instance.objectNode().put("validateAfterIdleMillis", validateAfterIdleMillis));
+	}
+
+	/**
+	 * A returned agent is borrowed again by the same thread, without validation while it was recently used
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void borrowReturnReusesAgent() throws Exception {
+		final TestFactory factory = new TestFactory();
+		final StripedAgentPool pool = pool(factory, 2, 1000, true, 60000);
+		final PCFMessageAgentWrapper agent = pool.borrowObject();
+		assertEquals(1, pool.getNumActive());
+		assertEquals(0, pool.getNumIdle());
+		pool.returnObject(agent);
+		assertEquals(0, pool.getNumActive());
+		assertEquals(1, pool.getNumIdle());
+		assertSame(agent, pool.borrowObject());
+		assertEquals(1, factory.created.get());
+		assertEquals(0, factory.validated.get());
+	}
+
+	/**
+	 * Agents are created up to the max size, then borrowers fail at once or after the max wait
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void exhausted() throws Exception {
+		final TestFactory factory = new TestFactory();
+		final StripedAgentPool failFast = pool(factory, 2, 1000, false, 60000);
+		assertNotSame(failFast.borrowObject(), failFast.borrowObject());
+		assertEquals(2, factory.created.get());
+		assertExhausted(failFast);
+		final StripedAgentPool waiting = pool(factory, 1, 50, true, 60000);
+		waiting.borrowObject();
+		final long start = System.nanoTime();
+		assertExhausted(waiting);
+		assertEquals(true, System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+		assertEquals(0, waiting.getNumWaiters());
+	}
+
+	static void assertExhausted(final StripedAgentPool pool) throws Exception {
+		try {
+			pool.borrowObject();
+			throw new AssertionError("Borrowed from an exhausted pool");
+		} catch (NoSuchElementException expected) {
+			/* No Op */
+		}
+	}
+
+	/**
+	 * A waiting borrower is handed the next returned agent
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void waiterGetsReturnedAgent() throws Exception {
+		final StripedAgentPool pool = pool(new TestFactory(), 1, 5000, true, 60000);
+		final PCFMessageAgentWrapper agent = pool.borrowObject();
+		final CompletableFuture<PCFMessageAgentWrapper> waiter = CompletableFuture.supplyAsync(() -> {
+			try {
+				return pool.borrowObject();
+			} catch (Exception ex) {
+				throw new RuntimeException(ex);
+			}
+		});
+		final long deadline = System.currentTimeMillis() + 5000;
+		while(pool.getNumWaiters()==0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		pool.returnObject(agent);
+		assertSame(agent, waiter.get(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * An agent idle past the validation age is validated on borrow, and replaced if it fails
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void validatesIdleAgents() throws Exception {
+		final TestFactory factory = new TestFactory();
+		final StripedAgentPool pool = pool(factory, 1, 1000, true, 0);
+		final PCFMessageAgentWrapper agent = pool.borrowObject();
+		final int validated = factory.validated.get();
+		pool.returnObject(agent);
+		Thread.sleep(1);
+		assertSame(agent, pool.borrowObject());
+		assertEquals(validated + 1, factory.validated.get());
+		pool.returnObject(agent);
+		factory.invalid.add(agent);
+		Thread.sleep(1);
+		final PCFMessageAgentWrapper replacement = pool.borrowObject();
+		assertNotSame(agent, replacement);
+		assertEquals(2, factory.created.get());
+		assertEquals(1, pool.getNumActive());
+	}
+
+	/**
+	 * Preparing the pool creates the min idle agents, and clearing it destroys them
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void prepareAndClear() throws Exception {
+		final TestFactory factory = new TestFactory();
+		final StripedAgentPool pool = pool(factory, 4, 1000, true, 60000);
+		pool.preparePool();
+		assertEquals(4, pool.getNumIdle());
+		assertEquals(4, factory.created.get());
+		pool.clear();
+		assertEquals(0, pool.getNumIdle());
+		assertEquals(0, pool.getNumActive());
+		pool.close();
+		try {
+			pool.borrowObject();
+			throw new AssertionError("Borrowed from a closed pool");
+		} catch (IllegalStateException expected) {
+			/* No Op */
+		}
+	}
+
+}